@@ -19,7 +19,16 @@
 package io.github.alechenninger.monarch;
 
 import io.github.alechenninger.monarch.apply.ApplyChangesInput;
+import io.github.alechenninger.monarch.apply.Shard;
+import io.github.alechenninger.monarch.compile.CompileInput;
+import io.github.alechenninger.monarch.diff.DiffInput;
+import io.github.alechenninger.monarch.flatten.FlattenInput;
+import io.github.alechenninger.monarch.lookup.LookupInput;
+import io.github.alechenninger.monarch.serve.ServeInput;
 import io.github.alechenninger.monarch.set.UpdateSetInput;
+import io.github.alechenninger.monarch.util.RecordWriter;
+import io.github.alechenninger.monarch.util.StatsFormat;
+import io.github.alechenninger.monarch.which.WhichInput;
 import io.github.alechenninger.monarch.yaml.YamlConfiguration;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.impl.Arguments;
@@ -97,10 +106,19 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
 
     Subparsers subparsers = parser.addSubparsers().dest(SUBPARSER_DEST)
         .title("commands")
-        .help("Pass --help to a command for more information.");
+        .help("Pass --help to a command for more information. Separate commands with " +
+            "--then to run them in order in one process, stopping at the first which fails. " +
+            "Commands run together parse each file only once, unless an earlier command " +
+            "writes to it.");
 
     InputFactory<ApplyChangesInput> applyChangesFactory = applySpec.addToSubparsers(subparsers);
     InputFactory<UpdateSetInput> updateSetFactory = updateSetSpec.addToSubparsers(subparsers);
+    InputFactory<WhichInput> whichFactory = whichSpec.addToSubparsers(subparsers);
+    InputFactory<LookupInput> lookupFactory = lookupSpec.addToSubparsers(subparsers);
+    InputFactory<FlattenInput> flattenFactory = flattenSpec.addToSubparsers(subparsers);
+    InputFactory<ServeInput> serveFactory = serveSpec.addToSubparsers(subparsers);
+    InputFactory<CompileInput> compileFactory = compileSpec.addToSubparsers(subparsers);
+    InputFactory<DiffInput> diffFactory = diffSpec.addToSubparsers(subparsers);
 
     try {
       List<String> unknownArgs = new ArrayList<>();
@@ -111,7 +129,8 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
         String unknownArg = unknownArgs.get(0);
         UnrecognizedArgumentException cause = new UnrecognizedArgumentException(
             "unrecognized arguments: " + unknownArg, parser, unknownArg);
-        String helpMessage = getHelpMessage(parser, applyChangesFactory, updateSetFactory, parsed);
+        String helpMessage = getHelpMessage(parser, applyChangesFactory, updateSetFactory, whichFactory,
+            lookupFactory, flattenFactory, serveFactory, compileFactory, diffFactory, parsed);
 
         throw new MonarchArgParserException(helpMessage, cause);
       }
@@ -131,6 +150,48 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
               : Collections.emptyList();
         }
 
+        @Override
+        public List<WhichInput> getWhichCommands() {
+          return whichSpec.name().equals(subparser)
+              ? Collections.singletonList(whichFactory.getInput(parsed))
+              : Collections.emptyList();
+        }
+
+        @Override
+        public List<LookupInput> getLookupCommands() {
+          return lookupSpec.name().equals(subparser)
+              ? Collections.singletonList(lookupFactory.getInput(parsed))
+              : Collections.emptyList();
+        }
+
+        @Override
+        public List<FlattenInput> getFlattenCommands() {
+          return flattenSpec.name().equals(subparser)
+              ? Collections.singletonList(flattenFactory.getInput(parsed))
+              : Collections.emptyList();
+        }
+
+        @Override
+        public List<ServeInput> getServeCommands() {
+          return serveSpec.name().equals(subparser)
+              ? Collections.singletonList(serveFactory.getInput(parsed))
+              : Collections.emptyList();
+        }
+
+        @Override
+        public List<CompileInput> getCompileCommands() {
+          return compileSpec.name().equals(subparser)
+              ? Collections.singletonList(compileFactory.getInput(parsed))
+              : Collections.emptyList();
+        }
+
+        @Override
+        public List<DiffInput> getDiffCommands() {
+          return diffSpec.name().equals(subparser)
+              ? Collections.singletonList(diffFactory.getInput(parsed))
+              : Collections.emptyList();
+        }
+
         @Override
         public String getHelpMessage() {
           return parser.formatHelp();
@@ -173,7 +234,8 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
         helpArgs.add("--help");
 
         Namespace parsed = parser.parseKnownArgs(helpArgs.stream().toArray(String[]::new), null);
-        String helpMessage = getHelpMessage(parser, applyChangesFactory, updateSetFactory, parsed);
+        String helpMessage = getHelpMessage(parser, applyChangesFactory, updateSetFactory, whichFactory,
+            lookupFactory, flattenFactory, serveFactory, compileFactory, diffFactory, parsed);
 
         throw new MonarchArgParserException(helpMessage, e);
       } catch (AbortParsingException expected) {
@@ -181,7 +243,8 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
         expected.subparser.ifPresent(s -> attrs.put(SUBPARSER_DEST, s));
         Namespace parsed = new Namespace(attrs);
 
-        String helpMessage = getHelpMessage(parser, applyChangesFactory, updateSetFactory, parsed);
+        String helpMessage = getHelpMessage(parser, applyChangesFactory, updateSetFactory, whichFactory,
+            lookupFactory, flattenFactory, serveFactory, compileFactory, diffFactory, parsed);
 
         throw new MonarchArgParserException(helpMessage, e);
       } catch (ArgumentParserException ignored) {
@@ -193,13 +256,29 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
   }
 
   private String getHelpMessage(ArgumentParser parser, InputFactory<ApplyChangesInput>
-      applyChangesFactory, InputFactory<UpdateSetInput> updateSetFactory, Namespace parsed) {
+      applyChangesFactory, InputFactory<UpdateSetInput> updateSetFactory,
+      InputFactory<WhichInput> whichFactory, InputFactory<LookupInput> lookupFactory,
+      InputFactory<FlattenInput> flattenFactory, InputFactory<ServeInput> serveFactory,
+      InputFactory<CompileInput> compileFactory, InputFactory<DiffInput> diffFactory,
+      Namespace parsed) {
     String subparser = parsed.getString(SUBPARSER_DEST);
 
     if (applySpec.name().equals(subparser)) {
       return applyChangesFactory.getInput(parsed).getHelpMessage();
     } else if (updateSetSpec.name().equals(subparser)) {
       return updateSetFactory.getInput(parsed).getHelpMessage();
+    } else if (whichSpec.name().equals(subparser)) {
+      return whichFactory.getInput(parsed).getHelpMessage();
+    } else if (lookupSpec.name().equals(subparser)) {
+      return lookupFactory.getInput(parsed).getHelpMessage();
+    } else if (flattenSpec.name().equals(subparser)) {
+      return flattenFactory.getInput(parsed).getHelpMessage();
+    } else if (serveSpec.name().equals(subparser)) {
+      return serveFactory.getInput(parsed).getHelpMessage();
+    } else if (compileSpec.name().equals(subparser)) {
+      return compileFactory.getInput(parsed).getHelpMessage();
+    } else if (diffSpec.name().equals(subparser)) {
+      return diffFactory.getInput(parsed).getHelpMessage();
     } else {
       return parser.formatHelp();
     }
@@ -305,9 +384,10 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
           .nargs("+")
           .help(SHARED_CONFIG_HELP + "\n" +
               "\n" +
-              "Config values read are 'dataDir', 'outputDir', 'hierarchy', and 'dataFormats'. " +
-              "'dataFormats' has sub values for supported data formats, like 'yaml'. Each data " +
-              "format has its own options. 'yaml' has 'indent' and 'isolate'.");
+              "Config values read are 'dataDir', 'outputDir', 'hierarchy', 'cacheDir', and " +
+              "'dataFormats'. 'dataFormats' has sub values for supported data formats, like " +
+              "'yaml'. Each data format has its own options. 'yaml' has 'indent', 'isolate', " +
+              "and 'intern'.");
 
       subparser.addArgument("--hierarchy", "-h")
           .dest("hierarchy")
@@ -347,6 +427,18 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
               "  team:\n" +
               "    - team{A,B}\n" +
               "\n" +
+              "Variables with many values may instead declare their values with a regular " +
+              "expression, a numeric range, or a file with one value per line. These are only " +
+              "enumerated when all sources are needed; a regular expression never is, so " +
+              "variables using one must be assigned, for example by a target:\n" +
+              "inventory:\n" +
+              "  host:\n" +
+              "    regex: 'web-[0-9]+\\.company\\.com'\n" +
+              "  shard:\n" +
+              "    range: 001..500\n" +
+              "  node:\n" +
+              "    file: inventory/nodes.txt\n" +
+              "\n" +
               "Assignments in an inventory can imply other assignments, like so:\n" +
               "inventory:\n" +
               "  team:\n" +
@@ -397,6 +489,87 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
               "Defaults to config files (see --config), and if neither are set defaults to '" +
               YamlConfiguration.DEFAULT.updateIsolation().name().toLowerCase() + "'.");
 
+      subparser.addArgument("--cache-dir")
+          .dest("cache_dir")
+          .help("Path to a directory, such as '.monarch-cache', where parsed data sources are " +
+              "cached between runs. Data sources which have not changed since they were cached " +
+              "are read from the cache instead of parsed again. Sources are considered " +
+              "unchanged if their size and content hash match the cache. Generated sources are " +
+              "cached too, and are neither generated nor written again until their own data, " +
+              "their ancestors' data, or the changes to any of them differ. If not provided, " +
+              "will look for a value in config files with key 'cacheDir'. Without either, " +
+              "nothing is cached.");
+
+      subparser.addArgument("--stats")
+          .dest("stats")
+          .metavar("FORMAT")
+          .nargs("?")
+          .setConst("table")
+          .choices(Arrays.stream(StatsFormat.values())
+              .map(f -> f.toString().toLowerCase())
+              .collect(Collectors.toList()))
+          .help("Report where time went once done: wall and cpu time per phase (config, " +
+              "hierarchy, changes, parse, render, generate, write), as well as counts of sources " +
+              "parsed and written, bytes read and written, and cache hits and misses. Reported " +
+              "to stderr as a 'table' (the default) or a line of 'json'.");
+
+      subparser.addArgument("--profile")
+          .dest("profile")
+          .metavar("FILE")
+          .help("Record a Java Flight Recording of applying to FILE, including events for each " +
+              "source parsed, generated, and written, hierarchy rendering, and change " +
+              "resolution. Open the recording with JDK Mission Control or 'jfr print'. Requires " +
+              "a JDK which supports the jdk.jfr API.");
+
+      subparser.addArgument("--explain")
+          .dest("explain")
+          .metavar("FILE")
+          .help("Write a report to FILE explaining each generated source: a yaml document per " +
+              "source listing, for every key of every change applied to it, whether the desired " +
+              "value was already 'inherited', 'unmerged' or 'removed_redundant' because it is " +
+              "inherited, 'merged', 'put', or 'removed'. Recorded only when requested, so runs " +
+              "without it pay nothing; prefer this to --verbose to understand a changeset.");
+
+      subparser.addArgument("--shard")
+          .dest("shard")
+          .metavar("I/N")
+          .type((parser, arg, value) -> {
+            try {
+              return Shard.parse(value);
+            } catch (IllegalArgumentException e) {
+              throw new ArgumentParserException(e.getMessage(), e, parser);
+            }
+          })
+          .help("Apply only the I-th of N shards of the target's sources, where I counts from " +
+              "1. Sources are partitioned by which source directly beneath the target (or " +
+              "beneath the root, without a target) they descend from, by a hash of its path, so " +
+              "every run agrees. Each shard parses only its sources and what they inherit from, " +
+              "and writes only its sources; the first shard also writes the target. Running " +
+              "all N shards, on any number of machines, writes exactly what one run would.");
+
+      subparser.addArgument("--check")
+          .dest("check")
+          .action(Arguments.storeTrue())
+          .help("Instead of writing, check that the data directory is already in the state " +
+              "applying the changes would generate. Sources are generated in memory and " +
+              "compared with their current data; nothing is serialized or written, and no " +
+              "output directory is needed. Exits with 1 at the first source which differs, " +
+              "after logging its path. Useful to verify changesets in CI.");
+
+      subparser.addArgument("--check-all")
+          .dest("check_all")
+          .action(Arguments.storeTrue())
+          .help("Like --check, but reports every source which differs before exiting.");
+
+      subparser.addArgument("--watch", "-w")
+          .dest("watch")
+          .action(Arguments.storeTrue())
+          .help("After applying, keep watching the data directory, hierarchy, changes, and " +
+              "config files, and apply again whenever they are saved. Only modified files are " +
+              "parsed again, and only sources whose lineage includes a source with modified data " +
+              "or changes are regenerated and written. Stop with Ctrl-C. Stats, profiles, and " +
+              "explanations are not supported while watching.");
+
       return parsed -> new ApplyChangesInput() {
         @Override
         public Optional<String> getHierarchyPathOrYaml() {
@@ -458,6 +631,48 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
               .map(String::toUpperCase)
               .map(YamlConfiguration.Isolate::valueOf);
         }
+
+        @Override
+        public Optional<String> getCacheDir() {
+          return Optional.ofNullable(parsed.getString("cache_dir"));
+        }
+
+        @Override
+        public Optional<StatsFormat> getStatsFormat() {
+          return Optional.ofNullable(parsed.getString("stats"))
+              .map(String::toUpperCase)
+              .map(StatsFormat::valueOf);
+        }
+
+        @Override
+        public Optional<String> getProfilePath() {
+          return Optional.ofNullable(parsed.getString("profile"));
+        }
+
+        @Override
+        public Optional<String> getExplainPath() {
+          return Optional.ofNullable(parsed.getString("explain"));
+        }
+
+        @Override
+        public Optional<Shard> getShard() {
+          return Optional.ofNullable(parsed.get("shard"));
+        }
+
+        @Override
+        public boolean isWatch() {
+          return Optional.ofNullable(parsed.getBoolean("watch")).orElse(false);
+        }
+
+        @Override
+        public boolean isCheck() {
+          return Optional.ofNullable(parsed.getBoolean("check")).orElse(false) || isCheckAll();
+        }
+
+        @Override
+        public boolean isCheckAll() {
+          return Optional.ofNullable(parsed.getBoolean("check_all")).orElse(false);
+        }
       };
     }
   };
@@ -486,13 +701,14 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
 
       subparser.addArgument("--source", "-s", "--target", "-t")
           .dest("source")
-          .required(true)
           .nargs("+")
           .help("Identifies the change to operate on by its data source. May be defined as a " +
               "single data source path, or as a set of key=value pairs which evaluate to a " +
               "single source in a dynamic hierarchy. For example:\n" +
               "teams/myteam.yaml\n" +
-              "environment=qa team=ops");
+              "environment=qa team=ops\n" +
+              "\n" +
+              "Required unless a manifest is provided with --from.");
 
       subparser.addArgument("--put", "-p")
           .dest("put")
@@ -506,6 +722,29 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
           .help("List of keys to remove from the set block of a change.\n"
               + "Applied after 'put' so this may remove keys set by the 'put' argument.");
 
+      subparser.addArgument("--from", "-f")
+          .dest("from")
+          .metavar("MANIFEST")
+          .nargs("+")
+          .help("Paths to manifests, or inline yaml, of keys to put and remove for many sources " +
+              "at once. All of them are applied and the changes are written in a single pass. " +
+              "Each yaml document is an entry with a source, like those in changes, and optional " +
+              "'put' and 'remove' blocks which work like the arguments of the same names. For " +
+              "example:\n" +
+              "\n" +
+              "---\n" +
+              "source: teams/myteam.yaml\n" +
+              "put:\n" +
+              "  myapp::version: 2\n" +
+              "---\n" +
+              "source:\n" +
+              "  team: myteam\n" +
+              "  environment: stage\n" +
+              "remove:\n" +
+              "  - myapp::favorite_website\n" +
+              "\n" +
+              "Manifest entries are applied in order, before --put and --remove for --source.");
+
       subparser.addArgument("--hierarchy", "-h")
           .dest("hierarchy")
           .help("Optional path to hierarchy. Only used for sorting entries in the output " +
@@ -550,6 +789,12 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
               .orElse(Collections.emptyList());
         }
 
+        @Override
+        public List<String> getManifestPathsOrYaml() {
+          return Optional.ofNullable(parsed.<String>getList("from"))
+              .orElse(Collections.emptyList());
+        }
+
         @Override
         public Optional<String> getHierarchyPathOrYaml() {
           return Optional.ofNullable(parsed.getString("hierarchy"));
@@ -574,6 +819,558 @@ public class ArgParseMonarchArgParser implements MonarchArgParser {
     }
   };
 
+  private static final CommandSpec<WhichInput> whichSpec = new CommandSpec<WhichInput>() {
+    @Override
+    public String name() {
+      return "which";
+    }
+
+    @Override
+    public InputFactory<WhichInput> addToSubparsers(Subparsers subparsers) {
+      Subparser subparser = subparsers.addParser(name(), false)
+          .description("Finds which sources set keys, and which values the leaves of the " +
+              "hierarchy inherit for them. Outputs yaml with an entry per key. Each entry has " +
+              "the 'sources' which set the key mapped to the value they set, and the values " +
+              "'inherited' by leaves, each with the list of leaves which inherit it.")
+          .help("Finds which sources set keys, and which values leaves inherit.");
+
+      subparser.addArgument("-?", "--help")
+          .dest("which_help")
+          .action(new AbortParsingAction(Arguments.storeTrue(), name()))
+          .help("Show this message and exit.");
+
+      subparser.addArgument("keys")
+          .metavar("KEY")
+          .nargs("+")
+          .help("Keys to find.");
+
+      subparser.addArgument("--hierarchy", "-h")
+          .dest("hierarchy")
+          .help("Path to a yaml file describing the source hierarchy in paths relative to the " +
+              "data directory. If not provided, will look for a value in config files with key " +
+              "'hierarchy'. For more information about hierarchies, see: apply --help");
+
+      subparser.addArgument("--data-dir", "-d")
+          .dest("data_dir")
+          .help("Path to where existing data sources live. If not provided, will look for a " +
+              "value in config files with key 'dataDir'.");
+
+      subparser.addArgument("--merge-keys", "-m")
+          .dest("merge_keys")
+          .metavar("MERGE_KEY")
+          .nargs("+")
+          .help("Space-delimited list of keys which should be inherited with merge semantics. " +
+              "For more information, see: apply --help");
+
+      subparser.addArgument("--cache-dir")
+          .dest("cache_dir")
+          .help("Path to a directory where parsed data sources are cached between runs. For " +
+              "more information, see: apply --help");
+
+      subparser.addArgument("--configs", "--config")
+          .dest("configs")
+          .metavar("CONFIG")
+          .nargs("+")
+          .help(SHARED_CONFIG_HELP + "\n" +
+              "\n" +
+              "Config values read are 'dataDir', 'hierarchy', 'mergeKeys', and 'cacheDir'.");
+
+      return parsed -> new WhichInput() {
+        @Override
+        public List<String> getKeys() {
+          return Optional.ofNullable(parsed.<String>getList("keys"))
+              .orElse(Collections.emptyList());
+        }
+
+        @Override
+        public Optional<String> getHierarchyPathOrYaml() {
+          return Optional.ofNullable(parsed.getString("hierarchy"));
+        }
+
+        @Override
+        public Optional<String> getDataDir() {
+          return Optional.ofNullable(parsed.getString("data_dir"));
+        }
+
+        @Override
+        public List<String> getConfigPaths() {
+          return Optional.ofNullable(parsed.<String>getList("configs"))
+              .orElse(Collections.emptyList());
+        }
+
+        @Override
+        public List<String> getMergeKeys() {
+          return Optional.ofNullable(parsed.<String>getList("merge_keys"))
+              .orElse(Collections.emptyList());
+        }
+
+        @Override
+        public Optional<String> getCacheDir() {
+          return Optional.ofNullable(parsed.getString("cache_dir"));
+        }
+
+        @Override
+        public boolean isHelpRequested() {
+          return Optional.ofNullable(parsed.getBoolean("which_help")).orElse(false);
+        }
+
+        @Override
+        public String getHelpMessage() {
+          return subparser.formatHelp();
+        }
+      };
+    }
+  };
+
+  private static final CommandSpec<LookupInput> lookupSpec = new CommandSpec<LookupInput>() {
+    @Override
+    public String name() {
+      return "lookup";
+    }
+
+    @Override
+    public InputFactory<LookupInput> addToSubparsers(Subparsers subparsers) {
+      Subparser subparser = subparsers.addParser(name(), false)
+          .description("Looks up the values that targets inherit for keys. Every key is looked " +
+              "up for every target, and each data source is read at most once. A record is " +
+              "output for each target as soon as it is resolved, with the target's 'source', " +
+              "the 'values' of keys it has values for, and the keys it is 'missing' values for.")
+          .help("Looks up the values that targets inherit for keys.");
+
+      subparser.addArgument("-?", "--help")
+          .dest("lookup_help")
+          .action(new AbortParsingAction(Arguments.storeTrue(), name()))
+          .help("Show this message and exit.");
+
+      subparser.addArgument("--keys", "-k")
+          .dest("keys")
+          .metavar("KEY")
+          .nargs("+")
+          .help("Keys to look up.");
+
+      subparser.addArgument("--keys-file")
+          .dest("keys_file")
+          .help("Path to a file with a key to look up per line, or '-' to read them from stdin. " +
+              "Blank lines and lines starting with '#' are ignored.");
+
+      subparser.addArgument("--targets", "-t")
+          .dest("targets")
+          .metavar("TARGET")
+          .nargs("+")
+          .help("Targets to look up keys for. Each target is either a single data source path, " +
+              "or a quoted, space delimited set of key=value pairs which evaluate to a single " +
+              "source in a dynamic hierarchy. For example:\n" +
+              "teams/myteam.yaml 'environment=qa team=ops'");
+
+      subparser.addArgument("--targets-file")
+          .dest("targets_file")
+          .help("Path to a file with a target per line, or '-' to read them from stdin. Blank " +
+              "lines and lines starting with '#' are ignored.");
+
+      subparser.addArgument("--format", "-f")
+          .dest("format")
+          .choices(Arrays.stream(RecordWriter.Format.values())
+              .map(f -> f.toString().toLowerCase())
+              .collect(Collectors.toList()))
+          .help("Output each record as a yaml document or a line of json. Defaults to yaml.");
+
+      subparser.addArgument("--hierarchy", "-h")
+          .dest("hierarchy")
+          .help("Path to a yaml file describing the source hierarchy in paths relative to the " +
+              "data directory. If not provided, will look for a value in config files with key " +
+              "'hierarchy'. For more information about hierarchies, see: apply --help");
+
+      subparser.addArgument("--data-dir", "-d")
+          .dest("data_dir")
+          .help("Path to where existing data sources live. If not provided, will look for a " +
+              "value in config files with key 'dataDir'.");
+
+      subparser.addArgument("--merge-keys", "-m")
+          .dest("merge_keys")
+          .metavar("MERGE_KEY")
+          .nargs("+")
+          .help("Space-delimited list of keys which should be inherited with merge semantics. " +
+              "For more information, see: apply --help");
+
+      subparser.addArgument("--cache-dir")
+          .dest("cache_dir")
+          .help("Path to a directory where parsed data sources are cached between runs. For " +
+              "more information, see: apply --help");
+
+      subparser.addArgument("--configs", "--config")
+          .dest("configs")
+          .metavar("CONFIG")
+          .nargs("+")
+          .help(SHARED_CONFIG_HELP + "\n" +
+              "\n" +
+              "Config values read are 'dataDir', 'hierarchy', 'mergeKeys', and 'cacheDir'.");
+
+      return parsed -> new LookupInput() {
+        @Override
+        public List<String> getKeys() {
+          return Optional.ofNullable(parsed.<String>getList("keys"))
+              .orElse(Collections.emptyList());
+        }
+
+        @Override
+        public Optional<String> getKeysFile() {
+          return Optional.ofNullable(parsed.getString("keys_file"));
+        }
+
+        @Override
+        public List<String> getTargets() {
+          return Optional.ofNullable(parsed.<String>getList("targets"))
+              .orElse(Collections.emptyList());
+        }
+
+        @Override
+        public Optional<String> getTargetsFile() {
+          return Optional.ofNullable(parsed.getString("targets_file"));
+        }
+
+        @Override
+        public Optional<RecordWriter.Format> getFormat() {
+          return Optional.ofNullable(parsed.getString("format"))
+              .map(String::toUpperCase)
+              .map(RecordWriter.Format::valueOf);
+        }
+
+        @Override
+        public Optional<String> getHierarchyPathOrYaml() {
+          return Optional.ofNullable(parsed.getString("hierarchy"));
+        }
+
+        @Override
+        public Optional<String> getDataDir() {
+          return Optional.ofNullable(parsed.getString("data_dir"));
+        }
+
+        @Override
+        public List<String> getConfigPaths() {
+          return Optional.ofNullable(parsed.<String>getList("configs"))
+              .orElse(Collections.emptyList());
+        }
+
+        @Override
+        public List<String> getMergeKeys() {
+          return Optional.ofNullable(parsed.<String>getList("merge_keys"))
+              .orElse(Collections.emptyList());
+        }
+
+        @Override
+        public Optional<String> getCacheDir() {
+          return Optional.ofNullable(parsed.getString("cache_dir"));
+        }
+
+        @Override
+        public boolean isHelpRequested() {
+          return Optional.ofNullable(parsed.getBoolean("lookup_help")).orElse(false);
+        }
+
+        @Override
+        public String getHelpMessage() {
+          return subparser.formatHelp();
+        }
+      };
+    }
+  };
+
+  private static final CommandSpec<FlattenInput> flattenSpec = new CommandSpec<FlattenInput>() {
+    @Override
+    public String name() {
+      return "flatten";
+    }
+
+    @Override
+    public InputFactory<FlattenInput> addToSubparsers(Subparsers subparsers) {
+      Subparser subparser = subparsers.addParser(name(), false)
+          .description("Outputs the flattened data of sources in a hierarchy: every key:value " +
+              "pair each source inherits, with merge keys merged. Each source's data is derived " +
+              "from its ancestors' already flattened data, so flattening every source scales " +
+              "with the size of the data. A record is output for each source as soon as it is " +
+              "flattened, with the 'source' path and its flattened 'data'. By default, only " +
+              "sources without descendants (leaves) are output.")
+          .help("Outputs the flattened data of sources in a hierarchy.");
+
+      subparser.addArgument("-?", "--help")
+          .dest("flatten_help")
+          .action(new AbortParsingAction(Arguments.storeTrue(), name()))
+          .help("Show this message and exit.");
+
+      subparser.addArgument("--all", "-a")
+          .dest("all_sources")
+          .action(Arguments.storeTrue())
+          .help("Output every source in the hierarchy, not only leaves.");
+
+      subparser.addArgument("--format", "-f")
+          .dest("format")
+          .choices(Arrays.stream(RecordWriter.Format.values())
+              .map(f -> f.toString().toLowerCase())
+              .collect(Collectors.toList()))
+          .help("Output each record as a yaml document or a line of json. Defaults to yaml.");
+
+      subparser.addArgument("--hierarchy", "-h")
+          .dest("hierarchy")
+          .help("Path to a yaml file describing the source hierarchy in paths relative to the " +
+              "data directory. If not provided, will look for a value in config files with key " +
+              "'hierarchy'. For more information about hierarchies, see: apply --help");
+
+      subparser.addArgument("--data-dir", "-d")
+          .dest("data_dir")
+          .help("Path to where existing data sources live. If not provided, will look for a " +
+              "value in config files with key 'dataDir'.");
+
+      subparser.addArgument("--merge-keys", "-m")
+          .dest("merge_keys")
+          .metavar("MERGE_KEY")
+          .nargs("+")
+          .help("Space-delimited list of keys which should be inherited with merge semantics. " +
+              "For more information, see: apply --help");
+
+      subparser.addArgument("--cache-dir")
+          .dest("cache_dir")
+          .help("Path to a directory where parsed data sources are cached between runs. For " +
+              "more information, see: apply --help");
+
+      subparser.addArgument("--configs", "--config")
+          .dest("configs")
+          .metavar("CONFIG")
+          .nargs("+")
+          .help(SHARED_CONFIG_HELP + "\n" +
+              "\n" +
+              "Config values read are 'dataDir', 'hierarchy', 'mergeKeys', and 'cacheDir'.");
+
+      return parsed -> new FlattenInput() {
+        @Override
+        public boolean isAllSources() {
+          return Optional.ofNullable(parsed.getBoolean("all_sources")).orElse(false);
+        }
+
+        @Override
+        public Optional<RecordWriter.Format> getFormat() {
+          return Optional.ofNullable(parsed.getString("format"))
+              .map(String::toUpperCase)
+              .map(RecordWriter.Format::valueOf);
+        }
+
+        @Override
+        public Optional<String> getHierarchyPathOrYaml() {
+          return Optional.ofNullable(parsed.getString("hierarchy"));
+        }
+
+        @Override
+        public Optional<String> getDataDir() {
+          return Optional.ofNullable(parsed.getString("data_dir"));
+        }
+
+        @Override
+        public List<String> getConfigPaths() {
+          return Optional.ofNullable(parsed.<String>getList("configs"))
+              .orElse(Collections.emptyList());
+        }
+
+        @Override
+        public List<String> getMergeKeys() {
+          return Optional.ofNullable(parsed.<String>getList("merge_keys"))
+              .orElse(Collections.emptyList());
+        }
+
+        @Override
+        public Optional<String> getCacheDir() {
+          return Optional.ofNullable(parsed.getString("cache_dir"));
+        }
+
+        @Override
+        public boolean isHelpRequested() {
+          return Optional.ofNullable(parsed.getBoolean("flatten_help")).orElse(false);
+        }
+
+        @Override
+        public String getHelpMessage() {
+          return subparser.formatHelp();
+        }
+      };
+    }
+  };
+
+  private static final CommandSpec<ServeInput> serveSpec = new CommandSpec<ServeInput>() {
+    @Override
+    public String name() {
+      return "serve";
+    }
+
+    @Override
+    public InputFactory<ServeInput> addToSubparsers(Subparsers subparsers) {
+      Subparser subparser = subparsers.addParser(name(), false)
+          .description("Runs monarch as a long-lived server on the loopback interface, so " +
+              "commands skip JVM start up and reuse hierarchies, changes, and data sources " +
+              "parsed by earlier commands. Cached files are parsed again once they change. Send " +
+              "commands to the server by passing '--connect PORT_FILE' before any other " +
+              "arguments, or by setting the MONARCH_CONNECT environment variable to the port " +
+              "file; add '--stop' instead of a command to stop the server. Commands run one at " +
+              "a time, in the server's working directory, so clients must run from the same " +
+              "directory. Reading from stdin with '-' is not supported through the server.")
+          .help("Runs monarch as a server which caches parsed files between commands.");
+
+      subparser.addArgument("-?", "--help")
+          .dest("serve_help")
+          .action(new AbortParsingAction(Arguments.storeTrue(), name()))
+          .help("Show this message and exit.");
+
+      subparser.addArgument("--port", "-p")
+          .dest("port")
+          .type(Integer.class)
+          .help("Port to listen on. If not provided, any free port is used.");
+
+      subparser.addArgument("--port-file")
+          .dest("port_file")
+          .required(true)
+          .help("Path to a file to write the listening port and a random token to, for " +
+              "clients to connect with. Only the server's user may read the file, and requests " +
+              "without the token are rejected. The file is removed when the server stops.");
+
+      return parsed -> new ServeInput() {
+        @Override
+        public Optional<Integer> getPort() {
+          return Optional.ofNullable(parsed.getInt("port"));
+        }
+
+        @Override
+        public String getPortFile() {
+          return parsed.getString("port_file");
+        }
+
+        @Override
+        public boolean isHelpRequested() {
+          return Optional.ofNullable(parsed.getBoolean("serve_help")).orElse(false);
+        }
+
+        @Override
+        public String getHelpMessage() {
+          return subparser.formatHelp();
+        }
+      };
+    }
+  };
+
+  private static final CommandSpec<CompileInput> compileSpec = new CommandSpec<CompileInput>() {
+    @Override
+    public String name() {
+      return "compile";
+    }
+
+    @Override
+    public InputFactory<CompileInput> addToSubparsers(Subparsers subparsers) {
+      Subparser subparser = subparsers.addParser(name(), false)
+          .description("Validates a hierarchy file and compiles it, rendering every source " +
+              "with its lineage and descendants ahead of time. Values whose implied " +
+              "assignments conflict are errors, and nothing is compiled. Nodes which render no " +
+              "sources and sources shadowed by a descendant with the same path are warnings. " +
+              "The compiled hierarchy is written beside the hierarchy file, with the suffix '" +
+              CompiledHierarchyFile.SUFFIX + "'. Other commands given the same hierarchy file " +
+              "read the compiled hierarchy instead of rendering it, as long as neither the " +
+              "hierarchy file nor any inventory files it reads have changed since. Hierarchies " +
+              "with variables whose values cannot be listed, such as by regex, cannot be " +
+              "compiled.")
+          .help("Validates and compiles a hierarchy so other commands load it quickly.");
+
+      subparser.addArgument("-?", "--help")
+          .dest("compile_help")
+          .action(new AbortParsingAction(Arguments.storeTrue(), name()))
+          .help("Show this message and exit.");
+
+      subparser.addArgument("--hierarchy", "-h")
+          .dest("hierarchy")
+          .help("Path to a yaml file describing the source hierarchy. For more information " +
+              "about hierarchies, see: apply --help");
+
+      return parsed -> new CompileInput() {
+        @Override
+        public Optional<String> getHierarchyPath() {
+          return Optional.ofNullable(parsed.getString("hierarchy"));
+        }
+
+        @Override
+        public boolean isHelpRequested() {
+          return Optional.ofNullable(parsed.getBoolean("compile_help")).orElse(false);
+        }
+
+        @Override
+        public String getHelpMessage() {
+          return subparser.formatHelp();
+        }
+      };
+    }
+  };
+
+  private static final CommandSpec<DiffInput> diffSpec = new CommandSpec<DiffInput>() {
+    @Override
+    public String name() {
+      return "diff";
+    }
+
+    @Override
+    public InputFactory<DiffInput> addToSubparsers(Subparsers subparsers) {
+      Subparser subparser = subparsers.addParser(name(), false)
+          .description("Lists the sources in a hierarchy whose data files differ between two " +
+              "data directories, such as two checkouts, or an environment's expected and " +
+              "actual data. Files are compared by content hash without being parsed, so " +
+              "formatting differences count. Each subtree of the hierarchy is hashed from its " +
+              "sources, and only subtrees whose hashes differ are descended into. Exits with 1 " +
+              "if any sources differ.")
+          .help("Lists sources whose data differs between two data directories.");
+
+      subparser.addArgument("-?", "--help")
+          .dest("diff_help")
+          .action(new AbortParsingAction(Arguments.storeTrue(), name()))
+          .help("Show this message and exit.");
+
+      subparser.addArgument("--hierarchy", "-h")
+          .dest("hierarchy")
+          .help("Path to a yaml file describing the source hierarchy, or the hierarchy yaml " +
+              "itself. For more information about hierarchies, see: apply --help");
+
+      subparser.addArgument("--data-dir", "-d")
+          .dest("data_dirs")
+          .action(Arguments.append())
+          .help("Path to a data directory to compare. Pass exactly two.");
+
+      subparser.addArgument("--cache-dir")
+          .dest("cache_dir")
+          .help("Path to a directory, such as '.monarch-cache', where content hashes of data " +
+              "files are cached between runs. Files whose size and modified time have not " +
+              "changed since they were hashed are not read again.");
+
+      return parsed -> new DiffInput() {
+        @Override
+        public Optional<String> getHierarchyPathOrYaml() {
+          return Optional.ofNullable(parsed.getString("hierarchy"));
+        }
+
+        @Override
+        public List<String> getDataDirs() {
+          return Optional.ofNullable(parsed.<String>getList("data_dirs"))
+              .orElse(Collections.emptyList());
+        }
+
+        @Override
+        public Optional<String> getCacheDir() {
+          return Optional.ofNullable(parsed.getString("cache_dir"));
+        }
+
+        @Override
+        public boolean isHelpRequested() {
+          return Optional.ofNullable(parsed.getBoolean("diff_help")).orElse(false);
+        }
+
+        @Override
+        public String getHelpMessage() {
+          return subparser.formatHelp();
+        }
+      };
+    }
+  };
+
   static class AbortParsingException extends ArgumentParserException {
     final Optional<String> subparser;
     final Argument arg;
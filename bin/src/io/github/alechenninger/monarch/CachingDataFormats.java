@@ -0,0 +1,306 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import io.github.alechenninger.monarch.util.MoreFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Keeps parsed hierarchies, changes, config files, and data sources in memory across many
+ * commands, for a long running process such as {@code monarch serve}.
+ *
+ * <p>Entries are keyed by absolute path and are only used while the file's size and modified
+ * time are unchanged, along with those of any other files it depends on, so editing a file
+ * invalidates it. Like {@link SourceDataCache}, a file
+ * modified within {@link MoreFiles#RACY_WINDOW_MILLIS} of being cached is parsed again next time,
+ * since coarse timestamps may hide a second modification. Hierarchies and changes passed inline
+ * rather than as paths are not cached.
+ *
+ * <p>Cached objects are shared between commands, so callers must not modify them.
+ *
+ * <p>A {@link #forSession(DataFormats) session} cache lives only as long as one invocation, in
+ * which files are only expected to change when monarch writes them. It trusts recently modified
+ * files, so the same file is never parsed twice, and instead relies on being told what commands
+ * write with {@link #invalidate(Path)} and {@link #invalidateUnder(Path)}.
+ */
+public class CachingDataFormats implements DataFormats {
+  private final DataFormats delegate;
+  private final Map<Path, Entry<Hierarchy>> hierarchies;
+  private final Map<Path, Entry<List<Change>>> changes;
+  private final Map<Path, Entry<SourceData>> data;
+  private final Map<Path, Entry<Optional<SerializableConfig>>> configs;
+
+  /** Configured children, by a description of their configuration, so they live as long. */
+  private final Map<String, CachingDataFormats> configured;
+  private final boolean trustRecentlyModified;
+
+  private static final Logger log = LoggerFactory.getLogger(CachingDataFormats.class);
+
+  public CachingDataFormats(DataFormats delegate) {
+    this(delegate, false);
+  }
+
+  private CachingDataFormats(DataFormats delegate, boolean trustRecentlyModified) {
+    this.delegate = delegate;
+    this.trustRecentlyModified = trustRecentlyModified;
+    this.hierarchies = new ConcurrentHashMap<>();
+    this.changes = new ConcurrentHashMap<>();
+    this.data = new ConcurrentHashMap<>();
+    this.configs = new ConcurrentHashMap<>();
+    this.configured = new ConcurrentHashMap<>();
+  }
+
+  /** A cache for the commands of a single invocation. */
+  public static CachingDataFormats forSession(DataFormats delegate) {
+    return new CachingDataFormats(delegate, true);
+  }
+
+  @Override
+  public DataFormat yaml() {
+    return delegate.yaml();
+  }
+
+  @Override
+  public DataFormats withConfiguration(DataFormatsConfiguration config) {
+    String key = config.yamlConfiguration().map(Object::toString).orElse("default yaml") + ", " +
+        config.cacheDir().map(Path::toAbsolutePath).map(Object::toString).orElse("no cache dir");
+
+    return configured.computeIfAbsent(key,
+        k -> new CachingDataFormats(delegate.withConfiguration(config), trustRecentlyModified));
+  }
+
+  /**
+   * Hierarchies also depend on the files they read, such as files of inventory values, and on
+   * whether and how they are compiled, so they are parsed again once any of those change.
+   */
+  @Override
+  public Hierarchy parseHierarchy(String pathOrParseable, FileSystem fileSystem) {
+    return cached(hierarchies, pathOrParseable, fileSystem, trustRecentlyModified,
+        () -> delegate.parseHierarchy(pathOrParseable, fileSystem),
+        (path, hierarchy) -> {
+          List<Path> inputs = new ArrayList<>(CompiledHierarchy.inputsOf(hierarchy));
+          inputs.add(CompiledHierarchyFile.pathFor(path));
+          return inputs;
+        });
+  }
+
+  @Override
+  public List<Change> parseChanges(String pathOrParseable, FileSystem fileSystem) {
+    return cached(changes, pathOrParseable, fileSystem, trustRecentlyModified,
+        () -> delegate.parseChanges(pathOrParseable, fileSystem), noInputs());
+  }
+
+  @Override
+  public SourceData parseData(Path path) {
+    return cached(data, path, trustRecentlyModified, () -> delegate.parseData(path), noInputs());
+  }
+
+  /**
+   * Configs are shared, and so is the hierarchy they parse, so that commands only parse a config's
+   * hierarchy once. See {@link SerializableConfig#parsedHierarchy()}.
+   */
+  @Override
+  public Optional<SerializableConfig> parseConfig(Path path) {
+    return cached(configs, path, trustRecentlyModified, () -> delegate.parseConfig(path),
+        noInputs());
+  }
+
+  /** Drops every cached entry. */
+  public void clear() {
+    hierarchies.clear();
+    changes.clear();
+    data.clear();
+    configs.clear();
+    configured.values().forEach(CachingDataFormats::clear);
+  }
+
+  /** Drops whatever is cached for {@code path}, such as after writing to it. */
+  public void invalidate(Path path) {
+    invalidateIf(path.toAbsolutePath().normalize()::equals);
+  }
+
+  /** Drops whatever is cached for any file in {@code directory} or its subdirectories. */
+  public void invalidateUnder(Path directory) {
+    Path absolute = directory.toAbsolutePath().normalize();
+    invalidateIf(path -> path.startsWith(absolute));
+  }
+
+  private void invalidateIf(Predicate<Path> predicate) {
+    hierarchies.keySet().removeIf(predicate);
+    changes.keySet().removeIf(predicate);
+    data.keySet().removeIf(predicate);
+    configs.keySet().removeIf(predicate);
+    configured.values().forEach(formats -> formats.invalidateIf(predicate));
+  }
+
+  private static <T> T cached(Map<Path, Entry<T>> cache, String pathOrParseable,
+      FileSystem fileSystem, boolean trustRecentlyModified, Supplier<T> parse,
+      BiFunction<Path, T, Collection<Path>> inputs) {
+    final Path path;
+
+    try {
+      path = fileSystem.getPath(pathOrParseable);
+    } catch (InvalidPathException e) {
+      return parse.get();
+    }
+
+    return cached(cache, path, trustRecentlyModified, parse, inputs);
+  }
+
+  private static <T> BiFunction<Path, T, Collection<Path>> noInputs() {
+    return (path, value) -> Collections.emptyList();
+  }
+
+  /**
+   * @param inputs Other files the parsed value depends on, given the file it was parsed from.
+   * They may or may not exist.
+   */
+  private static <T> T cached(Map<Path, Entry<T>> cache, Path path,
+      boolean trustRecentlyModified, Supplier<T> parse,
+      BiFunction<Path, T, Collection<Path>> inputs) {
+    Path key = path.toAbsolutePath().normalize();
+    final FileStamp stamp;
+
+    try {
+      stamp = FileStamp.of(key);
+    } catch (IOException e) {
+      // Missing, or not a path at all. Either way, nothing to key an entry on.
+      cache.remove(key);
+      return parse.get();
+    }
+
+    Entry<T> entry = cache.get(key);
+
+    if (entry != null && entry.isCurrent(stamp, trustRecentlyModified)) {
+      Stats.count("memoryCache.hits");
+      return entry.value;
+    }
+
+    Stats.count("memoryCache.misses");
+    log.debug("Parsing {} (not cached or changed since)", key);
+
+    long parsedAt = System.currentTimeMillis();
+    T value = parse.get();
+    List<FileStamp> inputStamps = new ArrayList<>();
+
+    try {
+      for (Path input : inputs.apply(key, value)) {
+        inputStamps.add(FileStamp.orAbsent(input));
+      }
+    } catch (IOException e) {
+      log.debug("Not caching {}; unable to read the files it depends on", key, e);
+      cache.remove(key);
+      return value;
+    }
+
+    cache.put(key, new Entry<>(value, stamp, inputStamps, parsedAt));
+    return value;
+  }
+
+  private static class Entry<T> {
+    final T value;
+    final FileStamp stamp;
+    final List<FileStamp> inputs;
+    final long cachedAt;
+
+    Entry(T value, FileStamp stamp, List<FileStamp> inputs, long cachedAt) {
+      this.value = value;
+      this.stamp = stamp;
+      this.inputs = inputs;
+      this.cachedAt = cachedAt;
+    }
+
+    boolean isCurrent(FileStamp current, boolean trustRecentlyModified) {
+      if (!stamp.isUnchanged(current, cachedAt, trustRecentlyModified)) {
+        return false;
+      }
+
+      for (FileStamp input : inputs) {
+        try {
+          if (!input.isUnchanged(FileStamp.orAbsent(input.path), cachedAt,
+              trustRecentlyModified)) {
+            return false;
+          }
+        } catch (IOException e) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
+
+  /** Whether a file exists, and if so, its size and modified time. */
+  private static class FileStamp {
+    final Path path;
+    final boolean exists;
+    final long size;
+    final long modified;
+
+    FileStamp(Path path, boolean exists, long size, long modified) {
+      this.path = path;
+      this.exists = exists;
+      this.size = size;
+      this.modified = modified;
+    }
+
+    /** @throws IOException If the file does not exist or cannot be read. */
+    static FileStamp of(Path path) throws IOException {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      return new FileStamp(path, true, attributes.size(),
+          attributes.lastModifiedTime().toMillis());
+    }
+
+    static FileStamp orAbsent(Path path) throws IOException {
+      try {
+        return of(path);
+      } catch (NoSuchFileException e) {
+        return new FileStamp(path, false, -1, -1);
+      }
+    }
+
+    boolean isUnchanged(FileStamp current, long cachedAt, boolean trustRecentlyModified) {
+      if (!exists || !current.exists) {
+        return exists == current.exists;
+      }
+
+      return size == current.size && modified == current.modified &&
+          (trustRecentlyModified || MoreFiles.isModifiedWellBefore(modified, cachedAt));
+    }
+  }
+}
@@ -21,21 +21,55 @@ package io.github.alechenninger.monarch;
 import io.github.alechenninger.monarch.apply.ApplyChangesInput;
 import io.github.alechenninger.monarch.apply.ApplyChangesOptions;
 import io.github.alechenninger.monarch.apply.ApplyChangesService;
+import io.github.alechenninger.monarch.compile.CompileInput;
+import io.github.alechenninger.monarch.compile.CompileService;
+import io.github.alechenninger.monarch.diff.DiffInput;
+import io.github.alechenninger.monarch.diff.DiffService;
 import io.github.alechenninger.monarch.logging.Logging;
+import io.github.alechenninger.monarch.flatten.FlattenInput;
+import io.github.alechenninger.monarch.flatten.FlattenOptions;
+import io.github.alechenninger.monarch.flatten.FlattenService;
+import io.github.alechenninger.monarch.lookup.LookupInput;
+import io.github.alechenninger.monarch.lookup.LookupOptions;
+import io.github.alechenninger.monarch.lookup.LookupService;
+import io.github.alechenninger.monarch.serve.MonarchServer;
+import io.github.alechenninger.monarch.serve.ServeInput;
+import io.github.alechenninger.monarch.set.SetUpdate;
 import io.github.alechenninger.monarch.set.UpdateSetInput;
 import io.github.alechenninger.monarch.set.UpdateSetOptions;
 import io.github.alechenninger.monarch.set.UpdateSetService;
+import io.github.alechenninger.monarch.util.FileWatcher;
+import io.github.alechenninger.monarch.util.MoreFiles;
+import io.github.alechenninger.monarch.util.RecordWriter;
+import io.github.alechenninger.monarch.util.StatsFormat;
+import io.github.alechenninger.monarch.which.WhichInput;
+import io.github.alechenninger.monarch.which.WhichOptions;
+import io.github.alechenninger.monarch.which.WhichService;
 import io.github.alechenninger.monarch.yaml.YamlConfiguration;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 public class Cli {
@@ -45,18 +79,45 @@ public class Cli {
   private final MonarchArgParser parser;
   private final ApplyChangesService applyChangesService;
   private final UpdateSetService updateSetService;
+  private final Yaml outputYaml;
+  private final InputStream stdin;
+  private final OutputStream stdout;
+  private final OutputStream stderr;
+  private final boolean servingRequest;
+
+  /** Separates commands to run one after another with {@link #run(String...)}. */
+  public static final String THEN = "--then";
 
   private static final org.slf4j.Logger log = LoggerFactory.getLogger(Cli.class);
 
   public Cli(ApplyChangesService applyChangesService, UpdateSetService updateSetService,
       DataFormats dataFormats, OutputStream stdout, OutputStream stderr,
       DefaultConfigPaths defaultConfigPaths, FileSystem fileSystem) {
+    this(applyChangesService, updateSetService, dataFormats, System.in, stdout, stderr,
+        defaultConfigPaths, fileSystem);
+  }
+
+  public Cli(ApplyChangesService applyChangesService, UpdateSetService updateSetService,
+      DataFormats dataFormats, InputStream stdin, OutputStream stdout, OutputStream stderr,
+      DefaultConfigPaths defaultConfigPaths, FileSystem fileSystem) {
+    this(applyChangesService, updateSetService, dataFormats, stdin, stdout, stderr,
+        defaultConfigPaths, fileSystem, false);
+  }
+
+  private Cli(ApplyChangesService applyChangesService, UpdateSetService updateSetService,
+      DataFormats dataFormats, InputStream stdin, OutputStream stdout, OutputStream stderr,
+      DefaultConfigPaths defaultConfigPaths, FileSystem fileSystem, boolean servingRequest) {
     this.dataFormats = dataFormats;
     this.defaultConfigPaths = defaultConfigPaths;
     this.fileSystem = fileSystem;
     this.parser = new ArgParseMonarchArgParser(new DefaultAppInfo());
     this.applyChangesService = applyChangesService;
     this.updateSetService = updateSetService;
+    this.outputYaml = new Yaml(outputDumperOptions());
+    this.stdin = stdin;
+    this.stdout = stdout;
+    this.stderr = stderr;
+    this.servingRequest = servingRequest;
 
     Logging.outputTo(stdout, stderr);
     Logging.setLevel(Level.INFO);
@@ -66,7 +127,42 @@ public class Cli {
     return run(argsSpaceDelimited.split(" "));
   }
 
+  /**
+   * Runs the command described by {@code args}, or several in order when separated by
+   * {@value #THEN}, stopping at the first which fails. Commands in one run share parsed files.
+   *
+   * @return The exit code of the last command run.
+   */
   public int run(String... args) {
+    try {
+      // Files are parsed at most once per run, unless a command writes them.
+      CachingDataFormats session = CachingDataFormats.forSession(dataFormats);
+      List<String> command = new ArrayList<>();
+
+      for (String arg : args) {
+        if (!THEN.equals(arg)) {
+          command.add(arg);
+          continue;
+        }
+
+        int exitCode = runCommand(session, command.toArray(new String[0]));
+
+        if (exitCode != 0) {
+          return exitCode;
+        }
+
+        command.clear();
+      }
+
+      return runCommand(session, command.toArray(new String[0]));
+    } finally {
+      // Logs are written asynchronously; make sure everything is out before returning.
+      Logging.flush();
+    }
+  }
+
+  @SuppressWarnings("try")
+  private int runCommand(CachingDataFormats session, String... args) {
     final CommandInput commandInput;
 
     try {
@@ -96,46 +192,442 @@ public class Cli {
 
       try {
         UpdateSetOptions options = UpdateSetOptions.fromInputAndConfigFiles(updateSetInput,
-            fileSystem, dataFormats, defaultConfigPaths);
+            fileSystem, session, defaultConfigPaths);
 
-        SourceSpec source = options.source()
-            .orElseThrow(() -> MonarchException.missingOption("source"));
         Path outputPath = options.outputPath()
             .orElseThrow(() -> MonarchException.missingOption("output path"));
 
-        updateSetService.updateSetInChange(source, outputPath, options.changes(),
-            options.putInSet(), options.removeFromSet(), options.hierarchy());
+        List<SetUpdate> updates = new ArrayList<>(options.manifest());
+        Optional<SourceSpec> source = options.source();
+        Map<String, Object> toPut = options.putInSet();
+        Set<String> toRemove = options.removeFromSet();
+
+        if (source.isPresent()) {
+          updates.add(new SetUpdate(source.get(), toPut, toRemove));
+        } else if (updates.isEmpty() || !toPut.isEmpty() || !toRemove.isEmpty()) {
+          throw MonarchException.missingOption("source");
+        }
+
+        updateSetService.updateSetsInFile(updates, outputPath, options.hierarchy());
+        session.invalidate(outputPath);
       } catch (Exception e) {
         log.error("Error while updating 'set' in change.", e);
         return 2;
       }
     }
 
+    for (WhichInput whichInput : commandInput.getWhichCommands()) {
+      if (whichInput.isHelpRequested()) {
+        log.info(whichInput.getHelpMessage());
+        return 0;
+      }
+
+      try {
+        WhichOptions options = WhichOptions.fromInputAndConfigFiles(whichInput, fileSystem,
+            session, defaultConfigPaths);
+
+        Path dataDir = options.dataDir()
+            .orElseThrow(() -> MonarchException.missingOption("data directory"));
+        Hierarchy hierarchy = options.hierarchy()
+            .orElseThrow(() -> MonarchException.missingOption("hierarchy"));
+
+        new WhichService(session, outputYaml).which(options.keys(), hierarchy, options.mergeKeys(),
+            options.dataFormatsConfiguration(), dataDir, stdout);
+      } catch (Exception e) {
+        log.error("Error while finding which sources set keys.", e);
+        return 2;
+      }
+    }
+
+    for (LookupInput lookupInput : commandInput.getLookupCommands()) {
+      if (lookupInput.isHelpRequested()) {
+        log.info(lookupInput.getHelpMessage());
+        return 0;
+      }
+
+      try {
+        LookupOptions options = LookupOptions.fromInputAndConfigFiles(lookupInput, fileSystem,
+            session, defaultConfigPaths, stdin);
+
+        Path dataDir = options.dataDir()
+            .orElseThrow(() -> MonarchException.missingOption("data directory"));
+        Hierarchy hierarchy = options.hierarchy()
+            .orElseThrow(() -> MonarchException.missingOption("hierarchy"));
+        RecordWriter out = options.format()
+            .orElse(RecordWriter.Format.YAML)
+            .writerFor(stdout, outputYaml);
+
+        new LookupService(session).lookup(hierarchy, options.targets(), options.keys(),
+            options.mergeKeys(), options.dataFormatsConfiguration(), dataDir, out);
+      } catch (Exception e) {
+        log.error("Error while looking up keys.", e);
+        return 2;
+      }
+    }
+
+    for (FlattenInput flattenInput : commandInput.getFlattenCommands()) {
+      if (flattenInput.isHelpRequested()) {
+        log.info(flattenInput.getHelpMessage());
+        return 0;
+      }
+
+      try {
+        FlattenOptions options = FlattenOptions.fromInputAndConfigFiles(flattenInput, fileSystem,
+            session, defaultConfigPaths);
+
+        Path dataDir = options.dataDir()
+            .orElseThrow(() -> MonarchException.missingOption("data directory"));
+        Hierarchy hierarchy = options.hierarchy()
+            .orElseThrow(() -> MonarchException.missingOption("hierarchy"));
+        RecordWriter out = options.format()
+            .orElse(RecordWriter.Format.YAML)
+            .writerFor(stdout, outputYaml);
+
+        new FlattenService(session, new Monarch()).flatten(hierarchy, options.mergeKeys(),
+            options.allSources(), options.dataFormatsConfiguration(), dataDir, out);
+      } catch (Exception e) {
+        log.error("Error while flattening data.", e);
+        return 2;
+      }
+    }
+
+    for (CompileInput compileInput : commandInput.getCompileCommands()) {
+      if (compileInput.isHelpRequested()) {
+        log.info(compileInput.getHelpMessage());
+        return 0;
+      }
+
+      try {
+        Path hierarchyPath = compileInput.getHierarchyPath()
+            .map(fileSystem::getPath)
+            .orElseThrow(() -> MonarchException.missingOption("hierarchy"));
+
+        if (!new CompileService(session).compile(hierarchyPath)) {
+          return 1;
+        }
+      } catch (Exception e) {
+        log.error("Error while compiling hierarchy.", e);
+        return 2;
+      }
+    }
+
+    for (DiffInput diffInput : commandInput.getDiffCommands()) {
+      if (diffInput.isHelpRequested()) {
+        log.info(diffInput.getHelpMessage());
+        return 0;
+      }
+
+      try {
+        Hierarchy hierarchy = diffInput.getHierarchyPathOrYaml()
+            .map(h -> session.parseHierarchy(h, fileSystem))
+            .orElseThrow(() -> MonarchException.missingOption("hierarchy"));
+        List<String> dataDirs = diffInput.getDataDirs();
+
+        if (dataDirs.size() != 2) {
+          throw new MonarchException("Expected exactly two data directories to compare, but " +
+              "got " + dataDirs.size() + ": " + dataDirs);
+        }
+
+        List<String> differing = new DiffService().diff(hierarchy,
+            fileSystem.getPath(dataDirs.get(0)), fileSystem.getPath(dataDirs.get(1)),
+            diffInput.getCacheDir().map(fileSystem::getPath));
+        Writer out = new OutputStreamWriter(stdout, StandardCharsets.UTF_8);
+
+        for (String path : differing) {
+          out.write(path);
+          out.write('\n');
+        }
+
+        out.flush();
+
+        if (!differing.isEmpty()) {
+          return 1;
+        }
+      } catch (Exception e) {
+        log.error("Error while comparing data directories.", e);
+        return 2;
+      }
+    }
+
+    for (ServeInput serveInput : commandInput.getServeCommands()) {
+      if (serveInput.isHelpRequested()) {
+        log.info(serveInput.getHelpMessage());
+        return 0;
+      }
+
+      if (servingRequest) {
+        log.error("Already running in a monarch server.");
+        return 2;
+      }
+
+      Path portFile = fileSystem.getPath(serveInput.getPortFile());
+
+      try (MonarchServer server = MonarchServer.bind(serveInput.getPort().orElse(0))) {
+        CachingDataFormats cachingFormats = new CachingDataFormats(dataFormats);
+        server.writePortFile(portFile);
+
+        log.info("Listening on port " + server.port());
+        Logging.flush();
+
+        server.serve((requestArgs, out, err) -> {
+          try {
+            return new Cli(new ApplyChangesService(cachingFormats, new Monarch()),
+                updateSetService, cachingFormats, new ByteArrayInputStream(new byte[0]), out, err,
+                defaultConfigPaths, fileSystem, true).run(requestArgs);
+          } finally {
+            Logging.outputTo(stdout, stderr);
+            commandInput.getLogLevel().ifPresent(Logging::setLevel);
+          }
+        });
+      } catch (Exception e) {
+        log.error("Error while serving.", e);
+        return 2;
+      } finally {
+        deletePortFile(portFile);
+      }
+    }
+
     for (ApplyChangesInput applyChangesInput : commandInput.getApplyCommands()) {
       if (applyChangesInput.isHelpRequested()) {
         log.info(applyChangesInput.getHelpMessage());
         return 0;
       }
 
+      if (applyChangesInput.isWatch()) {
+        if (applyChangesInput.isCheck()) {
+          log.error("Checks cannot be watched; check without --watch.");
+          return 2;
+        }
+
+        return watchAndApply(applyChangesInput);
+      }
+
+      if (applyChangesInput.isCheck()) {
+        return checkChanges(applyChangesInput, session);
+      }
+
+      Optional<StatsFormat> statsFormat = applyChangesInput.getStatsFormat();
+      Stats stats = statsFormat.isPresent() ? Stats.start() : Stats.current();
+      Optional<Jfr.Recording> recording = Optional.empty();
+
       try {
-        ApplyChangesOptions options = ApplyChangesOptions.fromInputAndConfigFiles(
-            applyChangesInput, fileSystem, dataFormats, defaultConfigPaths);
+        // Not the configured file system: flight recordings can only be written to disk.
+        recording = applyChangesInput.getProfilePath().map(Paths::get).map(Jfr::record);
+
+        final ApplyChangesOptions options;
+
+        try (Stats.Timer ignored = Stats.time("config")) {
+          options = ApplyChangesOptions.fromInputAndConfigFiles(applyChangesInput, fileSystem,
+              session, defaultConfigPaths);
+        }
 
         Path outputDir = options.outputDir()
             .orElseThrow(() -> MonarchException.missingOption("output directory"));
         Path dataDir = options.dataDir()
             .orElseThrow(() -> MonarchException.missingOption("data directory"));
-        Hierarchy hierarchy = options.hierarchy()
-            .orElseThrow(() -> MonarchException.missingOption("hierarchy"));
 
-        applyChangesService.applyChanges(outputDir, hierarchy, options.target(), options.changes(),
-            options.mergeKeys(), options.dataFormatsConfiguration(), dataDir);
+        final Hierarchy hierarchy;
+        final Iterable<Change> changes;
+
+        try (Stats.Timer ignored = Stats.time("hierarchy")) {
+          hierarchy = options.hierarchy()
+              .orElseThrow(() -> MonarchException.missingOption("hierarchy"));
+        }
+
+        try (Stats.Timer ignored = Stats.time("changes")) {
+          changes = options.changes();
+        }
+
+        Optional<Path> explainPath = applyChangesInput.getExplainPath().map(fileSystem::getPath);
+        DecisionRecording decisions = new DecisionRecording();
+
+        try {
+          applyChangesService.withDataFormats(session).applyChanges(outputDir, hierarchy,
+              options.target(), changes, options.mergeKeys(), options.dataFormatsConfiguration(),
+              dataDir, explainPath.isPresent() ? decisions : DecisionTrace.NONE,
+              applyChangesInput.getShard());
+        } finally {
+          session.invalidateUnder(outputDir);
+        }
+
+        if (explainPath.isPresent()) {
+          writeExplanation(decisions, explainPath.get());
+        }
       } catch (Exception e) {
         log.error("Error while applying changes.", e);
         return 2;
+      } finally {
+        recording.ifPresent(this::stopRecording);
+
+        if (statsFormat.isPresent()) {
+          Stats.stop();
+          writeStats(stats, statsFormat.get());
+        }
       }
     }
 
     return 0;
   }
+
+  /**
+   * Generates sources in memory and compares them with the data directory.
+   *
+   * @return 0 if every source is already in its generated state, 1 if any differ.
+   */
+  private int checkChanges(ApplyChangesInput applyChangesInput, CachingDataFormats session) {
+    try {
+      ApplyChangesOptions options = ApplyChangesOptions.fromInputAndConfigFiles(
+          applyChangesInput, fileSystem, session, defaultConfigPaths);
+
+      Path dataDir = options.dataDir()
+          .orElseThrow(() -> MonarchException.missingOption("data directory"));
+      Hierarchy hierarchy = options.hierarchy()
+          .orElseThrow(() -> MonarchException.missingOption("hierarchy"));
+
+      List<String> differing = applyChangesService.withDataFormats(session).checkChanges(
+          hierarchy, options.target(), options.changes(), options.mergeKeys(),
+          options.dataFormatsConfiguration(), dataDir, applyChangesInput.getShard(),
+          applyChangesInput.isCheckAll());
+
+      for (String path : differing) {
+        log.error("Source is not in its generated state: " + path);
+      }
+
+      return differing.isEmpty() ? 0 : 1;
+    } catch (Exception e) {
+      log.error("Error while checking changes.", e);
+      return 2;
+    }
+  }
+
+  /**
+   * Applies changes, and then again each time input files change, until interrupted. Parsed files
+   * are cached in memory, so only modified files are parsed again.
+   */
+  private int watchAndApply(ApplyChangesInput applyChangesInput) {
+    if (applyChangesInput.getShard().isPresent()) {
+      log.error("Shards cannot be watched; apply every shard, or watch without --shard.");
+      return 2;
+    }
+
+    CachingDataFormats cachingFormats = new CachingDataFormats(dataFormats);
+    ApplyChangesService watchService = new ApplyChangesService(cachingFormats, new Monarch());
+    Optional<ApplyChangesService.Applied> applied = Optional.empty();
+
+    try (FileWatcher watcher = new FileWatcher(fileSystem)) {
+      while (true) {
+        try {
+          watchInputs(applyChangesInput, watcher);
+
+          ApplyChangesOptions options = ApplyChangesOptions.fromInputAndConfigFiles(
+              applyChangesInput, fileSystem, cachingFormats, defaultConfigPaths);
+
+          Path outputDir = options.outputDir()
+              .orElseThrow(() -> MonarchException.missingOption("output directory"));
+          Path dataDir = options.dataDir()
+              .orElseThrow(() -> MonarchException.missingOption("data directory"));
+          Hierarchy hierarchy = options.hierarchy()
+              .orElseThrow(() -> MonarchException.missingOption("hierarchy"));
+
+          watcher.watchTree(dataDir);
+
+          for (Path inventoryFile : CompiledHierarchy.inputsOf(hierarchy)) {
+            watcher.watchFile(inventoryFile);
+          }
+
+          long start = System.nanoTime();
+
+          applied = Optional.of(watchService.reapplyChanges(applied, outputDir, hierarchy,
+              options.target(), options.changes(), options.mergeKeys(),
+              options.dataFormatsConfiguration(), dataDir));
+
+          log.info("Regenerated " + applied.get().regenerated().size() + " source(s) in " +
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms.");
+        } catch (Exception e) {
+          log.error("Error while applying changes.", e);
+
+          // Only keep watching once inputs have been valid at least once.
+          if (!applied.isPresent()) {
+            return 2;
+          }
+        }
+
+        log.info("Watching for changes...");
+        Logging.flush();
+
+        for (Path changed : watcher.awaitChanges()) {
+          log.debug("Changed: " + changed);
+        }
+      }
+    } catch (InterruptedException e) {
+      return 0;
+    } catch (IOException e) {
+      log.error("Error while watching for changes.", e);
+      return 2;
+    }
+  }
+
+  private void watchInputs(ApplyChangesInput applyChangesInput, FileWatcher watcher)
+      throws IOException {
+    List<String> inputFiles = new ArrayList<>(applyChangesInput.getConfigPaths());
+    applyChangesInput.getHierarchyPathOrYaml().ifPresent(inputFiles::add);
+    applyChangesInput.getChangesPathOrYaml().ifPresent(inputFiles::add);
+
+    for (String inputFile : inputFiles) {
+      try {
+        watcher.watchFile(fileSystem.getPath(inputFile));
+      } catch (InvalidPathException notAPath) {
+        // Inline yaml; nothing to watch.
+      }
+    }
+
+    for (Path configPath : defaultConfigPaths.get(fileSystem)) {
+      watcher.watchFile(configPath);
+    }
+  }
+
+  private void writeExplanation(DecisionRecording decisions, Path explainPath)
+      throws IOException {
+    MoreFiles.createParentDirectories(explainPath);
+
+    try (OutputStream out = Files.newOutputStream(explainPath)) {
+      RecordWriter writer = RecordWriter.yamlDocuments(out, outputYaml);
+
+      for (Map<String, Object> source : decisions.toMaps()) {
+        writer.write(source);
+      }
+    }
+  }
+
+  private void deletePortFile(Path portFile) {
+    try {
+      Files.deleteIfExists(portFile);
+    } catch (IOException e) {
+      log.warn("Failed to delete port file " + portFile, e);
+    }
+  }
+
+  private void stopRecording(Jfr.Recording recording) {
+    try {
+      recording.close();
+    } catch (RuntimeException e) {
+      log.warn("Failed to write flight recording.", e);
+    }
+  }
+
+  private void writeStats(Stats stats, StatsFormat format) {
+    try {
+      format.write(stats, stderr);
+    } catch (IOException e) {
+      log.warn("Failed to write stats.", e);
+    }
+  }
+
+  private static DumperOptions outputDumperOptions() {
+    DumperOptions dumperOptions = new DumperOptions();
+    dumperOptions.setPrettyFlow(true);
+    dumperOptions.setIndent(YamlConfiguration.DEFAULT.indent());
+    dumperOptions.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+    return dumperOptions;
+  }
 }
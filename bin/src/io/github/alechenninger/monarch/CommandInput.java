@@ -19,7 +19,13 @@
 package io.github.alechenninger.monarch;
 
 import io.github.alechenninger.monarch.apply.ApplyChangesInput;
+import io.github.alechenninger.monarch.compile.CompileInput;
+import io.github.alechenninger.monarch.diff.DiffInput;
+import io.github.alechenninger.monarch.flatten.FlattenInput;
+import io.github.alechenninger.monarch.lookup.LookupInput;
+import io.github.alechenninger.monarch.serve.ServeInput;
 import io.github.alechenninger.monarch.set.UpdateSetInput;
+import io.github.alechenninger.monarch.which.WhichInput;
 
 import java.util.List;
 import java.util.Optional;
@@ -30,6 +36,18 @@ public interface CommandInput {
 
   List<UpdateSetInput> getUpdateSetCommands();
 
+  List<WhichInput> getWhichCommands();
+
+  List<LookupInput> getLookupCommands();
+
+  List<FlattenInput> getFlattenCommands();
+
+  List<ServeInput> getServeCommands();
+
+  List<CompileInput> getCompileCommands();
+
+  List<DiffInput> getDiffCommands();
+
   String getHelpMessage();
 
   boolean isHelpRequested();
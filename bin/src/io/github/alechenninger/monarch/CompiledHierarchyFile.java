@@ -0,0 +1,173 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import io.github.alechenninger.monarch.util.MoreFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * A {@link CompiledHierarchy} saved beside the hierarchy file it was compiled from, with a
+ * fingerprint of that file and of any other files the hierarchy reads, such as files of inventory
+ * values. The compiled hierarchy is only used while its fingerprint matches those files.
+ */
+public final class CompiledHierarchyFile {
+  /** Appended to the name of a hierarchy file to name its compiled hierarchy. */
+  public static final String SUFFIX = ".compiled";
+
+  private static final int MAGIC = 0x6d6f6e68;
+  private static final int VERSION = 1;
+
+  private static final Logger log = LoggerFactory.getLogger(CompiledHierarchyFile.class);
+
+  private CompiledHierarchyFile() {}
+
+  public static Path pathFor(Path hierarchyPath) {
+    return hierarchyPath.resolveSibling(hierarchyPath.getFileName() + SUFFIX);
+  }
+
+  /**
+   * @param content The content of the hierarchy file {@code compiled} was compiled from.
+   * @param inputs Other files the hierarchy reads. See {@link CompiledHierarchy#inputsOf(Hierarchy)}.
+   * @return The path written to.
+   */
+  public static Path write(Path hierarchyPath, byte[] content, Collection<Path> inputs,
+      CompiledHierarchy compiled) throws IOException {
+    List<String> inputPaths = inputs.stream()
+        .map(input -> input.toAbsolutePath().normalize().toString())
+        .sorted()
+        .collect(Collectors.toList());
+    byte[] fingerprint = fingerprint(hierarchyPath, content, inputPaths);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeByte(fingerprint.length);
+      out.write(fingerprint);
+      out.writeInt(inputPaths.size());
+      for (String input : inputPaths) {
+        out.writeUTF(input);
+      }
+      compiled.writeTo(out);
+    }
+
+    return MoreFiles.createDirectoriesAndWrite(pathFor(hierarchyPath), bytes.toByteArray());
+  }
+
+  /**
+   * Reads the compiled hierarchy for the hierarchy file at {@code hierarchyPath}, if there is one
+   * and its fingerprint matches the hierarchy's files.
+   *
+   * @param content The current content of the hierarchy file.
+   * @param original Parses the hierarchy file, for lookups the compiled hierarchy cannot answer.
+   */
+  public static Optional<CompiledHierarchy> read(Path hierarchyPath, byte[] content,
+      Supplier<Hierarchy> original) {
+    Path path = pathFor(hierarchyPath);
+
+    if (Files.notExists(path)) {
+      return Optional.empty();
+    }
+
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        log.warn("Ignoring {}. Not a compiled hierarchy or unsupported version; run compile " +
+            "again.", path);
+        return Optional.empty();
+      }
+
+      byte[] fingerprint = new byte[in.readUnsignedByte()];
+      in.readFully(fingerprint);
+
+      int inputCount = in.readInt();
+      List<String> inputPaths = new ArrayList<>(inputCount);
+      for (int i = 0; i < inputCount; i++) {
+        inputPaths.add(in.readUTF());
+      }
+
+      if (!Arrays.equals(fingerprint, fingerprint(hierarchyPath, content, inputPaths))) {
+        log.debug("Ignoring out of date compiled hierarchy: {}", path);
+        return Optional.empty();
+      }
+
+      Set<Path> inputs = inputPaths.stream()
+          .map(hierarchyPath.getFileSystem()::getPath)
+          .collect(Collectors.toSet());
+
+      return Optional.of(CompiledHierarchy.readFrom(in, original, inputs));
+    } catch (IOException e) {
+      log.warn("Unable to read compiled hierarchy: {}", path, e);
+      return Optional.empty();
+    }
+  }
+
+  private static byte[] fingerprint(Path hierarchyPath, byte[] content, List<String> inputPaths)
+      throws IOException {
+    MessageDigest digest;
+
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    update(digest, content);
+
+    for (String inputPath : inputPaths) {
+      update(digest, inputPath.getBytes(StandardCharsets.UTF_8));
+
+      try {
+        update(digest, Files.readAllBytes(hierarchyPath.getFileSystem().getPath(inputPath)));
+      } catch (NoSuchFileException e) {
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(-1).array());
+      }
+    }
+
+    return digest.digest();
+  }
+
+  /** Prefixes content with its length, so that adjacent contents cannot run together. */
+  private static void update(MessageDigest digest, byte[] content) {
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(content.length).array());
+    digest.update(content);
+  }
+}
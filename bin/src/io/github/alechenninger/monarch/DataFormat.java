@@ -18,8 +18,13 @@
 
 package io.github.alechenninger.monarch;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 
@@ -27,9 +32,46 @@ import java.util.Map;
  * Abstracts a data format that can be used for defining hierarchies, changes, and data sources.
  */
 public interface DataFormat {
-  Hierarchy parseHierarchy(InputStream hierarchyInput);
+  /** Parses a hierarchy whose relative paths are resolved against the working directory. */
+  default Hierarchy parseHierarchy(InputStream hierarchyInput) {
+    return parseHierarchy(hierarchyInput, Paths.get(""));
+  }
+
+  /**
+   * @param directory Relative paths within the hierarchy, such as files of inventory values, are
+   *                  resolved against this directory, usually the one containing the hierarchy.
+   * @see Hierarchy#fromStringListOrMap(Object, Path)
+   */
+  Hierarchy parseHierarchy(InputStream hierarchyInput, Path directory);
+
   List<Change> parseChanges(InputStream changesInput);
   Map<String, Object> parseMap(InputStream inputStream);
+
+  /** Parses each document in {@code inputStream} as a map, skipping empty documents. */
+  List<Map<String, Object>> parseMaps(InputStream inputStream);
   SourceData newSourceData();
   SourceData parseData(InputStream inputStream) throws IOException;
+
+  /**
+   * Parses the data source at {@code path}. Formats may override this to read the file more
+   * efficiently than through an {@link InputStream}.
+   *
+   * @throws java.nio.file.NoSuchFileException If {@code path} does not exist.
+   */
+  default SourceData parseData(Path path) throws IOException {
+    try (InputStream in = Files.newInputStream(path)) {
+      return parseData(in);
+    }
+  }
+
+  /**
+   * Writes {@code data}, which must have been created by this format, in a binary form that can
+   * be read back by {@link #readSourceData(DataInput)} much more cheaply than parsing it again.
+   *
+   * @throws IllegalArgumentException If {@code data} cannot be written in binary form.
+   */
+  void writeSourceData(SourceData data, DataOutput out) throws IOException;
+
+  /** @see #writeSourceData(SourceData, DataOutput) */
+  SourceData readSourceData(DataInput in) throws IOException;
 }
@@ -18,9 +18,13 @@
 
 package io.github.alechenninger.monarch;
 
+import io.github.alechenninger.monarch.yaml.YamlConfiguration;
 import io.github.alechenninger.monarch.yaml.YamlDataFormat;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
 
 import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
@@ -31,7 +35,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -69,16 +75,35 @@ public interface DataFormats {
     }
   }
 
+  /**
+   * If {@code pathOrParseable} is a path to a hierarchy file which has been compiled, and the
+   * compiled hierarchy is up to date, the compiled hierarchy is returned instead of parsing the
+   * file. See {@link CompiledHierarchyFile}.
+   */
   default Hierarchy parseHierarchy(String pathOrParseable, FileSystem fileSystem) {
     try {
       Path path = fileSystem.getPath(pathOrParseable);
       DataFormat parser = forPath(path);
+      byte[] content;
 
       try {
-        return parser.parseHierarchy(Files.newInputStream(path));
+        content = Files.readAllBytes(path);
       } catch (Exception e) {
         throw new MonarchFileParseException("hierarchy", path, e);
       }
+
+      Supplier<Hierarchy> parse = () -> {
+        try {
+          return parser.parseHierarchy(new ByteArrayInputStream(content),
+              path.toAbsolutePath().getParent());
+        } catch (Exception e) {
+          throw new MonarchFileParseException("hierarchy", path, e);
+        }
+      };
+
+      return CompiledHierarchyFile.read(path, content, parse)
+          .<Hierarchy>map(compiled -> compiled)
+          .orElseGet(parse);
     } catch (InvalidPathException | MonarchException e) {
       if (e instanceof MonarchFileParseException) {
         throw e;
@@ -156,6 +181,50 @@ public interface DataFormats {
     }
   }
 
+  default List<Map<String, Object>> parseMaps(String pathOrParseable, FileSystem fileSystem) {
+    try {
+      Path path = fileSystem.getPath(pathOrParseable);
+      return parseMaps(path);
+    } catch (InvalidPathException | MonarchFileParseException e) {
+      byte[] parseable = pathOrParseable.getBytes(Charset.forName("UTF-8"));
+      ByteArrayInputStream parseableStream = new ByteArrayInputStream(parseable);
+
+      try {
+        return yaml().parseMaps(parseableStream);
+      } catch (Exception parseException) {
+        e.addSuppressed(parseException);
+        throw new MonarchException("Failed to parse maps from: " + pathOrParseable, e);
+      }
+    }
+  }
+
+  default List<Map<String, Object>> parseMaps(Path path) {
+    try (InputStream in = Files.newInputStream(path)) {
+      return forPath(path).parseMaps(in);
+    } catch (Exception e) {
+      throw new MonarchFileParseException("maps", path, e);
+    }
+  }
+
+  /**
+   * @return Empty if there is no regular file at {@code path}, or it is empty.
+   * @throws MonarchFileParseException If the file cannot be read or is not a valid config.
+   */
+  default Optional<SerializableConfig> parseConfig(Path path) {
+    if (!Files.isRegularFile(path)) {
+      return Optional.empty();
+    }
+
+    try (InputStream in = Files.newInputStream(path)) {
+      // TODO: eventually maybe don't assume YAML
+      return Optional.ofNullable((SerializableConfig)
+          new Yaml(new Constructor(SerializableConfig.class)).load(in))
+          .map(config -> config.resolvingAgainst(path.toAbsolutePath().getParent()));
+    } catch (Exception e) {
+      throw new MonarchFileParseException("config", path, e);
+    }
+  }
+
   /**
    * If {@code pathOrParseable} is a valid file path but the file does not exist, an empty
    * {@link SourceData} will be returned.
@@ -180,9 +249,13 @@ public interface DataFormats {
   /**
    * If {@code path} does not exist, an empty {@link SourceData} will be returned.
    */
+  @SuppressWarnings("try")
   default SourceData parseData(Path path) {
-    try {
-      return forPath(path).parseData(Files.newInputStream(path));
+    Jfr.Event event = Jfr.begin(Jfr.SOURCE_PARSE);
+
+    try (Stats.Timer ignored = Stats.time("parse")) {
+      Stats.count("sources.parsed");
+      return ParseEvents.commit(event, path, forPath(path).parseData(path));
     } catch (NoSuchFileException e) {
       return forPath(path).newSourceData();
     } catch (Exception e) {
@@ -197,15 +270,36 @@ public interface DataFormats {
         .collect(Collectors.toMap(Function.identity(), p -> parseData(dataDir.resolve(p))));
   }
 
+  /**
+   * Parses each data source in {@code hierarchy} in depth order, indexing its data as it goes
+   * rather than keeping every parsed source in memory.
+   */
+  default KeyIndex indexDataSourcesInHierarchy(Path dataDir, Hierarchy hierarchy) {
+    KeyIndex index = new KeyIndex();
+
+    for (Source source : hierarchy.allSources()) {
+      index.index(source.path(), parseData(dataDir.resolve(source.path())).data());
+    }
+
+    return index;
+  }
+
   class Default implements DataFormats {
     private final YamlDataFormat yaml;
+    private final Optional<SourceDataCache> cache;
 
     public Default() {
       this.yaml = new YamlDataFormat();
+      this.cache = Optional.empty();
     }
 
     public Default(DataFormatsConfiguration config) {
-      this.yaml = config.yamlConfiguration().map(YamlDataFormat::new).orElse(new YamlDataFormat());
+      YamlConfiguration yamlConfig =
+          config.yamlConfiguration().orElse(YamlConfiguration.DEFAULT);
+      this.yaml = new YamlDataFormat(yamlConfig);
+      this.cache = config.cacheDir().map(dir -> new SourceDataCache(dir,
+          "yaml indent=" + yamlConfig.indent() + ", updateIsolation=" +
+              yamlConfig.updateIsolation() + ", intern=" + yamlConfig.intern()));
     }
 
     @Override
@@ -213,6 +307,25 @@ public interface DataFormats {
       return yaml;
     }
 
+    @Override
+    @SuppressWarnings("try")
+    public SourceData parseData(Path path) {
+      if (!cache.isPresent()) {
+        return DataFormats.super.parseData(path);
+      }
+
+      Jfr.Event event = Jfr.begin(Jfr.SOURCE_PARSE);
+
+      try (Stats.Timer ignored = Stats.time("parse")) {
+        Stats.count("sources.parsed");
+        return ParseEvents.commit(event, path, cache.get().parseData(path, forPath(path)));
+      } catch (NoSuchFileException e) {
+        return forPath(path).newSourceData();
+      } catch (Exception e) {
+        throw new MonarchFileParseException("data", path, e);
+      }
+    }
+
     @Override
     public DataFormats withConfiguration(DataFormatsConfiguration config) {
       return new Default(config);
@@ -20,8 +20,18 @@ package io.github.alechenninger.monarch;
 
 import io.github.alechenninger.monarch.yaml.YamlConfiguration;
 
+import java.nio.file.Path;
 import java.util.Optional;
 
 public interface DataFormatsConfiguration {
   Optional<YamlConfiguration> yamlConfiguration();
+
+  /**
+   * Directory to cache parsed data sources in, if any.
+   *
+   * @see SourceDataCache
+   */
+  default Optional<Path> cacheDir() {
+    return Optional.empty();
+  }
 }
@@ -0,0 +1,278 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import io.github.alechenninger.monarch.util.Digests;
+import io.github.alechenninger.monarch.util.MoreFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * An on-disk cache of generated source data, so that sources whose inputs have not changed since
+ * they were last generated do not need to be generated, serialized, or written again.
+ *
+ * <p>Entries are keyed by a source's data file, and are only used if the source's
+ * {@link SourceFingerprints fingerprint} still matches what was cached. An entry also remembers
+ * the files which were written with its data. Like {@link SourceDataCache}, if those files' sizes
+ * and modified times still match, and they were not modified too soon before the entry was
+ * written to tell, they are trusted to still hold what was written without reading them.
+ *
+ * <p>Entries are also only used by a cache with the same serialization, since the same data is
+ * written differently with, for example, a different YAML indent.
+ */
+public class GeneratedSourceCache {
+  private final Path directory;
+  private final String serialization;
+
+  private static final int MAGIC = 0x6d6f6e67;
+  private static final int VERSION = 2;
+
+  private static final Logger log = LoggerFactory.getLogger(GeneratedSourceCache.class);
+
+  /**
+   * @param serialization Describes how generated data is serialized when it is written, such that
+   *                      data serialized differently is described differently.
+   */
+  public GeneratedSourceCache(Path directory, String serialization) {
+    this.directory = directory;
+    this.serialization = Digests.sha1Hex(serialization);
+  }
+
+  /**
+   * @param dataFile The data file of the source, whether or not it exists.
+   * @param fingerprint The source's current fingerprint.
+   * @return The data last generated for the source, if it was generated from the same inputs.
+   */
+  public Optional<Entry> get(Path dataFile, String fingerprint) {
+    Path entryPath = entryPathFor(dataFile);
+
+    if (!Files.exists(entryPath)) {
+      Stats.count("generatedCache.misses");
+      return Optional.empty();
+    }
+
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(entryPath)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a generated source cache entry or unsupported version");
+      }
+
+      if (!in.readUTF().equals(dataFile.toAbsolutePath().normalize().toString()) ||
+          !in.readUTF().equals(fingerprint) ||
+          !in.readUTF().equals(serialization)) {
+        Stats.count("generatedCache.misses");
+        return Optional.empty();
+      }
+
+      long cachedAt = in.readLong();
+      int fileCount = in.readInt();
+      List<WrittenFile> written = new ArrayList<>(fileCount);
+
+      for (int i = 0; i < fileCount; i++) {
+        written.add(WrittenFile.read(in));
+      }
+
+      @SuppressWarnings("unchecked")
+      Map<String, Object> generated = (Map<String, Object>) BinaryValues.read(in);
+
+      log.debug("Using cached generated data for {}", dataFile);
+      Stats.count("generatedCache.hits");
+      return Optional.of(new Entry(dataFile, fingerprint, cachedAt, written, generated));
+    } catch (IOException | RuntimeException e) {
+      log.debug("Ignoring unreadable cache entry for {} at {}", dataFile, entryPath, e);
+      Stats.count("generatedCache.misses");
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Caches {@code generated} as the data of the source with data file {@code dataFile} and
+   * {@code fingerprint}.
+   *
+   * @param written Files just written with {@code generated}, and the source's data file if
+   *                it exists, whose current state is remembered so that
+   *                {@link Entry#isWritten(Path)} can tell if they have changed since.
+   */
+  public void put(Path dataFile, String fingerprint, Map<String, Object> generated,
+      Collection<Path> written) {
+    Path entryPath = entryPathFor(dataFile);
+
+    try {
+      List<WrittenFile> writtenFiles = new ArrayList<>(written.size());
+
+      for (Path path : new LinkedHashSet<>(written)) {
+        writtenFiles.add(WrittenFile.of(path));
+      }
+
+      MoreFiles.writeAtomically(entryPath, fileOut -> {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(dataFile.toAbsolutePath().normalize().toString());
+        out.writeUTF(fingerprint);
+        out.writeUTF(serialization);
+        out.writeLong(System.currentTimeMillis());
+        out.writeInt(writtenFiles.size());
+
+        for (WrittenFile writtenFile : writtenFiles) {
+          writtenFile.write(out);
+        }
+
+        BinaryValues.write(generated, out);
+        out.flush();
+      });
+    } catch (IOException | RuntimeException e) {
+      log.debug("Unable to cache generated data for {} at {}", dataFile, entryPath, e);
+    }
+  }
+
+  private Path entryPathFor(Path dataFile) {
+    return directory.resolve("generated").resolve(
+        Digests.sha1Hex(dataFile.toAbsolutePath().normalize().toString()));
+  }
+
+  public class Entry {
+    private final Path dataFile;
+    private final String fingerprint;
+    private final long cachedAt;
+    private final List<WrittenFile> written;
+    private final Map<String, Object> generated;
+
+    Entry(Path dataFile, String fingerprint, long cachedAt, List<WrittenFile> written,
+        Map<String, Object> generated) {
+      this.dataFile = dataFile;
+      this.fingerprint = fingerprint;
+      this.cachedAt = cachedAt;
+      this.written = written;
+      this.generated = generated;
+    }
+
+    public Map<String, Object> generated() {
+      return Collections.unmodifiableMap(generated);
+    }
+
+    /**
+     * @return Whether {@code outputFile} was written with this entry's data, and neither it nor
+     * the source's data file has changed since. Files modified too close to when the entry was
+     * cached are read and compared with what was written.
+     */
+    public boolean isWritten(Path outputFile) {
+      String output = outputFile.toAbsolutePath().normalize().toString();
+      boolean racy = false;
+
+      if (written.stream().noneMatch(file -> file.path.equals(output))) {
+        return false;
+      }
+
+      try {
+        for (WrittenFile file : written) {
+          BasicFileAttributes attributes = Files.readAttributes(
+              outputFile.getFileSystem().getPath(file.path), BasicFileAttributes.class);
+          long modified = attributes.lastModifiedTime().toMillis();
+
+          if (attributes.size() != file.size) {
+            return false;
+          }
+
+          if (modified != file.modified || !MoreFiles.isModifiedWellBefore(modified, cachedAt)) {
+            byte[] content = Files.readAllBytes(outputFile.getFileSystem().getPath(file.path));
+            Stats.count("bytes.read", content.length);
+
+            if (!Arrays.equals(Digests.sha1(content), file.hash)) {
+              return false;
+            }
+
+            racy = true;
+          }
+        }
+      } catch (NoSuchFileException e) {
+        return false;
+      } catch (IOException e) {
+        log.debug("Unable to check whether {} was written", outputFile, e);
+        return false;
+      }
+
+      if (racy) {
+        // Refresh the entry so next time we can skip reading what was written.
+        Set<Path> paths = new LinkedHashSet<>();
+        written.forEach(file -> paths.add(outputFile.getFileSystem().getPath(file.path)));
+        put(dataFile, fingerprint, generated, paths);
+      }
+
+      return true;
+    }
+  }
+
+  private static class WrittenFile {
+    final String path;
+    final long size;
+    final long modified;
+    final byte[] hash;
+
+    WrittenFile(String path, long size, long modified, byte[] hash) {
+      this.path = path;
+      this.size = size;
+      this.modified = modified;
+      this.hash = hash;
+    }
+
+    static WrittenFile of(Path path) throws IOException {
+      BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      byte[] content = Files.readAllBytes(path);
+      return new WrittenFile(path.toAbsolutePath().normalize().toString(), content.length,
+          attributes.lastModifiedTime().toMillis(), Digests.sha1(content));
+    }
+
+    static WrittenFile read(DataInputStream in) throws IOException {
+      String path = in.readUTF();
+      long size = in.readLong();
+      long modified = in.readLong();
+      byte[] hash = new byte[in.readUnsignedByte()];
+      in.readFully(hash);
+      return new WrittenFile(path, size, modified, hash);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeUTF(path);
+      out.writeLong(size);
+      out.writeLong(modified);
+      out.writeByte(hash.length);
+      out.write(hash);
+    }
+  }
+}
@@ -19,6 +19,7 @@
 package io.github.alechenninger.monarch;
 
 import io.github.alechenninger.monarch.apply.ApplyChangesService;
+import io.github.alechenninger.monarch.serve.MonarchClient;
 import io.github.alechenninger.monarch.set.UpdateSetService;
 import io.github.alechenninger.monarch.yaml.YamlConfiguration;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
@@ -27,10 +28,20 @@ import org.yaml.snakeyaml.Yaml;
 
 import java.io.IOException;
 import java.nio.file.FileSystems;
+import java.util.Arrays;
 
 public class Main {
 
   public static void main(String[] args) throws IOException, ArgumentParserException {
+    if (args.length >= 2 && "--connect".equals(args[0])) {
+      System.exit(connect(args[1], Arrays.copyOfRange(args, 2, args.length)));
+    }
+
+    String connectTo = System.getenv("MONARCH_CONNECT");
+    if (connectTo != null && !connectTo.isEmpty() && !isServe(args)) {
+      System.exit(connect(connectTo, args));
+    }
+
     DumperOptions dumperOptions = new DumperOptions();
     dumperOptions.setPrettyFlow(true);
     dumperOptions.setIndent(YamlConfiguration.DEFAULT.indent());
@@ -44,11 +55,37 @@ public class Main {
         new ApplyChangesService(dataFormats, monarch),
         new UpdateSetService(yaml),
         dataFormats,
-        System.out, System.err,
+        System.in, System.out, System.err,
         DefaultConfigPaths.standard(),
         FileSystems.getDefault()
     );
 
     System.exit(cli.run(args));
   }
+
+  /**
+   * Runs the command in a {@code monarch serve} process instead of this one.
+   *
+   * @param portFile The port file the server wrote.
+   */
+  private static int connect(String portFile, String[] args) throws IOException {
+    MonarchClient client = MonarchClient.connectingTo(portFile);
+
+    if (args.length == 1 && "--stop".equals(args[0])) {
+      client.stop();
+      return 0;
+    }
+
+    if (Arrays.asList(args).contains("-")) {
+      System.err.println("Reading from stdin ('-') is not supported when connected to a " +
+          "monarch server. Pass a file instead.");
+      return 2;
+    }
+
+    return client.forward(args, System.out, System.err);
+  }
+
+  private static boolean isServe(String[] args) {
+    return Arrays.asList(args).contains("serve");
+  }
 }
@@ -0,0 +1,49 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Commits {@link Jfr#SOURCE_PARSE} events for {@link DataFormats}. */
+final class ParseEvents {
+  private ParseEvents() {}
+
+  static SourceData commit(Jfr.Event event, Path path, SourceData data) {
+    if (!event.isEnabled()) {
+      return data;
+    }
+
+    long bytes;
+
+    try {
+      bytes = Files.size(path);
+    } catch (IOException e) {
+      bytes = 0;
+    }
+
+    event.set("path", path.toString())
+        .set("bytes", bytes)
+        .set("keys", data.data().size())
+        .commit();
+
+    return data;
+  }
+}
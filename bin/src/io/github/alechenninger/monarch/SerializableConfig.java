@@ -20,6 +20,9 @@ package io.github.alechenninger.monarch;
 
 import io.github.alechenninger.monarch.yaml.YamlConfiguration;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -31,8 +34,15 @@ public class SerializableConfig {
   private Set<String> mergeKeys;
   private String dataDir;
   private String outputDir;
+  private String cacheDir;
   private DataFormats dataFormats;
 
+  /** Not a property; there is no getter or setter by its name. */
+  private Hierarchy parsedHierarchy;
+
+  /** Not a property. Relative paths in the hierarchy are resolved against this. */
+  private Path directory = Paths.get("");
+
   /**
    * @return May be List, String, or Map
    * @see Hierarchy#fromStringListOrMap(Object)
@@ -47,6 +57,30 @@ public class SerializableConfig {
    */
   public void setHierarchy(Object hierarchy) {
     this.hierarchy = hierarchy;
+    this.parsedHierarchy = null;
+  }
+
+  /**
+   * The hierarchy parsed from {@link #getHierarchy()}. It is only parsed once per config, so that
+   * its rendered sources are shared by everything reading this config.
+   */
+  public Optional<Hierarchy> parsedHierarchy() {
+    if (parsedHierarchy == null && hierarchy != null) {
+      parsedHierarchy = Hierarchy.fromStringListOrMap(hierarchy, directory);
+    }
+
+    return Optional.ofNullable(parsedHierarchy);
+  }
+
+  /**
+   * Resolves relative paths in this config's hierarchy, such as files of inventory values, against
+   * {@code directory}: usually the directory of the config file. By default they are resolved
+   * against the working directory.
+   */
+  public SerializableConfig resolvingAgainst(Path directory) {
+    this.directory = directory;
+    this.parsedHierarchy = null;
+    return this;
   }
 
   public Set<String> getMergeKeys() {
@@ -73,6 +107,14 @@ public class SerializableConfig {
     this.outputDir = outputDir;
   }
 
+  public String getCacheDir() {
+    return cacheDir;
+  }
+
+  public void setCacheDir(String cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
   public DataFormats getDataFormats() {
     return dataFormats;
   }
@@ -96,6 +138,7 @@ public class SerializableConfig {
   public static class Yaml {
     private Integer indent;
     private Isolate isolate;
+    private Boolean intern;
 
     public Integer getIndent() {
       return indent;
@@ -113,6 +156,14 @@ public class SerializableConfig {
       this.isolate = isolate;
     }
 
+    public Boolean getIntern() {
+      return intern;
+    }
+
+    public void setIntern(Boolean intern) {
+      this.intern = intern;
+    }
+
     public YamlConfiguration toYamlConfiguration() {
       return new YamlConfiguration.Default() {
         @Override
@@ -126,6 +177,11 @@ public class SerializableConfig {
               ? super.updateIsolation()
               : YamlConfiguration.Isolate.valueOf(isolate.name().toUpperCase());
         }
+
+        @Override
+        public boolean intern() {
+          return intern == null ? super.intern() : intern;
+        }
       };
     }
 
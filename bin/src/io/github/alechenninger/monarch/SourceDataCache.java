@@ -0,0 +1,212 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import io.github.alechenninger.monarch.util.Digests;
+import io.github.alechenninger.monarch.util.MoreFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * An on-disk cache of parsed {@link SourceData}, so that data sources which have not changed
+ * since they were last parsed do not need to be parsed again.
+ *
+ * <p>Entries are keyed by a source's path, and are only used if the source's size and content
+ * hash still match what was cached. Like git's index, if the source's modified time also matches
+ * and the entry was written well after that time, the source is trusted to be unchanged without
+ * reading it at all.
+ *
+ * <p>Entries are also only used by a cache with the same format configuration, since it may
+ * change what is parsed, such as whether values are interned.
+ */
+public class SourceDataCache {
+  private final Path directory;
+  private final String configuration;
+
+  private static final int MAGIC = 0x6d6f6e63;
+  private static final int VERSION = 2;
+
+  private static final Logger log = LoggerFactory.getLogger(SourceDataCache.class);
+
+  /**
+   * @param configuration Describes how data formats are configured, such that formats which
+   *                      parse differently are described differently.
+   */
+  public SourceDataCache(Path directory, String configuration) {
+    this.directory = directory;
+    this.configuration = Digests.sha1Hex(configuration);
+  }
+
+  /**
+   * Returns the cached data for {@code path} if it is still valid, otherwise parses it with
+   * {@code format} and caches the result.
+   *
+   * @throws java.nio.file.NoSuchFileException If {@code path} does not exist.
+   */
+  public SourceData parseData(Path path, DataFormat format) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    long size = attributes.size();
+    long modified = attributes.lastModifiedTime().toMillis();
+    Path entryPath = entryPathFor(path);
+    byte[] content = null;
+    byte[] hash = null;
+    SourceData unchanged = null;
+
+    if (Files.exists(entryPath)) {
+      try (DataInputStream entry = new DataInputStream(
+          new BufferedInputStream(Files.newInputStream(entryPath)))) {
+        Header header = Header.read(entry);
+
+        if (header.matches(path, format, configuration) && header.size == size) {
+          if (header.modified == modified &&
+              MoreFiles.isModifiedWellBefore(modified, header.cachedAt)) {
+            log.debug("Using cached data for {}", path);
+            Stats.count("dataCache.hits");
+            return format.readSourceData(entry);
+          }
+
+          content = Files.readAllBytes(path);
+          hash = Digests.sha1(content);
+          Stats.count("bytes.read", content.length);
+
+          if (Arrays.equals(hash, header.hash)) {
+            log.debug("Using cached data for {} (modified time changed but content did not)",
+                path);
+            Stats.count("dataCache.hits");
+            unchanged = format.readSourceData(entry);
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        log.debug("Ignoring unreadable cache entry for {} at {}", path, entryPath, e);
+      }
+    }
+
+    if (unchanged != null) {
+      // Refresh the entry's modified time so next time we can skip reading the source.
+      write(entryPath, path, format, size, modified, hash, unchanged);
+      return unchanged;
+    }
+
+    Stats.count("dataCache.misses");
+
+    if (content == null) {
+      content = Files.readAllBytes(path);
+      hash = Digests.sha1(content);
+      Stats.count("bytes.read", content.length);
+    }
+
+    SourceData data = format.parseData(new ByteArrayInputStream(content));
+    write(entryPath, path, format, content.length, modified, hash, data);
+    return data;
+  }
+
+  private void write(Path entryPath, Path path, DataFormat format, long size, long modified,
+      byte[] hash, SourceData data) {
+    try {
+      MoreFiles.writeAtomically(entryPath, fileOut -> {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        new Header(path, format, configuration, size, modified, System.currentTimeMillis(), hash)
+            .write(out);
+        format.writeSourceData(data, out);
+        out.flush();
+      });
+    } catch (IOException | RuntimeException e) {
+      log.debug("Unable to cache data for {} at {}", path, entryPath, e);
+    }
+  }
+
+  private Path entryPathFor(Path path) {
+    return directory.resolve("data").resolve(
+        Digests.sha1Hex(path.toAbsolutePath().normalize().toString()));
+  }
+
+  private static class Header {
+    final String path;
+    final String format;
+    final String configuration;
+    final long size;
+    final long modified;
+    final long cachedAt;
+    final byte[] hash;
+
+    Header(Path path, DataFormat format, String configuration, long size, long modified,
+        long cachedAt, byte[] hash) {
+      this(path.toAbsolutePath().normalize().toString(), format.getClass().getName(),
+          configuration, size, modified, cachedAt, hash);
+    }
+
+    Header(String path, String format, String configuration, long size, long modified,
+        long cachedAt, byte[] hash) {
+      this.path = path;
+      this.format = format;
+      this.configuration = configuration;
+      this.size = size;
+      this.modified = modified;
+      this.cachedAt = cachedAt;
+      this.hash = hash;
+    }
+
+    static Header read(DataInputStream in) throws IOException {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a source data cache entry or unsupported version");
+      }
+
+      String path = in.readUTF();
+      String format = in.readUTF();
+      String configuration = in.readUTF();
+      long size = in.readLong();
+      long modified = in.readLong();
+      long cachedAt = in.readLong();
+      byte[] hash = new byte[in.readUnsignedByte()];
+      in.readFully(hash);
+
+      return new Header(path, format, configuration, size, modified, cachedAt, hash);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(path);
+      out.writeUTF(format);
+      out.writeUTF(configuration);
+      out.writeLong(size);
+      out.writeLong(modified);
+      out.writeLong(cachedAt);
+      out.writeByte(hash.length);
+      out.write(hash);
+    }
+
+    boolean matches(Path path, DataFormat format, String configuration) {
+      return this.path.equals(path.toAbsolutePath().normalize().toString()) &&
+          this.format.equals(format.getClass().getName()) &&
+          this.configuration.equals(configuration);
+    }
+  }
+}
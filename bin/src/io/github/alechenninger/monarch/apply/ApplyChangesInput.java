@@ -19,6 +19,7 @@
 package io.github.alechenninger.monarch.apply;
 
 import io.github.alechenninger.monarch.SourceSpec;
+import io.github.alechenninger.monarch.util.StatsFormat;
 import io.github.alechenninger.monarch.yaml.YamlConfiguration;
 
 import java.util.List;
@@ -46,4 +47,43 @@ public interface ApplyChangesInput {
 
   Optional<YamlConfiguration.Isolate> getYamlIsolate();
 
+  Optional<String> getCacheDir();
+
+  /** If present, stats are collected while applying and reported in this format. */
+  default Optional<StatsFormat> getStatsFormat() {
+    return Optional.empty();
+  }
+
+  /** If present, a flight recording of applying is written to this path. */
+  default Optional<String> getProfilePath() {
+    return Optional.empty();
+  }
+
+  /** If present, a report of each decision made generating each source is written here. */
+  default Optional<String> getExplainPath() {
+    return Optional.empty();
+  }
+
+  /** If present, only this shard of the target's sources is applied. */
+  default Optional<Shard> getShard() {
+    return Optional.empty();
+  }
+
+  /** Whether to keep applying changes as input files are modified, until interrupted. */
+  default boolean isWatch() {
+    return false;
+  }
+
+  /**
+   * Whether to only check that the data directory is already in the state applying changes would
+   * generate, rather than write anything.
+   */
+  default boolean isCheck() {
+    return false;
+  }
+
+  /** When checking, whether to report every source which differs rather than only the first. */
+  default boolean isCheckAll() {
+    return false;
+  }
 }
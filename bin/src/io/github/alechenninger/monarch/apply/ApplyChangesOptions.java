@@ -23,6 +23,7 @@ import io.github.alechenninger.monarch.DataFormatsConfiguration;
 import io.github.alechenninger.monarch.DefaultConfigPaths;
 import io.github.alechenninger.monarch.Hierarchy;
 import io.github.alechenninger.monarch.MonarchException;
+import io.github.alechenninger.monarch.MonarchFileParseException;
 import io.github.alechenninger.monarch.DataFormats;
 import io.github.alechenninger.monarch.SerializableConfig;
 import io.github.alechenninger.monarch.SourceSpec;
@@ -31,7 +32,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
-import org.yaml.snakeyaml.error.YAMLException;
 
 import java.io.IOException;
 import java.nio.file.FileSystem;
@@ -58,10 +58,22 @@ public interface ApplyChangesOptions {
   Logger log = LoggerFactory.getLogger(ApplyChangesOptions.class);
 
   default Optional<DataFormatsConfiguration> dataFormatsConfiguration() {
-    return yamlConfiguration().map(yamlConf -> new DataFormatsConfiguration() {
+    Optional<YamlConfiguration> yamlConfiguration = yamlConfiguration();
+    Optional<Path> cacheDir = cacheDir();
+
+    if (!yamlConfiguration.isPresent() && !cacheDir.isPresent()) {
+      return Optional.empty();
+    }
+
+    return Optional.of(new DataFormatsConfiguration() {
       @Override
       public Optional<YamlConfiguration> yamlConfiguration() {
-        return Optional.of(yamlConf);
+        return yamlConfiguration;
+      }
+
+      @Override
+      public Optional<Path> cacheDir() {
+        return cacheDir;
       }
     });
   }
@@ -70,6 +82,13 @@ public interface ApplyChangesOptions {
     return Optional.empty();
   }
 
+  /**
+   * Directory to cache parsed data sources in between runs. Caching is disabled if not present.
+   */
+  default Optional<Path> cacheDir() {
+    return Optional.empty();
+  }
+
   default ApplyChangesOptions fallingBackTo(ApplyChangesOptions fallback) {
     return new OverridableApplyChangesOptions(this, fallback);
   }
@@ -90,15 +109,15 @@ public interface ApplyChangesOptions {
     configPaths.addAll(defaultConfigPaths.get(fileSystem));
 
     for (Path configPath : configPaths) {
-      if (Files.exists(configPath) && !Files.isDirectory(configPath)) {
-        log.debug("Loading config from: {}", configPath);
-
-        try {
-          // TODO: eventually maybe don't assume YAML
-          options = options.fallingBackTo(ApplyChangesOptions.fromYaml(configPath));
-        } catch (YAMLException | IOException e) {
-          log.warn("Unable to read config file: {}", configPath, e);
+      try {
+        Optional<SerializableConfig> config = dataFormats.parseConfig(configPath);
+
+        if (config.isPresent()) {
+          log.debug("Loaded config from: {}", configPath);
+          options = options.fallingBackTo(new ApplyChangesOptionsFromSerializableConfig(config.get(), fileSystem));
         }
+      } catch (MonarchFileParseException e) {
+        log.warn("Unable to read config file: {}", configPath, e);
       }
     }
 
@@ -36,6 +36,10 @@ public class ApplyChangesOptionsFromInput implements ApplyChangesOptions {
   private final DataFormats parsers;
   private final FileSystem fileSystem;
 
+  // Parsed at most once, however many times options are consulted.
+  private Optional<Hierarchy> cachedHierarchy;
+  private Iterable<Change> cachedChanges;
+
   public ApplyChangesOptionsFromInput(ApplyChangesInput input, DataFormats parsers,
       FileSystem fileSystem) {
     this.input = input;
@@ -45,8 +49,12 @@ public class ApplyChangesOptionsFromInput implements ApplyChangesOptions {
 
   @Override
   public Optional<Hierarchy> hierarchy() {
-    return input.getHierarchyPathOrYaml()
-        .map(pathOrYaml -> parsers.parseHierarchy(pathOrYaml, fileSystem));
+    if (cachedHierarchy == null) {
+      cachedHierarchy = input.getHierarchyPathOrYaml()
+          .map(pathOrYaml -> parsers.parseHierarchy(pathOrYaml, fileSystem));
+    }
+
+    return cachedHierarchy;
   }
 
   @Override
@@ -56,9 +64,13 @@ public class ApplyChangesOptionsFromInput implements ApplyChangesOptions {
 
   @Override
   public Iterable<Change> changes() {
-    return input.getChangesPathOrYaml()
-        .map(pathOrYaml -> parsers.parseChanges(pathOrYaml, fileSystem))
-        .orElse(Collections.emptyList());
+    if (cachedChanges == null) {
+      cachedChanges = input.getChangesPathOrYaml()
+          .<Iterable<Change>>map(pathOrYaml -> parsers.parseChanges(pathOrYaml, fileSystem))
+          .orElse(Collections.emptyList());
+    }
+
+    return cachedChanges;
   }
 
   @Override
@@ -85,4 +97,9 @@ public class ApplyChangesOptionsFromInput implements ApplyChangesOptions {
   public Optional<Path> outputDir() {
     return input.getOutputDir().map(fileSystem::getPath);
   }
+
+  @Override
+  public Optional<Path> cacheDir() {
+    return input.getCacheDir().map(fileSystem::getPath);
+  }
 }
@@ -41,7 +41,7 @@ public class ApplyChangesOptionsFromSerializableConfig implements ApplyChangesOp
 
   @Override
   public Optional<Hierarchy> hierarchy() {
-    return Optional.ofNullable(config.getHierarchy()).map(Hierarchy::fromStringListOrMap);
+    return config.parsedHierarchy();
   }
 
   @Override
@@ -69,6 +69,11 @@ public class ApplyChangesOptionsFromSerializableConfig implements ApplyChangesOp
     return Optional.ofNullable(config.getOutputDir()).map(fileSystem::getPath);
   }
 
+  @Override
+  public Optional<Path> cacheDir() {
+    return Optional.ofNullable(config.getCacheDir()).map(fileSystem::getPath);
+  }
+
   @Override
   public Optional<YamlConfiguration> yamlConfiguration() {
     return Optional.ofNullable(config.getDataFormats())
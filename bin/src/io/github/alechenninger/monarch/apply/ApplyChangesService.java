@@ -21,18 +21,34 @@ package io.github.alechenninger.monarch.apply;
 import io.github.alechenninger.monarch.Change;
 import io.github.alechenninger.monarch.DataFormats;
 import io.github.alechenninger.monarch.DataFormatsConfiguration;
+import io.github.alechenninger.monarch.DecisionTrace;
+import io.github.alechenninger.monarch.GeneratedSourceCache;
 import io.github.alechenninger.monarch.Hierarchy;
+import io.github.alechenninger.monarch.Jfr;
 import io.github.alechenninger.monarch.Monarch;
 import io.github.alechenninger.monarch.Source;
 import io.github.alechenninger.monarch.SourceData;
+import io.github.alechenninger.monarch.SourceFingerprints;
 import io.github.alechenninger.monarch.SourceSpec;
+import io.github.alechenninger.monarch.Stats;
 import io.github.alechenninger.monarch.Targetable;
 import io.github.alechenninger.monarch.util.MoreFiles;
+import io.github.alechenninger.monarch.yaml.YamlConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -49,18 +65,274 @@ public class ApplyChangesService {
     this.monarch = monarch;
   }
 
+  /** @return A service like this one, but which parses and writes with {@code dataFormats}. */
+  public ApplyChangesService withDataFormats(DataFormats dataFormats) {
+    return new ApplyChangesService(dataFormats, monarch);
+  }
+
   public void applyChanges(Path outputDir, Hierarchy hierarchy, Optional<SourceSpec> targetSpec,
       Iterable<Change> changes, Set<String> mergeKeys,
       Optional<DataFormatsConfiguration> dataFormatsConfiguration, Path dataDir) {
+    applyChanges(outputDir, hierarchy, targetSpec, changes, mergeKeys, dataFormatsConfiguration,
+        dataDir, DecisionTrace.NONE);
+  }
+
+  /**
+   * @param trace Told of each decision made about each key while generating sources, to explain
+   *              the result.
+   */
+  public void applyChanges(Path outputDir, Hierarchy hierarchy, Optional<SourceSpec> targetSpec,
+      Iterable<Change> changes, Set<String> mergeKeys,
+      Optional<DataFormatsConfiguration> dataFormatsConfiguration, Path dataDir,
+      DecisionTrace trace) {
+    applyChanges(outputDir, hierarchy, targetSpec, changes, mergeKeys, dataFormatsConfiguration,
+        dataDir, trace, Optional.empty());
+  }
+
+  /**
+   * @param shard If present, only the sources of this shard are parsed, generated, and written,
+   *              along with what they inherit from. Applying every shard writes the same as
+   *              applying without one.
+   */
+  @SuppressWarnings("try")
+  public void applyChanges(Path outputDir, Hierarchy hierarchy, Optional<SourceSpec> targetSpec,
+      Iterable<Change> changes, Set<String> mergeKeys,
+      Optional<DataFormatsConfiguration> dataFormatsConfiguration, Path dataDir,
+      DecisionTrace trace, Optional<Shard> shard) {
+    Generated generated = generate(hierarchy, targetSpec, changes, mergeKeys,
+        dataFormatsConfiguration, dataDir, trace, shard);
+
+    try (Stats.Timer ignored = Stats.time("write")) {
+      writeAffectedSources(generated.result, generated.affectedSources, generated.currentData,
+          outputDir, generated.cached);
+    }
+  }
+
+  /**
+   * Generates sources like {@link #applyChanges(Path, Hierarchy, Optional, Iterable, Set,
+   * Optional, Path, DecisionTrace, Optional)}, but rather than writing them, compares each with
+   * its current data in {@code dataDir}. Nothing is serialized or written, though sources
+   * generated before from the same inputs may be reused from the cache directory.
+   *
+   * @param all Whether to find every source which differs, rather than stopping at the first.
+   * @return Paths of sources whose current data differs from what the changes generate, in
+   * hierarchy order. Empty if every source is already in its generated state.
+   */
+  @SuppressWarnings("try")
+  public List<String> checkChanges(Hierarchy hierarchy, Optional<SourceSpec> targetSpec,
+      Iterable<Change> changes, Set<String> mergeKeys,
+      Optional<DataFormatsConfiguration> dataFormatsConfiguration, Path dataDir,
+      Optional<Shard> shard, boolean all) {
+    Generated generated = generate(hierarchy, targetSpec, changes, mergeKeys,
+        dataFormatsConfiguration, dataDir, DecisionTrace.NONE, shard);
+    List<String> differing = new ArrayList<>();
+
+    try (Stats.Timer ignored = Stats.time("check")) {
+      for (String path : generated.affectedSources) {
+        Map<String, Object> expected =
+            generated.result.getOrDefault(path, Collections.emptyMap());
+        SourceData current = generated.currentData.get(path);
+        Map<String, Object> actual = current == null ? Collections.emptyMap() : current.data();
+
+        Stats.count("sources.checked");
+
+        if (!expected.equals(actual)) {
+          differing.add(path);
+
+          if (!all) {
+            break;
+          }
+        }
+      }
+    }
+
+    return differing;
+  }
+
+  private Generated generate(Hierarchy hierarchy, Optional<SourceSpec> targetSpec,
+      Iterable<Change> changes, Set<String> mergeKeys,
+      Optional<DataFormatsConfiguration> dataFormatsConfiguration, Path dataDir,
+      DecisionTrace trace, Optional<Shard> shard) {
     DataFormats configuredFormats = dataFormatsConfiguration
         .map(dataFormats::withConfiguration)
         .orElse(dataFormats);
 
+    for (Change change : changes) {
+      checkChangeIsApplicable(hierarchy, change);
+    }
+
+    Optional<Source> targetSource = targetSpec.map(spec -> hierarchy.sourceFor(spec)
+        .orElseThrow(() -> new IllegalArgumentException(
+            "No source found in hierarchy which satisfies: " + targetSpec)));
+    Targetable target = targetSource.map(Targetable::of).orElse(Targetable.of(hierarchy));
+    Monarch tracingMonarch = trace == DecisionTrace.NONE ? monarch : monarch.withTrace(trace);
+    // Reused sources make no decisions to trace, so only reuse them when nothing is traced.
+    Optional<GeneratedSourceCache> cache = trace == DecisionTrace.NONE
+        ? dataFormatsConfiguration.flatMap(DataFormatsConfiguration::cacheDir)
+            .map(dir -> new GeneratedSourceCache(dir, serializationOf(dataFormatsConfiguration)))
+        : Optional.empty();
+
+    if (shard.isPresent()) {
+      return generateShard(shard.get(), targetSource, target.descendants(), changes, mergeKeys,
+          configuredFormats, dataDir, tracingMonarch, cache);
+    }
+
     Map<String, SourceData> currentData =
-        configuredFormats.parseDataSourcesInHierarchy(dataDir, hierarchy);
+        parseLineages(configuredFormats, dataDir, target.descendants());
+
+    Set<String> affectedSources = target.descendants().stream()
+        .map(Source::path)
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+    // TODO: Consider currentSources of type Sources or something like that with getter for this
+    Map<String, Map<String, Object>> currentData1 = currentData.entrySet().stream()
+        .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().data()));
+
+    if (cache.isPresent()) {
+      CachedSources cached = new CachedSources(cache.get(), dataDir, changes, currentData1,
+          mergeKeys, target.descendants());
+      Map<String, Map<String, Object>> result = generateUncached(tracingMonarch,
+          target.descendants(), changes, currentData1, mergeKeys, cached);
+
+      return new Generated(result, affectedSources, currentData, cached);
+    }
+
+    Map<String, Map<String, Object>> result =
+        target.generateSources(tracingMonarch, changes, currentData1, mergeKeys);
+
+    return new Generated(result, affectedSources, currentData, CachedSources.NONE);
+  }
+
+  /**
+   * Generates only those {@code sources} which were not generated before from the same inputs,
+   * reusing what was cached for the rest.
+   */
+  private Map<String, Map<String, Object>> generateUncached(Monarch monarch,
+      List<Source> sources, Iterable<Change> changes, Map<String, Map<String, Object>> data,
+      Set<String> mergeKeys, CachedSources cached) {
+    Map<String, Map<String, Object>> generateFrom = new HashMap<>(data);
+    List<Source> generate = new ArrayList<>();
+
+    // Fingerprint everything before cached data replaces current data to generate from.
+    for (Source source : sources) {
+      cached.lookup(source);
+    }
+
+    for (Source source : sources) {
+      Optional<GeneratedSourceCache.Entry> hit = cached.hit(source.path());
+
+      if (hit.isPresent()) {
+        generateFrom.put(source.path(), hit.get().generated());
+        Stats.count("sources.reused");
+      } else {
+        generate.add(source);
+      }
+    }
+
+    log.debug("Reusing {} of {} sources generated before from the same inputs",
+        sources.size() - generate.size(), sources.size());
+
+    return monarch.generateSources(generate, changes, generateFrom, mergeKeys);
+  }
+
+  /**
+   * Describes each option of {@code config} which changes how generated sources are written, so
+   * that sources cached with one configuration are not reused with another.
+   */
+  private static String serializationOf(Optional<DataFormatsConfiguration> config) {
+    YamlConfiguration yaml = config.flatMap(DataFormatsConfiguration::yamlConfiguration)
+        .orElse(YamlConfiguration.DEFAULT);
+
+    return "yaml indent=" + yaml.indent() + ", updateIsolation=" + yaml.updateIsolation();
+  }
+
+  /**
+   * Parses the data of every source in the lineage of {@code sources}. Sources only inherit from
+   * their lineage, so nothing else needs to be parsed, nor the rest of the hierarchy listed, which
+   * may not even be possible.
+   */
+  private static Map<String, SourceData> parseLineages(DataFormats formats, Path dataDir,
+      Collection<Source> sources) {
+    Map<String, SourceData> data = new HashMap<>();
+
+    for (Source source : sources) {
+      for (Source ancestor : source.lineage()) {
+        data.computeIfAbsent(ancestor.path(), path -> formats.parseData(dataDir.resolve(path)));
+      }
+    }
+
+    return data;
+  }
+
+  private Generated generateShard(Shard shard, Optional<Source> targetSource,
+      List<Source> descendants, Iterable<Change> changes, Set<String> mergeKeys,
+      DataFormats configuredFormats, Path dataDir, Monarch monarch,
+      Optional<GeneratedSourceCache> cache) {
+    Set<String> affectedSources = descendants.stream()
+        .filter(source -> shard.writes(source, targetSource))
+        .map(Source::path)
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+    // What a source generates depends on what each of its ancestors under the target generate,
+    // even those in another shard's subtree, so generate those too, but do not write them.
+    Set<String> generatePaths = new HashSet<>();
+
+    for (Source source : descendants) {
+      if (affectedSources.contains(source.path())) {
+        for (Source ancestor : source.lineage()) {
+          generatePaths.add(ancestor.path());
+        }
+      }
+    }
+
+    List<Source> generate = descendants.stream()
+        .filter(source -> generatePaths.contains(source.path()))
+        .collect(Collectors.toList());
+
+    Map<String, SourceData> currentData = parseLineages(configuredFormats, dataDir, generate);
+    Map<String, Map<String, Object>> data = new HashMap<>();
+    currentData.forEach((path, sourceData) -> data.put(path, sourceData.data()));
+
+    log.debug("Shard {} generating {} of {} sources, and writing {}", shard, generate.size(),
+        descendants.size(), affectedSources.size());
+
+    if (cache.isPresent()) {
+      CachedSources cached =
+          new CachedSources(cache.get(), dataDir, changes, data, mergeKeys, generate);
+      Map<String, Map<String, Object>> result =
+          generateUncached(monarch, generate, changes, data, mergeKeys, cached);
+
+      return new Generated(result, affectedSources, currentData, cached);
+    }
+
+    Map<String, Map<String, Object>> result =
+        monarch.generateSources(generate, changes, data, mergeKeys);
+
+    return new Generated(result, affectedSources, currentData, CachedSources.NONE);
+  }
+
+  /**
+   * Applies changes like {@link #applyChanges(Path, Hierarchy, Optional, Iterable, Set, Optional,
+   * Path)}, but if they were {@code previous}ly applied with the same hierarchy, target, merge
+   * keys, and directories, only regenerates and writes sources which may be affected by what
+   * changed since: those whose lineage includes a source whose data or changes differ.
+   *
+   * <p>Data sources are parsed again each time, so pair this with {@code DataFormats} which cache
+   * parsed files until they are modified.
+   *
+   * @return What was applied, to pass as {@code previous} next time.
+   */
+  @SuppressWarnings("try")
+  public Applied reapplyChanges(Optional<Applied> previous, Path outputDir, Hierarchy hierarchy,
+      Optional<SourceSpec> targetSpec, Iterable<Change> changes, Set<String> mergeKeys,
+      Optional<DataFormatsConfiguration> dataFormatsConfiguration, Path dataDir) {
+    DataFormats configuredFormats = dataFormatsConfiguration
+        .map(dataFormats::withConfiguration)
+        .orElse(dataFormats);
+
+    List<Change> changeList = new ArrayList<>();
 
     for (Change change : changes) {
       checkChangeIsApplicable(hierarchy, change);
+      changeList.add(change);
     }
 
     Targetable target = targetSpec.map(spec -> Targetable.of(
@@ -68,16 +340,54 @@ public class ApplyChangesService {
             "No source found in hierarchy which satisfies: " + targetSpec))))
         .orElse(Targetable.of(hierarchy));
 
-    Set<String> affectedSources = target.descendants().stream()
+    Map<String, Map<String, Object>> data = new HashMap<>();
+    List<Source> regenerate = target.descendants();
+    Map<String, SourceData> currentData = parseLineages(configuredFormats, dataDir, regenerate);
+
+    Optional<Applied> compatible = previous
+        .filter(p -> p.isCompatibleWith(outputDir, hierarchy, targetSpec, mergeKeys, dataDir));
+
+    if (compatible.isPresent()) {
+      Applied last = compatible.get();
+      Set<String> dirty = last.dirtySources(hierarchy, currentData, changeList);
+
+      regenerate = regenerate.stream()
+          .filter(source -> source.lineage().stream().map(Source::path).anyMatch(dirty::contains))
+          .collect(Collectors.toList());
+
+      // Reuse what was generated last time, except for what we are about to regenerate, and
+      // whatever those sources may inherit which has since changed.
+      data.putAll(last.result);
+      regenerate.stream().map(Source::path).forEach(dirty::add);
+
+      for (String path : dirty) {
+        SourceData sourceData = currentData.get(path);
+        data.put(path, sourceData == null ? Collections.emptyMap() : sourceData.data());
+      }
+    } else {
+      currentData.forEach((path, sourceData) -> data.put(path, sourceData.data()));
+    }
+
+    Set<String> affectedSources = regenerate.stream()
         .map(Source::path)
-        .collect(Collectors.toSet());
-    // TODO: Consider currentSources of type Sources or something like that with getter for this
-    Map<String, Map<String, Object>> currentData1 = currentData.entrySet().stream()
-        .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().data()));
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+
+    log.debug("Regenerating {}", affectedSources);
 
     Map<String, Map<String, Object>> result =
-        target.generateSources(monarch, changes, currentData1, mergeKeys);
+        monarch.generateSources(regenerate, changeList, data, mergeKeys);
+
+    try (Stats.Timer ignored = Stats.time("write")) {
+      writeAffectedSources(result, affectedSources, currentData, outputDir, CachedSources.NONE);
+    }
+
+    return new Applied(outputDir, hierarchy, targetSpec, changeList, mergeKeys, dataDir,
+        currentData, result, affectedSources);
+  }
 
+  private void writeAffectedSources(Map<String, Map<String, Object>> result,
+      Set<String> affectedSources, Map<String, SourceData> currentData, Path outputDir,
+      CachedSources cached) {
     for (Map.Entry<String, Map<String, Object>> pathToData : result.entrySet()) {
       String path = pathToData.getKey();
 
@@ -88,24 +398,42 @@ public class ApplyChangesService {
 
       Path outPath = outputDir.resolve(path);
       Map<String, Object> outData = pathToData.getValue();
+      Optional<GeneratedSourceCache.Entry> hit = cached.hit(path);
+
+      if (hit.isPresent() && hit.get().isWritten(outPath)) {
+        log.debug("Skipping {} which already has the data generated for it", outPath);
+        Stats.count("sources.unchanged");
+        continue;
+      }
+
       SourceData sourceData = currentData.containsKey(path)
           ? currentData.get(path)
           : dataFormats.forPath(outPath).newSourceData();
 
       if (sourceData.isEmpty() && outData.isEmpty()) {
+        cached.put(path, outData);
         continue;
       }
 
       log.debug("Writing result source data for {} to {}", path, outPath);
 
+      Jfr.Event event = Jfr.begin(Jfr.SOURCE_WRITE);
+
       try {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         sourceData.writeUpdate(outData, out);
         MoreFiles.createDirectoriesAndWrite(outPath, out.toByteArray());
+        Stats.count("sources.written");
+        Stats.count("bytes.written", out.size());
+        event.set("path", path).set("bytes", (long) out.size()).set("keys", outData.size())
+            .commit();
+        cached.put(path, outData, outPath);
       } catch (Exception e) {
         log.error("Failed to write updated data source for " + path + " to " + outPath, e);
       }
     }
+
+    cached.putWritten();
   }
 
   private static void checkChangeIsApplicable(Hierarchy hierarchy, Change change) {
@@ -115,4 +443,235 @@ public class ApplyChangesService {
           "change's target for correctness: {}", spec);
     }
   }
+
+  /** Sources generated from current data, before they are written or checked. */
+  private static class Generated {
+    final Map<String, Map<String, Object>> result;
+    /** Sources to write or check, in hierarchy order. */
+    final Set<String> affectedSources;
+    final Map<String, SourceData> currentData;
+    final CachedSources cached;
+
+    Generated(Map<String, Map<String, Object>> result, Set<String> affectedSources,
+        Map<String, SourceData> currentData, CachedSources cached) {
+      this.result = result;
+      this.affectedSources = affectedSources;
+      this.currentData = currentData;
+      this.cached = cached;
+    }
+  }
+
+  /** Cached generated sources, looked up by each source's fingerprint. */
+  private static class CachedSources {
+    static final CachedSources NONE =
+        new CachedSources(null, null, null, null, Collections.emptySet(), Collections.emptyList());
+
+    private final GeneratedSourceCache cache;
+    private final Path dataDir;
+    private final Iterable<Change> changes;
+    private final Map<String, Map<String, Object>> data;
+    private final Set<String> mergeKeys;
+    private final Set<String> generated;
+    private final SourceFingerprints fingerprints;
+    private final Map<String, Source> sources = new HashMap<>();
+    private final Map<String, GeneratedSourceCache.Entry> hits = new HashMap<>();
+    private final Map<String, Written> written = new LinkedHashMap<>();
+
+    /** @param generated The sources generated together, which may be looked up. */
+    CachedSources(GeneratedSourceCache cache, Path dataDir, Iterable<Change> changes,
+        Map<String, Map<String, Object>> data, Set<String> mergeKeys,
+        Collection<Source> generated) {
+      this.cache = cache;
+      this.dataDir = dataDir;
+      this.changes = changes;
+      this.data = data;
+      this.mergeKeys = mergeKeys;
+      this.generated = generated.stream().map(Source::path).collect(Collectors.toSet());
+      this.fingerprints = new SourceFingerprints(changes, data, mergeKeys, this.generated);
+    }
+
+    void lookup(Source source) {
+      sources.put(source.path(), source);
+      cache.get(dataDir.resolve(source.path()), fingerprints.of(source))
+          .ifPresent(entry -> hits.put(source.path(), entry));
+    }
+
+    Optional<GeneratedSourceCache.Entry> hit(String path) {
+      return Optional.ofNullable(hits.get(path));
+    }
+
+    /**
+     * Remembers that {@code generated} was written for the source at {@code path}, if any, to
+     * {@link #putWritten() cache} once every source is written.
+     */
+    void put(String path, Map<String, Object> generated, Path... files) {
+      if (sources.containsKey(path)) {
+        written.put(path, new Written(generated, Arrays.asList(files)));
+      }
+    }
+
+    /**
+     * Caches what was written. Sources written over their own data file will be generated from
+     * what was written next time, so they, and their descendants, are cached by the fingerprint
+     * of what was written rather than of what they were generated from. Either generates the
+     * same data.
+     */
+    void putWritten() {
+      if (written.isEmpty()) {
+        return;
+      }
+
+      Map<String, Map<String, Object>> nextData = new HashMap<>(data);
+
+      written.forEach((path, sourceWritten) -> {
+        Path dataFile = dataDir.resolve(path).toAbsolutePath().normalize();
+
+        if (sourceWritten.files.stream()
+            .anyMatch(file -> file.toAbsolutePath().normalize().equals(dataFile))) {
+          nextData.put(path, sourceWritten.generated);
+        }
+      });
+
+      SourceFingerprints nextFingerprints =
+          new SourceFingerprints(changes, nextData, mergeKeys, generated);
+
+      written.forEach((path, sourceWritten) -> {
+        Path dataFile = dataDir.resolve(path);
+        Set<Path> files = new LinkedHashSet<>(sourceWritten.files);
+
+        if (Files.isRegularFile(dataFile)) {
+          files.add(dataFile);
+        }
+
+        cache.put(dataFile, nextFingerprints.of(sources.get(path)), sourceWritten.generated,
+            files);
+      });
+
+      written.clear();
+    }
+
+    private static class Written {
+      final Map<String, Object> generated;
+      final List<Path> files;
+
+      Written(Map<String, Object> generated, List<Path> files) {
+        this.generated = generated;
+        this.files = files;
+      }
+    }
+  }
+
+  /** The inputs and result of {@link #reapplyChanges applying changes}. */
+  public static class Applied {
+    private final Path outputDir;
+    private final Hierarchy hierarchy;
+    private final Optional<SourceSpec> targetSpec;
+    private final List<Change> changes;
+    private final Set<String> mergeKeys;
+    private final Path dataDir;
+    private final Map<String, SourceData> data;
+    private final Map<String, Map<String, Object>> result;
+    private final Set<String> regenerated;
+
+    Applied(Path outputDir, Hierarchy hierarchy, Optional<SourceSpec> targetSpec,
+        List<Change> changes, Set<String> mergeKeys, Path dataDir, Map<String, SourceData> data,
+        Map<String, Map<String, Object>> result, Set<String> regenerated) {
+      this.outputDir = outputDir;
+      this.hierarchy = hierarchy;
+      this.targetSpec = targetSpec;
+      this.changes = changes;
+      this.mergeKeys = mergeKeys;
+      this.dataDir = dataDir;
+      this.data = data;
+      this.result = result;
+      this.regenerated = regenerated;
+    }
+
+    /** Paths of the sources which were regenerated, in the order they were generated. */
+    public Set<String> regenerated() {
+      return Collections.unmodifiableSet(regenerated);
+    }
+
+    boolean isCompatibleWith(Path outputDir, Hierarchy hierarchy,
+        Optional<SourceSpec> targetSpec, Set<String> mergeKeys, Path dataDir) {
+      return this.outputDir.equals(outputDir) &&
+          this.dataDir.equals(dataDir) &&
+          this.targetSpec.equals(targetSpec) &&
+          this.mergeKeys.equals(mergeKeys) &&
+          hasSameSources(this.hierarchy, hierarchy);
+    }
+
+    /**
+     * @return Paths of sources whose data differs from last time, or which are the source of a
+     * change which was added, removed, or modified since.
+     */
+    Set<String> dirtySources(Hierarchy hierarchy, Map<String, SourceData> currentData,
+        List<Change> currentChanges) {
+      Set<String> dirty = new HashSet<>();
+      Set<String> paths = new HashSet<>(data.keySet());
+      paths.addAll(currentData.keySet());
+
+      for (String path : paths) {
+        SourceData last = data.get(path);
+        SourceData current = currentData.get(path);
+
+        if (last == current) {
+          continue;
+        }
+
+        if (last == null || current == null || !last.data().equals(current.data())) {
+          dirty.add(path);
+        }
+      }
+
+      Set<Change> lastChanges = new HashSet<>(changes);
+      Set<Change> nextChanges = new HashSet<>(currentChanges);
+
+      for (Change change : changes) {
+        if (!nextChanges.contains(change)) {
+          change.sourceSpec().findSource(hierarchy).map(Source::path).ifPresent(dirty::add);
+        }
+      }
+
+      for (Change change : currentChanges) {
+        if (!lastChanges.contains(change)) {
+          change.sourceSpec().findSource(hierarchy).map(Source::path).ifPresent(dirty::add);
+        }
+      }
+
+      return dirty;
+    }
+
+    /**
+     * Compares sources and their lineage by path, rather than relying on {@code equals}, since
+     * hierarchies parsed from config files are new objects each time they are read.
+     */
+    private static boolean hasSameSources(Hierarchy last, Hierarchy next) {
+      if (last == next) {
+        return true;
+      }
+
+      List<Source> lastSources = last.allSources();
+      List<Source> nextSources = next.allSources();
+
+      if (lastSources.size() != nextSources.size()) {
+        return false;
+      }
+
+      for (int i = 0; i < lastSources.size(); i++) {
+        List<String> lastLineage = lastSources.get(i).lineage().stream()
+            .map(Source::path)
+            .collect(Collectors.toList());
+        List<String> nextLineage = nextSources.get(i).lineage().stream()
+            .map(Source::path)
+            .collect(Collectors.toList());
+
+        if (!lastLineage.equals(nextLineage)) {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
 }
@@ -79,6 +79,11 @@ public class OverridableApplyChangesOptions implements ApplyChangesOptions {
     return overridden(ApplyChangesOptions::yamlConfiguration);
   }
 
+  @Override
+  public Optional<Path> cacheDir() {
+    return overridden(ApplyChangesOptions::cacheDir);
+  }
+
   private <T> Optional<T> overridden(Function<ApplyChangesOptions, Optional<T>> input) {
     Optional<T> maybeOverride = input.apply(override);
 
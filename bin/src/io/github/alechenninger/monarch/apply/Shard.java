@@ -0,0 +1,134 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.apply;
+
+import io.github.alechenninger.monarch.Source;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * One of {@code count} deterministic partitions of the sources under a target, so that applying
+ * changes may be split across processes or machines which together write exactly what one would.
+ *
+ * <p>Sources are partitioned by subtree: each source belongs to the shard of the source directly
+ * beneath the target in its lineage (or beneath its root, when there is no target), chosen by
+ * hashing that source's path. The target itself, or the roots, is the "trunk", which only the
+ * first shard writes.
+ *
+ * <p>In a dynamic hierarchy, a source may have ancestors in other subtrees than its own, so a
+ * shard must generate every ancestor of the sources it writes, wherever they belong, to write
+ * what one would.
+ */
+public final class Shard {
+  private final int index;
+  private final int count;
+
+  /**
+   * @param index Which shard this is, from 1 to {@code count}.
+   * @param count How many shards there are in total.
+   */
+  public Shard(int index, int count) {
+    if (count < 1 || index < 1 || index > count) {
+      throw new IllegalArgumentException("Shard must be between 1 and the number of shards, " +
+          "and there must be at least one shard, but got " + index + "/" + count);
+    }
+
+    this.index = index;
+    this.count = count;
+  }
+
+  /** @param spec Like "2/4", for the second of four shards. */
+  public static Shard parse(String spec) {
+    String[] parts = spec.split("/", -1);
+
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("Shard must be like 'i/n', but got: " + spec);
+    }
+
+    try {
+      return new Shard(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Shard must be like 'i/n', but got: " + spec, e);
+    }
+  }
+
+  public int index() {
+    return index;
+  }
+
+  public int count() {
+    return count;
+  }
+
+  /** @return Whether this shard, and only this shard, writes {@code source}. */
+  public boolean writes(Source source, Optional<Source> target) {
+    return subtreeOf(source, target).map(this::ownsSubtree).orElse(index == 1);
+  }
+
+  private boolean ownsSubtree(String subtree) {
+    // String.hashCode is specified, so every process agrees on the partition.
+    return Math.floorMod(subtree.hashCode(), count) == index - 1;
+  }
+
+  /**
+   * @return Path of the source directly beneath the target or root in {@code source}'s lineage,
+   * or empty if {@code source} is the target or a root.
+   */
+  private static Optional<String> subtreeOf(Source source, Optional<Source> target) {
+    List<Source> lineage = source.lineage();
+    int trunk = lineage.size() - 1;
+
+    if (target.isPresent()) {
+      String targetPath = target.get().path();
+      trunk = 0;
+
+      while (trunk < lineage.size() && !lineage.get(trunk).path().equals(targetPath)) {
+        trunk++;
+      }
+    }
+
+    return trunk > 0 && trunk < lineage.size()
+        ? Optional.of(lineage.get(trunk - 1).path())
+        : Optional.empty();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    Shard shard = (Shard) o;
+    return index == shard.index && count == shard.count;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(index, count);
+  }
+
+  @Override
+  public String toString() {
+    return index + "/" + count;
+  }
+}
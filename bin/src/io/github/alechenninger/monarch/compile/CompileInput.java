@@ -1,6 +1,6 @@
 /*
  * monarch - A tool for managing hierarchical data.
- * Copyright (C) 2017 Alec Henninger
+ * Copyright (C) 2015  Alec Henninger
  *
  * This program is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as published by
@@ -16,21 +16,15 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-package io.github.alechenninger.monarch.logging;
+package io.github.alechenninger.monarch.compile;
 
-import java.io.OutputStream;
-import java.util.logging.Formatter;
-import java.util.logging.LogRecord;
-import java.util.logging.StreamHandler;
+import java.util.Optional;
 
-class ImmediateFlushStreamHandler extends StreamHandler {
-  ImmediateFlushStreamHandler(OutputStream out, Formatter formatter) {
-    super(out, formatter);
-  }
+/** User input for validating and compiling a hierarchy file. */
+public interface CompileInput {
+  Optional<String> getHierarchyPath();
 
-  @Override
-  public synchronized void publish(LogRecord record) {
-    super.publish(record);
-    flush();
-  }
+  boolean isHelpRequested();
+
+  String getHelpMessage();
 }
@@ -0,0 +1,82 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.compile;
+
+import io.github.alechenninger.monarch.CompiledHierarchy;
+import io.github.alechenninger.monarch.CompiledHierarchyFile;
+import io.github.alechenninger.monarch.DataFormats;
+import io.github.alechenninger.monarch.Hierarchy;
+import io.github.alechenninger.monarch.MonarchFileParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Validates a hierarchy file and writes its {@link CompiledHierarchyFile}, so that later commands
+ * read the rendered sources rather than parsing and rendering the hierarchy again.
+ */
+public class CompileService {
+  private final DataFormats dataFormats;
+
+  private static final Logger log = LoggerFactory.getLogger(CompileService.class);
+
+  public CompileService(DataFormats dataFormats) {
+    this.dataFormats = dataFormats;
+  }
+
+  /**
+   * Logs problems found with the hierarchy, and compiles it if none of them are errors.
+   *
+   * @return Whether the hierarchy was compiled.
+   */
+  public boolean compile(Path hierarchyPath) throws IOException {
+    byte[] content = Files.readAllBytes(hierarchyPath);
+    Hierarchy hierarchy;
+
+    try {
+      hierarchy = dataFormats.forPath(hierarchyPath)
+          .parseHierarchy(new ByteArrayInputStream(content),
+              hierarchyPath.toAbsolutePath().getParent());
+    } catch (Exception e) {
+      throw new MonarchFileParseException("hierarchy", hierarchyPath, e);
+    }
+
+    List<String> errors = new ArrayList<>();
+    CompiledHierarchy.validate(hierarchy, errors::add, log::warn);
+
+    if (!errors.isEmpty()) {
+      errors.forEach(log::error);
+      log.error("Not compiling {} due to {} error(s).", hierarchyPath, errors.size());
+      return false;
+    }
+
+    CompiledHierarchy compiled = CompiledHierarchy.compile(hierarchy);
+    Path written = CompiledHierarchyFile.write(hierarchyPath, content,
+        CompiledHierarchy.inputsOf(hierarchy), compiled);
+
+    log.info("Compiled {} sources to {}", compiled.allSources().size(), written);
+    return true;
+  }
+}
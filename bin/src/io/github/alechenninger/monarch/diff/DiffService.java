@@ -0,0 +1,145 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.diff;
+
+import io.github.alechenninger.monarch.Hierarchy;
+import io.github.alechenninger.monarch.Source;
+import io.github.alechenninger.monarch.Stats;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Finds which sources in a hierarchy differ between two data directories, without parsing them.
+ *
+ * <p>Each source is hashed by the content of its data file, and each subtree of the hierarchy by
+ * the hash of its source and of each of its children's subtrees, like a Merkle tree. Comparison
+ * starts at the roots and only descends into subtrees whose hashes differ, so identical subtrees
+ * are compared once no matter their size. With a cache directory, files which have not changed
+ * since they were last hashed are not read again, leaving only a file system lookup per source.
+ */
+public class DiffService {
+  /**
+   * @return Paths of sources whose data files differ, or which only one directory has, in
+   * hierarchy order.
+   */
+  @SuppressWarnings("try")
+  public List<String> diff(Hierarchy hierarchy, Path left, Path right, Optional<Path> cacheDir)
+      throws IOException {
+    List<Source> sources = hierarchy.allSources();
+    Map<String, Integer> order = new HashMap<>();
+    Map<String, List<Source>> children = new HashMap<>();
+    List<Source> roots = new ArrayList<>();
+
+    for (Source source : sources) {
+      List<Source> lineage = source.lineage();
+      order.put(source.path(), order.size());
+
+      if (lineage.size() == 1) {
+        roots.add(source);
+      } else {
+        children.computeIfAbsent(lineage.get(1).path(), p -> new ArrayList<>()).add(source);
+      }
+    }
+
+    MerkleTree leftTree = new MerkleTree(new SourceHashes(left, cacheDir), children);
+    MerkleTree rightTree = new MerkleTree(new SourceHashes(right, cacheDir), children);
+    List<String> differing = new ArrayList<>();
+
+    try (Stats.Timer ignored = Stats.time("diff")) {
+      for (Source root : roots) {
+        compare(root, leftTree, rightTree, children, differing);
+      }
+    } finally {
+      leftTree.hashes.save();
+      rightTree.hashes.save();
+    }
+
+    differing.sort(Comparator.comparing(order::get));
+    return differing;
+  }
+
+  private static void compare(Source source, MerkleTree left, MerkleTree right,
+      Map<String, List<Source>> children, List<String> differing) throws IOException {
+    if (Arrays.equals(left.subtree(source), right.subtree(source))) {
+      return;
+    }
+
+    Stats.count("subtrees.differing");
+
+    if (!Arrays.equals(left.hashes.of(source.path()), right.hashes.of(source.path()))) {
+      differing.add(source.path());
+    }
+
+    for (Source child : children.getOrDefault(source.path(), Collections.emptyList())) {
+      compare(child, left, right, children, differing);
+    }
+  }
+
+  private static class MerkleTree {
+    final SourceHashes hashes;
+    final Map<String, List<Source>> children;
+    final Map<String, byte[]> subtrees = new HashMap<>();
+
+    MerkleTree(SourceHashes hashes, Map<String, List<Source>> children) {
+      this.hashes = hashes;
+      this.children = children;
+    }
+
+    byte[] subtree(Source source) throws IOException {
+      byte[] subtree = subtrees.get(source.path());
+
+      if (subtree != null) {
+        return subtree;
+      }
+
+      MessageDigest digest = newDigest();
+      byte[] hash = hashes.of(source.path());
+      // Absent sources hash to nothing, so prefix the length to tell them apart.
+      digest.update((byte) hash.length);
+      digest.update(hash);
+
+      for (Source child : children.getOrDefault(source.path(), Collections.emptyList())) {
+        digest.update(subtree(child));
+      }
+
+      subtree = digest.digest();
+      subtrees.put(source.path(), subtree);
+      return subtree;
+    }
+
+    private static MessageDigest newDigest() {
+      try {
+        return MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
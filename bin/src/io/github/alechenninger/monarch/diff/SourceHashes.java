@@ -0,0 +1,189 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.diff;
+
+import io.github.alechenninger.monarch.Stats;
+import io.github.alechenninger.monarch.util.Digests;
+import io.github.alechenninger.monarch.util.MoreFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Hashes of the content of each source's file in a data directory.
+ *
+ * <p>Hashes may be cached between runs in one index file per data directory. Like
+ * {@link io.github.alechenninger.monarch.SourceDataCache}, a cached hash is used without reading
+ * the file if the file's size and modified time still match, and it was not modified too soon
+ * before the index was written to tell.
+ */
+class SourceHashes {
+  private final Path dataDir;
+  private final Optional<Path> indexPath;
+  private final Map<String, Entry> index = new HashMap<>();
+  private final Map<String, byte[]> hashes = new HashMap<>();
+  private long indexedAt;
+  private boolean modified = false;
+
+  /** The hash of a source without a data file, distinct from the hash of any content. */
+  static final byte[] ABSENT = new byte[0];
+
+  private static final int MAGIC = 0x6d6f6e64;
+  private static final int VERSION = 1;
+
+  private static final Logger log = LoggerFactory.getLogger(SourceHashes.class);
+
+  SourceHashes(Path dataDir, Optional<Path> cacheDir) {
+    this.dataDir = dataDir;
+    this.indexPath = cacheDir.map(dir -> dir.resolve("hashes").resolve(
+        Digests.sha1Hex(dataDir.toAbsolutePath().normalize().toString())));
+    indexPath.filter(Files::exists).ifPresent(this::readIndex);
+  }
+
+  /**
+   * @return The hash of the content of the source's data file, or {@link #ABSENT} if there is
+   * none.
+   */
+  byte[] of(String source) throws IOException {
+    byte[] hash = hashes.get(source);
+
+    if (hash != null) {
+      return hash;
+    }
+
+    Path path = dataDir.resolve(source);
+    BasicFileAttributes attributes;
+
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      hashes.put(source, ABSENT);
+      return ABSENT;
+    }
+
+    long size = attributes.size();
+    long lastModified = attributes.lastModifiedTime().toMillis();
+    Entry entry = index.get(source);
+
+    if (entry != null && entry.size == size && entry.modified == lastModified &&
+        MoreFiles.isModifiedWellBefore(lastModified, indexedAt)) {
+      Stats.count("hashCache.hits");
+      hash = entry.hash;
+    } else {
+      byte[] content = Files.readAllBytes(path);
+      Stats.count("bytes.read", content.length);
+      Stats.count("hashCache.misses");
+      hash = Digests.sha1(content);
+      index.put(source, new Entry(content.length, lastModified, hash));
+      modified = true;
+    }
+
+    hashes.put(source, hash);
+    return hash;
+  }
+
+  /** Writes the index of hashes to the cache directory, if any and if anything was rehashed. */
+  void save() {
+    if (!indexPath.isPresent() || !modified) {
+      return;
+    }
+
+    Path entryPath = indexPath.get();
+
+    try {
+      MoreFiles.writeAtomically(entryPath, fileOut -> {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(dataDir.toAbsolutePath().normalize().toString());
+        out.writeLong(System.currentTimeMillis());
+        out.writeInt(index.size());
+
+        for (Map.Entry<String, Entry> entry : index.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeLong(entry.getValue().size);
+          out.writeLong(entry.getValue().modified);
+          out.writeByte(entry.getValue().hash.length);
+          out.write(entry.getValue().hash);
+        }
+
+        out.flush();
+      });
+
+      modified = false;
+    } catch (IOException | RuntimeException e) {
+      log.debug("Unable to cache hashes for {} at {}", dataDir, entryPath, e);
+    }
+  }
+
+  private void readIndex(Path path) {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a source hash index or unsupported version");
+      }
+
+      if (!in.readUTF().equals(dataDir.toAbsolutePath().normalize().toString())) {
+        return;
+      }
+
+      long readAt = in.readLong();
+      int size = in.readInt();
+      Map<String, Entry> read = new HashMap<>(size);
+
+      for (int i = 0; i < size; i++) {
+        String source = in.readUTF();
+        long fileSize = in.readLong();
+        long fileModified = in.readLong();
+        byte[] hash = new byte[in.readUnsignedByte()];
+        in.readFully(hash);
+        read.put(source, new Entry(fileSize, fileModified, hash));
+      }
+
+      index.putAll(read);
+      indexedAt = readAt;
+    } catch (IOException | RuntimeException e) {
+      log.debug("Ignoring unreadable hash index for {} at {}", dataDir, path, e);
+    }
+  }
+
+  private static class Entry {
+    final long size;
+    final long modified;
+    final byte[] hash;
+
+    Entry(long size, long modified, byte[] hash) {
+      this.size = size;
+      this.modified = modified;
+      this.hash = hash;
+    }
+  }
+}
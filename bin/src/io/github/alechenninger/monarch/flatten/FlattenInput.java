@@ -0,0 +1,46 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.flatten;
+
+import io.github.alechenninger.monarch.util.RecordWriter;
+
+import java.util.List;
+import java.util.Optional;
+
+/** User input for computing the flattened data of every source in a hierarchy. */
+public interface FlattenInput {
+  /** Whether to include sources with descendants, rather than only leaves. */
+  boolean isAllSources();
+
+  Optional<RecordWriter.Format> getFormat();
+
+  Optional<String> getHierarchyPathOrYaml();
+
+  Optional<String> getDataDir();
+
+  List<String> getConfigPaths();
+
+  List<String> getMergeKeys();
+
+  Optional<String> getCacheDir();
+
+  boolean isHelpRequested();
+
+  String getHelpMessage();
+}
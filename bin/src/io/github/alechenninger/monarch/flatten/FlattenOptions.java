@@ -0,0 +1,122 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.flatten;
+
+import io.github.alechenninger.monarch.DataFormats;
+import io.github.alechenninger.monarch.DataFormatsConfiguration;
+import io.github.alechenninger.monarch.DefaultConfigPaths;
+import io.github.alechenninger.monarch.Hierarchy;
+import io.github.alechenninger.monarch.MonarchFileParseException;
+import io.github.alechenninger.monarch.SerializableConfig;
+import io.github.alechenninger.monarch.util.RecordWriter;
+import io.github.alechenninger.monarch.yaml.YamlConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Parsed options for computing the flattened data of every source in a hierarchy.
+ */
+public interface FlattenOptions {
+  boolean allSources();
+  Optional<RecordWriter.Format> format();
+  Optional<Hierarchy> hierarchy();
+  Set<String> mergeKeys();
+  Optional<Path> dataDir();
+
+  /** @see io.github.alechenninger.monarch.apply.ApplyChangesOptions#cacheDir() */
+  default Optional<Path> cacheDir() {
+    return Optional.empty();
+  }
+
+  Logger log = LoggerFactory.getLogger(FlattenOptions.class);
+
+  default Optional<DataFormatsConfiguration> dataFormatsConfiguration() {
+    Optional<Path> cacheDir = cacheDir();
+
+    if (!cacheDir.isPresent()) {
+      return Optional.empty();
+    }
+
+    return Optional.of(new DataFormatsConfiguration() {
+      @Override
+      public Optional<YamlConfiguration> yamlConfiguration() {
+        return Optional.empty();
+      }
+
+      @Override
+      public Optional<Path> cacheDir() {
+        return cacheDir;
+      }
+    });
+  }
+
+  default FlattenOptions fallingBackTo(FlattenOptions fallback) {
+    return new OverridableFlattenOptions(this, fallback);
+  }
+
+  static FlattenOptions fromInput(FlattenInput input, FileSystem fileSystem, DataFormats parsers) {
+    return new FlattenOptionsFromInput(input, parsers, fileSystem);
+  }
+
+  static FlattenOptions fromInputAndConfigFiles(FlattenInput input, FileSystem fileSystem,
+      DataFormats dataFormats, DefaultConfigPaths defaultConfigPaths) {
+    FlattenOptions options = fromInput(input, fileSystem, dataFormats);
+
+    List<Path> configPaths = input.getConfigPaths()
+        .stream()
+        .map(fileSystem::getPath)
+        .collect(Collectors.toCollection(ArrayList::new));
+
+    configPaths.addAll(defaultConfigPaths.get(fileSystem));
+
+    for (Path configPath : configPaths) {
+      try {
+        Optional<SerializableConfig> config = dataFormats.parseConfig(configPath);
+
+        if (config.isPresent()) {
+          log.debug("Loaded config from: {}", configPath);
+          options = options.fallingBackTo(new FlattenOptionsFromSerializableConfig(config.get(), fileSystem));
+        }
+      } catch (MonarchFileParseException e) {
+        log.warn("Unable to read config file: {}", configPath, e);
+      }
+    }
+
+    return options;
+  }
+
+  static FlattenOptions fromYaml(Path configPath) throws IOException {
+    SerializableConfig config = (SerializableConfig)
+        new Yaml(new Constructor(SerializableConfig.class))
+            .load(Files.newInputStream(configPath));
+    return new FlattenOptionsFromSerializableConfig(config, configPath.getFileSystem());
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.flatten;
+
+import io.github.alechenninger.monarch.DataFormats;
+import io.github.alechenninger.monarch.DataFormatsConfiguration;
+import io.github.alechenninger.monarch.Hierarchy;
+import io.github.alechenninger.monarch.Monarch;
+import io.github.alechenninger.monarch.SourceData;
+import io.github.alechenninger.monarch.util.RecordWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Writes the flattened data of sources in a hierarchy, computed top-down by {@link Monarch} so
+ * that a full export scales with the size of the data rather than with keys &times; depth.
+ */
+public class FlattenService {
+  private final DataFormats dataFormats;
+  private final Monarch monarch;
+
+  public FlattenService(DataFormats dataFormats, Monarch monarch) {
+    this.dataFormats = dataFormats;
+    this.monarch = monarch;
+  }
+
+  /**
+   * Writes a record for each source as soon as it is flattened, with the source's
+   * {@code source} path and its flattened {@code data}.
+   *
+   * @param allSources Whether to write sources with descendants, or only leaves.
+   */
+  public void flatten(Hierarchy hierarchy, Set<String> mergeKeys, boolean allSources,
+      Optional<DataFormatsConfiguration> dataFormatsConfiguration, Path dataDir,
+      RecordWriter out) throws IOException {
+    DataFormats configuredFormats = dataFormatsConfiguration
+        .map(dataFormats::withConfiguration)
+        .orElse(dataFormats);
+
+    Map<String, SourceData> sourceData =
+        configuredFormats.parseDataSourcesInHierarchy(dataDir, hierarchy);
+    Map<String, Map<String, Object>> data = new HashMap<>(sourceData.size());
+    sourceData.forEach((path, source) -> data.put(path, source.data()));
+
+    try {
+      if (allSources) {
+        monarch.flatten(hierarchy, data, mergeKeys, (source, flattened) ->
+            write(source.path(), flattened, out));
+      } else {
+        monarch.flattenLeaves(hierarchy, data, mergeKeys, (source, flattened) ->
+            write(source.path(), flattened, out));
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static void write(String path, Map<String, Object> flattened, RecordWriter out) {
+    Map<String, Object> record = new LinkedHashMap<>();
+    record.put("source", path);
+    record.put("data", flattened);
+
+    try {
+      out.write(record);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
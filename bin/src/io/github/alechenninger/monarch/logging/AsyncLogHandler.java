@@ -0,0 +1,198 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * Publishes records to delegate handlers from a single writer thread, so that logging threads
+ * only pay to enqueue a record rather than to write and flush it.
+ *
+ * <p>Records are published in the order they were enqueued, to every delegate, which each apply
+ * their own level and filter. The queue is bounded; when full, logging blocks until the writer
+ * catches up rather than dropping records. Delegates are flushed once the queue is drained, or
+ * at least every {@link #FLUSH_INTERVAL_MILLIS} while records keep coming, so output is written
+ * in batches. {@link #flush()} and {@link #close()} wait until every record enqueued before them
+ * is written and flushed.
+ */
+class AsyncLogHandler extends Handler {
+  private final List<Handler> delegates;
+  private final BlockingQueue<Object> queue;
+  private final Thread writer;
+
+  private volatile boolean closed = false;
+
+  static final int DEFAULT_CAPACITY = 8192;
+  static final long FLUSH_INTERVAL_MILLIS = 100;
+  private static final int MAX_BATCH = 512;
+
+  AsyncLogHandler(List<Handler> delegates) {
+    this(delegates, DEFAULT_CAPACITY);
+  }
+
+  AsyncLogHandler(List<Handler> delegates, int capacity) {
+    this.delegates = new ArrayList<>(delegates);
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.writer = new Thread(this::write, "monarch-log-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  @Override
+  public void publish(LogRecord record) {
+    if (closed || !isLoggable(record)) {
+      return;
+    }
+
+    enqueue(record);
+  }
+
+  /** Waits until every record published before this call has been written and flushed. */
+  @Override
+  public void flush() {
+    if (closed || Thread.currentThread() == writer) {
+      return;
+    }
+
+    CountDownLatch flushed = new CountDownLatch(1);
+
+    if (enqueue(flushed)) {
+      await(flushed);
+    }
+  }
+
+  /**
+   * Flushes, then stops the writer thread. Delegates are not closed, since they typically write
+   * to stdout and stderr, which outlive any one handler.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+
+    CountDownLatch stopped = new CountDownLatch(1);
+
+    if (enqueue(new Stop(stopped))) {
+      await(stopped);
+    }
+
+    closed = true;
+  }
+
+  private boolean enqueue(Object entry) {
+    try {
+      queue.put(entry);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      reportError("Interrupted while logging", e, ErrorManager.WRITE_FAILURE);
+      return false;
+    }
+  }
+
+  private void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void write() {
+    List<Object> batch = new ArrayList<>(MAX_BATCH);
+    boolean dirty = false;
+    long lastFlush = System.nanoTime();
+
+    while (true) {
+      try {
+        Object first = queue.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (first != null) {
+          batch.add(first);
+          queue.drainTo(batch, MAX_BATCH - 1);
+        }
+      } catch (InterruptedException e) {
+        // Only a stop entry stops the writer.
+        continue;
+      }
+
+      for (Object entry : batch) {
+        if (entry instanceof LogRecord) {
+          publishToDelegates((LogRecord) entry);
+          dirty = true;
+        } else if (entry instanceof CountDownLatch) {
+          flushDelegates();
+          dirty = false;
+          lastFlush = System.nanoTime();
+          ((CountDownLatch) entry).countDown();
+        } else if (entry instanceof Stop) {
+          flushDelegates();
+          ((Stop) entry).stopped.countDown();
+          return;
+        }
+      }
+
+      batch.clear();
+
+      if (dirty && (queue.isEmpty() ||
+          System.nanoTime() - lastFlush > TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS))) {
+        flushDelegates();
+        dirty = false;
+        lastFlush = System.nanoTime();
+      }
+    }
+  }
+
+  private void publishToDelegates(LogRecord record) {
+    for (Handler delegate : delegates) {
+      try {
+        delegate.publish(record);
+      } catch (RuntimeException e) {
+        reportError("Failed to publish log record", e, ErrorManager.WRITE_FAILURE);
+      }
+    }
+  }
+
+  private void flushDelegates() {
+    for (Handler delegate : delegates) {
+      try {
+        delegate.flush();
+      } catch (RuntimeException e) {
+        reportError("Failed to flush log handler", e, ErrorManager.FLUSH_FAILURE);
+      }
+    }
+  }
+
+  private static class Stop {
+    final CountDownLatch stopped;
+
+    Stop(CountDownLatch stopped) {
+      this.stopped = stopped;
+    }
+  }
+}
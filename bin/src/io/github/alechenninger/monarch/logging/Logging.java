@@ -19,27 +19,52 @@
 package io.github.alechenninger.monarch.logging;
 
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public abstract class Logging {
   private static Logger rootLogger = Logger.getLogger("");
+  private static AsyncLogHandler handler;
+  private static boolean flushOnShutdown = false;
 
   /**
    * Configures warnings and above to {@code stderr}, everything else to {@code stdout}. For either
    * output stream, only log record at or above {@code logLevel} are written.
+   *
+   * <p>Records are written asynchronously, in order, from a single writer thread; see
+   * {@link #flush()}. Logs are also flushed when the JVM shuts down.
    */
-  public static void outputTo(OutputStream stdout, OutputStream stderr) {
+  public static synchronized void outputTo(OutputStream stdout, OutputStream stderr) {
     for (Handler handler : rootLogger.getHandlers()) {
       rootLogger.removeHandler(handler);
     }
 
-    rootLogger.addHandler(new MonarchStdoutLogHandler(stdout));
-    rootLogger.addHandler(new MonarchStderrLogHandler(stderr));
+    if (handler != null) {
+      handler.close();
+    }
+
+    handler = new AsyncLogHandler(Arrays.asList(
+        new MonarchStdoutLogHandler(stdout),
+        new MonarchStderrLogHandler(stderr)));
+
+    rootLogger.addHandler(handler);
+
+    if (!flushOnShutdown) {
+      Runtime.getRuntime().addShutdownHook(new Thread(Logging::flush, "monarch-log-flush"));
+      flushOnShutdown = true;
+    }
   }
 
   public static void setLevel(Level logLevel) {
     rootLogger.setLevel(logLevel);
   }
+
+  /** Blocks until every record logged so far is written to its output stream and flushed. */
+  public static void flush() {
+    for (Handler handler : rootLogger.getHandlers()) {
+      handler.flush();
+    }
+  }
 }
@@ -20,8 +20,9 @@ package io.github.alechenninger.monarch.logging;
 
 import java.io.OutputStream;
 import java.util.logging.Level;
+import java.util.logging.StreamHandler;
 
-class MonarchStderrLogHandler extends ImmediateFlushStreamHandler {
+class MonarchStderrLogHandler extends StreamHandler {
   MonarchStderrLogHandler(OutputStream stderr) {
     super(stderr, new MonarchLogFormatter());
     setLevel(Level.WARNING);
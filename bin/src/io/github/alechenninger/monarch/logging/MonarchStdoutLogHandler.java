@@ -20,8 +20,9 @@ package io.github.alechenninger.monarch.logging;
 
 import java.io.OutputStream;
 import java.util.logging.Level;
+import java.util.logging.StreamHandler;
 
-class MonarchStdoutLogHandler extends ImmediateFlushStreamHandler {
+class MonarchStdoutLogHandler extends StreamHandler {
   MonarchStdoutLogHandler(OutputStream stdout) {
     super(stdout, new MonarchLogFormatter());
     setLevel(Level.ALL);
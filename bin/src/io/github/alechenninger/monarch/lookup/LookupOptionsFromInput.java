@@ -0,0 +1,120 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.lookup;
+
+import io.github.alechenninger.monarch.DataFormats;
+import io.github.alechenninger.monarch.Hierarchy;
+import io.github.alechenninger.monarch.MonarchException;
+import io.github.alechenninger.monarch.SourceSpec;
+import io.github.alechenninger.monarch.util.RecordWriter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class LookupOptionsFromInput implements LookupOptions {
+  private final LookupInput input;
+  private final DataFormats parsers;
+  private final FileSystem fileSystem;
+  private final InputStream stdin;
+
+  private static final String STDIN = "-";
+
+  public LookupOptionsFromInput(LookupInput input, DataFormats parsers, FileSystem fileSystem,
+      InputStream stdin) {
+    this.input = input;
+    this.parsers = parsers;
+    this.fileSystem = fileSystem;
+    this.stdin = stdin;
+
+    if (input.getKeysFile().filter(STDIN::equals).isPresent() &&
+        input.getTargetsFile().filter(STDIN::equals).isPresent()) {
+      throw new IllegalArgumentException("Keys and targets cannot both be read from stdin.");
+    }
+  }
+
+  @Override
+  public List<String> keys() {
+    List<String> keys = new ArrayList<>(input.getKeys());
+    input.getKeysFile().ifPresent(file -> keys.addAll(readLines(file)));
+    return keys;
+  }
+
+  @Override
+  public List<SourceSpec> targets() {
+    List<String> expressions = new ArrayList<>(input.getTargets());
+    input.getTargetsFile().ifPresent(file -> expressions.addAll(readLines(file)));
+
+    return expressions.stream()
+        .map(expression -> SourceSpec.fromExpressions(Arrays.asList(expression.split("\\s+"))))
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public Optional<RecordWriter.Format> format() {
+    return input.getFormat();
+  }
+
+  @Override
+  public Optional<Hierarchy> hierarchy() {
+    return input.getHierarchyPathOrYaml()
+        .map(pathOrYaml -> parsers.parseHierarchy(pathOrYaml, fileSystem));
+  }
+
+  @Override
+  public Set<String> mergeKeys() {
+    return new HashSet<>(input.getMergeKeys());
+  }
+
+  @Override
+  public Optional<Path> dataDir() {
+    return input.getDataDir().map(fileSystem::getPath);
+  }
+
+  @Override
+  public Optional<Path> cacheDir() {
+    return input.getCacheDir().map(fileSystem::getPath);
+  }
+
+  /** Reads non-blank lines which are not comments (starting with '#'), trimmed. */
+  private List<String> readLines(String file) {
+    try (BufferedReader reader = STDIN.equals(file)
+        ? new BufferedReader(new InputStreamReader(stdin, StandardCharsets.UTF_8))
+        : Files.newBufferedReader(fileSystem.getPath(file), StandardCharsets.UTF_8)) {
+      return reader.lines()
+          .map(String::trim)
+          .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+          .collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new MonarchException("Failed to read " + (STDIN.equals(file) ? "stdin" : file), e);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.lookup;
+
+import io.github.alechenninger.monarch.DataFormats;
+import io.github.alechenninger.monarch.DataFormatsConfiguration;
+import io.github.alechenninger.monarch.DataLookup;
+import io.github.alechenninger.monarch.DataLookupFromMap;
+import io.github.alechenninger.monarch.Hierarchy;
+import io.github.alechenninger.monarch.Source;
+import io.github.alechenninger.monarch.SourceSpec;
+import io.github.alechenninger.monarch.util.RecordWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Looks up the values many targets inherit for many keys, loading each data source at most once
+ * no matter how many targets share it in their lineage.
+ */
+public class LookupService {
+  private final DataFormats dataFormats;
+
+  private static final Logger log = LoggerFactory.getLogger(LookupService.class);
+
+  public LookupService(DataFormats dataFormats) {
+    this.dataFormats = dataFormats;
+  }
+
+  /**
+   * Writes a record for each target as soon as it is resolved. Records have the target's
+   * {@code source} path, the {@code values} of keys which it has a value for, and any keys it is
+   * {@code missing} values for. Targets which are not in the hierarchy are written as a record
+   * with the {@code target} and an {@code error}.
+   */
+  public void lookup(Hierarchy hierarchy, Iterable<SourceSpec> targets, List<String> keys,
+      Set<String> mergeKeys, Optional<DataFormatsConfiguration> dataFormatsConfiguration,
+      Path dataDir, RecordWriter out) throws IOException {
+    DataFormats configuredFormats = dataFormatsConfiguration
+        .map(dataFormats::withConfiguration)
+        .orElse(dataFormats);
+
+    // Only ever contains sources in the lineage of some target seen so far.
+    Map<String, Map<String, Object>> data = new HashMap<>();
+
+    for (SourceSpec target : targets) {
+      Optional<Source> maybeSource = hierarchy.sourceFor(target);
+
+      if (!maybeSource.isPresent()) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("target", target.toStringOrMap());
+        record.put("error", "No source found in hierarchy which satisfies target.");
+        out.write(record);
+        continue;
+      }
+
+      Source source = maybeSource.get();
+
+      for (Source ancestor : source.lineage()) {
+        data.computeIfAbsent(ancestor.path(),
+            path -> configuredFormats.parseData(dataDir.resolve(path)).data());
+      }
+
+      DataLookup lookup = new DataLookupFromMap(data, source, mergeKeys);
+      Map<String, Object> values = new LinkedHashMap<>();
+      List<String> missing = new ArrayList<>();
+
+      for (String key : keys) {
+        Optional<Object> value = lookup.lookup(key);
+
+        if (value.isPresent()) {
+          values.put(key, value.get());
+        } else {
+          missing.add(key);
+        }
+      }
+
+      Map<String, Object> record = new LinkedHashMap<>();
+      record.put("source", source.path());
+      record.put("values", values);
+      if (!missing.isEmpty()) {
+        record.put("missing", missing);
+      }
+
+      out.write(record);
+    }
+
+    log.debug("Looked up {} keys using {} data sources", keys.size(), data.size());
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.serve;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Forwards command line arguments to a {@link MonarchServer}, and its output back, so the
+ * command runs in the server's warm JVM instead of starting a new one.
+ */
+public class MonarchClient {
+  private final int port;
+  private final String token;
+
+  public MonarchClient(int port, String token) {
+    this.port = port;
+    this.token = token;
+  }
+
+  /** @param portFile Path to the port file written by {@code monarch serve --port-file}. */
+  public static MonarchClient connectingTo(String portFile) throws IOException {
+    return connectingTo(Paths.get(portFile));
+  }
+
+  /** @param portFile The port file written by {@code monarch serve --port-file}. */
+  public static MonarchClient connectingTo(Path portFile) throws IOException {
+    String[] lines = new String(Files.readAllBytes(portFile), StandardCharsets.UTF_8)
+        .trim().split("\\s+");
+
+    if (lines.length != 2) {
+      throw new IOException("Port file " + portFile + " does not contain a port and token. " +
+          "Connect with the port file written by 'monarch serve --port-file'.");
+    }
+
+    try {
+      return new MonarchClient(Integer.parseInt(lines[0]), lines[1]);
+    } catch (NumberFormatException e) {
+      throw new IOException("Port file " + portFile + " does not contain a port: " + lines[0], e);
+    }
+  }
+
+  /** @return The exit code of the command. */
+  public int forward(String[] args, OutputStream stdout, OutputStream stderr)
+      throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+      ServeProtocol.writeRequest(out, token, Paths.get("").toAbsolutePath().toString(), args);
+      return ServeProtocol.readResponse(in, stdout, stderr);
+    }
+  }
+
+  /** Asks the server to stop once it is done with any request in progress. */
+  public void stop() throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+      ServeProtocol.writeStop(out, token);
+      ByteArrayOutputStream ignored = new ByteArrayOutputStream();
+      ServeProtocol.readResponse(in, ignored, ignored);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.serve;
+
+import io.github.alechenninger.monarch.util.Digests;
+import io.github.alechenninger.monarch.util.MoreFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+
+/**
+ * Runs commands on behalf of {@link MonarchClient}s, so that many invocations share one warm JVM
+ * and whatever it has cached.
+ *
+ * <p>Listens only on the loopback interface. Requests are run one at a time, in the order they
+ * are accepted, since commands share global state such as logging.
+ *
+ * <p>Any local user can connect to a loopback port, so every request must carry a random token
+ * generated when the server starts. Clients learn the token, along with the port, from the
+ * {@link #writePortFile(Path) port file}, which only the server's user may read.
+ */
+public class MonarchServer implements Closeable {
+  private final ServerSocket serverSocket;
+  private final String token;
+
+  private static final int TOKEN_BYTES = 32;
+
+  private static final Logger log = LoggerFactory.getLogger(MonarchServer.class);
+
+  private MonarchServer(ServerSocket serverSocket, String token) {
+    this.serverSocket = serverSocket;
+    this.token = token;
+  }
+
+  /** @param port Port to listen on, or 0 for any free port. */
+  public static MonarchServer bind(int port) throws IOException {
+    byte[] token = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(token);
+
+    ServerSocket serverSocket = new ServerSocket();
+    serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    return new MonarchServer(serverSocket, Digests.hex(token));
+  }
+
+  public int port() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Writes the port and token clients need to {@code portFile}, readable and writable only by its
+   * owner where the file system supports POSIX permissions. See
+   * {@link MonarchClient#connectingTo(Path)}.
+   */
+  public void writePortFile(Path portFile) throws IOException {
+    MoreFiles.createParentDirectories(portFile);
+    Path parent = portFile.toAbsolutePath().getParent();
+    byte[] content = (port() + "\n" + token + "\n").getBytes(StandardCharsets.UTF_8);
+
+    if (Files.getFileStore(parent).supportsFileAttributeView(PosixFileAttributeView.class)) {
+      FileAttribute<?> ownerOnly = PosixFilePermissions.asFileAttribute(
+          PosixFilePermissions.fromString("rw-------"));
+      MoreFiles.writeAtomically(portFile, out -> out.write(content), ownerOnly);
+    } else {
+      MoreFiles.writeAtomically(portFile, out -> out.write(content));
+    }
+  }
+
+  /**
+   * Accepts and runs requests until {@link #close() closed} or a client asks the server to stop.
+   */
+  public void serve(Commands commands) throws IOException {
+    String workingDir = Paths.get("").toAbsolutePath().toString();
+
+    while (!serverSocket.isClosed()) {
+      final Socket socket;
+
+      try {
+        socket = serverSocket.accept();
+      } catch (SocketException e) {
+        if (serverSocket.isClosed()) {
+          return;
+        }
+
+        throw e;
+      }
+
+      try (Socket client = socket) {
+        if (!handle(client, commands, workingDir)) {
+          return;
+        }
+      } catch (IOException e) {
+        log.warn("Failed to serve request from " + socket.getRemoteSocketAddress(), e);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  /** @return Whether to keep serving. */
+  private boolean handle(Socket socket, Commands commands, String workingDir)
+      throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    ServeProtocol.Request request = ServeProtocol.readRequest(in, token);
+
+    if (!request.isAuthorized()) {
+      log.warn("Rejected request from " + socket.getRemoteSocketAddress() + " without the " +
+          "server's token.");
+      reject(out, "monarch server rejected the request: missing or incorrect token. Connect " +
+          "with the server's port file.");
+      return true;
+    }
+
+    if (request.isStop()) {
+      log.info("Stopping at client's request.");
+      ServeProtocol.writeExit(out, 0);
+      return false;
+    }
+
+    if (!workingDir.equals(request.workingDir)) {
+      reject(out, "monarch server is running in " + workingDir + ", so relative paths would " +
+          "not resolve from " + request.workingDir + ". Run the command from " + workingDir +
+          ", or start a server in " + request.workingDir + ".");
+      return true;
+    }
+
+    OutputStream stdout = new ServeProtocol.FrameOutputStream(out, ServeProtocol.STDOUT);
+    OutputStream stderr = new ServeProtocol.FrameOutputStream(out, ServeProtocol.STDERR);
+    int exitCode;
+
+    try {
+      exitCode = commands.run(request.args, stdout, stderr);
+    } catch (RuntimeException e) {
+      log.error("Unexpected error running " + String.join(" ", request.args), e);
+      exitCode = 2;
+    }
+
+    ServeProtocol.writeExit(out, exitCode);
+    return true;
+  }
+
+  private static void reject(DataOutputStream out, String reason) throws IOException {
+    OutputStream stderr = new ServeProtocol.FrameOutputStream(out, ServeProtocol.STDERR);
+    stderr.write((reason + "\n").getBytes(StandardCharsets.UTF_8));
+    ServeProtocol.writeExit(out, 2);
+  }
+
+  /** Runs one command line, as if invoked directly, writing to the given streams. */
+  @FunctionalInterface
+  public interface Commands {
+    int run(String[] args, OutputStream stdout, OutputStream stderr);
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.serve;
+
+import java.util.Optional;
+
+/** User input for running monarch as a long-lived server for {@link MonarchClient}s. */
+public interface ServeInput {
+  /** Port to listen on, on the loopback interface. If absent, any free port is used. */
+  Optional<Integer> getPort();
+
+  /**
+   * File to write the listening port and token to, so clients can find and authenticate with the
+   * server. Removed on shutdown.
+   */
+  String getPortFile();
+
+  boolean isHelpRequested();
+
+  String getHelpMessage();
+}
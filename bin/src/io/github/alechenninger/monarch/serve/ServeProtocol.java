@@ -0,0 +1,212 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.serve;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * The wire format between {@link MonarchClient} and {@link MonarchServer}.
+ *
+ * <p>A request is a magic number, the server's token, the client's working directory, and the
+ * command line arguments. An argument count of {@link #STOP} asks the server to stop. The
+ * response is a sequence of frames, each a kind byte: {@link #STDOUT} or {@link #STDERR} followed
+ * by a length and that many bytes, or finally {@link #EXIT} followed by the exit code.
+ */
+final class ServeProtocol {
+  static final int MAGIC = 0x6d6f6e32; // "mon2"
+  static final int STOP = -1;
+  static final int MAX_ARGS = 4096;
+
+  static final byte STDOUT = 1;
+  static final byte STDERR = 2;
+  static final byte EXIT = 3;
+
+  private ServeProtocol() {}
+
+  static void writeRequest(DataOutputStream out, String token, String workingDir, String[] args)
+      throws IOException {
+    out.writeInt(MAGIC);
+    out.writeUTF(token);
+    out.writeUTF(workingDir);
+    out.writeInt(args.length);
+
+    for (String arg : args) {
+      out.writeUTF(arg);
+    }
+
+    out.flush();
+  }
+
+  static void writeStop(DataOutputStream out, String token) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeUTF(token);
+    out.writeUTF("");
+    out.writeInt(STOP);
+    out.flush();
+  }
+
+  /**
+   * Reads a request, stopping short of its arguments if it does not carry {@code token}.
+   *
+   * @see Request#isAuthorized()
+   */
+  static Request readRequest(DataInputStream in, String token) throws IOException {
+    int magic = in.readInt();
+
+    if (magic != MAGIC) {
+      throw new IOException("Not a monarch client: unexpected magic number " +
+          Integer.toHexString(magic));
+    }
+
+    if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+        in.readUTF().getBytes(StandardCharsets.UTF_8))) {
+      return new Request(false, null, null);
+    }
+
+    String workingDir = in.readUTF();
+    int argc = in.readInt();
+
+    if (argc == STOP) {
+      return new Request(true, workingDir, null);
+    }
+
+    if (argc < 0 || argc > MAX_ARGS) {
+      throw new IOException("Unexpected argument count from monarch client: " + argc);
+    }
+
+    String[] args = new String[argc];
+
+    for (int i = 0; i < argc; i++) {
+      args[i] = in.readUTF();
+    }
+
+    return new Request(true, workingDir, args);
+  }
+
+  /**
+   * Reads frames until the exit frame, copying output to {@code stdout} and {@code stderr}.
+   *
+   * @return The exit code.
+   */
+  static int readResponse(DataInputStream in, OutputStream stdout, OutputStream stderr)
+      throws IOException {
+    byte[] buffer = new byte[8192];
+
+    while (true) {
+      byte kind = in.readByte();
+
+      if (kind == EXIT) {
+        stdout.flush();
+        stderr.flush();
+        return in.readInt();
+      }
+
+      if (kind != STDOUT && kind != STDERR) {
+        throw new IOException("Unexpected frame from monarch server: " + kind);
+      }
+
+      OutputStream target = kind == STDOUT ? stdout : stderr;
+      int remaining = in.readInt();
+
+      while (remaining > 0) {
+        int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+
+        if (read < 0) {
+          throw new IOException("Monarch server closed the connection mid frame.");
+        }
+
+        target.write(buffer, 0, read);
+        remaining -= read;
+      }
+    }
+  }
+
+  static void writeExit(DataOutputStream out, int exitCode) throws IOException {
+    synchronized (out) {
+      out.writeByte(EXIT);
+      out.writeInt(exitCode);
+      out.flush();
+    }
+  }
+
+  static final class Request {
+    final boolean authorized;
+    final String workingDir;
+    final String[] args;
+
+    Request(boolean authorized, String workingDir, String[] args) {
+      this.authorized = authorized;
+      this.workingDir = workingDir;
+      this.args = args;
+    }
+
+    /** @return Whether the request carried the server's token. If not, nothing else was read. */
+    boolean isAuthorized() {
+      return authorized;
+    }
+
+    boolean isStop() {
+      return args == null;
+    }
+  }
+
+  /**
+   * Writes everything written to it as frames of one kind. Streams of both kinds may share the
+   * connection, and may be written to from different threads (such as the log writer).
+   */
+  static final class FrameOutputStream extends OutputStream {
+    private final DataOutputStream out;
+    private final byte kind;
+
+    FrameOutputStream(DataOutputStream out, byte kind) {
+      this.out = out;
+      this.kind = kind;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return;
+      }
+
+      synchronized (out) {
+        out.writeByte(kind);
+        out.writeInt(len);
+        out.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (out) {
+        out.flush();
+      }
+    }
+  }
+}
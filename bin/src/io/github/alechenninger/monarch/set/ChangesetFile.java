@@ -0,0 +1,226 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.set;
+
+import io.github.alechenninger.monarch.Change;
+import io.github.alechenninger.monarch.SourceSpec;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.events.DocumentEndEvent;
+import org.yaml.snakeyaml.events.DocumentStartEvent;
+import org.yaml.snakeyaml.events.Event;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The text of a yaml changeset along with where each of its documents are, so that a document can
+ * be replaced or removed without re-serializing every other document.
+ */
+final class ChangesetFile {
+  private final String text;
+  private final List<Document> documents;
+  private final Map<SourceSpec, Integer> documentsBySource;
+
+  private ChangesetFile(String text, List<Document> documents) {
+    this.text = text;
+    this.documents = documents;
+
+    Map<SourceSpec, Integer> documentsBySource = new HashMap<>(documents.size());
+    Set<SourceSpec> ambiguous = new HashSet<>();
+
+    for (int i = 0; i < documents.size(); i++) {
+      for (Change change : documents.get(i).changes) {
+        if (documentsBySource.putIfAbsent(change.sourceSpec(), i) != null) {
+          ambiguous.add(change.sourceSpec());
+        }
+      }
+    }
+
+    // Sources which appear more than once, or only as part of a document which expands to many
+    // changes, can't be edited by replacing a single document.
+    for (int i = 0; i < documents.size(); i++) {
+      if (documents.get(i).changes.size() > 1) {
+        documents.get(i).changes.forEach(change -> ambiguous.add(change.sourceSpec()));
+      }
+    }
+    documentsBySource.keySet().removeAll(ambiguous);
+
+    this.documentsBySource = documentsBySource;
+  }
+
+  /**
+   * @throws org.yaml.snakeyaml.error.YAMLException If {@code text} is not valid yaml.
+   * @throws IllegalArgumentException If a document is not a valid change.
+   */
+  @SuppressWarnings("unchecked")
+  static ChangesetFile parse(String text, Yaml yaml) {
+    List<Integer> starts = new ArrayList<>();
+    List<Integer> ends = new ArrayList<>();
+    int contentEnd = 0;
+
+    for (Event event : yaml.parse(new StringReader(text))) {
+      if (event instanceof DocumentStartEvent) {
+        starts.add(event.getStartMark().getIndex());
+        contentEnd = event.getEndMark().getIndex();
+      } else if (event.getEndMark().getIndex() > event.getStartMark().getIndex()) {
+        // Implicit document ends and block collection ends are placed where the next token
+        // starts, past any comments in between, so only events which span text count as content.
+        contentEnd = Math.max(contentEnd, event.getEndMark().getIndex());
+      }
+
+      if (event instanceof DocumentEndEvent) {
+        ends.add(lineEnd(text, contentEnd));
+      }
+    }
+
+    List<Document> documents = new ArrayList<>(starts.size());
+
+    for (int i = 0; i < starts.size(); i++) {
+      int start = starts.get(i);
+      int end = ends.get(i);
+      Object parsed = yaml.load(text.substring(start, end));
+      List<Change> changes = parsed == null
+          ? Collections.emptyList()
+          : Change.fromMap((Map<String, Object>) parsed);
+
+      documents.add(new Document(start, end, changes));
+    }
+
+    return new ChangesetFile(text, documents);
+  }
+
+  /**
+   * @return The index just past the end of the line containing {@code index}, so a document
+   * keeps its trailing comment and line break, but not the comments on lines after it.
+   */
+  private static int lineEnd(String text, int index) {
+    if (index > 0 && text.charAt(index - 1) == '\n') {
+      return index;
+    }
+
+    int newline = text.indexOf('\n', index);
+    return newline < 0 ? text.length() : newline + 1;
+  }
+
+  String text() {
+    return text;
+  }
+
+  List<Change> changes() {
+    return documents.stream()
+        .flatMap(document -> document.changes.stream())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * @return Whether {@code source} has exactly one change in this file, in a document of its own.
+   */
+  boolean canReplace(SourceSpec source) {
+    return documentsBySource.containsKey(source);
+  }
+
+  Optional<Change> changeFor(SourceSpec source) {
+    return Optional.ofNullable(documentsBySource.get(source))
+        .map(i -> documents.get(i).changes.get(0));
+  }
+
+  /**
+   * Replaces the documents of changes for the given sources, leaving the text of every other
+   * document untouched.
+   *
+   * @param replacements The new change for each source, or empty to remove its document. Each
+   *                     source must be {@link #canReplace(SourceSpec) replaceable}.
+   * @param render Renders a change as the contents of a yaml document, without a document start
+   *               marker.
+   */
+  ChangesetFile replace(Map<SourceSpec, Optional<Change>> replacements,
+      Function<Change, String> render) {
+    Map<Integer, Optional<Change>> byDocument = new HashMap<>(replacements.size());
+    replacements.forEach((source, replacement) -> {
+      Integer document = documentsBySource.get(source);
+      if (document == null) {
+        throw new IllegalArgumentException("No single document to replace for source: " + source);
+      }
+      byDocument.put(document, replacement);
+    });
+
+    StringBuilder replaced = new StringBuilder(text.length());
+    List<Document> replacedDocuments = new ArrayList<>(documents.size());
+    int copied = 0;
+
+    for (int i = 0; i < documents.size(); i++) {
+      Document document = documents.get(i);
+
+      if (!byDocument.containsKey(i)) {
+        int start = replaced.length() + document.start - copied;
+        replacedDocuments.add(document.movedTo(start, start + document.length()));
+        continue;
+      }
+
+      replaced.append(text, copied, document.start);
+      copied = document.end;
+
+      Optional<Change> replacement = byDocument.get(i);
+      if (!replacement.isPresent()) {
+        continue;
+      }
+
+      int start = replaced.length();
+      if (text.startsWith("---", document.start)) {
+        replaced.append("---\n");
+      }
+      replaced.append(render.apply(replacement.get()));
+      replacedDocuments.add(new Document(start, replaced.length(),
+          Collections.singletonList(replacement.get())));
+    }
+
+    replaced.append(text, copied, text.length());
+
+    return new ChangesetFile(replaced.toString(), replacedDocuments);
+  }
+
+  private static final class Document {
+    final int start;
+    final int end;
+    final List<Change> changes;
+
+    Document(int start, int end, List<Change> changes) {
+      this.start = start;
+      this.end = end;
+      this.changes = changes;
+    }
+
+    int length() {
+      return end - start;
+    }
+
+    Document movedTo(int start, int end) {
+      return new Document(start, end, changes);
+    }
+  }
+}
@@ -24,8 +24,10 @@ import io.github.alechenninger.monarch.util.ConcatIterable;
 import io.github.alechenninger.monarch.Hierarchy;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -76,6 +78,13 @@ public class OverridableUpdateSetOptions implements UpdateSetOptions {
     return overridden(UpdateSetOptions::source);
   }
 
+  @Override
+  public List<SetUpdate> manifest() {
+    List<SetUpdate> manifest = new ArrayList<>(fallback.manifest());
+    manifest.addAll(override.manifest());
+    return manifest;
+  }
+
   private <T> Optional<T> overridden(Function<UpdateSetOptions, Optional<T>> input) {
     Optional<T> maybeOverride = input.apply(override);
 
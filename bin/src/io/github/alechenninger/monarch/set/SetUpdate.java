@@ -0,0 +1,113 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.set;
+
+import io.github.alechenninger.monarch.SourceSpec;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Keys to put in and remove from the set block of one source's change.
+ */
+public final class SetUpdate {
+  private final SourceSpec source;
+  private final Map<String, Object> put;
+  private final Set<String> remove;
+
+  public SetUpdate(SourceSpec source, Map<String, Object> put, Set<String> remove) {
+    this.source = Objects.requireNonNull(source, "source");
+    this.put = Collections.unmodifiableMap(new LinkedHashMap<>(put));
+    this.remove = Collections.unmodifiableSet(new HashSet<>(remove));
+  }
+
+  /**
+   * Parses an entry of a manifest, like:
+   *
+   * <pre><code>
+   * source: teams/myteam.yaml
+   * put:
+   *   myapp::version: 2
+   * remove:
+   *   - myapp::deprecated_flag
+   * </code></pre>
+   *
+   * <p>As in changes, the source may be a path or a map of variables, and may use brace expansion,
+   * in which case there is an update for each expanded source.
+   */
+  @SuppressWarnings("unchecked")
+  public static List<SetUpdate> fromMap(Map<String, Object> map) {
+    if (!map.containsKey("source")) {
+      throw new IllegalArgumentException("Expected 'source' in set manifest entry: " + map);
+    }
+
+    Map<String, Object> put = (Map<String, Object>) map.get("put");
+    Collection<String> remove = (Collection<String>) map.get("remove");
+
+    Map<String, Object> puts = put == null ? Collections.emptyMap() : put;
+    Set<String> removals = remove == null ? Collections.emptySet() : new HashSet<>(remove);
+
+    return SourceSpec.fromStringOrMap(map.get("source")).stream()
+        .map(source -> new SetUpdate(source, puts, removals))
+        .collect(Collectors.toList());
+  }
+
+  public SourceSpec source() {
+    return source;
+  }
+
+  public Map<String, Object> put() {
+    return put;
+  }
+
+  public Set<String> remove() {
+    return remove;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    SetUpdate setUpdate = (SetUpdate) o;
+    return Objects.equals(source, setUpdate.source) &&
+        Objects.equals(put, setUpdate.put) &&
+        Objects.equals(remove, setUpdate.remove);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(source, put, remove);
+  }
+
+  @Override
+  public String toString() {
+    return "SetUpdate{" +
+        "source=" + source +
+        ", put=" + put +
+        ", remove=" + remove +
+        '}';
+  }
+}
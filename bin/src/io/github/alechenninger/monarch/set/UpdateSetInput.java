@@ -20,6 +20,7 @@ package io.github.alechenninger.monarch.set;
 
 import io.github.alechenninger.monarch.SourceSpec;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -46,6 +47,14 @@ public interface UpdateSetInput {
    */
   List<String> getRemovals();
 
+  /**
+   * Paths to manifests, or inline yaml, each with any number of entries to put and remove keys for
+   * a source. See {@link SetUpdate#fromMap(java.util.Map)}.
+   */
+  default List<String> getManifestPathsOrYaml() {
+    return Collections.emptyList();
+  }
+
   Optional<String> getHierarchyPathOrYaml();
 
   List<String> getConfigPaths();
@@ -22,6 +22,7 @@ import io.github.alechenninger.monarch.Change;
 import io.github.alechenninger.monarch.DefaultConfigPaths;
 import io.github.alechenninger.monarch.Hierarchy;
 import io.github.alechenninger.monarch.MonarchException;
+import io.github.alechenninger.monarch.MonarchFileParseException;
 import io.github.alechenninger.monarch.DataFormats;
 import io.github.alechenninger.monarch.SerializableConfig;
 import io.github.alechenninger.monarch.SourceSpec;
@@ -29,7 +30,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
-import org.yaml.snakeyaml.error.YAMLException;
 
 import java.io.IOException;
 import java.nio.file.FileSystem;
@@ -49,6 +49,7 @@ public interface UpdateSetOptions {
   Set<String> removeFromSet();
   Map<String, Object> putInSet();
   Optional<SourceSpec> source();
+  List<SetUpdate> manifest();
 
   Logger log = LoggerFactory.getLogger(UpdateSetOptions.class);
 
@@ -73,15 +74,15 @@ public interface UpdateSetOptions {
     configPaths.addAll(defaultConfigPaths.get(fileSystem));
 
     for (Path configPath : configPaths) {
-      if (Files.exists(configPath) && !Files.isDirectory(configPath)) {
-        log.debug("Loading config from: {}", configPath);
+      try {
+        Optional<SerializableConfig> config = parsers.parseConfig(configPath);
 
-        try {
-          // TODO: eventually maybe don't assume YAML
-          options = options.fallingBackTo(UpdateSetOptions.fromYaml(configPath));
-        } catch (YAMLException | IOException e) {
-          log.warn("Unable to read config file: {}", configPath, e);
+        if (config.isPresent()) {
+          log.debug("Loaded config from: {}", configPath);
+          options = options.fallingBackTo(new UpdateSetOptionsFromSerializableConfig(config.get()));
         }
+      } catch (MonarchFileParseException e) {
+        log.warn("Unable to read config file: {}", configPath, e);
       }
     }
 
@@ -28,15 +28,23 @@ import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 public class UpdateSetOptionsFromInput implements UpdateSetOptions {
   private final UpdateSetInput input;
   private final DataFormats parsers;
   private final FileSystem fileSystem;
 
+  // Parsed at most once, however many times options are consulted.
+  private Optional<Hierarchy> cachedHierarchy;
+  private Iterable<Change> cachedChanges;
+  private Map<String, Object> cachedPut;
+  private List<SetUpdate> cachedManifest;
+
   public UpdateSetOptionsFromInput(UpdateSetInput input, DataFormats parsers, FileSystem
       fileSystem) {
     this.input = input;
@@ -46,8 +54,12 @@ public class UpdateSetOptionsFromInput implements UpdateSetOptions {
 
   @Override
   public Optional<Hierarchy> hierarchy() {
-    return input.getHierarchyPathOrYaml()
-        .map(pathOrYaml -> parsers.parseHierarchy(pathOrYaml, fileSystem));
+    if (cachedHierarchy == null) {
+      cachedHierarchy = input.getHierarchyPathOrYaml()
+          .map(pathOrYaml -> parsers.parseHierarchy(pathOrYaml, fileSystem));
+    }
+
+    return cachedHierarchy;
   }
 
   @Override
@@ -57,9 +69,13 @@ public class UpdateSetOptionsFromInput implements UpdateSetOptions {
 
   @Override
   public Iterable<Change> changes() {
-    return input.getChangesPath()
-        .map(pathString -> parsers.parseChanges(pathString, fileSystem))
-        .orElse(Collections.emptyList());
+    if (cachedChanges == null) {
+      cachedChanges = input.getChangesPath()
+          .<Iterable<Change>>map(pathString -> parsers.parseChanges(pathString, fileSystem))
+          .orElse(Collections.emptyList());
+    }
+
+    return cachedChanges;
   }
 
   @Override
@@ -69,13 +85,29 @@ public class UpdateSetOptionsFromInput implements UpdateSetOptions {
 
   @Override
   public Map<String, Object> putInSet() {
-    return input.getPutPathsOrYaml().stream()
-        .map(pathOrYaml -> parsers.parseMap(pathOrYaml, fileSystem))
-        .reduce(new HashMap<>(), (m1, m2) -> { m1.putAll(m2); return m1; });
+    if (cachedPut == null) {
+      cachedPut = input.getPutPathsOrYaml().stream()
+          .map(pathOrYaml -> parsers.parseMap(pathOrYaml, fileSystem))
+          .reduce(new HashMap<>(), (m1, m2) -> { m1.putAll(m2); return m1; });
+    }
+
+    return cachedPut;
   }
 
   @Override
   public Optional<SourceSpec> source() {
     return input.getSource();
   }
+
+  @Override
+  public List<SetUpdate> manifest() {
+    if (cachedManifest == null) {
+      cachedManifest = input.getManifestPathsOrYaml().stream()
+          .flatMap(pathOrYaml -> parsers.parseMaps(pathOrYaml, fileSystem).stream())
+          .flatMap(entry -> SetUpdate.fromMap(entry).stream())
+          .collect(Collectors.toList());
+    }
+
+    return cachedManifest;
+  }
 }
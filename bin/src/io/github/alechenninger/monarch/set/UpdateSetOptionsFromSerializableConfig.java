@@ -25,6 +25,7 @@ import io.github.alechenninger.monarch.SourceSpec;
 
 import java.nio.file.Path;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
@@ -38,7 +39,7 @@ public class UpdateSetOptionsFromSerializableConfig implements UpdateSetOptions
 
   @Override
   public Optional<Hierarchy> hierarchy() {
-    return Optional.ofNullable(config.getHierarchy()).map(Hierarchy::fromStringListOrMap);
+    return config.parsedHierarchy();
   }
 
   @Override
@@ -66,5 +67,9 @@ public class UpdateSetOptionsFromSerializableConfig implements UpdateSetOptions
     return Optional.empty();
   }
 
+  @Override
+  public List<SetUpdate> manifest() {
+    return Collections.emptyList();
+  }
 
 }
@@ -20,7 +20,7 @@ package io.github.alechenninger.monarch.set;
 
 import io.github.alechenninger.monarch.Change;
 import io.github.alechenninger.monarch.Hierarchy;
-import io.github.alechenninger.monarch.MonarchException;
+import io.github.alechenninger.monarch.MonarchFileParseException;
 import io.github.alechenninger.monarch.Source;
 import io.github.alechenninger.monarch.SourceSpec;
 import io.github.alechenninger.monarch.util.MoreFiles;
@@ -29,21 +29,30 @@ import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.Yaml;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 public class UpdateSetService {
   private final Yaml yaml;
 
+  /**
+   * The last known contents of changesets this service has read or written, so sequential edits to
+   * the same file do not parse it again.
+   */
+  private final Map<Path, ChangesetFile> cachedChangesets = new HashMap<>();
+
   private static final Logger log = LoggerFactory.getLogger(UpdateSetService.class);
 
   public UpdateSetService(Yaml yaml) {
@@ -53,62 +62,176 @@ public class UpdateSetService {
   public void updateSetInChange(SourceSpec source, Path outputPath, Iterable<Change> changes,
       Map<String, Object> toPut, Set<String> toRemove, Optional<Hierarchy> hierarchy)
       throws IOException {
-    List<Change> outputChanges = StreamSupport.stream(changes.spliterator(), false)
-        // Exclude change we're replacing
-        .filter(c -> !c.sourceSpec().equals(source))
-        .collect(Collectors.toCollection(ArrayList::new));
-
-    // Change we will replace if present
-    Optional<Change> sourceChange = StreamSupport.stream(changes.spliterator(), false)
-        .filter(c -> source.equals(c.sourceSpec()))
-        .findFirst();
-
-    Map<String, Object> updatedSet = sourceChange.map(c -> new HashMap<>(c.set()))
-        .orElseGet(HashMap::new);
-    updatedSet.putAll(toPut);
-    updatedSet.keySet().removeAll(toRemove);
-
-    Set<String> remove = sourceChange.map(Change::remove)
-        .orElse(Collections.emptySet());
-
-    // Add replacement change to output if it has any remaining content
-    if (!updatedSet.isEmpty() || !remove.isEmpty()) {
-      Change updatedSourceChange = source.toChange(updatedSet, remove);
-      outputChanges.add(updatedSourceChange);
-    }
+    updateSetsInChanges(Collections.singletonList(new SetUpdate(source, toPut, toRemove)),
+        outputPath, changes, hierarchy);
+  }
 
-    if (hierarchy.map(h -> !h.sourceFor(source).isPresent()).orElse(false)) {
-      log.warn("Source not found in provided hierarchy. source={}", source);
+  /**
+   * Applies many updates to the set blocks of changes and writes the result in a single pass.
+   * Updates for the same source are applied in order.
+   */
+  public void updateSetsInChanges(List<SetUpdate> updates, Path outputPath,
+      Iterable<Change> changes, Optional<Hierarchy> hierarchy) throws IOException {
+    Set<SourceSpec> updatedSources = updates.stream()
+        .map(SetUpdate::source)
+        .collect(Collectors.toSet());
+
+    List<Change> outputChanges = new ArrayList<>();
+    // Changes we will replace, if present
+    Map<SourceSpec, Change> sourceChanges = new HashMap<>();
+
+    for (Change change : changes) {
+      if (updatedSources.contains(change.sourceSpec())) {
+        sourceChanges.putIfAbsent(change.sourceSpec(), change);
+      } else {
+        outputChanges.add(change);
+      }
     }
 
+    updatedChanges(updates, source -> Optional.ofNullable(sourceChanges.get(source)), hierarchy)
+        .values()
+        .forEach(updated -> updated.ifPresent(outputChanges::add));
+
     // Sort by hierarchy depth if provided, else sort alphabetically
-    Comparator<Change> changeComparator = hierarchy.map(h -> {
-      List<String> descendants = h.allSources().stream()
-          .map(Source::path)
-          .collect(Collectors.toList());
-
-      return (Comparator<Change>) (c1, c2) -> {
-        // TODO make Source Comparable
-        String c1Source = c1.sourceSpec().findSource(h).map(Source::path).orElse("");
-        String c2Source = c2.sourceSpec().findSource(h).map(Source::path).orElse("");
-
-        int c1Index = descendants.indexOf(c1Source);
-        int c2Index = descendants.indexOf(c2Source);
-
-        if (c1Index < 0 || c2Index < 0) {
-          return c1Source.compareTo(c2Source);
-        }
-
-        return c1Index - c2Index;
-      };
-      // TODO maybe make change comparable too?
-    }).orElse(Comparator.comparing(Change::toString));
-
-    List<Map<String, Object>> serializableChanges = outputChanges.stream()
-        .sorted(changeComparator)
+    List<Change> sortedChanges = hierarchy
+        .map(h -> sortedByHierarchy(outputChanges, h))
+        .orElseGet(() -> outputChanges.stream()
+            .sorted(Comparator.comparing(Change::toString))
+            .collect(Collectors.toList()));
+
+    List<Map<String, Object>> serializableChanges = sortedChanges.stream()
         .map(Change::toMap)
         .collect(Collectors.toList());
 
     yaml.dumpAll(serializableChanges.iterator(), MoreFiles.createDirectoriesForWriter(outputPath));
   }
+
+  /**
+   * Applies updates to the changes already in {@code changesPath}, like
+   * {@link #updateSetsInChanges(List, Path, Iterable, Optional)}.
+   *
+   * <p>If every update is to a source with a document of its own already in the file, only those
+   * documents are re-serialized and spliced into the file in place. Other documents, and their
+   * order, are left exactly as they were. Otherwise, the whole file is rewritten in sorted order.
+   */
+  public void updateSetsInFile(List<SetUpdate> updates, Path changesPath,
+      Optional<Hierarchy> hierarchy) throws IOException {
+    ChangesetFile changeset = readChangeset(changesPath);
+
+    if (!updates.stream().allMatch(update -> changeset.canReplace(update.source()))) {
+      cachedChangesets.remove(changesPath);
+      updateSetsInChanges(updates, changesPath, changeset.changes(), hierarchy);
+      return;
+    }
+
+    ChangesetFile updated = changeset.replace(
+        updatedChanges(updates, changeset::changeFor, hierarchy),
+        change -> yaml.dump(change.toMap()));
+
+    MoreFiles.createDirectoriesAndWrite(changesPath,
+        updated.text().getBytes(StandardCharsets.UTF_8));
+    cachedChangesets.put(changesPath, updated);
+  }
+
+  private ChangesetFile readChangeset(Path changesPath) throws IOException {
+    if (Files.notExists(changesPath)) {
+      return ChangesetFile.parse("", yaml);
+    }
+
+    String text = new String(Files.readAllBytes(changesPath), StandardCharsets.UTF_8);
+    ChangesetFile cached = cachedChangesets.get(changesPath);
+
+    if (cached != null && cached.text().equals(text)) {
+      return cached;
+    }
+
+    try {
+      ChangesetFile parsed = ChangesetFile.parse(text, yaml);
+      cachedChangesets.put(changesPath, parsed);
+      return parsed;
+    } catch (Exception e) {
+      throw new MonarchFileParseException("changes", changesPath, e);
+    }
+  }
+
+  /**
+   * Applies updates in order to the set blocks of their sources' existing changes.
+   *
+   * @return The updated change for each updated source, or empty if it no longer has any content.
+   */
+  private Map<SourceSpec, Optional<Change>> updatedChanges(List<SetUpdate> updates,
+      Function<SourceSpec, Optional<Change>> existing, Optional<Hierarchy> hierarchy) {
+    Map<SourceSpec, Map<String, Object>> updatedSets = new LinkedHashMap<>();
+
+    for (SetUpdate update : updates) {
+      Map<String, Object> updatedSet = updatedSets.computeIfAbsent(update.source(),
+          source -> existing.apply(source)
+              .map(c -> new HashMap<>(c.set()))
+              .orElseGet(HashMap::new));
+      updatedSet.putAll(update.put());
+      updatedSet.keySet().removeAll(update.remove());
+    }
+
+    Map<SourceSpec, Optional<Change>> updatedChanges = new LinkedHashMap<>();
+
+    updatedSets.forEach((source, updatedSet) -> {
+      Set<String> remove = existing.apply(source)
+          .map(Change::remove)
+          .orElse(Collections.emptySet());
+
+      // Keep replacement change only if it has any remaining content
+      updatedChanges.put(source, !updatedSet.isEmpty() || !remove.isEmpty()
+          ? Optional.of(source.toChange(updatedSet, remove))
+          : Optional.empty());
+
+      if (hierarchy.map(h -> !h.sourceFor(source).isPresent()).orElse(false)) {
+        log.warn("Source not found in provided hierarchy. source={}", source);
+      }
+    });
+
+    return updatedChanges;
+  }
+
+  /**
+   * Sorts changes by where their source appears in the hierarchy, top-most first. Changes whose
+   * sources are not in the hierarchy are sorted relative to others by path.
+   *
+   * <p>Each change's source and position are looked up once up front, rather than on every
+   * comparison.
+   */
+  private static List<Change> sortedByHierarchy(List<Change> changes, Hierarchy hierarchy) {
+    List<Source> sources = hierarchy.allSources();
+    Map<String, Integer> depthOrder = new HashMap<>(sources.size());
+    for (int i = 0; i < sources.size(); i++) {
+      depthOrder.putIfAbsent(sources.get(i).path(), i);
+    }
+
+    // TODO make Source Comparable
+    return changes.stream()
+        .map(change -> new PositionedChange(change, hierarchy, depthOrder))
+        .sorted()
+        .map(positioned -> positioned.change)
+        .collect(Collectors.toList());
+  }
+
+  private static class PositionedChange implements Comparable<PositionedChange> {
+    final Change change;
+    final String path;
+    final Integer position;
+
+    PositionedChange(Change change, Hierarchy hierarchy, Map<String, Integer> depthOrder) {
+      this.change = change;
+      this.path = change.sourceSpec().findSource(hierarchy).map(Source::path).orElse("");
+      this.position = depthOrder.get(path);
+    }
+
+    @Override
+    public int compareTo(PositionedChange other) {
+      if (position == null || other.position == null) {
+        return path.compareTo(other.path);
+      }
+
+      return Integer.compare(position, other.position);
+    }
+  }
 }
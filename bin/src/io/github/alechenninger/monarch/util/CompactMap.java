@@ -0,0 +1,268 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An insertion-ordered map which stores its keys and values in a single array rather than in
+ * per-entry nodes like {@link java.util.HashMap}. Small maps, which most maps in data sources
+ * are, are searched linearly. Larger maps add an open-addressed index of array positions.
+ *
+ * <p>Lookups and insertions are comparable to a hash map; removals are linear. Not thread safe.
+ * Null keys and values are permitted.
+ */
+public final class CompactMap<K, V> extends AbstractMap<K, V> {
+  /** Maps larger than this are indexed by hash rather than searched linearly. */
+  static final int INDEX_THRESHOLD = 8;
+
+  /** Keys at even positions each followed by their value. */
+  private Object[] table;
+  private int size;
+
+  /** Slots contain a position in {@link #table} plus one, or zero if empty. Null if unindexed. */
+  private int[] index;
+  private int modCount;
+
+  public CompactMap() {
+    this(4);
+  }
+
+  public CompactMap(int expectedSize) {
+    table = new Object[Math.max(expectedSize, 1) * 2];
+  }
+
+  public CompactMap(Map<? extends K, ? extends V> map) {
+    this(map.size());
+    putAll(map);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return find(key) >= 0;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    int i = find(key);
+    return i < 0 ? null : (V) table[i * 2 + 1];
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V put(K key, V value) {
+    int i = find(key);
+
+    if (i >= 0) {
+      V old = (V) table[i * 2 + 1];
+      table[i * 2 + 1] = value;
+      return old;
+    }
+
+    if ((size + 1) * 2 > table.length) {
+      table = Arrays.copyOf(table, Math.max(size + 1, size + (size >> 1)) * 2);
+    }
+
+    table[size * 2] = key;
+    table[size * 2 + 1] = value;
+    size++;
+    modCount++;
+
+    if (index == null ? size > INDEX_THRESHOLD : size * 2 > index.length) {
+      reindex();
+    } else if (index != null) {
+      addToIndex(size - 1);
+    }
+
+    return null;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public V remove(Object key) {
+    int i = find(key);
+
+    if (i < 0) {
+      return null;
+    }
+
+    V old = (V) table[i * 2 + 1];
+    removeAt(i);
+    return old;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(table, 0, size * 2, null);
+    size = 0;
+    index = null;
+    modCount++;
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return new EntrySet();
+  }
+
+  private int find(Object key) {
+    if (index == null) {
+      for (int i = 0; i < size; i++) {
+        if (Objects.equals(table[i * 2], key)) {
+          return i;
+        }
+      }
+
+      return -1;
+    }
+
+    int mask = index.length - 1;
+
+    for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+      int position = index[slot];
+
+      if (position == 0) {
+        return -1;
+      }
+
+      if (Objects.equals(table[(position - 1) * 2], key)) {
+        return position - 1;
+      }
+    }
+  }
+
+  private void removeAt(int i) {
+    System.arraycopy(table, (i + 1) * 2, table, i * 2, (size - i - 1) * 2);
+    size--;
+    table[size * 2] = null;
+    table[size * 2 + 1] = null;
+    modCount++;
+
+    if (index != null) {
+      reindex();
+    }
+  }
+
+  private void reindex() {
+    if (size <= INDEX_THRESHOLD) {
+      index = null;
+      return;
+    }
+
+    // At most half full, so probe sequences stay short.
+    index = new int[Integer.highestOneBit(size) * 4];
+
+    for (int i = 0; i < size; i++) {
+      addToIndex(i);
+    }
+  }
+
+  private void addToIndex(int i) {
+    int mask = index.length - 1;
+    int slot = hash(table[i * 2]) & mask;
+
+    while (index[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+
+    index[slot] = i + 1;
+  }
+
+  private static int hash(Object key) {
+    int h = Objects.hashCode(key);
+    return h ^ (h >>> 16);
+  }
+
+  private class EntrySet extends AbstractSet<Entry<K, V>> {
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public void clear() {
+      CompactMap.this.clear();
+    }
+
+    @Override
+    public Iterator<Entry<K, V>> iterator() {
+      return new Iterator<Entry<K, V>>() {
+        int next = 0;
+        int last = -1;
+        int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+          return next < size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<K, V> next() {
+          if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+          }
+
+          if (next >= size) {
+            throw new NoSuchElementException();
+          }
+
+          int i = last = next++;
+
+          return new SimpleEntry<K, V>((K) table[i * 2], (V) table[i * 2 + 1]) {
+            @Override
+            public V setValue(V value) {
+              table[i * 2 + 1] = value;
+              return super.setValue(value);
+            }
+          };
+        }
+
+        @Override
+        public void remove() {
+          if (last < 0) {
+            throw new IllegalStateException();
+          }
+
+          if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+          }
+
+          removeAt(last);
+          next = last;
+          last = -1;
+          expectedModCount = modCount;
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for files to be created, modified, or deleted, using the file system's
+ * {@link WatchService}. Whole directory trees may be watched, including directories created in
+ * them later, as well as individual files (by watching their directory for events about them).
+ */
+public class FileWatcher implements Closeable {
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> keys = new HashMap<>();
+  private final Set<Path> trees = new HashSet<>();
+  private final Map<Path, Set<Path>> filesByDirectory = new HashMap<>();
+
+  /**
+   * Saving a file often produces several events in quick succession; changes are reported once
+   * no more events have arrived for this long.
+   */
+  static final long QUIET_MILLIS = 20;
+
+  public FileWatcher(FileSystem fileSystem) throws IOException {
+    this.watchService = fileSystem.newWatchService();
+  }
+
+  /** Watches every file in {@code directory} and its subdirectories, if it exists. */
+  public void watchTree(Path directory) throws IOException {
+    Path tree = directory.toAbsolutePath().normalize();
+
+    trees.add(tree);
+
+    if (!keys.containsValue(tree)) {
+      registerTree(tree);
+    }
+  }
+
+  /** Watches {@code file}, which need not exist yet, so long as its directory does. */
+  public void watchFile(Path file) throws IOException {
+    Path absolute = file.toAbsolutePath().normalize();
+    Path directory = absolute.getParent();
+
+    if (directory == null || !Files.isDirectory(directory)) {
+      return;
+    }
+
+    if (filesByDirectory.computeIfAbsent(directory, d -> new HashSet<>()).add(absolute)) {
+      register(directory);
+    }
+  }
+
+  /**
+   * Blocks until at least one watched file changes, and then until changes settle.
+   *
+   * @return The paths which changed. If events were lost, the watched directories themselves.
+   */
+  public Set<Path> awaitChanges() throws InterruptedException, IOException {
+    Set<Path> changed = new LinkedHashSet<>();
+
+    while (changed.isEmpty()) {
+      WatchKey key = watchService.take();
+
+      do {
+        collect(key, changed);
+      } while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null);
+    }
+
+    return changed;
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+
+  private void registerTree(Path tree) throws IOException {
+    if (!Files.isDirectory(tree)) {
+      return;
+    }
+
+    Files.walkFileTree(tree, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+          throws IOException {
+        register(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private void register(Path directory) throws IOException {
+    if (keys.containsValue(directory)) {
+      return;
+    }
+
+    WatchKey key = directory.register(watchService,
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY,
+        StandardWatchEventKinds.ENTRY_DELETE);
+    keys.put(key, directory);
+  }
+
+  private void collect(WatchKey key, Set<Path> changed) throws IOException {
+    Path directory = keys.get(key);
+
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (directory == null) {
+        continue;
+      }
+
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        changed.add(directory);
+        continue;
+      }
+
+      Path path = directory.resolve((Path) event.context());
+
+      if (isInTree(directory)) {
+        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+          registerTree(path);
+        }
+
+        changed.add(path);
+      } else if (filesByDirectory.getOrDefault(directory, Collections.emptySet()).contains(path)) {
+        changed.add(path);
+      }
+    }
+
+    if (!key.reset()) {
+      keys.remove(key);
+    }
+  }
+
+  private boolean isInTree(Path directory) {
+    for (Path tree : trees) {
+      if (directory.startsWith(tree)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+}
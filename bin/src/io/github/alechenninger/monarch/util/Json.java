@@ -0,0 +1,120 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.util;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Writes the kinds of values found in data sources as JSON: maps, collections, strings, numbers,
+ * booleans, and null. Map keys are written with {@link String#valueOf(Object)}. Dates are written
+ * as ISO-8601 strings and byte arrays as base64 strings, as neither has a JSON equivalent.
+ */
+public final class Json {
+  private Json() {}
+
+  public static String toJson(Object value) {
+    StringBuilder json = new StringBuilder();
+
+    try {
+      write(value, json);
+    } catch (IOException e) {
+      throw new AssertionError("StringBuilder does not throw IOException", e);
+    }
+
+    return json.toString();
+  }
+
+  public static void write(Object value, Appendable out) throws IOException {
+    if (value == null) {
+      out.append("null");
+    } else if (value instanceof String) {
+      writeString((String) value, out);
+    } else if (value instanceof Boolean) {
+      out.append(value.toString());
+    } else if (value instanceof Double || value instanceof Float) {
+      double number = ((Number) value).doubleValue();
+      if (Double.isNaN(number) || Double.isInfinite(number)) {
+        writeString(value.toString(), out);
+      } else {
+        out.append(value.toString());
+      }
+    } else if (value instanceof Number) {
+      out.append(value.toString());
+    } else if (value instanceof Map) {
+      out.append('{');
+      Iterator<? extends Map.Entry<?, ?>> entries = ((Map<?, ?>) value).entrySet().iterator();
+      while (entries.hasNext()) {
+        Map.Entry<?, ?> entry = entries.next();
+        writeString(String.valueOf(entry.getKey()), out);
+        out.append(':');
+        write(entry.getValue(), out);
+        if (entries.hasNext()) out.append(',');
+      }
+      out.append('}');
+    } else if (value instanceof Iterable) {
+      out.append('[');
+      Iterator<?> elements = ((Iterable<?>) value).iterator();
+      while (elements.hasNext()) {
+        write(elements.next(), out);
+        if (elements.hasNext()) out.append(',');
+      }
+      out.append(']');
+    } else if (value instanceof Date) {
+      SimpleDateFormat iso8601 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+      iso8601.setTimeZone(TimeZone.getTimeZone("UTC"));
+      writeString(iso8601.format((Date) value), out);
+    } else if (value instanceof byte[]) {
+      writeString(Base64.getEncoder().encodeToString((byte[]) value), out);
+    } else {
+      writeString(value.toString(), out);
+    }
+  }
+
+  private static void writeString(String string, Appendable out) throws IOException {
+    out.append('"');
+
+    for (int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+
+      switch (c) {
+        case '"': out.append("\\\""); break;
+        case '\\': out.append("\\\\"); break;
+        case '\n': out.append("\\n"); break;
+        case '\r': out.append("\\r"); break;
+        case '\t': out.append("\\t"); break;
+        case '\b': out.append("\\b"); break;
+        case '\f': out.append("\\f"); break;
+        default:
+          if (c < 0x20) {
+            out.append(String.format("\\u%04x", (int) c));
+          } else {
+            out.append(c);
+          }
+      }
+    }
+
+    out.append('"');
+  }
+}
@@ -20,10 +20,66 @@ package io.github.alechenninger.monarch.util;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
 
 public class MoreFiles {
+  /**
+   * A file modified within this long before its size and modified time were recorded may have
+   * been modified again without a visible change in its modified time, given coarse file system
+   * timestamps.
+   */
+  public static final long RACY_WINDOW_MILLIS = 2000;
+
+  /**
+   * @return Whether a file last modified at {@code modified}, and recorded at {@code recordedAt},
+   * was modified long enough before it was recorded that an unchanged size and modified time mean
+   * its content is unchanged too. Like git's index, files modified too close to when they were
+   * recorded must be read to tell.
+   */
+  public static boolean isModifiedWellBefore(long modified, long recordedAt) {
+    return recordedAt - modified > RACY_WINDOW_MILLIS;
+  }
+
+  /**
+   * Writes {@code path} by writing a temporary file next to it and moving it into place, so
+   * readers never see a partially written file. Parent directories are created as needed. If
+   * anything fails, the temporary file is removed and {@code path} is left as it was.
+   *
+   * @param attributes Attributes to create the file with, such as its permissions.
+   */
+  public static void writeAtomically(Path path, Writing writing, FileAttribute<?>... attributes)
+      throws IOException {
+    createParentDirectories(path);
+    Path parent = path.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp", attributes);
+
+    try {
+      try (OutputStream out = Files.newOutputStream(temp)) {
+        writing.writeTo(out);
+      }
+
+      try {
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException | RuntimeException e) {
+      try {
+        Files.deleteIfExists(temp);
+      } catch (IOException suppressed) {
+        e.addSuppressed(suppressed);
+      }
+
+      throw e;
+    }
+  }
+
   public static Path createDirectoriesAndWrite(Path path, byte[] bytes) throws IOException {
     createParentDirectories(path);
     return Files.write(path, bytes);
@@ -40,4 +96,9 @@ public class MoreFiles {
       Files.createDirectories(parent);
     }
   }
+
+  @FunctionalInterface
+  public interface Writing {
+    void writeTo(OutputStream out) throws IOException;
+  }
 }
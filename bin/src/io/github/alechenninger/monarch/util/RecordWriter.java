@@ -0,0 +1,70 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.util;
+
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams records of command output, flushing each as it is written so that consumers may
+ * process records while later ones are still being computed.
+ */
+public interface RecordWriter {
+  void write(Object record) throws IOException;
+
+  /** Each record is its own YAML document. */
+  static RecordWriter yamlDocuments(OutputStream out, Yaml yaml) {
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+
+    return record -> {
+      writer.write("---\n");
+      yaml.dump(record, writer);
+      writer.flush();
+    };
+  }
+
+  /** Each record is a JSON value on its own line. */
+  static RecordWriter jsonLines(OutputStream out) {
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+
+    return record -> {
+      Json.write(record, writer);
+      writer.write('\n');
+      writer.flush();
+    };
+  }
+
+  enum Format {
+    YAML,
+    JSON;
+
+    public RecordWriter writerFor(OutputStream out, Yaml yaml) {
+      switch (this) {
+        case YAML: return yamlDocuments(out, yaml);
+        case JSON: return jsonLines(out);
+        default: throw new UnsupportedOperationException("Unknown format: " + this);
+      }
+    }
+  }
+}
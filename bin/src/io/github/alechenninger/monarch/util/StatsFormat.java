@@ -0,0 +1,81 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.util;
+
+import io.github.alechenninger.monarch.Stats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+/** How to report {@link Stats} collected during a run. */
+public enum StatsFormat {
+  /** Aligned columns for people. */
+  TABLE {
+    @Override
+    void write(Stats stats, Writer out) throws IOException {
+      int width = "counter".length();
+
+      for (Stats.Phase phase : stats.phases()) {
+        width = Math.max(width, phase.name().length());
+      }
+
+      for (String counter : stats.counters().keySet()) {
+        width = Math.max(width, counter.length());
+      }
+
+      String phaseRow = "%-" + width + "s  %8s  %12s  %12s%n";
+      out.write(String.format(Locale.ROOT, phaseRow, "phase", "count", "wall ms", "cpu ms"));
+
+      for (Stats.Phase phase : stats.phases()) {
+        out.write(String.format(Locale.ROOT, phaseRow, phase.name(), phase.count(),
+            String.format(Locale.ROOT, "%.3f", phase.wallMillis()),
+            phase.cpuMillis() < 0 ? "n/a" : String.format(Locale.ROOT, "%.3f", phase.cpuMillis())));
+      }
+
+      String counterRow = "%-" + width + "s  %8s%n";
+      out.write(String.format(Locale.ROOT, "%n" + counterRow, "counter", "value"));
+
+      for (Map.Entry<String, Long> counter : stats.counters().entrySet()) {
+        out.write(String.format(Locale.ROOT, counterRow, counter.getKey(), counter.getValue()));
+      }
+    }
+  },
+
+  /** A single line JSON object as described by {@link Stats#toMap()}. */
+  JSON {
+    @Override
+    void write(Stats stats, Writer out) throws IOException {
+      Json.write(stats.toMap(), out);
+      out.write('\n');
+    }
+  };
+
+  public void write(Stats stats, OutputStream out) throws IOException {
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    write(stats, writer);
+    writer.flush();
+  }
+
+  abstract void write(Stats stats, Writer out) throws IOException;
+}
@@ -0,0 +1,49 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.util;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * A concurrent table of canonical string instances, like {@link String#intern()} but scoped to
+ * this table and without going through the JVM's string table. Used to share the many repeated
+ * keys and values across data sources instead of keeping a copy per source.
+ *
+ * <p>Symbols are only weakly held, so a long lived table, such as one shared by every command a
+ * {@code monarch serve} process runs, only keeps the symbols of data still in use.
+ */
+public final class SymbolTable {
+  /** Strings longer than this are unlikely to repeat and are not worth holding on to. */
+  public static final int MAX_SYMBOL_LENGTH = 256;
+
+  private final Interner<String> symbols = Interners.newWeakInterner();
+
+  /**
+   * @return The canonical instance equal to {@code string}, or {@code string} itself if it is too
+   * long to be interned.
+   */
+  public String intern(String string) {
+    if (string.length() > MAX_SYMBOL_LENGTH) {
+      return string;
+    }
+
+    return symbols.intern(string);
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.util;
+
+import io.github.alechenninger.monarch.Stats;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads whole files as UTF-8 text with as few copies as possible. Large files are memory mapped,
+ * while small files are read into a pooled direct buffer, so loading many sources does not
+ * allocate a stream, reader, and intermediate builder per file. Either way bytes are decoded into
+ * a per-thread {@link CharBuffer} from which the resulting {@code String} is copied exactly once.
+ *
+ * <p>Like {@link java.io.InputStreamReader}, malformed input is replaced rather than rejected.
+ */
+public final class Utf8Files {
+  /** Files larger than this are mapped rather than read. */
+  static final int MAP_THRESHOLD = 64 * 1024;
+
+  /** Upper bound of a pooled char buffer, so one huge file does not pin its memory forever. */
+  private static final int MAX_POOLED_CHARS = 1024 * 1024;
+
+  private static final ThreadLocal<ByteBuffer> byteBuffers =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(MAP_THRESHOLD));
+  private static final ThreadLocal<CharBuffer> charBuffers =
+      ThreadLocal.withInitial(() -> CharBuffer.allocate(MAP_THRESHOLD));
+  private static final ThreadLocal<CharsetDecoder> decoders =
+      ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+  private Utf8Files() {}
+
+  /**
+   * @throws java.nio.file.NoSuchFileException If {@code path} does not exist.
+   */
+  public static String read(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("File too large to read: " + path + " (" + size + " bytes)");
+      }
+
+      Stats.count("bytes.read", size);
+
+      return decode(size > MAP_THRESHOLD ? map(channel, size) : readFully(channel));
+    }
+  }
+
+  private static ByteBuffer map(FileChannel channel, long size) throws IOException {
+    try {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } catch (UnsupportedOperationException e) {
+      // Not all file systems support mapping (for example in-memory ones); just read instead.
+      return readFully(channel, ByteBuffer.allocate((int) size));
+    }
+  }
+
+  private static ByteBuffer readFully(FileChannel channel) throws IOException {
+    ByteBuffer pooled = byteBuffers.get();
+    pooled.clear();
+    return readFully(channel, pooled);
+  }
+
+  /**
+   * Reads until end of stream, growing past {@code buffer} if the file grew since we checked its
+   * size. Returns a buffer flipped for reading.
+   */
+  private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (channel.read(buffer) >= 0) {
+      if (!buffer.hasRemaining()) {
+        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+      }
+    }
+
+    buffer.flip();
+    return buffer;
+  }
+
+  private static String decode(ByteBuffer bytes) throws CharacterCodingException {
+    CharsetDecoder decoder = decoders.get().reset();
+    // UTF-8 never decodes to more chars than it has bytes.
+    CharBuffer chars = charBuffer(bytes.remaining());
+
+    CoderResult result = decoder.decode(bytes, chars, true);
+    if (!result.isUnderflow()) result.throwException();
+    result = decoder.flush(chars);
+    if (!result.isUnderflow()) result.throwException();
+
+    chars.flip();
+    return chars.toString();
+  }
+
+  private static CharBuffer charBuffer(int capacity) {
+    CharBuffer pooled = charBuffers.get();
+
+    if (pooled.capacity() >= capacity) {
+      pooled.clear();
+      return pooled;
+    }
+
+    CharBuffer larger = CharBuffer.allocate(capacity);
+
+    if (capacity <= MAX_POOLED_CHARS) {
+      charBuffers.set(larger);
+    }
+
+    return larger;
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.which;
+
+import io.github.alechenninger.monarch.Hierarchy;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+public class OverridableWhichOptions implements WhichOptions {
+  private final WhichOptions override;
+  private final WhichOptions fallback;
+
+  public OverridableWhichOptions(WhichOptions override, WhichOptions fallback) {
+    this.override = override;
+    this.fallback = fallback;
+  }
+
+  @Override
+  public List<String> keys() {
+    List<String> keys = new ArrayList<>();
+    keys.addAll(override.keys());
+    keys.addAll(fallback.keys());
+    return keys;
+  }
+
+  @Override
+  public Optional<Hierarchy> hierarchy() {
+    return overridden(WhichOptions::hierarchy);
+  }
+
+  @Override
+  public Set<String> mergeKeys() {
+    Set<String> keys = new HashSet<>();
+    keys.addAll(override.mergeKeys());
+    keys.addAll(fallback.mergeKeys());
+    return keys;
+  }
+
+  @Override
+  public Optional<Path> dataDir() {
+    return overridden(WhichOptions::dataDir);
+  }
+
+  @Override
+  public Optional<Path> cacheDir() {
+    return overridden(WhichOptions::cacheDir);
+  }
+
+  private <T> Optional<T> overridden(Function<WhichOptions, Optional<T>> input) {
+    Optional<T> maybeOverride = input.apply(override);
+
+    if (maybeOverride.isPresent()) {
+      return maybeOverride;
+    }
+
+    return input.apply(fallback);
+  }
+}
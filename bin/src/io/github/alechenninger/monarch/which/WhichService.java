@@ -0,0 +1,102 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.which;
+
+import io.github.alechenninger.monarch.DataFormats;
+import io.github.alechenninger.monarch.DataFormatsConfiguration;
+import io.github.alechenninger.monarch.DataLookup.SourceToValue;
+import io.github.alechenninger.monarch.Hierarchy;
+import io.github.alechenninger.monarch.KeyIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Reports which sources set keys, and which values leaves of the hierarchy inherit for them.
+ */
+public class WhichService {
+  private final DataFormats dataFormats;
+  private final Yaml yaml;
+
+  private static final Logger log = LoggerFactory.getLogger(WhichService.class);
+
+  public WhichService(DataFormats dataFormats, Yaml yaml) {
+    this.dataFormats = dataFormats;
+    this.yaml = yaml;
+  }
+
+  /**
+   * Writes a YAML report to {@code out} with an entry for each key. Each entry has the sources
+   * which set the key to which values ({@code sources}), and the values inherited by leaves of
+   * the hierarchy grouped by value ({@code inherited}).
+   */
+  public void which(List<String> keys, Hierarchy hierarchy, Set<String> mergeKeys,
+      Optional<DataFormatsConfiguration> dataFormatsConfiguration, Path dataDir,
+      OutputStream out) throws IOException {
+    DataFormats configuredFormats = dataFormatsConfiguration
+        .map(dataFormats::withConfiguration)
+        .orElse(dataFormats);
+
+    KeyIndex index = configuredFormats.indexDataSourcesInHierarchy(dataDir, hierarchy);
+    log.debug("Indexed {}", index);
+
+    Map<String, Object> report = new LinkedHashMap<>();
+
+    for (String key : keys) {
+      Map<String, Object> sources = new LinkedHashMap<>();
+      for (SourceToValue sourceToValue : index.sourcesOf(key)) {
+        sources.put(sourceToValue.source(), sourceToValue.value());
+      }
+
+      Map<Object, List<String>> leavesByValue = new LinkedHashMap<>();
+      index.inheritedByLeaves(hierarchy, key, mergeKeys).forEach((leaf, value) ->
+          leavesByValue.computeIfAbsent(value, v -> new ArrayList<>()).add(leaf));
+
+      List<Map<String, Object>> inherited = new ArrayList<>();
+      leavesByValue.forEach((value, leaves) -> {
+        Map<String, Object> valueToLeaves = new LinkedHashMap<>();
+        valueToLeaves.put("value", value);
+        valueToLeaves.put("leaves", leaves);
+        inherited.add(valueToLeaves);
+      });
+
+      Map<String, Object> keyReport = new LinkedHashMap<>();
+      keyReport.put("sources", sources);
+      keyReport.put("inherited", inherited);
+      report.put(key, keyReport);
+    }
+
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    yaml.dump(report, writer);
+    writer.flush();
+  }
+}
@@ -29,6 +29,15 @@ public interface YamlConfiguration {
     return Isolate.ALWAYS;
   }
 
+  /**
+   * Whether parsed data source keys and string values should be shared through a global symbol
+   * table, and their maps stored compactly. This uses considerably less memory when loading many
+   * data sources with repeated keys and values, at some cost to parse time.
+   */
+  default boolean intern() {
+    return false;
+  }
+
   enum Isolate {
     ALWAYS,
     // TODO: Support WHEN_POSSIBLE
@@ -45,6 +54,7 @@ public interface YamlConfiguration {
       return "YamlConfiguration{" +
           "indent=" + indent() +
           ", updateIsolation=" + updateIsolation() +
+          ", intern=" + intern() +
           '}';
     }
   }
@@ -22,15 +22,21 @@ import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.CharStreams;
+import io.github.alechenninger.monarch.BinaryValues;
 import io.github.alechenninger.monarch.Change;
 import io.github.alechenninger.monarch.DataFormat;
 import io.github.alechenninger.monarch.Hierarchy;
 import io.github.alechenninger.monarch.MonarchException;
 import io.github.alechenninger.monarch.SourceData;
+import io.github.alechenninger.monarch.util.CompactMap;
+import io.github.alechenninger.monarch.util.SymbolTable;
+import io.github.alechenninger.monarch.util.Utf8Files;
 import io.github.alechenninger.monarch.yaml.YamlConfiguration.Isolate;
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.Yaml;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -38,19 +44,30 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
 public class YamlDataFormat implements DataFormat {
   private final Yaml yaml;
   private final UpdateStrategy updateStrategy;
+  private final boolean intern;
+
+  /**
+   * Shared by all formats which {@link YamlConfiguration#intern() intern}, so that sources parsed
+   * by different instances still share symbols. Symbols no longer referenced by any parsed data
+   * are dropped, so the table does not grow for the life of the process.
+   */
+  private static final SymbolTable symbols = new SymbolTable();
 
   private static final String BEGIN_MONARCH_MANAGED = "# --- Begin managed by monarch";
   private static final String END_MONARCH_MANAGED = "# --- End managed by monarch";
@@ -70,12 +87,13 @@ public class YamlDataFormat implements DataFormat {
 
     this.yaml = new Yaml(options);
     this.updateStrategy = UpdateStrategy.fromYamlConfiguration(config, yaml);
+    this.intern = config.intern();
   }
 
   @Override
-  public Hierarchy parseHierarchy(InputStream hierarchyInput) {
+  public Hierarchy parseHierarchy(InputStream hierarchyInput, Path directory) {
     Object parsedHierarchy = yaml.load(hierarchyInput);
-    return Hierarchy.fromStringListOrMap(parsedHierarchy);
+    return Hierarchy.fromStringListOrMap(parsedHierarchy, directory);
   }
 
   @Override
@@ -110,6 +128,23 @@ public class YamlDataFormat implements DataFormat {
     }
   }
 
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Map<String, Object>> parseMaps(InputStream inputStream) {
+    try {
+      List<Map<String, Object>> maps = new ArrayList<>();
+
+      for (Object document : yaml.loadAll(inputStream)) {
+        if (document == null) continue;
+        maps.add((Map<String, Object>) document);
+      }
+
+      return maps;
+    } catch (ClassCastException e) {
+      throw new MonarchException("Expected each yaml document to parse as a map.", e);
+    }
+  }
+
   @Override
   public SourceData newSourceData() {
     return new YamlSourceData();
@@ -123,6 +158,77 @@ public class YamlDataFormat implements DataFormat {
     }
   }
 
+  @Override
+  public SourceData parseData(Path path) throws IOException {
+    return new YamlSourceData(Utf8Files.read(path));
+  }
+
+  @Override
+  public void writeSourceData(SourceData data, DataOutput out) throws IOException {
+    if (!(data instanceof YamlSourceData)) {
+      throw new IllegalArgumentException("Expected source data from a YamlDataFormat but got: " +
+          data);
+    }
+
+    YamlSourceData yamlData = (YamlSourceData) data;
+    BinaryValues.writeString(yamlData.pre, out);
+    BinaryValues.writeString(yamlData.post, out);
+    BinaryValues.write(yamlData.managed, out);
+    BinaryValues.write(yamlData.unmanaged, out);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public SourceData readSourceData(DataInput in) throws IOException {
+    String pre = BinaryValues.readString(in);
+    String post = BinaryValues.readString(in);
+    Map<String, Object> managed = (Map<String, Object>) BinaryValues.read(in);
+    Map<String, Object> unmanaged = (Map<String, Object>) BinaryValues.read(in);
+    return new YamlSourceData(pre, post, compact(managed), compact(unmanaged));
+  }
+
+  private Map<String, Object> newMap(int expectedSize) {
+    return intern ? new CompactMap<>(expectedSize) : new HashMap<>();
+  }
+
+  /**
+   * If interning, returns a copy of {@code map} with strings interned and maps made compact, all
+   * the way down. Otherwise returns {@code map} as is.
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> compact(Map<String, Object> map) {
+    return intern ? (Map<String, Object>) internValue(map) : map;
+  }
+
+  private static Object internValue(Object value) {
+    if (value instanceof String) {
+      return symbols.intern((String) value);
+    }
+
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      Map<Object, Object> compact = new CompactMap<>(map.size());
+      map.forEach((k, v) -> compact.put(internValue(k), internValue(v)));
+      return compact;
+    }
+
+    if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      List<Object> interned = new ArrayList<>(list.size());
+      list.forEach(e -> interned.add(internValue(e)));
+      return interned;
+    }
+
+    if (value instanceof Set) {
+      Set<?> set = (Set<?>) value;
+      Set<Object> interned = new LinkedHashSet<>(set.size());
+      set.forEach(e -> interned.add(internValue(e)));
+      return interned;
+    }
+
+    return value;
+  }
+
   private class YamlSourceData implements SourceData {
     private final Map<String, Object> data;
     private final Map<String, Object> managed;
@@ -151,29 +257,43 @@ public class YamlDataFormat implements DataFormat {
       }
 
       String managed = dataString.substring(managedBegin, managedEnd);
-      this.managed = Optional.ofNullable(yaml.loadAs(managed, Map.class))
-          .orElse(Collections.emptyMap());
+      this.managed = compact(Optional.ofNullable(yaml.loadAs(managed, Map.class))
+          .orElse(Collections.emptyMap()));
 
       this.pre = dataString.substring(0, managedBegin);
       this.post = dataString.substring(managedEnd);
-      this.unmanaged = new HashMap<>();
+      this.unmanaged = newMap(0);
 
       Map<String, Object> preData = yaml.loadAs(pre, Map.class);
       Map<String, Object> postData = yaml.loadAs(post, Map.class);
 
-      if (preData != null) unmanaged.putAll(preData);
-      if (postData != null) unmanaged.putAll(postData);
+      if (preData != null) unmanaged.putAll(compact(preData));
+      if (postData != null) unmanaged.putAll(compact(postData));
 
       // Treat redundancies as unmanaged.
       // TODO: Consider warning if unmanaged / managed have overlapping keys
       unmanaged.keySet().forEach(this.managed::remove);
 
-      Map<String, Object> data = new HashMap<>();
+      Map<String, Object> data = newMap(this.managed.size() + unmanaged.size());
       data.putAll(this.managed);
       data.putAll(unmanaged);
       this.data = Collections.unmodifiableMap(data);
     }
 
+    /** For data that was already parsed, such as from {@link #readSourceData(DataInput)}. */
+    YamlSourceData(String pre, String post, Map<String, Object> managed,
+        Map<String, Object> unmanaged) {
+      this.pre = pre;
+      this.post = post;
+      this.managed = managed;
+      this.unmanaged = unmanaged;
+
+      Map<String, Object> data = newMap(managed.size() + unmanaged.size());
+      data.putAll(managed);
+      data.putAll(unmanaged);
+      this.data = Collections.unmodifiableMap(data);
+    }
+
     @Override
     public Map<String, Object> data() {
       return data;
@@ -0,0 +1,172 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch
+
+import com.google.common.jimfs.Jimfs
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.concurrent.TimeUnit
+
+@RunWith(JUnit4.class)
+class CachingDataFormatsTest {
+  def fs = Jimfs.newFileSystem()
+  def formats = new CachingDataFormats(new DataFormats.Default())
+
+  /** Writes the file as if it was last modified well before now, so it may be cached. */
+  Path writeSettledFile(String file, String data) {
+    def path = fs.getPath(file)
+    path.parent?.identity Files.&createDirectories
+    Files.write(path, data.getBytes('UTF-8'))
+    Files.setLastModifiedTime(path, FileTime.fromMillis(
+        System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1)))
+    return path
+  }
+
+  @Test
+  void shouldReuseParsedDataWhileFileIsUnchanged() {
+    def path = writeSettledFile('/data/global.yaml', 'foo: 1')
+
+    assert formats.parseData(path).is(formats.parseData(path))
+  }
+
+  @Test
+  void shouldParseDataAgainOnceFileChanges() {
+    def path = writeSettledFile('/data/global.yaml', 'foo: 1')
+    def first = formats.parseData(path)
+
+    writeSettledFile('/data/global.yaml', 'foo: 12')
+
+    assert first.data() == [foo: 1]
+    assert formats.parseData(path).data() == [foo: 12]
+  }
+
+  @Test
+  void shouldNotTrustFilesModifiedRecently() {
+    def path = fs.getPath('/data/global.yaml')
+    Files.createDirectories(path.parent)
+    Files.write(path, 'foo: 1'.getBytes('UTF-8'))
+
+    assert !formats.parseData(path).is(formats.parseData(path))
+  }
+
+  @Test
+  void shouldReuseParsedHierarchyAndChangesByPath() {
+    writeSettledFile('/hierarchy.yaml', 'global.yaml: [teams/myteam.yaml]')
+    writeSettledFile('/changes.yaml', '---\nsource: global.yaml\nset: {foo: 1}')
+
+    assert formats.parseHierarchy('/hierarchy.yaml', fs)
+        .is(formats.parseHierarchy('/hierarchy.yaml', fs))
+    assert formats.parseChanges('/changes.yaml', fs)
+        .is(formats.parseChanges('/changes.yaml', fs))
+  }
+
+  @Test
+  void shouldParseHierarchyAgainOnceItsInventoryFilesOrCompiledFileChange() {
+    writeSettledFile('/hosts.txt', 'foo.com\n')
+    writeSettledFile('/hierarchy.yaml', '''
+sources:
+  - 'hosts/%{host}'
+inventory:
+  host:
+    file: hosts.txt
+''')
+    def first = formats.parseHierarchy('/hierarchy.yaml', fs)
+
+    assert first.is(formats.parseHierarchy('/hierarchy.yaml', fs))
+
+    writeSettledFile('/hosts.txt', 'foo.com\nbar.com\n')
+    def second = formats.parseHierarchy('/hierarchy.yaml', fs)
+
+    assert !second.is(first)
+    assert second.sourceFor('hosts/bar.com').isPresent()
+
+    CompiledHierarchyFile.write(fs.getPath('/hierarchy.yaml'),
+        Files.readAllBytes(fs.getPath('/hierarchy.yaml')), [fs.getPath('/hosts.txt')],
+        CompiledHierarchy.compile(second))
+    Files.setLastModifiedTime(fs.getPath('/hierarchy.yaml.compiled'), FileTime.fromMillis(
+        System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1)))
+
+    assert formats.parseHierarchy('/hierarchy.yaml', fs) instanceof CompiledHierarchy
+  }
+
+  @Test
+  void shouldReuseParsedConfigAndItsHierarchyByPath() {
+    def path = writeSettledFile('/etc/monarch.yaml', '''
+hierarchy:
+  global.yaml: [teams/myteam.yaml]
+dataDir: /data
+''')
+
+    def config = formats.parseConfig(path).get()
+
+    assert config.is(formats.parseConfig(path).get())
+    assert config.parsedHierarchy().get().is(formats.parseConfig(path).get().parsedHierarchy().get())
+    assert config.dataDir == '/data'
+  }
+
+  @Test
+  void shouldNotFindConfigWhereThereIsNoFile() {
+    assert !formats.parseConfig(fs.getPath('/etc/monarch.yaml')).isPresent()
+    assert !formats.parseConfig(Files.createDirectories(fs.getPath('/etc/.monarch'))).isPresent()
+  }
+
+  @Test
+  void shouldNotCacheMissingFiles() {
+    def path = fs.getPath('/data/global.yaml')
+
+    assert formats.parseData(path).isEmpty()
+
+    writeSettledFile('/data/global.yaml', 'foo: 1')
+
+    assert formats.parseData(path).data() == [foo: 1]
+  }
+
+  @Test
+  void shouldKeepOneCacheForEachConfiguration() {
+    def config = new DataFormatsConfiguration() {
+      @Override
+      Optional<io.github.alechenninger.monarch.yaml.YamlConfiguration> yamlConfiguration() {
+        return Optional.empty()
+      }
+    }
+
+    assert formats.withConfiguration(config).is(formats.withConfiguration(config))
+  }
+
+  @Test
+  void sessionShouldTrustRecentlyModifiedFilesUntilInvalidated() {
+    def session = CachingDataFormats.forSession(new DataFormats.Default())
+    def path = fs.getPath('/data/global.yaml')
+    Files.createDirectories(path.parent)
+    Files.write(path, 'foo: 1'.getBytes('UTF-8'))
+
+    def first = session.parseData(path)
+
+    assert first.is(session.parseData(path))
+
+    session.invalidateUnder(fs.getPath('/data'))
+
+    assert !first.is(session.parseData(path))
+  }
+}
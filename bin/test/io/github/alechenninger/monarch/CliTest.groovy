@@ -21,8 +21,10 @@ package io.github.alechenninger.monarch
 import com.google.common.jimfs.Configuration
 import com.google.common.jimfs.Jimfs
 import io.github.alechenninger.monarch.apply.ApplyChangesService
+import io.github.alechenninger.monarch.serve.MonarchClient
 import io.github.alechenninger.monarch.set.UpdateSetService
 import org.junit.After
+import org.junit.Assume
 import org.junit.Before
 import org.junit.Ignore
 import org.junit.Test
@@ -31,7 +33,11 @@ import org.junit.runners.JUnit4
 import org.yaml.snakeyaml.DumperOptions
 import org.yaml.snakeyaml.Yaml
 
+import java.nio.file.FileSystems
 import java.nio.file.Files
+import java.nio.file.attribute.FileTime
+import java.nio.file.attribute.PosixFilePermissions
+import java.util.concurrent.TimeUnit
 
 @RunWith(JUnit4.class)
 class CliTest {
@@ -74,6 +80,10 @@ global.yaml:
     Files.write(path, data.getBytes('UTF-8'))
   }
 
+  String read(String file) {
+    return new String(Files.readAllBytes(fs.getPath(file)), 'UTF-8')
+  }
+
   void writeDataSource(String source, String data) {
     def sourcePath = fs.getPath(dataDir, source)
     sourcePath.parent?.identity Files.&createDirectories
@@ -208,7 +218,7 @@ outputDir: /output/
     assert cli.run("--help") == 0
     // Crazy regex is to ensure commands are showing up in syntax like {apply, set}
     // This means that it is not showing the help for a command but for monarch itself.
-    assert console =~ /usage: monarch.*\{apply/
+    assert console =~ /(?s)usage: monarch.*\{apply/
   }
 
   @Test
@@ -216,7 +226,7 @@ outputDir: /output/
     assert cli.run("foobar") == 2
     // Crazy regex is to ensure commands are showing up in syntax like {apply, set}
     // This means that it is not showing the help for a command but for monarch itself.
-    assert console =~ /usage: monarch.*\{apply/
+    assert console =~ /(?s)usage: monarch.*\{apply/
   }
 
   @Test
@@ -227,7 +237,7 @@ outputDir: /output/
 
   @Test
   void shouldPrintHelpForApplyCommandIfBadArgumentProvided() {
-    assert cli.run("apply --target foo --changes bar --wat") == 2
+    assert cli.run("apply --target foo --changes bar --wut") == 2
     assert console.contains("usage: monarch apply")
   }
 
@@ -342,6 +352,31 @@ set:
     assert expected == changes
   }
 
+  @Test
+  void shouldRunCommandsSeparatedByThenInOrder() {
+    writeFile('/etc/changes.yaml', 'source: teams/myteam.yaml\nset: {foo: bar}')
+    writeDataSources(['global.yaml': 'a: 1'])
+
+    assert 0 == cli.run(
+        'apply', '-h', hierarchyFile, '-c', '/etc/changes.yaml', '-d', dataDir, '-o', '/before/',
+        '--then', 'set', '-c', '/etc/changes.yaml', '-s', 'teams/myteam.yaml', '-p', 'foo: baz',
+        '--then', 'apply', '-h', hierarchyFile, '-c', '/etc/changes.yaml', '-d', dataDir,
+        '-o', '/after/')
+
+    def output = { String file -> yaml.load(Files.newBufferedReader(fs.getPath(file))) }
+
+    assert output('/before/teams/myteam.yaml') == ['foo': 'bar']
+    assert output('/after/teams/myteam.yaml') == ['foo': 'baz']
+  }
+
+  @Test
+  void shouldNotRunCommandsAfterOneFails() {
+    assert 2 == cli.run('apply', '--then',
+        'set', '-c', '/etc/new.yaml', '-s', 'teams/myteam.yaml', '-p', 'foo: bar')
+
+    assert Files.notExists(fs.getPath('/etc/new.yaml'))
+  }
+
   @Test
   void setShouldDoNothingIfEmptyStringPassedToPut() {
     writeFile('/etc/changes.yaml', '''
@@ -427,6 +462,162 @@ remove:
     assert changes =~ /- key_to_remove/
   }
 
+  @Test
+  void setFromManifestShouldUpdateManySourcesInOnePass() {
+    writeFile(hierarchyFile, hierarchy)
+    writeFile('/etc/changes.yaml', '''
+---
+source: teams/myteam/stage.yaml
+set:
+  url: old.stage.com
+  stale: true
+---
+source: global.yaml
+set:
+  url: www.com
+''')
+    writeFile('/etc/manifest.yaml', '''
+---
+source: teams/myteam/stage.yaml
+put:
+  url: stage.com
+remove:
+  - stale
+---
+source: teams/myteam.yaml
+put:
+  url: team.com
+---
+source: teams/myteam.yaml
+put:
+  owner: me
+''')
+
+    assert 0 == cli.run("set", "--changes", "/etc/changes.yaml", "--from", "/etc/manifest.yaml",
+        "--source", "global.yaml", "--remove", "url", "--hierarchy", hierarchyFile)
+
+    def changes = yaml.loadAll(Files.newBufferedReader(fs.getPath("/etc/changes.yaml")))
+        .collectMany { Change.fromMap(it as Map<String, Object>) }
+        .toList()
+
+    assert changes == [
+        Change.forPath("teams/myteam.yaml", ["url": "team.com", "owner": "me"], []),
+        Change.forPath("teams/myteam/stage.yaml", ["url": "stage.com"], []),
+    ]
+  }
+
+  @Test
+  void setShouldRequireSourceToPutWithoutOne() {
+    assert 2 == cli.run("set", "--changes", "/etc/changes.yaml",
+        "--from", "source: global.yaml\nput: {a: 1}", "--put", "b: 2")
+
+    assert Files.notExists(fs.getPath("/etc/changes.yaml"))
+  }
+
+  @Test
+  void setShouldReplaceOnlyTheDocumentOfAnExistingChange() {
+    def untouched = '''# Release changes
+source: global.yaml
+set: {greeting: "héllo"}
+'''
+    def alsoUntouched = '''---
+source:
+  team: ops
+set:
+  # keep me
+  app_url: ops.app.com
+'''
+    writeFile(hierarchyFile, hierarchy)
+    writeFile('/etc/changes.yaml', untouched + '''---
+source: teams/myteam.yaml
+set:
+  a: 1
+remove:
+  - b
+''' + alsoUntouched)
+
+    assert 0 == cli.run("set", "--changes", "/etc/changes.yaml", "--source", "teams/myteam.yaml",
+        "--put", "a: 2", "--hierarchy", hierarchyFile)
+
+    assert read('/etc/changes.yaml') == untouched + '''---
+source: teams/myteam.yaml
+set:
+  a: 2
+remove:
+- b
+''' + alsoUntouched
+
+    assert 0 == cli.run("set", "--changes", "/etc/changes.yaml", "--source", "teams/myteam.yaml",
+        "--remove", "a")
+
+    assert read('/etc/changes.yaml') == untouched + '''---
+source: teams/myteam.yaml
+remove:
+- b
+''' + alsoUntouched
+
+    assert 0 == cli.run("set", "--changes", "/etc/changes.yaml", "--source", "global.yaml",
+        "--remove", "greeting")
+
+    assert read('/etc/changes.yaml') == '''# Release changes
+---
+source: teams/myteam.yaml
+remove:
+- b
+''' + alsoUntouched
+  }
+
+  @Test
+  void setShouldKeepCommentsBetweenDocuments() {
+    def teamDocument = '''# The team block below is owned by team X
+---
+source: teams/myteam.yaml
+set:
+  b: 1 # pinned
+'''
+    writeFile('/etc/changes.yaml', '''source: global.yaml
+set:
+  a: 1
+''' + teamDocument + '''# trailing notes
+''')
+
+    assert 0 == cli.run("set", "-c", "/etc/changes.yaml", "-s", "global.yaml", "-p", "a: 5")
+
+    assert read('/etc/changes.yaml') == '''source: global.yaml
+set:
+  a: 5
+''' + teamDocument + '''# trailing notes
+'''
+
+    assert 0 == cli.run("set", "-c", "/etc/changes.yaml", "-s", "teams/myteam.yaml", "-p", "b: 2")
+
+    assert read('/etc/changes.yaml') == '''source: global.yaml
+set:
+  a: 5
+# The team block below is owned by team X
+---
+source: teams/myteam.yaml
+set:
+  b: 2
+# trailing notes
+'''
+  }
+
+  @Test
+  void setShouldNotUseStaleCopyOfChangesModifiedBetweenEdits() {
+    writeFile('/etc/changes.yaml', 'source: global.yaml\nset: {a: 1}\n')
+    assert 0 == cli.run("set", "-c", "/etc/changes.yaml", "-s", "global.yaml", "-p", "b: 2")
+
+    writeFile('/etc/changes.yaml', 'source: global.yaml\nset: {c: 3}\n')
+    assert 0 == cli.run("set", "-c", "/etc/changes.yaml", "-s", "global.yaml", "-p", "d: 4")
+
+    def changes = yaml.loadAll(Files.newBufferedReader(fs.getPath("/etc/changes.yaml")))
+        .collectMany { Change.fromMap(it as Map<String, Object>) }
+        .toList()
+
+    assert changes == [Change.forPath("global.yaml", ["c": 3, "d": 4], [])]
+  }
+
   @Test
   void applyShouldApplyChangeByVariables() {
     writeFile('/etc/changes.yaml', '''
@@ -538,6 +729,212 @@ inventory:
     ] == yaml.load(myteamYaml)
   }
 
+  @Test
+  void applyShouldReportStatsAsJson() {
+    writeFile('/etc/changes.yaml', '''
+---
+source: teams/myteam.yaml
+set:
+  foo: baz
+''')
+
+    writeDataSources([
+        'global.yaml': 'foo: "bar"',
+    ])
+
+    writeFile('/etc/hierarchy.yaml', '''
+sources:
+  - global.yaml
+  - teams/%{team}.yaml
+inventory:
+  team: [myteam, otherteam]
+''')
+
+    assert 0 == cli.run("apply -h /etc/hierarchy.yaml -c /etc/changes.yaml -d $dataDir " +
+        "-o /output/ --stats json")
+
+    def stats = yaml.load(console.readLines().last())
+
+    assert stats['phases'].keySet().containsAll(
+        ['config', 'hierarchy', 'changes', 'render', 'parse', 'generate', 'write'])
+    assert stats['phases']['parse']['count'] == 3
+    assert stats['counters']['sources.parsed'] == 3
+    assert stats['counters']['sources.written'] == 2
+    assert stats['counters']['bytes.written'] > 0
+    assert stats['counters']['dynamicHierarchy.renderedSources.misses'] > 0
+  }
+
+  @Test
+  void applyShouldReportStatsAsTable() {
+    writeFile('/etc/changes.yaml', '''
+---
+source: global.yaml
+set:
+  foo: baz
+''')
+
+    assert 0 == cli.run("apply -h $hierarchyFile -c /etc/changes.yaml -d $dataDir " +
+        "-o /output/ --stats")
+
+    assert console =~ /(?m)^phase\s+count\s+wall ms\s+cpu ms$/
+    assert console =~ /(?m)^generate\s+1\s/
+    assert console =~ /(?m)^sources.written\s+1$/
+  }
+
+  @Test
+  void applyShouldWriteFlightRecordingToProfile() {
+    Assume.assumeTrue("JFR is not available in this JVM", Jfr.available)
+
+    writeFile('/etc/changes.yaml', '''
+---
+source: global.yaml
+set:
+  foo: baz
+''')
+
+    writeDataSources([
+        'global.yaml': 'foo: "bar"',
+        'teams/myteam.yaml': 'bar: "baz"',
+    ])
+
+    def recording = java.nio.file.Files.createTempFile('monarch', '.jfr')
+
+    try {
+      assert 0 == cli.run("apply -h $hierarchyFile -c /etc/changes.yaml -d $dataDir " +
+          "-o /output/ --profile $recording")
+
+      def events = Class.forName('jdk.jfr.consumer.RecordingFile').readAllEvents(recording)
+          .findAll { it.eventType.name.startsWith('monarch.') }
+
+      assert events.findAll { it.eventType.name == 'monarch.SourceWrite' }
+          .collect { it.getString('path') } as Set == ['global.yaml', 'teams/myteam.yaml'] as Set
+      assert events.findAll { it.eventType.name == 'monarch.SourceParse' }
+          .collect { it.getString('path') } as Set == ["$dataDir/global.yaml",
+                                                        "$dataDir/teams/myteam.yaml"] as Set
+    } finally {
+      java.nio.file.Files.deleteIfExists(recording)
+    }
+  }
+
+  @Test
+  void applyShouldWriteExplanationOfDecisions() {
+    writeFile('/etc/changes.yaml', '''
+---
+source: teams/myteam.yaml
+set:
+  foo: bar
+''')
+
+    writeDataSources([
+        'global.yaml': 'foo: "bar"',
+    ])
+
+    assert 0 == cli.run("apply -h $hierarchyFile -c /etc/changes.yaml -d $dataDir " +
+        "-o /output/ --explain /output/explain.yaml")
+
+    def explanation = yaml.loadAll(
+        new String(Files.readAllBytes(fs.getPath('/output/explain.yaml')), 'UTF-8')).toList()
+
+    assert explanation == [
+        ['source': 'teams/myteam.yaml', 'decisions': [
+            ['decision': 'put', 'key': 'foo', 'value': 'bar',
+             'change': 'teams/myteam.yaml']]],
+        ['source': 'teams/myteam/stage.yaml', 'decisions': [
+            ['decision': 'inherited', 'key': 'foo', 'value': 'bar',
+             'change': 'teams/myteam.yaml']]],
+    ]
+  }
+
+  @Test
+  void applyShardsShouldTogetherWriteExactlyWhatOneApplyWrites() {
+    def teams = (1..6).collect { "teams/team$it" }
+    writeFile('/etc/wide.yaml', yaml.dump(['global.yaml': teams.collectEntries {
+      ["${it}.yaml".toString(), ["${it}/stage.yaml".toString()]]
+    }]))
+    writeFile('/etc/changes.yaml', """
+---
+source: global.yaml
+set: {foo: bar}
+---
+source: teams/team2.yaml
+set: {foo: baz}
+""")
+    writeDataSources(teams.collectEntries { ["${it}/stage.yaml".toString(), "team: $it"] })
+
+    assert assertShardsWriteWhatOneApplyWrites('/etc/wide.yaml', '/wide')[0]
+        .containsKey('global.yaml')
+
+    // Hosts have ancestors in more than one subtree beneath the root.
+    def envs = ['e0', 'e1', 'e2']
+    def hostTeams = ['a', 'b', 'c', 'd']
+    writeFile('/etc/dynamic.yaml', yaml.dump([
+        sources: ['global.yaml', 'env/%{env}.yaml', 'team/%{team}.yaml', 'host/%{host}.yaml'],
+        inventory: [env: envs, team: hostTeams, host: (1..12).collect {
+          [("h$it".toString()): [env: envs[it % 3], team: hostTeams[it % 4]]]
+        }]]))
+    writeFile('/etc/changes.yaml', """
+---
+source: team/a.yaml
+set: {foo: bar}
+""")
+
+    assertShardsWriteWhatOneApplyWrites('/etc/dynamic.yaml', '/dynamic')
+  }
+
+  /** @return What each shard wrote, by path relative to its output directory. */
+  private List<Map> assertShardsWriteWhatOneApplyWrites(String hierarchy, String outputs) {
+    def apply = { String output, String... extra ->
+      assert 0 == cli.run((['apply', '-h', hierarchy, '-c', '/etc/changes.yaml',
+                            '-d', dataDir, '-o', output] + extra.toList()) as String[])
+    }
+    def written = { String output ->
+      def root = fs.getPath(output)
+      Files.notExists(root) ? [:] : Files.walk(root).findAll { Files.isRegularFile(it) }
+          .collectEntries { [root.relativize(it).toString(), yaml.load(Files.newBufferedReader(it))] }
+    }
+    def shardOutputs = (1..3).collect { "$outputs/shard$it/".toString() }
+
+    apply("$outputs/whole/")
+    shardOutputs.eachWithIndex { output, i -> apply(output, '--shard', "${i + 1}/3") }
+
+    def shards = shardOutputs.collect(written)
+
+    assert shards.sum { it.size() } == written("$outputs/whole/").size()
+    assert shards.inject([:]) { all, shard -> all + shard } == written("$outputs/whole/")
+    return shards
+  }
+
+  @Test
+  void applyShouldTargetSourcesOfRegexDomainsWithoutListingThem() {
+    writeFile('/etc/regex.yaml', '''
+sources:
+  - global.yaml
+  - team/%{team}.yaml
+  - team/%{team}/%{host}.yaml
+inventory:
+  team: [a, b]
+  host:
+    regex: 'web-[0-9]+'
+''')
+    writeFile('/etc/changes.yaml', '''
+---
+source: team/a.yaml
+set: {foo: bar}
+''')
+    writeDataSources(['global.yaml': 'baz: 1', 'team/a/web-1.yaml': 'qux: 2'])
+
+    assert 0 == cli.run('apply', '-h', '/etc/regex.yaml', '-c', '/etc/changes.yaml',
+        '-d', dataDir, '-o', '/output/', '-t', 'team/a/web-1.yaml')
+
+    assert yaml.load(read('/output/team/a/web-1.yaml')) == [qux: 2, foo: 'bar']
+  }
+
+  @Test
+  void applyShouldRejectInvalidShard() {
+    assert 2 == cli.run('apply', '-h', hierarchyFile, '-d', dataDir, '-o', '/output/',
+        '--shard', '3/2')
+  }
+
   @Test
   void applyShouldWriteSourceIfAllKeysRemoved() {
     writeDataSource('global.yaml', 'bar: 123')
@@ -750,4 +1147,566 @@ hierarchy:
         yaml.loadAll(Files.newBufferedReader(fs.getPath('/etc/changes.yaml')))
             .collect { it['source'] }
   }
+
+  @Test
+  void whichShouldReportSourcesSettingKeyAndValuesInheritedByLeaves() {
+    writeFile('/etc/which-hierarchy.yaml', '''
+global.yaml:
+  teams/myteam.yaml:
+    - teams/myteam/stage.yaml
+    - teams/myteam/prod.yaml
+  teams/otherteam.yaml: []
+''')
+
+    writeDataSources([
+        'global.yaml': 'myapp::version: 1',
+        'teams/myteam.yaml': 'myapp::version: 2',
+        'teams/myteam/prod.yaml': 'myapp::version: 3',
+    ])
+
+    assert 0 == cli.run("which myapp::version other::key -h /etc/which-hierarchy.yaml -d $dataDir")
+
+    assert yaml.load(console) == [
+        'myapp::version': [
+            'sources': [
+                'global.yaml': 1,
+                'teams/myteam.yaml': 2,
+                'teams/myteam/prod.yaml': 3,
+            ],
+            'inherited': [
+                ['value': 1, 'leaves': ['teams/otherteam.yaml']],
+                ['value': 2, 'leaves': ['teams/myteam/stage.yaml']],
+                ['value': 3, 'leaves': ['teams/myteam/prod.yaml']],
+            ]
+        ],
+        'other::key': ['sources': [:], 'inherited': []]
+    ]
+  }
+
+  @Test
+  void shouldPrintHelpForWhichCommand() {
+    cli.run("which --help")
+    assert console.contains("usage: monarch which")
+  }
+
+  @Test
+  void lookupShouldOutputValuesForEachTarget() {
+    writeDataSources([
+        'global.yaml': 'foo: 1\nbar: 1',
+        'teams/myteam.yaml': 'foo: 2',
+    ])
+
+    assert 0 == cli.run('lookup', '-h', hierarchyFile, '-d', dataDir,
+        '-k', 'foo', 'bar', 'baz', '-t', 'teams/myteam/stage.yaml', 'global.yaml', 'nope.yaml')
+
+    assert yaml.loadAll(console).toList() == [
+        ['source': 'teams/myteam/stage.yaml', 'values': ['foo': 2, 'bar': 1], 'missing': ['baz']],
+        ['source': 'global.yaml', 'values': ['foo': 1, 'bar': 1], 'missing': ['baz']],
+        ['target': 'nope.yaml', 'error': 'No source found in hierarchy which satisfies target.'],
+    ]
+  }
+
+  @Test
+  void lookupShouldReadTargetsFromStdinAndOutputJsonLines() {
+    writeFile(hierarchyFile, '''
+sources:
+  - global.yaml
+  - team/%{team}.yaml
+inventory:
+  team: [a, b]
+''')
+    writeDataSources([
+        'global.yaml': 'foo: "global"',
+        'team/a.yaml': 'foo: "a"',
+    ])
+
+    def stdin = new ByteArrayInputStream('team=a\n\n# comment\nteam=b\n'.getBytes('UTF-8'))
+    cli = new Cli(
+        new ApplyChangesService(dataFormats, monarch),
+        new UpdateSetService(yaml),
+        dataFormats,
+        stdin,
+        consoleOut,
+        consoleOut,
+        new DefaultConfigPaths("/etc/monarch.yaml", ".monarch"),
+        fs)
+
+    assert 0 == cli.run('lookup', '-h', hierarchyFile, '-d', dataDir, '-k', 'foo',
+        '--targets-file', '-', '--format', 'json')
+
+    assert console.readLines() == [
+        '{"source":"team/a.yaml","values":{"foo":"a"}}',
+        '{"source":"team/b.yaml","values":{"foo":"global"}}',
+    ]
+  }
+
+  @Test
+  void flattenShouldOutputInheritedDataOfEachLeaf() {
+    writeFile(hierarchyFile, '''
+global.yaml:
+  teams/myteam.yaml:
+    - teams/myteam/stage.yaml
+    - teams/myteam/prod.yaml
+  teams/otherteam.yaml: []
+''')
+    writeDataSources([
+        'global.yaml': 'foo: 1\nbar: [global]',
+        'teams/myteam.yaml': 'foo: 2\nbar: [myteam]',
+        'teams/myteam/prod.yaml': 'baz: 3',
+    ])
+
+    assert 0 == cli.run('flatten', '-h', hierarchyFile, '-d', dataDir, '-m', 'bar',
+        '--format', 'json')
+
+    def records = console.readLines().collect { yaml.load(it) }
+
+    assert records*.source as Set == ['teams/myteam/stage.yaml', 'teams/myteam/prod.yaml',
+                                      'teams/otherteam.yaml'] as Set
+    assert records.find { it.source == 'teams/myteam/prod.yaml' }.data.with {
+      it.foo == 2 && it.baz == 3 && it.bar as Set == ['global', 'myteam'] as Set
+    }
+    assert records.find { it.source == 'teams/otherteam.yaml' }.data == ['foo': 1, 'bar': ['global']]
+  }
+
+  @Test
+  void flattenShouldOutputEverySourceWithAll() {
+    writeDataSources(['global.yaml': 'foo: 1'])
+
+    assert 0 == cli.run('flatten', '-h', hierarchyFile, '-d', dataDir, '--all')
+
+    assert yaml.loadAll(console).collect { [it['source'], it['data']] } == [
+        ['global.yaml', ['foo': 1]],
+        ['teams/myteam.yaml', ['foo': 1]],
+        ['teams/myteam/stage.yaml', ['foo': 1]],
+    ]
+  }
+
+  @Test
+  void serveShouldRunForwardedCommandsUntilStopped() {
+    fs = Jimfs.newFileSystem(Configuration.unix().toBuilder()
+        .setAttributeViews('basic', 'posix')
+        .build())
+    cli = new Cli(
+        new ApplyChangesService(dataFormats, monarch),
+        new UpdateSetService(yaml),
+        dataFormats,
+        consoleOut,
+        consoleOut,
+        new DefaultConfigPaths("/etc/monarch.yaml", ".monarch"),
+        fs)
+
+    writeHierarchyYaml()
+    writeDataSources(['global.yaml': 'foo: 1'])
+
+    def exitCode = null
+    def server = Thread.start { exitCode = cli.run('serve', '--port-file', '/var/run/monarch.port') }
+    def portFile = fs.getPath('/var/run/monarch.port')
+
+    for (int i = 0; i < 1000 && Files.notExists(portFile); i++) {
+      sleep(10)
+    }
+
+    assert PosixFilePermissions.toString(Files.getPosixFilePermissions(portFile)) == 'rw-------'
+
+    def client = MonarchClient.connectingTo(portFile)
+    def out = new ByteArrayOutputStream()
+    def err = new ByteArrayOutputStream()
+    def port = new String(Files.readAllBytes(portFile), 'UTF-8').readLines()[0] as Integer
+
+    assert 2 == new MonarchClient(port, 'not the token').forward(['flatten', '-h', hierarchyFile,
+        '-d', dataDir] as String[], out, err)
+    assert err.toString('UTF-8').contains('token')
+    assert out.size() == 0
+
+    assert 0 == client.forward(['flatten', '-h', hierarchyFile, '-d', dataDir, '--all'] as String[],
+        out, err)
+    assert yaml.loadAll(out.toString('UTF-8')).collect { it['data'] } == [['foo': 1]] * 3
+
+    writeDataSources(['global.yaml': 'foo: 2'])
+    out.reset()
+
+    assert 0 == client.forward(['flatten', '-h', hierarchyFile, '-d', dataDir] as String[],
+        out, err)
+    assert yaml.loadAll(out.toString('UTF-8')).collect { it['data'] } == [['foo': 2]]
+
+    assert 2 == client.forward(['flatten', '--not-an-option'] as String[], out, err)
+
+    client.stop()
+    server.join(10000)
+
+    assert exitCode == 0
+    assert Files.notExists(portFile)
+  }
+
+  @Test
+  void applyWatchShouldReapplyOnlyToSourcesAffectedByModifiedFiles() {
+    // Jimfs polls for changes every few seconds; the default file system is notified right away.
+    def dir = Files.createTempDirectory('monarch-watch')
+    def watchConsole = new ByteArrayOutputStream()
+    def watchCli = new Cli(new ApplyChangesService(dataFormats, monarch),
+        new UpdateSetService(yaml), dataFormats, watchConsole, watchConsole,
+        new DefaultConfigPaths("$dir/monarch.yaml", '.monarch-watch-test'), FileSystems.default)
+    def write = { String file, String data ->
+      def path = dir.resolve(file)
+      Files.createDirectories(path.parent)
+      Files.write(path, data.getBytes('UTF-8'))
+    }
+    def awaitLog = { String message ->
+      for (int i = 0; i < 1000 && !watchConsole.toString('UTF-8').contains(message); i++) {
+        sleep(10)
+      }
+      assert watchConsole.toString('UTF-8').contains(message), watchConsole.toString('UTF-8')
+      watchConsole.reset()
+    }
+    def output = { String source -> yaml.load(new String(
+        Files.readAllBytes(dir.resolve("output/$source")), 'UTF-8')) }
+
+    write('hierarchy.yaml', hierarchy)
+    write('changes.yaml', 'source: teams/myteam.yaml\nset: {foo: bar}')
+    write('data/global.yaml', 'a: 1')
+
+    def exitCode = null
+    def watching = Thread.start {
+      exitCode = watchCli.run('apply', '-h', "$dir/hierarchy.yaml", '-c', "$dir/changes.yaml",
+          '-d', "$dir/data", '-o', "$dir/output", '--watch')
+    }
+
+    try {
+      awaitLog('Regenerated 3 source(s)')
+      assert output('teams/myteam.yaml') == [foo: 'bar']
+
+      write('data/teams/myteam/stage.yaml', 'b: 2')
+      awaitLog('Regenerated 1 source(s)')
+      assert output('teams/myteam/stage.yaml') == [b: 2]
+
+      write('changes.yaml', 'source: teams/myteam.yaml\nset: {foo: baz}')
+      awaitLog('Regenerated 2 source(s)')
+      assert output('teams/myteam.yaml') == [foo: 'baz']
+      assert output('teams/myteam/stage.yaml') == [b: 2]
+    } finally {
+      watching.interrupt()
+      watching.join(10000)
+      dir.toFile().deleteDir()
+    }
+
+    assert exitCode == 0
+  }
+
+  @Test
+  void applyWatchShouldReapplyWhenInventoryFilesChange() {
+    def dir = Files.createTempDirectory('monarch-watch')
+    def watchConsole = new ByteArrayOutputStream()
+    def watchCli = new Cli(new ApplyChangesService(dataFormats, monarch),
+        new UpdateSetService(yaml), dataFormats, watchConsole, watchConsole,
+        new DefaultConfigPaths("$dir/monarch.yaml", '.monarch-watch-test'), FileSystems.default)
+    def write = { String file, String data ->
+      def path = dir.resolve(file)
+      Files.createDirectories(path.parent)
+      Files.write(path, data.getBytes('UTF-8'))
+    }
+    def awaitLog = { String message ->
+      for (int i = 0; i < 1000 && !watchConsole.toString('UTF-8').contains(message); i++) {
+        sleep(10)
+      }
+      assert watchConsole.toString('UTF-8').contains(message), watchConsole.toString('UTF-8')
+      watchConsole.reset()
+    }
+
+    write('hierarchy.yaml', '''
+sources:
+  - global.yaml
+  - 'hosts/%{host}.yaml'
+inventory:
+  host:
+    file: hosts.txt
+''')
+    write('hosts.txt', 'foo\n')
+    write('changes.yaml', 'source: global.yaml\nset: {a: 1}')
+
+    def exitCode = null
+    def watching = Thread.start {
+      exitCode = watchCli.run('apply', '-h', "$dir/hierarchy.yaml", '-c', "$dir/changes.yaml",
+          '-d', "$dir/data", '-o', "$dir/output", '--watch')
+    }
+
+    try {
+      awaitLog('Regenerated 2 source(s)')
+
+      write('hosts.txt', 'foo\nbar\n')
+      awaitLog('Regenerated 3 source(s)')
+    } finally {
+      watching.interrupt()
+      watching.join(10000)
+      dir.toFile().deleteDir()
+    }
+
+    assert exitCode == 0
+  }
+
+  @Test
+  void compileShouldWriteHierarchyWhichLaterCommandsRead() {
+    writeFile(hierarchyFile, '''
+sources:
+  - global.yaml
+  - team/%{team}.yaml
+inventory:
+  team: [a, b]
+''')
+    writeDataSources([
+        'global.yaml': 'foo: "global"',
+        'team/a.yaml': 'foo: "a"',
+    ])
+
+    assert 0 == cli.run('compile', '-h', hierarchyFile)
+    assert Files.exists(fs.getPath(hierarchyFile + CompiledHierarchyFile.SUFFIX))
+    assert dataFormats.parseHierarchy(hierarchyFile, fs) instanceof CompiledHierarchy
+
+    consoleOut.reset()
+    assert 0 == cli.run('lookup', '-h', hierarchyFile, '-d', dataDir, '-k', 'foo',
+        '-t', 'team=a', 'team/b.yaml')
+
+    assert yaml.loadAll(console).toList() == [
+        ['source': 'team/a.yaml', 'values': ['foo': 'a']],
+        ['source': 'team/b.yaml', 'values': ['foo': 'global']],
+    ]
+  }
+
+  @Test
+  void compiledHierarchyShouldBeIgnoredOnceHierarchyChanges() {
+    writeFile(hierarchyFile, '''
+sources:
+  - global.yaml
+  - team/%{team}.yaml
+inventory:
+  team: [a, b]
+''')
+
+    assert 0 == cli.run('compile', '-h', hierarchyFile)
+
+    writeFile(hierarchyFile, '''
+sources:
+  - global.yaml
+  - team/%{team}.yaml
+inventory:
+  team: [a, b, c]
+''')
+
+    def hierarchy = dataFormats.parseHierarchy(hierarchyFile, fs)
+
+    assert !(hierarchy instanceof CompiledHierarchy)
+    assert hierarchy.sourceFor('team/c.yaml').isPresent()
+  }
+
+  @Test
+  void compileShouldNotWriteHierarchyWithConflictingImpliedValues() {
+    writeFile(hierarchyFile, '''
+sources:
+  - team/%{team}.yaml
+inventory:
+  team:
+    - a:
+        app: store
+  app:
+    - store:
+        team: b
+''')
+
+    assert 1 == cli.run('compile', '-h', hierarchyFile)
+    assert Files.notExists(fs.getPath(hierarchyFile + CompiledHierarchyFile.SUFFIX))
+    assert console.contains('Cannot assign team=a')
+  }
+
+  @Test
+  void applyCheckShouldPassOnlyOnceChangesAreApplied() {
+    writeFile('/etc/changes.yaml', '''
+---
+source: teams/myteam.yaml
+set:
+  version: 2
+''')
+    writeDataSources([
+        'global.yaml': 'foo: "bar"',
+        'teams/myteam.yaml': 'bar: "baz"',
+    ])
+    def myteamYaml = read("$dataDir/teams/myteam.yaml")
+
+    assert 1 == cli.run('apply', '--check', '-h', hierarchyFile, '-c', '/etc/changes.yaml',
+        '-d', dataDir)
+    assert console.contains('Source is not in its generated state: teams/myteam.yaml')
+    assert read("$dataDir/teams/myteam.yaml") == myteamYaml
+
+    assert 0 == cli.run('apply', '-h', hierarchyFile, '-c', '/etc/changes.yaml', '-d', dataDir,
+        '-o', dataDir)
+    assert 0 == cli.run('apply', '--check', '-h', hierarchyFile, '-c', '/etc/changes.yaml',
+        '-d', dataDir)
+  }
+
+  @Test
+  void applyCheckShouldStopAtFirstDifferenceUnlessCheckingAll() {
+    writeFile('/etc/changes.yaml', '''
+---
+source: teams/myteam.yaml
+set:
+  version: 2
+---
+source: teams/myteam/stage.yaml
+set:
+  url: stage.com
+''')
+
+    assert 1 == cli.run('apply', '--check', '-h', hierarchyFile, '-c', '/etc/changes.yaml',
+        '-d', dataDir)
+    assert console.contains('teams/myteam.yaml')
+    assert !console.contains('teams/myteam/stage.yaml')
+
+    consoleOut.reset()
+
+    assert 1 == cli.run('apply', '--check-all', '-h', hierarchyFile, '-c', '/etc/changes.yaml',
+        '-d', dataDir)
+    assert console.contains('Source is not in its generated state: teams/myteam.yaml')
+    assert console.contains('Source is not in its generated state: teams/myteam/stage.yaml')
+    assert Files.notExists(fs.getPath(dataDir))
+  }
+
+  @Test
+  void applyShouldOnlyRewriteSourcesWhoseInputsChangedSinceTheyWereCached() {
+    writeFile('/etc/changes.yaml', '''
+---
+source: teams/myteam.yaml
+set:
+  version: 2
+---
+source: teams/myteam/stage.yaml
+set:
+  url: stage.com
+''')
+    writeDataSources([
+        'global.yaml': 'foo: "bar"',
+        'teams/myteam.yaml': 'bar: "baz"',
+    ])
+
+    assert 0 == cli.run('apply', '-h', hierarchyFile, '-c', '/etc/changes.yaml', '-d', dataDir,
+        '-o', dataDir, '--cache-dir', '/cache')
+    assert Files.list(fs.getPath('/cache/generated')).count() == 3
+
+    def settled = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1))
+    ['global.yaml', 'teams/myteam.yaml', 'teams/myteam/stage.yaml'].each {
+      Files.setLastModifiedTime(fs.getPath(dataDir, it), settled)
+    }
+
+    writeFile('/etc/changes.yaml', '''
+---
+source: teams/myteam.yaml
+set:
+  version: 2
+---
+source: teams/myteam/stage.yaml
+set:
+  url: stage2.com
+''')
+
+    assert 0 == cli.run('apply', '-h', hierarchyFile, '-c', '/etc/changes.yaml', '-d', dataDir,
+        '-o', dataDir, '--cache-dir', '/cache')
+
+    assert Files.getLastModifiedTime(fs.getPath(dataDir, 'teams/myteam.yaml')) == settled
+    assert yaml.load(read("$dataDir/teams/myteam.yaml")) == [bar: 'baz', version: 2]
+    assert yaml.load(read("$dataDir/teams/myteam/stage.yaml")) == [url: 'stage2.com']
+    assert 0 == cli.run('apply', '--check', '-h', hierarchyFile, '-c', '/etc/changes.yaml',
+        '-d', dataDir, '--cache-dir', '/cache')
+  }
+
+  @Test
+  void applyShouldNotReuseSourcesCachedWhileTheirAncestorsWereNotGenerated() {
+    writeFile('/etc/changes.yaml', '''
+---
+source: global.yaml
+set: {foo: bar}
+''')
+    writeDataSources(['teams/myteam.yaml': 't: 1'])
+
+    assert 0 == cli.run('apply', '-h', hierarchyFile, '-c', '/etc/changes.yaml', '-d', dataDir,
+        '-o', '/output/', '--cache-dir', '/cache', '-t', 'teams/myteam.yaml')
+    assert yaml.load(read('/output/teams/myteam.yaml')) == [t: 1, foo: 'bar']
+
+    assert 0 == cli.run('apply', '-h', hierarchyFile, '-c', '/etc/changes.yaml', '-d', dataDir,
+        '-o', '/output/', '--cache-dir', '/cache')
+
+    assert yaml.load(read('/output/global.yaml')) == [foo: 'bar']
+    assert yaml.load(read('/output/teams/myteam.yaml')) == [t: 1]
+  }
+
+  @Test
+  void applyShouldRewriteCachedSourcesWhenTheirSerializationChanges() {
+    writeFile('/etc/config.yaml', '''
+dataFormats:
+  yaml:
+    indent: 4
+''')
+    writeFile('/etc/changes.yaml', '''
+---
+source: teams/myteam.yaml
+set:
+  version:
+    major: 2
+''')
+    writeDataSources([
+        'global.yaml': 'foo: "bar"',
+        'teams/myteam.yaml': 'bar: "baz"',
+    ])
+
+    assert 0 == cli.run('apply', '-h', hierarchyFile, '-c', '/etc/changes.yaml', '-d', dataDir,
+        '-o', dataDir, '--cache-dir', '/cache')
+
+    def settled = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1))
+    Files.setLastModifiedTime(fs.getPath(dataDir, 'teams/myteam.yaml'), settled)
+    assert read("$dataDir/teams/myteam.yaml").contains('\n  major: 2')
+
+    assert 0 == cli.run('apply', '-h', hierarchyFile, '-c', '/etc/changes.yaml', '-d', dataDir,
+        '-o', dataDir, '--cache-dir', '/cache', '--config', '/etc/config.yaml')
+
+    assert read("$dataDir/teams/myteam.yaml").contains('\n    major: 2')
+    assert yaml.load(read("$dataDir/teams/myteam.yaml")) == [bar: 'baz', version: [major: 2]]
+  }
+
+  @Test
+  void diffShouldListOnlySourcesWhoseDataDiffers() {
+    ['/etc/a', '/etc/b'].each { dir ->
+      writeFile("$dir/global.yaml", 'foo: "bar"')
+      writeFile("$dir/teams/myteam.yaml", 'bar: "baz"')
+    }
+    writeFile('/etc/b/teams/myteam/stage.yaml', 'url: "stage.com"')
+
+    assert 1 == cli.run('diff', '-h', hierarchyFile, '-d', '/etc/a', '-d', '/etc/b')
+    assert console == 'teams/myteam/stage.yaml\n'
+
+    writeFile('/etc/a/teams/myteam/stage.yaml', 'url: "stage.com"')
+    consoleOut.reset()
+
+    assert 0 == cli.run('diff', '-h', hierarchyFile, '-d', '/etc/a', '-d', '/etc/b')
+    assert console.isEmpty()
+  }
+
+  @Test
+  void diffShouldNoticeChangesToFilesWhoseHashesAreCached() {
+    ['/etc/a', '/etc/b'].each { dir ->
+      writeFile("$dir/global.yaml", 'foo: "bar"')
+      writeFile("$dir/teams/myteam.yaml", 'bar: "baz"')
+    }
+
+    assert 0 == cli.run('diff', '-h', hierarchyFile, '-d', '/etc/a', '-d', '/etc/b',
+        '--cache-dir', '/cache')
+    assert Files.list(fs.getPath('/cache/hashes')).count() == 2
+
+    writeFile('/etc/b/global.yaml', 'foo: "baz"')
+
+    assert 1 == cli.run('diff', '-h', hierarchyFile, '-d', '/etc/a', '-d', '/etc/b',
+        '--cache-dir', '/cache')
+    assert console == 'global.yaml\n'
+  }
+
+  @Test
+  void diffShouldRequireTwoDataDirectories() {
+    assert 2 == cli.run('diff', '-h', hierarchyFile, '-d', '/etc/a')
+    assert console.contains('Expected exactly two data directories')
+  }
 }
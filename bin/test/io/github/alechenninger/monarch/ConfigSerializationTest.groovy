@@ -44,6 +44,23 @@ mergeKeys:
     def options = new ApplyChangesOptionsFromSerializableConfig(config, FileSystems.default)
 
     assert options.hierarchy().get().allSources().collect { it.path() } == ['foo', 'baz']
+    assert options.hierarchy().get().is(options.hierarchy().get())
     assert options.mergeKeys() == ['bar'] as Set
   }
+
+  @Test
+  void shouldDeserializeYamlDataFormatOptions() {
+    SerializableConfig config = (SerializableConfig) yaml.load('''
+dataFormats:
+  yaml:
+    indent: 4
+    intern: true
+''')
+
+    def options = new ApplyChangesOptionsFromSerializableConfig(config, FileSystems.default)
+    def yamlConfig = options.dataFormatsConfiguration().get().yamlConfiguration().get()
+
+    assert yamlConfig.indent() == 4
+    assert yamlConfig.intern()
+  }
 }
@@ -20,6 +20,7 @@ package io.github.alechenninger.monarch
 
 import com.google.common.io.CharStreams
 import com.google.common.jimfs.Jimfs
+import io.github.alechenninger.monarch.yaml.YamlConfiguration
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.junit.runners.JUnit4
@@ -89,6 +90,25 @@ foo:
         Hierarchy.fromStringListOrMap(['foo': ['bar', ['baz': 'buzz']]])
   }
 
+  @Test
+  void shouldResolveInventoryFilesAgainstTheHierarchyFilesDirectory() {
+    writeFile('/etc/monarch/hosts.txt', 'foo.com\nbar.com\n')
+    writeFile('/etc/monarch/hierarchy.yaml', '''
+sources:
+  - common
+  - 'hosts/%{host}'
+inventory:
+  host:
+    file: hosts.txt
+''')
+
+    def hierarchy = parsers.parseHierarchy('/etc/monarch/hierarchy.yaml', fs)
+
+    assert hierarchy.sourceFor('hosts/bar.com').isPresent()
+    assert !hierarchy.sourceFor('hosts/baz.com').isPresent()
+    assert CompiledHierarchy.inputsOf(hierarchy) == [fs.getPath('/etc/monarch/hosts.txt')] as Set
+  }
+
   @Test
   void shouldParsePathToMissingFileAsEmptyMap() {
     assert parsers.parseMap("/etc/not_a_thing.yaml", fs) == [:]
@@ -369,4 +389,101 @@ post:  true'''
     def written = CharStreams.toString(Files.newBufferedReader(sourcePath))
     assert written.empty
   }
+
+  @Test
+  void shouldParseSameDataFromCacheAsFromSource() {
+    def cached = parsers.withConfiguration(cacheConfiguration('/cache'))
+    def sourcePath = fs.getPath('/source.yaml')
+    writeFile(sourcePath, '# comment\nunmanaged: 123\n')
+    cached.parseData(sourcePath).writeUpdate(['unmanaged': 123, 'new': [1, 2]],
+        Files.newOutputStream(sourcePath))
+
+    def parsed = parsers.parseData(sourcePath)
+    def firstFromCache = cached.parseData(sourcePath)
+    def secondFromCache = cached.parseData(sourcePath)
+
+    assert Files.list(fs.getPath('/cache/data')).count() == 1
+    assert firstFromCache.data() == parsed.data()
+    assert secondFromCache.data() == parsed.data()
+
+    def fromSource = new ByteArrayOutputStream()
+    def fromCache = new ByteArrayOutputStream()
+    parsed.writeUpdate(['unmanaged': 123, 'new': [3]], fromSource)
+    secondFromCache.writeUpdate(['unmanaged': 123, 'new': [3]], fromCache)
+
+    assert fromCache.toString('UTF-8') == fromSource.toString('UTF-8')
+  }
+
+  @Test
+  void shouldNotUseCacheIfSourceContentChanged() {
+    def cached = parsers.withConfiguration(cacheConfiguration('/cache'))
+    def sourcePath = fs.getPath('/source.yaml')
+    writeFile(sourcePath, 'foo: 123')
+    def modified = Files.getLastModifiedTime(sourcePath)
+
+    assert cached.parseData(sourcePath).data() == ['foo': 123]
+
+    writeFile(sourcePath, 'foo: 456')
+    Files.setLastModifiedTime(sourcePath, modified)
+
+    assert cached.parseData(sourcePath).data() == ['foo': 456]
+  }
+
+  @Test
+  void shouldNotUseDataCachedWithAnotherYamlConfiguration() {
+    def sourcePath = fs.getPath('/source.yaml')
+    writeFile(sourcePath, 'foo: bar')
+    def interning = new YamlConfiguration.Default() {
+      boolean intern() { true }
+    }
+
+    parsers.withConfiguration(cacheConfiguration('/cache')).parseData(sourcePath)
+
+    def stats = Stats.start()
+    try {
+      def cached = parsers.withConfiguration(cacheConfiguration('/cache', interning))
+      assert cached.parseData(sourcePath).data() == ['foo': 'bar']
+      assert cached.parseData(sourcePath).data() == ['foo': 'bar']
+    } finally {
+      Stats.stop()
+    }
+
+    assert stats.toMap()['counters']['dataCache.misses'] == 1
+    assert stats.toMap()['counters']['dataCache.hits'] == 1
+  }
+
+  @Test
+  void shouldParseMissingFileAsEmptyDataWithCache() {
+    def cached = parsers.withConfiguration(cacheConfiguration('/cache'))
+    assert cached.parseData(fs.getPath('/etc/not_a_thing.yaml')).data() == [:]
+  }
+
+  @Test
+  void shouldParseLargeDataSourcesWithMultibyteCharacters() {
+    def data = (1..5000).collectEntries { ["key$it".toString(), "välue ☃ $it".toString()] }
+    def sourcePath = fs.getPath('/large.yaml')
+    writeFile(sourcePath, yaml.dump(data))
+
+    assert parsers.parseData(sourcePath).data() == data
+  }
+
+  @Test
+  void shouldParseLargeDataSourcesOnDefaultFileSystem() {
+    def data = (1..5000).collectEntries { ["key$it".toString(), "välue ☃ $it".toString()] }
+    def sourcePath = Files.createTempFile('monarch', '.yaml')
+
+    try {
+      Files.write(sourcePath, yaml.dump(data).getBytes('UTF-8'))
+      assert parsers.parseData(sourcePath).data() == data
+    } finally {
+      Files.delete(sourcePath)
+    }
+  }
+
+  DataFormatsConfiguration cacheConfiguration(String cacheDir, YamlConfiguration yaml = null) {
+    return new DataFormatsConfiguration() {
+      Optional<YamlConfiguration> yamlConfiguration() { Optional.ofNullable(yaml) }
+      Optional<Path> cacheDir() { Optional.of(fs.getPath(cacheDir)) }
+    }
+  }
 }
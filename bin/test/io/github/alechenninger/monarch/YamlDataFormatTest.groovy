@@ -250,4 +250,48 @@ three: 3"""
       assert out.toString().endsWith('\n')
     }
   }
+
+  static class WithIntern {
+    def parser = new YamlDataFormat(new YamlConfiguration() {
+      boolean intern() { true }
+    })
+
+    @Test
+    void shouldShareKeysAndValuesAcrossSources() {
+      def source1 = parser.parseData(new ByteArrayInputStream(
+          'profile::app::version: "1.2.3"\nother: [a, b]'.getBytes('UTF-8')))
+      def source2 = parser.parseData(new ByteArrayInputStream(
+          'profile::app::version: "1.2.3"'.getBytes('UTF-8')))
+
+      def key1 = source1.data().keySet().find { it == 'profile::app::version' }
+      def key2 = source2.data().keySet().find { it == 'profile::app::version' }
+
+      assert key1.is(key2)
+      assert source1.data()['profile::app::version'].is(source2.data()['profile::app::version'])
+      assert source1.data() == ['profile::app::version': '1.2.3', 'other': ['a', 'b']]
+    }
+
+    @Test
+    void shouldParseLargeNestedMaps() {
+      def data = ['top': (1..100).collectEntries { ["key$it".toString(), ['nested': it]] }]
+      def parsed = parser.parseData(new ByteArrayInputStream(new Yaml().dump(data).bytes))
+
+      assert parsed.data() == data
+      assert parsed.data()['top']['key57'] == ['nested': 57]
+    }
+
+    @Test
+    void shouldUpdateManagedDataLikeDefault() {
+      def original = '# comment\nunmanaged: 1\n'
+      def update = ['unmanaged': 1, 'managed': ['b': 2, 'a': 1]]
+      def interned = new ByteArrayOutputStream()
+      def notInterned = new ByteArrayOutputStream()
+
+      parser.parseData(new ByteArrayInputStream(original.bytes)).writeUpdate(update, interned)
+      new YamlDataFormat().parseData(new ByteArrayInputStream(original.bytes))
+          .writeUpdate(update, notInterned)
+
+      assert interned.toString('UTF-8') == notInterned.toString('UTF-8')
+    }
+  }
 }
@@ -0,0 +1,78 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.logging
+
+import org.junit.After
+import org.junit.Test
+
+import java.util.concurrent.CountDownLatch
+import java.util.logging.Level
+import java.util.logging.LogRecord
+import java.util.logging.StreamHandler
+
+class AsyncLogHandlerTest {
+  def out = new ByteArrayOutputStream()
+  def err = new ByteArrayOutputStream()
+  def handler = new AsyncLogHandler([
+      new MonarchStdoutLogHandler(out),
+      new MonarchStderrLogHandler(err)], 4)
+
+  @After
+  void closeHandler() {
+    handler.close()
+  }
+
+  @Test
+  void shouldWriteRecordsInOrderOnceFlushed() {
+    (1..100).each { handler.publish(new LogRecord(Level.INFO, "message $it")) }
+    handler.publish(new LogRecord(Level.WARNING, "uh oh"))
+
+    handler.flush()
+
+    assert out.toString('UTF-8').readLines() == (1..100).collect { "message $it".toString() }
+    assert err.toString('UTF-8').readLines() == ['WARNING: uh oh']
+  }
+
+  @Test
+  void shouldNotBlockLoggingThreadOnSlowOutput() {
+    def writing = new CountDownLatch(1)
+    def slow = new StreamHandler(new OutputStream() {
+      @Override
+      void write(int b) {
+        writing.await()
+      }
+    }, new MonarchLogFormatter())
+    def slowHandler = new AsyncLogHandler([slow], 4)
+
+    try {
+      (1..4).each { slowHandler.publish(new LogRecord(Level.INFO, "message $it")) }
+    } finally {
+      writing.countDown()
+      slowHandler.close()
+    }
+  }
+
+  @Test
+  void shouldFlushOnClose() {
+    handler.publish(new LogRecord(Level.INFO, "last words"))
+    handler.close()
+
+    assert out.toString('UTF-8') == 'last words\n'
+  }
+}
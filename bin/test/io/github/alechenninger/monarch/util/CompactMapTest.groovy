@@ -0,0 +1,175 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch.util
+
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+@RunWith(JUnit4.class)
+class CompactMapTest {
+  def beyondThreshold = CompactMap.INDEX_THRESHOLD * 8
+
+  Map<String, Integer> filled(int size) {
+    def map = new CompactMap<String, Integer>()
+    (1..size).each { map.put("key$it".toString(), it) }
+    return map
+  }
+
+  @Test
+  void shouldFindEveryKeyAsItGrowsPastIndexThreshold() {
+    def map = new CompactMap<String, Integer>()
+
+    (1..beyondThreshold).each { size ->
+      map.put("key$size".toString(), size)
+
+      assert map.size() == size
+      (1..size).each { assert map.get("key$it".toString()) == it }
+      assert !map.containsKey("key${size + 1}".toString())
+    }
+  }
+
+  @Test
+  void shouldFindKeysWithCollidingHashes() {
+    def map = filled(beyondThreshold)
+    assert 'Aa'.hashCode() == 'BB'.hashCode()
+
+    map.put('Aa', 1)
+    map.put('BB', 2)
+
+    assert map.get('Aa') == 1
+    assert map.get('BB') == 2
+    map.remove('Aa')
+    assert !map.containsKey('Aa')
+    assert map.get('BB') == 2
+  }
+
+  @Test
+  void shouldReplaceValuesOfExistingKeysInPlace() {
+    def map = filled(beyondThreshold)
+
+    assert map.put('key3', -3) == 3
+    assert map.size() == beyondThreshold
+    assert map.get('key3') == -3
+    assert map.keySet().toList()[2] == 'key3'
+  }
+
+  @Test
+  void shouldFindRemainingKeysAfterRemovalsShrinkItBelowIndexThreshold() {
+    def map = filled(beyondThreshold)
+
+    (1..beyondThreshold).findAll { it % 9 != 0 }.each {
+      assert map.remove("key$it".toString()) == it
+      assert !map.containsKey("key$it".toString())
+    }
+
+    def remaining = (1..beyondThreshold).findAll { it % 9 == 0 }
+    assert map.size() == remaining.size()
+    assert map.size() <= CompactMap.INDEX_THRESHOLD
+    remaining.each { assert map.get("key$it".toString()) == it }
+    assert map.remove('missing') == null
+
+    (1..beyondThreshold).each { map.put("again$it".toString(), it) }
+    (1..beyondThreshold).each { assert map.get("again$it".toString()) == it }
+    remaining.each { assert map.get("key$it".toString()) == it }
+  }
+
+  @Test
+  void shouldRemoveThroughIterator() {
+    def map = filled(beyondThreshold)
+    def iterator = map.entrySet().iterator()
+
+    while (iterator.hasNext()) {
+      if (iterator.next().value % 2 == 0) {
+        iterator.remove()
+      }
+    }
+
+    assert map.size() == beyondThreshold / 2
+    (1..beyondThreshold).each {
+      assert map.containsKey("key$it".toString()) == (it % 2 != 0)
+    }
+  }
+
+  @Test
+  void shouldPermitNullKeysAndValues() {
+    [1, beyondThreshold].each { size ->
+      def map = filled(size)
+
+      map.put('nothing', null)
+      map.put(null, 0)
+
+      assert map.containsKey('nothing')
+      assert map.get('nothing') == null
+      assert map.containsValue(null)
+      assert map.get(null) == 0
+      assert map.remove(null) == 0
+      assert !map.containsKey(null)
+      assert map.size() == size + 1
+    }
+  }
+
+  @Test
+  void shouldEqualHashMapWithSameEntries() {
+    [0, 1, CompactMap.INDEX_THRESHOLD, beyondThreshold].each { size ->
+      def compact = new CompactMap<String, Integer>()
+      def hash = new HashMap<String, Integer>()
+      (1..size).reverse().each {
+        compact.put("key$it".toString(), it)
+        hash.put("key$it".toString(), it)
+      }
+      compact.put('nothing', null)
+      hash.put('nothing', null)
+
+      assert compact == hash
+      assert hash == compact
+      assert compact.hashCode() == hash.hashCode()
+
+      compact.put('nothing', 0)
+      assert compact != hash
+      assert hash != compact
+    }
+  }
+
+  @Test
+  void shouldIterateInInsertionOrder() {
+    def keys = (1..beyondThreshold).collect { "key${(it * 37) % 101}".toString() }
+    def map = new CompactMap<String, Integer>()
+    keys.eachWithIndex { key, i -> map.put(key, i) }
+
+    assert map.keySet().toList() == keys
+    assert map.values().toList() == (0..<keys.size()).toList()
+
+    map.remove(keys[0])
+    map.put(keys[0], -1)
+
+    assert map.keySet().toList() == keys.drop(1) + keys[0]
+  }
+
+  @Test
+  void shouldCopyAnotherMapInItsIterationOrder() {
+    def original = new LinkedHashMap<String, Integer>()
+    (1..beyondThreshold).reverse().each { original.put("key$it".toString(), it) }
+
+    def copy = new CompactMap<String, Integer>(original)
+
+    assert copy == original
+    assert copy.entrySet().toList() == original.entrySet().toList()
+  }
+}
@@ -125,8 +125,10 @@ public class Assignable {
       return BraceExpand.string(value).stream().map(Assignable::new);
     }
 
+    Map<String, String> expandedAssignments = BraceExpand.keysOf(impliedAssignments);
+
     return BraceExpand.string(value).stream()
-        .map(v -> new Assignable(v, BraceExpand.keysOf(impliedAssignments)));
+        .map(v -> new Assignable(v, expandedAssignments));
   }
 
   public Map<String, String> impliedAssignments() {
@@ -38,23 +38,24 @@ public class Assignments implements Iterable<Assignment> {
   private final Map<String, Assignment> byVariable = new HashMap<>();
   private final Inventory inventory;
 
-  private final int hash;
+  /**
+   * Computed on first use since assignments may still be added while combining or forking, after
+   * construction.
+   */
+  private int hash;
 
   Assignments(Inventory inventory) {
     this.inventory = Objects.requireNonNull(inventory, "inventory");
-    hash = Objects.hash(explicit, implicit, inventory);
   }
 
   Assignments(Inventory inventory, Assignment assignment) {
     this.inventory = Objects.requireNonNull(inventory, "inventory");
     add(assignment);
-    hash = Objects.hash(explicit, implicit, inventory);
   }
 
   Assignments(Inventory inventory, Iterable<Assignment> assignments) {
     this.inventory = Objects.requireNonNull(inventory, "inventory");
     assignments.forEach(this::add);
-    hash = Objects.hash(explicit, implicit, inventory);
   }
 
   public static Assignments none(Inventory inventory) { return new Assignments(inventory); }
@@ -297,6 +298,9 @@ public class Assignments implements Iterable<Assignment> {
 
   @Override
   public int hashCode() {
+    if (hash == 0) {
+      hash = Objects.hash(explicit, implicit, inventory);
+    }
     return hash;
   }
 
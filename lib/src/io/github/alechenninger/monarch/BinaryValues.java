@@ -0,0 +1,187 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compact binary encoding for data values: the maps, lists, and scalars which make up the data
+ * of a source or the values set in a change.
+ *
+ * <p>Maps are read back as {@link LinkedHashMap}s, sets as {@link LinkedHashSet}s, and any other
+ * collection as an {@link ArrayList}, preserving iteration order.
+ */
+public final class BinaryValues {
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte TRUE = 2;
+  private static final byte FALSE = 3;
+  private static final byte INTEGER = 4;
+  private static final byte LONG = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte FLOAT = 7;
+  private static final byte BIG_INTEGER = 8;
+  private static final byte BIG_DECIMAL = 9;
+  private static final byte DATE = 10;
+  private static final byte BYTES = 11;
+  private static final byte LIST = 12;
+  private static final byte SET = 13;
+  private static final byte MAP = 14;
+
+  private BinaryValues() {}
+
+  /**
+   * @throws IllegalArgumentException If {@code value} is, or contains, a type which cannot be
+   * encoded.
+   */
+  public static void write(Object value, DataOutput out) throws IOException {
+    if (value == null) {
+      out.writeByte(NULL);
+    } else if (value instanceof String) {
+      out.writeByte(STRING);
+      writeString((String) value, out);
+    } else if (value instanceof Boolean) {
+      out.writeByte((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Integer) {
+      out.writeByte(INTEGER);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (value instanceof Float) {
+      out.writeByte(FLOAT);
+      out.writeFloat((Float) value);
+    } else if (value instanceof BigInteger) {
+      out.writeByte(BIG_INTEGER);
+      writeBytes(((BigInteger) value).toByteArray(), out);
+    } else if (value instanceof BigDecimal) {
+      out.writeByte(BIG_DECIMAL);
+      writeString(value.toString(), out);
+    } else if (value.getClass() == Date.class) {
+      out.writeByte(DATE);
+      out.writeLong(((Date) value).getTime());
+    } else if (value instanceof byte[]) {
+      out.writeByte(BYTES);
+      writeBytes((byte[]) value, out);
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      out.writeByte(MAP);
+      out.writeInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        write(entry.getKey(), out);
+        write(entry.getValue(), out);
+      }
+    } else if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      out.writeByte(value instanceof Set ? SET : LIST);
+      out.writeInt(collection.size());
+      for (Object element : collection) {
+        write(element, out);
+      }
+    } else {
+      throw new IllegalArgumentException("Cannot encode value of type " + value.getClass() +
+          ": " + value);
+    }
+  }
+
+  public static Object read(DataInput in) throws IOException {
+    byte type = in.readByte();
+
+    switch (type) {
+      case NULL: return null;
+      case STRING: return readString(in);
+      case TRUE: return Boolean.TRUE;
+      case FALSE: return Boolean.FALSE;
+      case INTEGER: return in.readInt();
+      case LONG: return in.readLong();
+      case DOUBLE: return in.readDouble();
+      case FLOAT: return in.readFloat();
+      case BIG_INTEGER: return new BigInteger(readBytes(in));
+      case BIG_DECIMAL: return new BigDecimal(readString(in));
+      case DATE: return new Date(in.readLong());
+      case BYTES: return readBytes(in);
+      case MAP: {
+        int size = in.readInt();
+        Map<Object, Object> map = new LinkedHashMap<>(capacityFor(size));
+        for (int i = 0; i < size; i++) {
+          map.put(read(in), read(in));
+        }
+        return map;
+      }
+      case LIST: {
+        int size = in.readInt();
+        List<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(read(in));
+        }
+        return list;
+      }
+      case SET: {
+        int size = in.readInt();
+        Set<Object> set = new LinkedHashSet<>(capacityFor(size));
+        for (int i = 0; i < size; i++) {
+          set.add(read(in));
+        }
+        return set;
+      }
+      default:
+        throw new IOException("Unrecognized value type in binary input: " + type);
+    }
+  }
+
+  /** Unlike {@link DataOutput#writeUTF(String)}, supports strings of any length. */
+  public static void writeString(String string, DataOutput out) throws IOException {
+    writeBytes(string.getBytes(StandardCharsets.UTF_8), out);
+  }
+
+  public static String readString(DataInput in) throws IOException {
+    return new String(readBytes(in), StandardCharsets.UTF_8);
+  }
+
+  private static void writeBytes(byte[] bytes, DataOutput out) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInput in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static int capacityFor(int size) {
+    return size < 3 ? size + 1 : (int) (size / 0.75f + 1.0f);
+  }
+}
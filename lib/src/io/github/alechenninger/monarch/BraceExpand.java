@@ -18,26 +18,33 @@
 
 package io.github.alechenninger.monarch;
 
-import me.andrz.brace.BraceExpansion;
-
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
 
+/**
+ * Expands bash-like brace patterns in strings and maps. Returned lists are views computed on access
+ * so that patterns with large ranges do not cost anything until their expansions are used.
+ *
+ * @see BracePattern
+ */
 final class BraceExpand {
   private BraceExpand() {}
 
   static List<String> string(String string) {
-    return BraceExpansion.expand(string);
+    return BracePattern.parse(string).asList();
   }
 
   static <T> Map<String, T> keysOf(Map<String, T> map) {
     Map<String, T> expanded = new HashMap<>(map.size());
 
     for (Map.Entry<String, T> entry : map.entrySet()) {
-      for (String key : BraceExpansion.expand(entry.getKey())) {
+      for (String key : BracePattern.parse(entry.getKey())) {
         expanded.put(key, entry.getValue());
       }
     }
@@ -45,35 +52,73 @@ final class BraceExpand {
     return expanded;
   }
 
+  /**
+   * Expands keys and values of {@code map} into every combination of their expansions. Values of
+   * earlier keys vary fastest. Duplicate expansions of a single value are only included once.
+   */
   static List<Map<String, String>> keysAndValuesOf(Map<String, String> map) {
-    List<Map<String, String>> expanded = new ArrayList<>();
-    expanded.add(new HashMap<>());
+    Map<String, List<String>> valuesByKey = new LinkedHashMap<>();
 
     for (Map.Entry<String, String> entry : map.entrySet()) {
-      for (String key : BraceExpansion.expand(entry.getKey())) {
-        List<Map<String, String>> newPermutations = new ArrayList<>();
-
-        for (String value : BraceExpansion.expand(entry.getValue())) {
-          for (Map<String, String> permutation : expanded) {
-            if (permutation.containsKey(key)) {
-              if (Objects.equals(permutation.get(key), value)) {
-                continue;
-              }
-
-              Map<String, String> newPermutation = new HashMap<>(permutation);
-              newPermutation.put(key, value);
-              newPermutations.add(newPermutation);
-            } else {
-              permutation.put(key, value);
-            }
-          }
+      BracePattern values = BracePattern.parse(entry.getValue());
+
+      for (String key : BracePattern.parse(entry.getKey())) {
+        valuesByKey.put(key, distinct(values));
+      }
+    }
+
+    return new Permutations(valuesByKey);
+  }
+
+  private static List<String> distinct(BracePattern pattern) {
+    Set<String> distinct = new LinkedHashSet<>();
+    for (String value : pattern) {
+      distinct.add(value);
+    }
+    return new ArrayList<>(distinct);
+  }
 
+  private static final class Permutations extends AbstractList<Map<String, String>> {
+    private final List<String> keys;
+    private final List<List<String>> values;
+    private final int size;
+
+    Permutations(Map<String, List<String>> valuesByKey) {
+      this.keys = new ArrayList<>(valuesByKey.keySet());
+      this.values = new ArrayList<>(valuesByKey.values());
+
+      long size = 1;
+      for (List<String> valuesOfKey : values) {
+        size *= valuesOfKey.size();
+
+        if (size > Integer.MAX_VALUE) {
+          throw new IllegalArgumentException("Brace expansion of " + valuesByKey.keySet() +
+              " produces too many combinations to list.");
         }
+      }
+      this.size = (int) size;
+    }
 
-        expanded.addAll(newPermutations);
+    @Override
+    public Map<String, String> get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
       }
+
+      Map<String, String> permutation = new HashMap<>(keys.size());
+
+      for (int i = 0; i < keys.size(); i++) {
+        List<String> valuesOfKey = values.get(i);
+        permutation.put(keys.get(i), valuesOfKey.get(index % valuesOfKey.size()));
+        index /= valuesOfKey.size();
+      }
+
+      return permutation;
     }
 
-    return expanded;
+    @Override
+    public int size() {
+      return size;
+    }
   }
 }
@@ -0,0 +1,539 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed bash-like brace expansion pattern, such as {@code app-{a,b}-{01..20}}.
+ *
+ * <p>Expansions are never materialized up front: they may be iterated lazily, addressed by index,
+ * or a candidate string can be tested with {@link #matches(String)} without enumerating anything.
+ *
+ * <p>Supported syntax:
+ * <ul>
+ *   <li>Comma separated alternatives, which may nest and may be empty: {@code foo{,bar}}</li>
+ *   <li>Numeric ranges with optional step and zero padding: {@code {1..10}}, {@code {01..10..3}}
+ *   </li>
+ *   <li>Character ranges with optional step: {@code {a..z}}</li>
+ *   <li>Backslash escapes, which are removed from expansions: {@code \{a,b\}}</li>
+ * </ul>
+ *
+ * <p>Braces which contain neither a top-level comma nor a valid range are kept literally. Like
+ * bash, the leftmost brace group varies slowest.
+ */
+final class BracePattern implements Iterable<String> {
+  private static final Pattern NUMERIC_RANGE =
+      Pattern.compile("(-?\\d+)\\.\\.(-?\\d+)(?:\\.\\.(-?\\d+))?");
+  private static final Pattern CHAR_RANGE =
+      Pattern.compile("([a-zA-Z])\\.\\.([a-zA-Z])(?:\\.\\.(-?\\d+))?");
+
+  private final String pattern;
+  private final Node root;
+
+  private BracePattern(String pattern, Node root) {
+    this.pattern = pattern;
+    this.root = root;
+  }
+
+  static BracePattern parse(String pattern) {
+    return new BracePattern(pattern, new Parser(pattern).parseSequence(0, pattern.length()));
+  }
+
+  /**
+   * @return The number of expansions this pattern produces.
+   * @throws IllegalArgumentException If the pattern would produce more than {@link Long#MAX_VALUE}
+   * expansions.
+   */
+  long size() {
+    return root.size();
+  }
+
+  /** @return The expansion at {@code index}, in the same order {@link #iterator()} produces. */
+  String get(long index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for pattern '" +
+          pattern + "' with " + size() + " expansion(s)");
+    }
+
+    StringBuilder expansion = new StringBuilder();
+    root.appendTo(expansion, index);
+    return expansion.toString();
+  }
+
+  boolean matches(String candidate) {
+    return root.match(candidate, 0, end -> end == candidate.length());
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      final long size = size();
+      long next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < size;
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+
+        return get(next++);
+      }
+    };
+  }
+
+  /**
+   * @return A read only view of expansions, computed on access.
+   * @throws IllegalArgumentException If there are too many expansions to address with an
+   * {@code int}.
+   */
+  List<String> asList() {
+    long size = size();
+
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Brace expansion of '" + pattern + "' produces " + size +
+          " values, which is too many to list.");
+    }
+
+    return new AbstractList<String>() {
+      @Override
+      public String get(int index) {
+        return BracePattern.this.get(index);
+      }
+
+      @Override
+      public int size() {
+        return (int) size;
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return pattern;
+  }
+
+  private interface Node {
+    long size();
+
+    void appendTo(StringBuilder expansion, long index);
+
+    /**
+     * Attempts to match this node against {@code candidate} starting at {@code start}, succeeding
+     * only if {@code rest} accepts the end index of some way of matching this node.
+     */
+    boolean match(String candidate, int start, IntPredicate rest);
+  }
+
+  private static final class Literal implements Node {
+    final String text;
+
+    Literal(String text) {
+      this.text = text;
+    }
+
+    @Override
+    public long size() {
+      return 1;
+    }
+
+    @Override
+    public void appendTo(StringBuilder expansion, long index) {
+      expansion.append(text);
+    }
+
+    @Override
+    public boolean match(String candidate, int start, IntPredicate rest) {
+      return candidate.startsWith(text, start) && rest.test(start + text.length());
+    }
+  }
+
+  private static final class Sequence implements Node {
+    final List<Node> parts;
+    final long size;
+
+    Sequence(List<Node> parts) {
+      this.parts = parts;
+
+      long size = 1;
+      for (Node part : parts) {
+        size = multiply(size, part.size());
+      }
+      this.size = size;
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public void appendTo(StringBuilder expansion, long index) {
+      // Rightmost part varies fastest, so peel indexes off from the right.
+      long[] indexes = new long[parts.size()];
+      for (int i = parts.size() - 1; i >= 0; i--) {
+        long partSize = parts.get(i).size();
+        indexes[i] = index % partSize;
+        index /= partSize;
+      }
+
+      for (int i = 0; i < parts.size(); i++) {
+        parts.get(i).appendTo(expansion, indexes[i]);
+      }
+    }
+
+    @Override
+    public boolean match(String candidate, int start, IntPredicate rest) {
+      return matchFrom(0, candidate, start, rest);
+    }
+
+    private boolean matchFrom(int part, String candidate, int start, IntPredicate rest) {
+      if (part == parts.size()) {
+        return rest.test(start);
+      }
+
+      return parts.get(part).match(candidate, start,
+          end -> matchFrom(part + 1, candidate, end, rest));
+    }
+  }
+
+  private static final class Alternatives implements Node {
+    final List<Node> options;
+    final long size;
+
+    Alternatives(List<Node> options) {
+      this.options = options;
+
+      long size = 0;
+      for (Node option : options) {
+        size = add(size, option.size());
+      }
+      this.size = size;
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public void appendTo(StringBuilder expansion, long index) {
+      for (Node option : options) {
+        if (index < option.size()) {
+          option.appendTo(expansion, index);
+          return;
+        }
+        index -= option.size();
+      }
+
+      throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+
+    @Override
+    public boolean match(String candidate, int start, IntPredicate rest) {
+      for (Node option : options) {
+        if (option.match(candidate, start, rest)) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+  }
+
+  private static final class NumericRange implements Node {
+    final long from;
+    final long to;
+    final long step;
+    final int width;
+    final int maxLength;
+
+    NumericRange(long from, long to, long step, int width) {
+      this.from = from;
+      this.to = to;
+      this.step = step;
+      this.width = width;
+      this.maxLength = Math.max(format(from).length(), format(to).length());
+    }
+
+    @Override
+    public long size() {
+      return Math.abs(to - from) / step + 1;
+    }
+
+    @Override
+    public void appendTo(StringBuilder expansion, long index) {
+      expansion.append(format(from < to ? from + index * step : from - index * step));
+    }
+
+    @Override
+    public boolean match(String candidate, int start, IntPredicate rest) {
+      int longest = Math.min(candidate.length(), start + maxLength);
+
+      for (int end = start + 1; end <= longest; end++) {
+        if (contains(candidate.substring(start, end)) && rest.test(end)) {
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    private boolean contains(String number) {
+      long value;
+
+      try {
+        value = Long.parseLong(number);
+      } catch (NumberFormatException e) {
+        return false;
+      }
+
+      return value >= Math.min(from, to) && value <= Math.max(from, to) &&
+          Math.abs(value - from) % step == 0 &&
+          format(value).equals(number);
+    }
+
+    private String format(long value) {
+      if (width == 0) {
+        return Long.toString(value);
+      }
+
+      String digits = Long.toString(Math.abs(value));
+      StringBuilder formatted = new StringBuilder(width);
+      if (value < 0) {
+        formatted.append('-');
+      }
+      for (int i = formatted.length() + digits.length(); i < width; i++) {
+        formatted.append('0');
+      }
+      return formatted.append(digits).toString();
+    }
+  }
+
+  private static final class CharRange implements Node {
+    final char from;
+    final char to;
+    final int step;
+
+    CharRange(char from, char to, int step) {
+      this.from = from;
+      this.to = to;
+      this.step = step;
+    }
+
+    @Override
+    public long size() {
+      return Math.abs(to - from) / step + 1;
+    }
+
+    @Override
+    public void appendTo(StringBuilder expansion, long index) {
+      expansion.append((char) (from < to ? from + index * step : from - index * step));
+    }
+
+    @Override
+    public boolean match(String candidate, int start, IntPredicate rest) {
+      if (start >= candidate.length()) {
+        return false;
+      }
+
+      char c = candidate.charAt(start);
+      return c >= Math.min(from, to) && c <= Math.max(from, to) &&
+          Math.abs(c - from) % step == 0 &&
+          rest.test(start + 1);
+    }
+  }
+
+  private static final class Parser {
+    final String pattern;
+
+    Parser(String pattern) {
+      this.pattern = pattern;
+    }
+
+    Node parseSequence(int start, int end) {
+      List<Node> parts = new ArrayList<>();
+      StringBuilder literal = new StringBuilder();
+
+      for (int i = start; i < end; i++) {
+        char c = pattern.charAt(i);
+
+        if (c == '\\' && i + 1 < end) {
+          literal.append(pattern.charAt(++i));
+          continue;
+        }
+
+        if (c == '{') {
+          int close = findClose(i, end);
+          Node group = close == -1 ? null : parseGroup(i + 1, close);
+
+          if (group != null) {
+            if (literal.length() > 0) {
+              parts.add(new Literal(literal.toString()));
+              literal.setLength(0);
+            }
+            parts.add(group);
+            i = close;
+            continue;
+          }
+        }
+
+        // Includes braces which do not form a group; anything inside them is still expanded.
+        literal.append(c);
+      }
+
+      if (literal.length() > 0 || parts.isEmpty()) {
+        parts.add(new Literal(literal.toString()));
+      }
+
+      return parts.size() == 1 ? parts.get(0) : new Sequence(Collections.unmodifiableList(parts));
+    }
+
+    /** @return A node for the group between braces, or null if it should be kept literally. */
+    private Node parseGroup(int start, int end) {
+      List<Integer> commas = topLevelCommas(start, end);
+
+      if (!commas.isEmpty()) {
+        List<Node> options = new ArrayList<>(commas.size() + 1);
+        int optionStart = start;
+        for (int comma : commas) {
+          options.add(parseSequence(optionStart, comma));
+          optionStart = comma + 1;
+        }
+        options.add(parseSequence(optionStart, end));
+        return new Alternatives(Collections.unmodifiableList(options));
+      }
+
+      return parseRange(pattern.substring(start, end));
+    }
+
+    private Node parseRange(String range) {
+      Matcher numeric = NUMERIC_RANGE.matcher(range);
+      if (numeric.matches()) {
+        try {
+          String from = numeric.group(1);
+          String to = numeric.group(2);
+          long step = parseStep(numeric.group(3));
+          int width = isZeroPadded(from) || isZeroPadded(to)
+              ? Math.max(from.length(), to.length())
+              : 0;
+          return new NumericRange(Long.parseLong(from), Long.parseLong(to), step, width);
+        } catch (NumberFormatException e) {
+          return null;
+        }
+      }
+
+      Matcher chars = CHAR_RANGE.matcher(range);
+      if (chars.matches()) {
+        try {
+          long step = parseStep(chars.group(3));
+          return step > Character.MAX_VALUE
+              ? null
+              : new CharRange(chars.group(1).charAt(0), chars.group(2).charAt(0), (int) step);
+        } catch (NumberFormatException e) {
+          return null;
+        }
+      }
+
+      return null;
+    }
+
+    private int findClose(int open, int end) {
+      int depth = 0;
+
+      for (int i = open; i < end; i++) {
+        char c = pattern.charAt(i);
+
+        if (c == '\\') {
+          i++;
+        } else if (c == '{') {
+          depth++;
+        } else if (c == '}' && --depth == 0) {
+          return i;
+        }
+      }
+
+      return -1;
+    }
+
+    private List<Integer> topLevelCommas(int start, int end) {
+      List<Integer> commas = new ArrayList<>();
+      int depth = 0;
+
+      for (int i = start; i < end; i++) {
+        char c = pattern.charAt(i);
+
+        if (c == '\\') {
+          i++;
+        } else if (c == '{') {
+          depth++;
+        } else if (c == '}') {
+          depth--;
+        } else if (c == ',' && depth == 0) {
+          commas.add(i);
+        }
+      }
+
+      return commas;
+    }
+
+    private static long parseStep(String step) {
+      if (step == null) {
+        return 1;
+      }
+
+      long parsed = Math.abs(Long.parseLong(step));
+      return parsed == 0 ? 1 : parsed;
+    }
+
+    private static boolean isZeroPadded(String number) {
+      String digits = number.startsWith("-") ? number.substring(1) : number;
+      return digits.length() > 1 && digits.startsWith("0");
+    }
+  }
+
+  private static long multiply(long a, long b) {
+    try {
+      return Math.multiplyExact(a, b);
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException("Brace expansion produces too many values.", e);
+    }
+  }
+
+  private static long add(long a, long b) {
+    try {
+      return Math.addExact(a, b);
+    } catch (ArithmeticException e) {
+      throw new IllegalArgumentException("Brace expansion produces too many values.", e);
+    }
+  }
+}
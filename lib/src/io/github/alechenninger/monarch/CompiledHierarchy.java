@@ -0,0 +1,340 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A hierarchy whose sources were all rendered ahead of time, so that it can be written out and
+ * read back without parsing or rendering the hierarchy it was compiled from.
+ *
+ * <p>Sources are found by path, and by the variables which target them, from indexes built when
+ * compiled. Lookups those indexes cannot answer, such as by variables which imply others, fall
+ * back to the original hierarchy, which is only parsed if that happens.
+ */
+public final class CompiledHierarchy implements Hierarchy {
+  private final List<CompiledSource> sources;
+  private final Map<String, CompiledSource> byPath;
+  private final Map<Map<String, String>, CompiledSource> byAssignments;
+  private final Supplier<Hierarchy> original;
+  private final Set<Path> inputs;
+
+  private Hierarchy cachedOriginal;
+
+  private CompiledHierarchy(int size, Supplier<Hierarchy> original, Set<Path> inputs) {
+    this.sources = new ArrayList<>(size);
+    this.byPath = new HashMap<>(size);
+    this.byAssignments = new HashMap<>();
+    this.original = original;
+    this.inputs = Collections.unmodifiableSet(inputs);
+  }
+
+  /**
+   * Renders every source in {@code hierarchy}.
+   *
+   * @throws IllegalStateException If the hierarchy's sources cannot be enumerated, such as when a
+   * variable's values are declared by a regular expression.
+   */
+  public static CompiledHierarchy compile(Hierarchy hierarchy) {
+    List<Source> all = hierarchy.allSources();
+    CompiledHierarchy compiled =
+        new CompiledHierarchy(all.size(), () -> hierarchy, inputsOf(hierarchy));
+    Map<String, Integer> indexes = new HashMap<>(all.size());
+
+    for (int i = 0; i < all.size(); i++) {
+      indexes.put(all.get(i).path(), i);
+    }
+
+    for (Source source : all) {
+      Map<String, String> assignments = hierarchy instanceof DynamicHierarchy
+          ? ((DynamicHierarchy) hierarchy).targetingAssignments(source).orElse(null)
+          : null;
+
+      compiled.add(source.path(), indexesOf(source.lineage(), indexes),
+          indexesOf(source.descendants(), indexes), assignments);
+    }
+
+    return compiled;
+  }
+
+  /**
+   * Reports problems with {@code hierarchy} which otherwise only surface, if at all, once the
+   * affected sources are used. Errors are values whose implied assignments conflict or cannot be
+   * assigned. Warnings are nodes which render no sources, and sources shadowed by a descendant
+   * with the same path.
+   */
+  public static void validate(Hierarchy hierarchy, Consumer<String> errors,
+      Consumer<String> warnings) {
+    if (hierarchy instanceof DynamicHierarchy) {
+      ((DynamicHierarchy) hierarchy).validate(errors, warnings);
+    }
+  }
+
+  /**
+   * Files other than its own definition which {@code hierarchy} reads, such as files of inventory
+   * values. A compiled hierarchy is only current as long as these are unchanged.
+   */
+  public static Set<Path> inputsOf(Hierarchy hierarchy) {
+    if (hierarchy instanceof CompiledHierarchy) {
+      return ((CompiledHierarchy) hierarchy).inputs;
+    }
+
+    return hierarchy instanceof DynamicHierarchy
+        ? ((DynamicHierarchy) hierarchy).inventoryFiles()
+        : Collections.emptySet();
+  }
+
+  /**
+   * @param original Supplies the hierarchy this was compiled from, only if a lookup cannot be
+   * answered from the compiled sources alone.
+   */
+  public static CompiledHierarchy readFrom(DataInput in, Supplier<Hierarchy> original)
+      throws IOException {
+    return readFrom(in, original, Collections.emptySet());
+  }
+
+  /**
+   * @param inputs The {@link #inputsOf(Hierarchy) inputs} of the hierarchy this was compiled from.
+   * @see #readFrom(DataInput, Supplier)
+   */
+  public static CompiledHierarchy readFrom(DataInput in, Supplier<Hierarchy> original,
+      Set<Path> inputs) throws IOException {
+    int size = in.readInt();
+    CompiledHierarchy compiled = new CompiledHierarchy(size, original, inputs);
+
+    for (int i = 0; i < size; i++) {
+      String path = BinaryValues.readString(in);
+      int[] lineage = readIndexes(in, size);
+      int[] descendants = readIndexes(in, size);
+      Map<String, String> assignments = null;
+
+      int assigned = in.readInt();
+      if (assigned >= 0) {
+        assignments = new LinkedHashMap<>(assigned * 2);
+        for (int j = 0; j < assigned; j++) {
+          assignments.put(BinaryValues.readString(in), BinaryValues.readString(in));
+        }
+      }
+
+      compiled.add(path, lineage, descendants, assignments);
+    }
+
+    return compiled;
+  }
+
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(sources.size());
+
+    for (CompiledSource source : sources) {
+      BinaryValues.writeString(source.path, out);
+      writeIndexes(source.lineage, out);
+      writeIndexes(source.descendants, out);
+
+      if (source.assignments == null) {
+        out.writeInt(-1);
+      } else {
+        out.writeInt(source.assignments.size());
+        for (Map.Entry<String, String> assignment : source.assignments.entrySet()) {
+          BinaryValues.writeString(assignment.getKey(), out);
+          BinaryValues.writeString(assignment.getValue(), out);
+        }
+      }
+    }
+  }
+
+  @Override
+  public Optional<Source> sourceFor(String source) {
+    return Optional.ofNullable(byPath.get(source));
+  }
+
+  @Override
+  public Optional<Source> sourceFor(Map<String, String> assignments) {
+    CompiledSource source = byAssignments.get(assignments);
+
+    if (source != null) {
+      return Optional.of(source);
+    }
+
+    return compiled(original().sourceFor(assignments));
+  }
+
+  @Override
+  public Optional<Source> sourceFor(Assignments assignments) {
+    return compiled(original().sourceFor(assignments));
+  }
+
+  @Override
+  public List<Source> allSources() {
+    return Collections.unmodifiableList(sources);
+  }
+
+  @Override
+  public String toString() {
+    return "CompiledHierarchy{" +
+        "sources=" + sources.size() +
+        '}';
+  }
+
+  private void add(String path, int[] lineage, int[] descendants,
+      Map<String, String> assignments) {
+    CompiledSource source = new CompiledSource(path, lineage, descendants, assignments);
+    sources.add(source);
+    byPath.put(path, source);
+
+    if (assignments != null) {
+      byAssignments.put(assignments, source);
+    }
+  }
+
+  private Hierarchy original() {
+    if (cachedOriginal == null) {
+      cachedOriginal = original.get();
+    }
+
+    return cachedOriginal;
+  }
+
+  private Optional<Source> compiled(Optional<Source> source) {
+    return source.map(found -> byPath.get(found.path()));
+  }
+
+  private static int[] indexesOf(List<Source> sources, Map<String, Integer> indexes) {
+    int[] result = new int[sources.size()];
+
+    for (int i = 0; i < result.length; i++) {
+      result[i] = indexes.get(sources.get(i).path());
+    }
+
+    return result;
+  }
+
+  private static int[] readIndexes(DataInput in, int size) throws IOException {
+    int[] indexes = new int[in.readInt()];
+
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = in.readInt();
+      if (indexes[i] < 0 || indexes[i] >= size) {
+        throw new IOException("Source index out of bounds: " + indexes[i]);
+      }
+    }
+
+    return indexes;
+  }
+
+  private static void writeIndexes(int[] indexes, DataOutput out) throws IOException {
+    out.writeInt(indexes.length);
+    for (int index : indexes) {
+      out.writeInt(index);
+    }
+  }
+
+  private final class CompiledSource implements Source {
+    private final String path;
+    private final int[] lineage;
+    private final int[] descendants;
+    private final Map<String, String> assignments;
+
+    CompiledSource(String path, int[] lineage, int[] descendants,
+        Map<String, String> assignments) {
+      this.path = path;
+      this.lineage = lineage;
+      this.descendants = descendants;
+      this.assignments = assignments;
+    }
+
+    @Override
+    public String path() {
+      return path;
+    }
+
+    @Override
+    public List<Source> lineage() {
+      return new IndexedSources(lineage);
+    }
+
+    @Override
+    public List<Source> descendants() {
+      return new IndexedSources(descendants);
+    }
+
+    @Override
+    public boolean isTargetedBy(SourceSpec spec) {
+      return spec.findSource(CompiledHierarchy.this)
+          .map(found -> found.path().equals(path))
+          .orElse(false);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      CompiledSource that = (CompiledSource) o;
+      return hierarchy() == that.hierarchy() && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path);
+    }
+
+    @Override
+    public String toString() {
+      return "CompiledSource{" +
+          "path='" + path + '\'' +
+          '}';
+    }
+
+    private CompiledHierarchy hierarchy() {
+      return CompiledHierarchy.this;
+    }
+  }
+
+  private final class IndexedSources extends AbstractList<Source> {
+    private final int[] indexes;
+
+    IndexedSources(int[] indexes) {
+      this.indexes = indexes;
+    }
+
+    @Override
+    public Source get(int index) {
+      return sources.get(indexes[index]);
+    }
+
+    @Override
+    public int size() {
+      return indexes.length;
+    }
+  }
+}
@@ -65,7 +65,7 @@ public class DataLookupFromMap implements DataLookup {
     for (String ancestor : sourceAncestry()) {
       Map<String, Object> ancestorData = getDataBySource(ancestor);
       if (ancestorData.containsKey(key)) {
-        return Optional.of(ancestorData.get(key));
+        return Optional.ofNullable(ancestorData.get(key));
       }
     }
 
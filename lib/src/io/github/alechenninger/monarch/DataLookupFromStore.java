@@ -0,0 +1,41 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import java.util.Set;
+
+/**
+ * Looks up data for a source from an {@link OffHeapDataStore}, deserializing only the values of
+ * the keys looked up in each ancestor.
+ */
+public class DataLookupFromStore extends DataLookupFromMap {
+  private final String path;
+
+  public DataLookupFromStore(OffHeapDataStore store, Source source, Set<String> mergeKeys) {
+    super(store.asMap(), source, mergeKeys);
+    this.path = source.path();
+  }
+
+  @Override
+  public String toString() {
+    return "DataLookupFromStore{" +
+        "path='" + path + '\'' +
+        '}';
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link DecisionTrace} which keeps every decision, grouped by source in the order sources were
+ * generated.
+ *
+ * <p>Decisions are kept as parallel arrays per source rather than an object per decision, since
+ * even a modest changeset can produce keys &times; sources of them.
+ */
+public class DecisionRecording implements DecisionTrace {
+  private final Map<String, Decisions> bySource = new LinkedHashMap<>();
+
+  private static final Decision[] DECISIONS = Decision.values();
+
+  @Override
+  public synchronized void record(String target, Decision decision, String key, Object value,
+      Change change) {
+    bySource.computeIfAbsent(target, t -> new Decisions()).add(decision, key, value, change);
+  }
+
+  public synchronized List<String> sources() {
+    return new ArrayList<>(bySource.keySet());
+  }
+
+  /**
+   * @return A map for each source with its {@code source} path and {@code decisions}, each of
+   * which has the {@code decision}, {@code key}, the {@code value} if any, and the
+   * {@code change}'s source it was made for.
+   */
+  public synchronized List<Map<String, Object>> toMaps() {
+    List<Map<String, Object>> reports = new ArrayList<>(bySource.size());
+
+    for (Map.Entry<String, Decisions> source : bySource.entrySet()) {
+      Map<String, Object> report = new LinkedHashMap<>();
+      report.put("source", source.getKey());
+      report.put("decisions", source.getValue().toMaps());
+      reports.add(report);
+    }
+
+    return reports;
+  }
+
+  /** Decisions for one source. */
+  private static class Decisions {
+    private byte[] decisions = new byte[8];
+    private Object[] keysValuesAndChanges = new Object[24];
+    private int size = 0;
+
+    void add(Decision decision, String key, Object value, Change change) {
+      if (size == decisions.length) {
+        decisions = Arrays.copyOf(decisions, size * 2);
+        keysValuesAndChanges = Arrays.copyOf(keysValuesAndChanges, size * 6);
+      }
+
+      decisions[size] = (byte) decision.ordinal();
+      keysValuesAndChanges[size * 3] = key;
+      keysValuesAndChanges[size * 3 + 1] = value;
+      keysValuesAndChanges[size * 3 + 2] = change;
+      size++;
+    }
+
+    List<Map<String, Object>> toMaps() {
+      List<Map<String, Object>> maps = new ArrayList<>(size);
+
+      for (int i = 0; i < size; i++) {
+        Decision decision = DECISIONS[decisions[i]];
+        Change change = (Change) keysValuesAndChanges[i * 3 + 2];
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("decision", decision.name().toLowerCase());
+        map.put("key", keysValuesAndChanges[i * 3]);
+        if (decision != Decision.REMOVED) {
+          map.put("value", keysValuesAndChanges[i * 3 + 1]);
+        }
+        map.put("change", change.sourceSpec().toStringOrMap());
+        maps.add(map);
+      }
+
+      return Collections.unmodifiableList(maps);
+    }
+  }
+}
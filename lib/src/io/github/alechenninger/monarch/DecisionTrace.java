@@ -0,0 +1,61 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+/**
+ * Receives each decision {@link Monarch} makes about a key while generating a source, to explain
+ * why generated data looks the way it does.
+ *
+ * <p>This is called for every key of every applicable change for every source, so
+ * implementations should be cheap. {@link #NONE} ignores everything and is what monarch uses
+ * unless asked to explain; see {@link DecisionRecording} to keep decisions for a report.
+ */
+@FunctionalInterface
+public interface DecisionTrace {
+  DecisionTrace NONE = (target, decision, key, value, change) -> {};
+
+  enum Decision {
+    /** The desired value is already inherited from above, so the source need not set it. */
+    INHERITED,
+
+    /** The desired value is inherited, so it was unmerged from the source's merged value. */
+    UNMERGED,
+
+    /** The desired value is inherited, so the source's own value for the key was removed. */
+    REMOVED_REDUNDANT,
+
+    /** The desired value was merged into the source's merged value. */
+    MERGED,
+
+    /** The desired value was put in the source. */
+    PUT,
+
+    /** The key was removed from the source per a change's 'remove'. */
+    REMOVED
+  }
+
+  /**
+   * @param target The path of the source being generated.
+   * @param value The desired value from the change, or for {@link Decision#MERGED} and
+   *              {@link Decision#PUT} the resulting value. {@code null} for
+   *              {@link Decision#REMOVED}.
+   * @param change The change which the decision was made for.
+   */
+  void record(String target, Decision decision, String key, Object value, Change change);
+}
@@ -0,0 +1,489 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The set of values which may be assigned to a {@link Variable}.
+ *
+ * <p>A domain is either an explicit list of {@link Assignable assignables}, or is declared in a
+ * way that lets membership be checked without enumerating every value, such as a regular
+ * expression, a numeric range, or a file listing one value per line. Only explicitly listed values
+ * may imply other assignments.
+ */
+public interface Domain {
+  /** @see #expanding(List) */
+  int EXPANSION_LIMIT = 1000;
+
+  /**
+   * @return The assignable for {@code value} if it is within this domain. Never requires
+   * enumerating the domain.
+   */
+  Optional<Assignable> find(String value);
+
+  /**
+   * @return Whether {@link #assignables()} can be used. Domains declared by a regular expression
+   * cannot be enumerated.
+   */
+  boolean isEnumerable();
+
+  /**
+   * @return Every assignable in this domain. Only computed when called, and may be expensive.
+   * @throws UnsupportedOperationException If this domain is not {@link #isEnumerable()
+   * enumerable}.
+   */
+  Iterable<Assignable> assignables();
+
+  /**
+   * Parses a domain from inventory data: a string, list, or map of assignables as described in
+   * {@link Assignable#fromStringMapOrList(Object)}, or a map with a single key declaring the domain
+   * without listing it. A string or list of strings using brace expansion is matched against its
+   * patterns rather than expanded; see {@link #expanding(List)}. Maps with one of these keys are
+   * also supported:
+   *
+   * <ul>
+   *   <li>{@code regex}: Any value matching the regular expression</li>
+   *   <li>{@code range}: Any number in a range like {@code 1..500}, optionally with a step like
+   *   {@code 0..100..5}. Zero padded bounds require zero padded values.</li>
+   *   <li>{@code file}: Any line of a file. Relative paths are resolved against
+   *   {@code directory}. Blank lines and lines starting with '#' are ignored.</li>
+   * </ul>
+   *
+   * @param directory Usually the directory of the hierarchy file declaring the domain, on the
+   *                  file system it was read from.
+   */
+  @SuppressWarnings("unchecked")
+  static Domain fromStringMapOrList(Object data, Path directory) {
+    if (data instanceof Map) {
+      Map<String, Object> map = (Map<String, Object>) data;
+
+      if (map.size() == 1) {
+        Map.Entry<String, Object> declaration = map.entrySet().iterator().next();
+        Object argument = declaration.getValue();
+
+        if (argument != null && !(argument instanceof Map)) {
+          switch (declaration.getKey()) {
+            case "regex":
+              return matching(argument.toString());
+            case "range":
+              return range(argument.toString());
+            case "file":
+              return lines(directory.resolve(argument.toString()));
+          }
+        }
+      }
+    }
+
+    if (data instanceof String) {
+      return expanding(Collections.singletonList((String) data));
+    }
+
+    if (data instanceof List && ((List<Object>) data).stream().allMatch(v -> v instanceof String)) {
+      return expanding((List<String>) data);
+    }
+
+    return of(Assignable.fromStringMapOrList(data));
+  }
+
+  /**
+   * Values without implications which use brace expansion, such as {@code web{0001..9999}}, are
+   * kept as patterns rather than expanded if they expand to more than {@link #EXPANSION_LIMIT}
+   * values. Fewer are simply listed.
+   */
+  static Domain expanding(List<String> values) {
+    List<BracePattern> patterns = values.stream()
+        .map(BracePattern::parse)
+        .collect(Collectors.toList());
+    long size = 0;
+
+    for (BracePattern pattern : patterns) {
+      size += pattern.size();
+    }
+
+    if (size <= EXPANSION_LIMIT) {
+      return of(values.stream()
+          .flatMap(value -> Assignable.expandToStream(value, null))
+          .collect(Collectors.toList()));
+    }
+
+    return new Expanded(patterns);
+  }
+
+  /**
+   * Like {@link #fromStringMapOrList(Object, Path)}, resolving relative paths against the working
+   * directory.
+   */
+  static Domain fromStringMapOrList(Object data) {
+    return fromStringMapOrList(data, Paths.get(""));
+  }
+
+  static Domain of(List<Assignable> assignables) {
+    return new Listed(assignables);
+  }
+
+  static Domain matching(String regex) {
+    return new Matching(Pattern.compile(regex));
+  }
+
+  /** @param range A range like {@code 1..10} or {@code 01..10..3}. */
+  static Domain range(String range) {
+    return new Range(range);
+  }
+
+  static Domain lines(Path file) {
+    return new Lines(file);
+  }
+
+  final class Listed implements Domain {
+    private final List<Assignable> assignables;
+    private final int hash;
+    private Map<String, Assignable> byValue;
+
+    private Listed(List<Assignable> assignables) {
+      Objects.requireNonNull(assignables, "assignables");
+
+      if (assignables.isEmpty()) {
+        throw new IllegalArgumentException("Must provide at least one assignable value.");
+      }
+
+      List<Map.Entry<String, Long>> duplicates = assignables.stream()
+          .collect(Collectors.groupingBy(Assignable::value, Collectors.counting()))
+          .entrySet()
+          .stream()
+          .filter(entry -> entry.getValue() > 1)
+          .collect(Collectors.toList());
+
+      if (!duplicates.isEmpty()) {
+        throw new IllegalArgumentException("List of assignables contains duplicate values. " +
+            "Values to occurrences: " + duplicates);
+      }
+
+      this.assignables = Collections.unmodifiableList(new ArrayList<>(assignables));
+      this.hash = this.assignables.hashCode();
+    }
+
+    @Override
+    public Optional<Assignable> find(String value) {
+      if (byValue == null) {
+        byValue = new HashMap<>(assignables.size());
+        for (Assignable assignable : assignables) {
+          byValue.put(assignable.value(), assignable);
+        }
+      }
+
+      return Optional.ofNullable(byValue.get(value));
+    }
+
+    @Override
+    public boolean isEnumerable() {
+      return true;
+    }
+
+    @Override
+    public Iterable<Assignable> assignables() {
+      return assignables;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Listed listed = (Listed) o;
+      return Objects.equals(assignables, listed.assignables);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return assignables.toString();
+    }
+  }
+
+  final class Matching implements Domain {
+    private final Pattern regex;
+
+    private Matching(Pattern regex) {
+      this.regex = regex;
+    }
+
+    @Override
+    public Optional<Assignable> find(String value) {
+      return regex.matcher(value).matches()
+          ? Optional.of(Assignable.of(value))
+          : Optional.empty();
+    }
+
+    @Override
+    public boolean isEnumerable() {
+      return false;
+    }
+
+    @Override
+    public Iterable<Assignable> assignables() {
+      throw new UnsupportedOperationException("Cannot enumerate values matching " + this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Matching matching = (Matching) o;
+      return Objects.equals(regex.pattern(), matching.regex.pattern());
+    }
+
+    @Override
+    public int hashCode() {
+      return regex.pattern().hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return "regex: " + regex.pattern();
+    }
+  }
+
+  final class Range implements Domain {
+    private static final Pattern RANGE = Pattern.compile("-?\\d+\\.\\.-?\\d+(\\.\\.-?\\d+)?");
+
+    private final String range;
+    private final BracePattern pattern;
+
+    private Range(String range) {
+      if (!RANGE.matcher(range).matches()) {
+        throw new IllegalArgumentException("Expected range like '1..10' or '1..10..2' but got: " +
+            range);
+      }
+
+      this.range = range;
+      this.pattern = BracePattern.parse("{" + range + "}");
+    }
+
+    @Override
+    public Optional<Assignable> find(String value) {
+      return pattern.matches(value)
+          ? Optional.of(Assignable.of(value))
+          : Optional.empty();
+    }
+
+    @Override
+    public boolean isEnumerable() {
+      return true;
+    }
+
+    @Override
+    public Iterable<Assignable> assignables() {
+      return () -> new Iterator<Assignable>() {
+        final Iterator<String> values = pattern.iterator();
+
+        @Override
+        public boolean hasNext() {
+          return values.hasNext();
+        }
+
+        @Override
+        public Assignable next() {
+          return Assignable.of(values.next());
+        }
+      };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Range that = (Range) o;
+      return Objects.equals(range, that.range);
+    }
+
+    @Override
+    public int hashCode() {
+      return range.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return "range: " + range;
+    }
+  }
+
+  /**
+   * The expansions of one or more brace patterns, none of which imply other assignments. Unlike
+   * {@link Listed}, duplicate expansions are not rejected, since finding them would require
+   * enumerating every expansion.
+   */
+  final class Expanded implements Domain {
+    private final List<BracePattern> patterns;
+    private final List<String> sources;
+
+    private Expanded(List<BracePattern> patterns) {
+      if (patterns.isEmpty()) {
+        throw new IllegalArgumentException("Must provide at least one assignable value.");
+      }
+
+      this.patterns = Collections.unmodifiableList(new ArrayList<>(patterns));
+      this.sources = patterns.stream().map(BracePattern::toString).collect(Collectors.toList());
+    }
+
+    @Override
+    public Optional<Assignable> find(String value) {
+      for (BracePattern pattern : patterns) {
+        if (pattern.matches(value)) {
+          return Optional.of(Assignable.of(value));
+        }
+      }
+
+      return Optional.empty();
+    }
+
+    @Override
+    public boolean isEnumerable() {
+      return true;
+    }
+
+    @Override
+    public Iterable<Assignable> assignables() {
+      return () -> new Iterator<Assignable>() {
+        final Iterator<BracePattern> remaining = patterns.iterator();
+        Iterator<String> values = Collections.emptyIterator();
+
+        @Override
+        public boolean hasNext() {
+          while (!values.hasNext() && remaining.hasNext()) {
+            values = remaining.next().iterator();
+          }
+
+          return values.hasNext();
+        }
+
+        @Override
+        public Assignable next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+
+          return Assignable.of(values.next());
+        }
+      };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Expanded expanded = (Expanded) o;
+      return Objects.equals(sources, expanded.sources);
+    }
+
+    @Override
+    public int hashCode() {
+      return sources.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return sources.toString();
+    }
+  }
+
+  final class Lines implements Domain {
+    private final Path file;
+    private Set<String> values;
+
+    private Lines(Path file) {
+      this.file = Objects.requireNonNull(file, "file");
+    }
+
+    @Override
+    public Optional<Assignable> find(String value) {
+      return values().contains(value) ? Optional.of(Assignable.of(value)) : Optional.empty();
+    }
+
+    @Override
+    public boolean isEnumerable() {
+      return true;
+    }
+
+    @Override
+    public Iterable<Assignable> assignables() {
+      return values().stream().map(Assignable::of).collect(Collectors.toList());
+    }
+
+    Path file() {
+      return file;
+    }
+
+    /** Reads the file the first time its values are needed, and only then. */
+    private Set<String> values() {
+      if (values == null) {
+        try (Stream<String> lines = Files.lines(file)) {
+          Set<String> read = lines
+              .map(String::trim)
+              .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+              .collect(Collectors.toCollection(LinkedHashSet::new));
+          values = Collections.unmodifiableSet(read);
+        } catch (IOException e) {
+          throw new UncheckedIOException("Unable to read inventory values from " + file, e);
+        }
+      }
+
+      return values;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Lines lines = (Lines) o;
+      return Objects.equals(file, lines.file);
+    }
+
+    @Override
+    public int hashCode() {
+      return file.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return "file: " + file;
+    }
+  }
+}
@@ -4,13 +4,18 @@ import io.github.alechenninger.monarch.DynamicNode.RenderedNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -45,7 +50,10 @@ class DynamicHierarchy implements Hierarchy {
 
   @Override
   public Optional<Source> sourceFor(String source) {
-    if (!cachedPaths.containsKey(source)) {
+    if (cachedPaths.containsKey(source)) {
+      Stats.count("dynamicHierarchy.paths.hits");
+    } else {
+      Stats.count("dynamicHierarchy.paths.misses");
 
       List<Assignments> satisfyingVars = nodes.stream()
           .flatMap(node -> node.assignmentsFor(source, inventory, Assignments.none(inventory))
@@ -54,15 +62,15 @@ class DynamicHierarchy implements Hierarchy {
 
       if (satisfyingVars.isEmpty()) {
         cachedPaths.put(source, null);
-      }
+      } else {
+        Assignments allVariables = new Assignments(inventory);
+        // TODO: Instead, we can do this in loop over nodes
+        for (Assignments assignments : satisfyingVars) {
+          allVariables = allVariables.with(assignments);
+        }
 
-      Assignments allVariables = new Assignments(inventory);
-      // TODO: Instead, we can do this in loop over nodes
-      for (Assignments assignments : satisfyingVars) {
-        allVariables = allVariables.with(assignments);
+        cachedPaths.put(source, allVariables);
       }
-
-      cachedPaths.put(source, allVariables);
     }
 
     return Optional.ofNullable(cachedPaths.get(source)).flatMap(this::sourceFor);
@@ -73,7 +81,10 @@ class DynamicHierarchy implements Hierarchy {
     List<Assignment> assignmentList = new ArrayList<>(assignments.size());
 
     for (Map.Entry<String, String> entry : assignments.entrySet()) {
-      if (!cachedAssignments.containsKey(entry)) {
+      if (cachedAssignments.containsKey(entry)) {
+        Stats.count("dynamicHierarchy.assignments.hits");
+      } else {
+        Stats.count("dynamicHierarchy.assignments.misses");
         try {
           cachedAssignments.put(entry, inventory.assign(entry.getKey(), entry.getValue()));
         } catch (IllegalArgumentException e) {
@@ -97,9 +108,11 @@ class DynamicHierarchy implements Hierarchy {
   @Override
   public Optional<Source> sourceFor(Assignments assignments) {
     if (cachedSources.containsKey(assignments)) {
+      Stats.count("dynamicHierarchy.sources.hits");
       return Optional.ofNullable(cachedSources.get(assignments));
     }
 
+    Stats.count("dynamicHierarchy.sources.misses");
     RenderedSource target = null;
 
     // First find target, if any.
@@ -126,6 +139,7 @@ class DynamicHierarchy implements Hierarchy {
   }
 
   @Override
+  @SuppressWarnings("try")
   public List<Source> allSources() {
     if (cachedAll != null) {
       return cachedAll;
@@ -137,21 +151,106 @@ class DynamicHierarchy implements Hierarchy {
 
     List<Source> descendants = new ArrayList<>();
 
-    for (int i = 0; i < nodes.size(); i++) {
-      DynamicNode dynamicNode = nodes.get(i);
+    Jfr.Event event = Jfr.begin(Jfr.HIERARCHY_RENDER);
 
-      for (RenderedNode rendered : dynamicNode.render(Assignments.none(inventory))) {
-        try {
-          descendants.add(sourceFor(rendered, i));
-        } catch (UnreachableSourceException ignored) {
-          // Fall through
+    try (Stats.Timer ignored = Stats.time("render")) {
+      for (int i = 0; i < nodes.size(); i++) {
+        DynamicNode dynamicNode = nodes.get(i);
+
+        for (RenderedNode rendered : dynamicNode.render(Assignments.none(inventory))) {
+          try {
+            descendants.add(sourceFor(rendered, i));
+          } catch (UnreachableSourceException unreachable) {
+            // Fall through
+          }
         }
       }
     }
 
+    event.set("sources", descendants.size()).commit();
+
     return cachedAll = descendants;
   }
 
+  /**
+   * Reports problems which otherwise only surface, if at all, once affected sources are used:
+   * values whose implied assignments conflict or cannot be assigned, nodes which cannot be
+   * rendered or render no sources, and sources shadowed by a descendant with the same path.
+   */
+  void validate(Consumer<String> errors, Consumer<String> warnings) {
+    for (Map.Entry<String, Domain> domain : new TreeMap<>(inventory.domains()).entrySet()) {
+      if (!domain.getValue().isEnumerable()) continue;
+
+      String name = domain.getKey();
+      Variable variable = inventory.variableByName(name).get();
+
+      for (Assignable assignable : domain.getValue().assignables()) {
+        try {
+          inventory.assignAll(Collections.singleton(variable.assign(assignable.value())));
+        } catch (IllegalArgumentException | NoSuchElementException e) {
+          errors.accept("Cannot assign " + name + "=" + assignable.value() + ": " +
+              e.getMessage());
+        }
+      }
+    }
+
+    for (int level = 0; level < nodes.size(); level++) {
+      DynamicNode node = nodes.get(level);
+      List<RenderedNode> renders;
+
+      try {
+        renders = node.render(Assignments.none(inventory));
+      } catch (IllegalArgumentException | NoSuchElementException | IllegalStateException e) {
+        // Including nodes with variables whose values, such as of a regex, cannot be listed.
+        errors.accept("Cannot render node " + node + ": " + e.getMessage());
+        continue;
+      }
+
+      if (renders.isEmpty()) {
+        warnings.accept("Node " + node + " is unreachable. No values of its variables may be " +
+            "assigned together, so it renders no sources.");
+        continue;
+      }
+
+      for (RenderedNode render : renders) {
+        try {
+          sourceFor(render, level);
+        } catch (UnreachableSourceException e) {
+          warnings.accept("Source '" + render.path() + "' at node " + node + " is shadowed by " +
+              "the same path at descendant node " + e.conflict().node() + ".");
+        }
+      }
+    }
+  }
+
+  /**
+   * The variables which, passed to {@link #sourceFor(Map)}, find {@code source}. Empty if
+   * looking up its variables would first match an ancestor node with the same variables, or if
+   * its variables imply others which are not part of its node.
+   */
+  Optional<Map<String, String>> targetingAssignments(Source source) {
+    if (!(source instanceof RenderedSource)) {
+      return Optional.empty();
+    }
+
+    RenderedSource rendered = (RenderedSource) source;
+    List<String> variables = rendered.node().variables();
+
+    for (int level = 0; level < rendered.level; level++) {
+      if (rendered.assignments.assignsOnly(nodes.get(level).variables())) {
+        return Optional.empty();
+      }
+    }
+
+    return rendered.assignments.assignsOnly(variables)
+        ? Optional.of(rendered.assignments.toMap())
+        : Optional.empty();
+  }
+
+  Set<Path> inventoryFiles() {
+    return inventory.files();
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -183,6 +282,7 @@ class DynamicHierarchy implements Hierarchy {
     RenderedSourceCacheKey key = new RenderedSourceCacheKey(render, level);
 
     if (cachedRenderedSources.containsKey(key)) {
+      Stats.count("dynamicHierarchy.renderedSources.hits");
       Object sourceOrException = cachedRenderedSources.get(key);
       if (sourceOrException instanceof RenderedSource) {
         return (RenderedSource) sourceOrException;
@@ -191,6 +291,8 @@ class DynamicHierarchy implements Hierarchy {
       throw (UnreachableSourceException) sourceOrException;
     }
 
+    Stats.count("dynamicHierarchy.renderedSources.misses");
+
     try {
       RenderedSource source = new RenderedSource(render, level);
       cachedRenderedSources.put(key, source);
@@ -240,10 +342,7 @@ class DynamicHierarchy implements Hierarchy {
       this.assignments = inventory.assignAll(render.usedAssignments());
       this.level = level;
 
-      Optional<RenderedSource> maybeConflict = renderedDescendants().stream()
-          .skip(1)
-          .filter(s -> s.path().equals(render.path()))
-          .findAny();
+      Optional<RenderedSource> maybeConflict = findDescendantWithSamePath();
       if (maybeConflict.isPresent()) {
         RenderedSource conflict = maybeConflict.get();
         log.warn("Repeat source path '{}' at nodes {} and descendant {}. " +
@@ -258,6 +357,30 @@ class DynamicHierarchy implements Hierarchy {
       return render.node();
     }
 
+    /**
+     * Looks for a reachable descendant with the same path by matching the path against each lower
+     * node, rather than rendering every descendant. Descendants may include variables whose values
+     * cannot be enumerated.
+     */
+    private Optional<RenderedSource> findDescendantWithSamePath() {
+      for (int childLevel = level + 1; childLevel < nodes.size(); childLevel++) {
+        DynamicNode node = nodes.get(childLevel);
+        Optional<Assignments> childAssigns =
+            node.assignmentsFor(render.path(), inventory, assignments);
+
+        if (!childAssigns.isPresent()) continue;
+        if (!assignments.isEmpty() && !childAssigns.get().containsAll(assignments)) continue;
+
+        try {
+          return Optional.of(sourceFor(node.renderOne(childAssigns.get()), childLevel));
+        } catch (UnreachableSourceException ignored) {
+          // Fall through
+        }
+      }
+
+      return Optional.empty();
+    }
+
     @Override
     public String path() {
       return render.path();
@@ -3,17 +3,30 @@ package io.github.alechenninger.monarch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 public interface Hierarchy {
 
+  /**
+   * Tries to return the most appropriate hierarchy for the object. Relative paths within it are
+   * resolved against the working directory.
+   */
+  static Hierarchy fromStringListOrMap(Object object) {
+    return fromStringListOrMap(object, Paths.get(""));
+  }
+
   /**
    * Tries to return the most appropriate hierarchy for the object.
+   *
+   * @param directory Relative paths within the hierarchy, such as files of inventory values, are
+   *                  resolved against this directory, usually the one containing the hierarchy.
    */
   @SuppressWarnings("unchecked")
-  static Hierarchy fromStringListOrMap(Object object) {
+  static Hierarchy fromStringListOrMap(Object object, Path directory) {
     if (object instanceof Map) {
       Map map = (Map) object;
 
@@ -24,7 +37,7 @@ public interface Hierarchy {
           List<String> sources = (List<String>) map.get("sources");
           Object inventory = map.getOrDefault("inventory", map.get("potentials"));
 
-          return fromDynamicSourceExpressions(sources, Inventory.parse(inventory));
+          return fromDynamicSourceExpressions(sources, Inventory.parse(inventory, directory));
         }
       }
 
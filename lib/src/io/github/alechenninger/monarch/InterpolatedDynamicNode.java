@@ -22,10 +22,12 @@ import org.bigtesting.interpolatd.Interpolator;
 import org.bigtesting.interpolatd.Substitutor;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -38,6 +40,8 @@ public class InterpolatedDynamicNode implements DynamicNode {
   private final Optional<String> escapeCharacter;
 
   private final List<String> variableNames;
+  /** The text around each variable, with escapes applied. One more than there are variables. */
+  private final List<String> literals;
   private final int hash;
 
   public InterpolatedDynamicNode(String expression) {
@@ -60,6 +64,10 @@ public class InterpolatedDynamicNode implements DynamicNode {
 
     this.variableNames = Collections.unmodifiableList(variableNames);
 
+    String placeholder = "\u0000";
+    String placeheld = getInterpolator((captured, arg) -> placeholder).interpolate(expression, null);
+    this.literals = Collections.unmodifiableList(Arrays.asList(placeheld.split(placeholder, -1)));
+
     hash = Objects.hash(
         expression, variableOpening, variableClosing, escapeCharacter, variableNames);
   }
@@ -94,6 +102,75 @@ public class InterpolatedDynamicNode implements DynamicNode {
         .collect(Collectors.toList());
   }
 
+  /**
+   * Finds assignments which render to {@code source} by matching it against this node's expression,
+   * rather than rendering every possibility. Each variable's candidate values are checked against
+   * the inventory one at a time, so variables whose domains can't (or shouldn't) be enumerated
+   * still resolve.
+   */
+  @Override
+  public Optional<Assignments> assignmentsFor(String source, Inventory potentials,
+      Assignments variables) {
+    if (variableNames.isEmpty()) {
+      return source.equals(expression)
+          ? Optional.of(potentials.assignAll(Collections.emptySet()))
+          : Optional.empty();
+    }
+
+    String leading = literals.get(0);
+    if (!source.startsWith(leading)) {
+      return Optional.empty();
+    }
+
+    return match(0, leading.length(), source, variables)
+        .map(matched -> potentials.assignAll(variableNames.stream()
+            .map(matched::forVariable)
+            .collect(Collectors.toSet())));
+  }
+
+  /**
+   * Matches the variable at {@code index} and everything after it against {@code source}, starting
+   * at {@code start}. Backtracks over each value the variable could take.
+   */
+  private Optional<Assignments> match(int index, int start, String source,
+      Assignments assignments) {
+    if (index == variableNames.size()) {
+      return start == source.length() ? Optional.of(assignments) : Optional.empty();
+    }
+
+    String variable = variableNames.get(index);
+    String following = literals.get(index + 1);
+
+    if (assignments.isAssigned(variable)) {
+      String value = assignments.forVariable(variable).value();
+      int end = start + value.length();
+
+      return source.startsWith(value, start) && source.startsWith(following, end)
+          ? match(index + 1, end + following.length(), source, assignments)
+          : Optional.empty();
+    }
+
+    for (int end = start; end <= source.length() - following.length(); end++) {
+      if (!source.startsWith(following, end)) continue;
+
+      Assignments withValue;
+      try {
+        withValue = assignments.with(variable, source.substring(start, end));
+      } catch (IllegalArgumentException | NoSuchElementException e) {
+        // Not assignable to this variable, or conflicts with other assignments.
+        continue;
+      }
+
+      Optional<Assignments> matched =
+          match(index + 1, end + following.length(), source, withValue);
+      if (matched.isPresent()) {
+        return matched;
+      }
+    }
+
+    return Optional.empty();
+  }
+
   private <T> Interpolator<T> getInterpolator(Substitutor<T> substitutor) {
     Interpolator<T> interpolator = new Interpolator<>();
     interpolator.when().enclosedBy(variableOpening).and(variableClosing).handleWith(substitutor);
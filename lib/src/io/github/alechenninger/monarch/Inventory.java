@@ -18,6 +18,8 @@
 
 package io.github.alechenninger.monarch;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -26,16 +28,25 @@ import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class Inventory {
-  private final Map<String, List<Assignable>> map;
+  private final Map<String, Domain> map;
   private final Map<String, Variable> cachedVariables;
 
   private final int hash;
 
-  @SuppressWarnings("unchecked")
   public static Inventory parse(Object data) {
+    return parse(data, Paths.get(""));
+  }
+
+  /**
+   * @param directory Directory relative paths of {@code file} domains are resolved against. See
+   *                  {@link Domain#fromStringMapOrList(Object, Path)}.
+   */
+  @SuppressWarnings("unchecked")
+  public static Inventory parse(Object data, Path directory) {
     if (data == null) {
       return Inventory.empty();
     }
@@ -51,18 +62,35 @@ public class Inventory {
         .stream()
         .collect(Collectors.toMap(
             entry -> entry.getKey(),
-            entry -> Assignable.fromStringMapOrList(entry.getValue()))));
+            entry -> domainOf(entry.getKey(),
+                () -> Domain.fromStringMapOrList(entry.getValue(), directory)))));
   }
 
   public static Inventory from(Map<String, List<Assignable>> map) {
-    return new Inventory(new HashMap<>(map));
+    Map<String, Domain> domains = new HashMap<>(map.size());
+    map.forEach((variable, assignables) ->
+        domains.put(variable, domainOf(variable, () -> Domain.of(assignables))));
+    return new Inventory(domains);
+  }
+
+  public static Inventory fromDomains(Map<String, Domain> domains) {
+    return new Inventory(new HashMap<>(domains));
+  }
+
+  private static Domain domainOf(String variable, Supplier<Domain> domain) {
+    try {
+      return domain.get();
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid inventory for variable <" + variable + ">: " +
+          e.getMessage(), e);
+    }
   }
 
   public static Inventory empty() {
     return new Inventory(Collections.emptyMap());
   }
 
-  private Inventory(Map<String, List<Assignable>> map) {
+  private Inventory(Map<String, Domain> map) {
     // TODO: Validate there are no conflicting implied values? This is done lazily currently.
     // e.g. foo=bar implies foo=baz (either directly or transitively)
     //noinspection Convert2MethodRef
@@ -89,6 +117,18 @@ public class Inventory {
     return new Assignments(this, assignments);
   }
 
+  Map<String, Domain> domains() {
+    return Collections.unmodifiableMap(map);
+  }
+
+  /** Files which the values of variables are read from, if any. */
+  Set<Path> files() {
+    return map.values().stream()
+        .filter(domain -> domain instanceof Domain.Lines)
+        .map(domain -> ((Domain.Lines) domain).file())
+        .collect(Collectors.toSet());
+  }
+
   public boolean hasVariable(Variable variable) {
     return variableByName(variable.name())
         .map(variable::equals)
@@ -97,11 +137,11 @@ public class Inventory {
 
   public Optional<Variable> variableByName(String name) {
     if (!cachedVariables.containsKey(name)) {
-      List<Assignable> assignables = map.get(name);
-      if (assignables == null) {
+      Domain domain = map.get(name);
+      if (domain == null) {
         cachedVariables.put(name, null);
       } else {
-        cachedVariables.put(name, new Variable(name, assignables, this));
+        cachedVariables.put(name, new Variable(name, domain, this));
       }
     }
 
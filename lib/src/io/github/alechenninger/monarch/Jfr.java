@@ -0,0 +1,357 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Java Flight Recorder events for monarch's units of work, so recordings show which sources
+ * were slow to parse, generate, or write, rather than anonymous parser and collection frames.
+ *
+ * <p>Monarch is built for JDKs which may not have the JFR API, so events are defined at runtime
+ * through {@code jdk.jfr.EventFactory} by reflection. Where that is not available, or no
+ * recording is enabled for an event type, {@link #begin(Type)} returns an event which does
+ * nothing. Whether each type is enabled is cached, and refreshed whenever a recording changes
+ * state, so that beginning a disabled event costs no reflection or allocation.
+ */
+public final class Jfr {
+  public static final Type SOURCE_PARSE = new Type("monarch.SourceParse", "Source Parse",
+      "A data source read and parsed.", "path", String.class, "bytes", long.class,
+      "keys", int.class);
+  public static final Type SOURCE_GENERATE = new Type("monarch.SourceGenerate",
+      "Source Generate", "New data generated for a source given changes and its ancestors.",
+      "path", String.class, "keys", int.class);
+  public static final Type SOURCE_WRITE = new Type("monarch.SourceWrite", "Source Write",
+      "A source's updated data written to the output directory.", "path", String.class,
+      "bytes", long.class, "keys", int.class);
+  public static final Type HIERARCHY_RENDER = new Type("monarch.HierarchyRender",
+      "Hierarchy Render", "Every source of a dynamic hierarchy rendered from its inventory.",
+      "sources", int.class);
+  public static final Type CHANGE_RESOLUTION = new Type("monarch.ChangeResolution",
+      "Change Resolution", "Changes which apply to a source found among its lineage.",
+      "path", String.class, "changes", int.class);
+
+  private static final Event NO_OP_EVENT = new Event(null, null);
+  private static final Logger log = LoggerFactory.getLogger(Jfr.class);
+
+  private static final Api api = Api.load();
+
+  private Jfr() {}
+
+  /** Whether the running JDK supports the JFR API. */
+  public static boolean isAvailable() {
+    return api != null;
+  }
+
+  /**
+   * Begins timing an event of the given type, which is recorded once committed.
+   */
+  public static Event begin(Type type) {
+    if (!type.enabled) {
+      return NO_OP_EVENT;
+    }
+
+    try {
+      Object event = api.newEvent.invoke(type.factory);
+      api.begin.invoke(event);
+      return new Event(type, event);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      log.debug("Failed to begin JFR event {}", type.name, e);
+      return NO_OP_EVENT;
+    }
+  }
+
+  /**
+   * Starts a recording with the JDK's "profile" settings plus every monarch event, which is
+   * written to {@code destination} once the returned recording is closed.
+   *
+   * @throws UnsupportedOperationException If the running JDK does not support the JFR API.
+   */
+  public static Recording record(Path destination) {
+    if (api == null) {
+      throw new UnsupportedOperationException("Java Flight Recorder is not available in this " +
+          "JVM. Use a JDK which supports the jdk.jfr API, such as 8u262+ or 11+.");
+    }
+
+    try {
+      Object configuration = api.getConfiguration.invoke(null, "profile");
+      Object recording = api.newRecording.newInstance(configuration);
+
+      for (Type type : Type.ALL) {
+        api.enable.invoke(recording, type.name);
+      }
+
+      api.setDestination.invoke(recording, destination);
+      api.start.invoke(recording);
+      api.refreshEnabled();
+
+      return () -> {
+        try {
+          api.stop.invoke(recording);
+          api.close.invoke(recording);
+        } catch (ReflectiveOperationException e) {
+          throw new IllegalStateException("Failed to write flight recording to " +
+              destination, e);
+        } finally {
+          api.refreshEnabled();
+        }
+      };
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Failed to start flight recording", e);
+    }
+  }
+
+  /** A flight recording, dumped when closed. */
+  public interface Recording extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  /** Describes one kind of event and its fields. Fields are name and type pairs. */
+  public static final class Type {
+    private static final List<Type> ALL = new ArrayList<>();
+
+    private final String name;
+    private final String label;
+    private final String description;
+    private final List<String> fields;
+    private final List<Class<?>> fieldTypes;
+    private Object factory;
+    private Object eventType;
+
+    /** Whether any recording is enabled for this type. Only ever true if JFR is available. */
+    private volatile boolean enabled;
+
+    private Type(String name, String label, String description, Object... fieldsAndTypes) {
+      this.name = name;
+      this.label = label;
+      this.description = description;
+
+      List<String> fields = new ArrayList<>();
+      List<Class<?>> fieldTypes = new ArrayList<>();
+
+      for (int i = 0; i < fieldsAndTypes.length; i += 2) {
+        fields.add((String) fieldsAndTypes[i]);
+        fieldTypes.add((Class<?>) fieldsAndTypes[i + 1]);
+      }
+
+      this.fields = Collections.unmodifiableList(fields);
+      this.fieldTypes = Collections.unmodifiableList(fieldTypes);
+
+      ALL.add(this);
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public List<String> fields() {
+      return fields;
+    }
+  }
+
+  /** An event in progress. Set its fields, then {@link #commit()} it. */
+  public static final class Event {
+    private final Type type;
+    private final Object event;
+
+    private Event(Type type, Object event) {
+      this.type = type;
+      this.event = event;
+    }
+
+    /** Whether committing this event records anything. */
+    public boolean isEnabled() {
+      return event != null;
+    }
+
+    /**
+     * @throws IllegalArgumentException If this event's type has no such field.
+     */
+    public Event set(String field, Object value) {
+      if (event == null) {
+        return this;
+      }
+
+      int index = type.fields.indexOf(field);
+
+      if (index < 0) {
+        throw new IllegalArgumentException("No field '" + field + "' in " + type.name);
+      }
+
+      try {
+        api.set.invoke(event, index, value);
+      } catch (ReflectiveOperationException e) {
+        log.debug("Failed to set {} on JFR event {}", field, type.name, e);
+      }
+
+      return this;
+    }
+
+    public void commit() {
+      if (event == null) {
+        return;
+      }
+
+      try {
+        api.commit.invoke(event);
+      } catch (ReflectiveOperationException e) {
+        log.debug("Failed to commit JFR event {}", type.name, e);
+      }
+    }
+  }
+
+  /** The parts of the jdk.jfr API monarch uses, looked up once. */
+  private static final class Api {
+    Method newEvent;
+    Method getEventType;
+    Method isEnabled;
+    Method begin;
+    Method set;
+    Method commit;
+    Method getConfiguration;
+    Constructor<?> newRecording;
+    Method enable;
+    Method setDestination;
+    Method start;
+    Method stop;
+    Method close;
+
+    static Api load() {
+      try {
+        Class<?> flightRecorder = Class.forName("jdk.jfr.FlightRecorder");
+
+        if (!(Boolean) flightRecorder.getMethod("isAvailable").invoke(null)) {
+          return null;
+        }
+
+        Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+        Class<?> event = Class.forName("jdk.jfr.Event");
+        Class<?> configuration = Class.forName("jdk.jfr.Configuration");
+        Class<?> recording = Class.forName("jdk.jfr.Recording");
+
+        Api api = new Api();
+        api.newEvent = eventFactory.getMethod("newEvent");
+        api.getEventType = eventFactory.getMethod("getEventType");
+        api.isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+        api.begin = event.getMethod("begin");
+        api.set = event.getMethod("set", int.class, Object.class);
+        api.commit = event.getMethod("commit");
+        api.getConfiguration = configuration.getMethod("getConfiguration", String.class);
+        api.newRecording = recording.getConstructor(configuration);
+        api.enable = recording.getMethod("enable", String.class);
+        api.setDestination = recording.getMethod("setDestination", Path.class);
+        api.start = recording.getMethod("start");
+        api.stop = recording.getMethod("stop");
+        api.close = recording.getMethod("close");
+
+        for (Type type : Type.ALL) {
+          type.factory = createFactory(eventFactory, type);
+          type.eventType = api.getEventType.invoke(type.factory);
+        }
+
+        Class<?> listener = Class.forName("jdk.jfr.FlightRecorderListener");
+        flightRecorder.getMethod("addListener", listener).invoke(null, Proxy.newProxyInstance(
+            listener.getClassLoader(), new Class<?>[] {listener}, (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "equals":
+                  return proxy == args[0];
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                case "toString":
+                  return "Monarch JFR event listener";
+                case "recordingStateChanged":
+                  api.refreshEnabled();
+                  return null;
+                default:
+                  return null;
+              }
+            }));
+
+        api.refreshEnabled();
+        return api;
+      } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+        log.debug("Java Flight Recorder events are not available", e);
+        return null;
+      }
+    }
+
+    /** Caches whether each type is enabled, as of the recordings which are now running. */
+    void refreshEnabled() {
+      for (Type type : Type.ALL) {
+        try {
+          type.enabled = (Boolean) isEnabled.invoke(type.eventType);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+          log.debug("Failed to check whether JFR event {} is enabled", type.name, e);
+          type.enabled = false;
+        }
+      }
+    }
+
+    private static Object createFactory(Class<?> eventFactory, Type type)
+        throws ReflectiveOperationException {
+      Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+      Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+      Constructor<?> newAnnotation = annotationElement.getConstructor(Class.class, Object.class);
+      Constructor<?> newField = valueDescriptor.getConstructor(Class.class, String.class,
+          List.class);
+
+      List<Object> annotations = Arrays.asList(
+          newAnnotation.newInstance(annotation("jdk.jfr.Name"), type.name),
+          newAnnotation.newInstance(annotation("jdk.jfr.Label"), type.label),
+          newAnnotation.newInstance(annotation("jdk.jfr.Description"), type.description),
+          newAnnotation.newInstance(annotation("jdk.jfr.Category"), new String[] {"Monarch"}));
+
+      List<Object> fields = new ArrayList<>();
+
+      for (int i = 0; i < type.fields.size(); i++) {
+        String field = type.fields.get(i);
+        List<Object> fieldAnnotations = Collections.singletonList(
+            newAnnotation.newInstance(annotation("jdk.jfr.Label"), capitalize(field)));
+        fields.add(newField.newInstance(type.fieldTypes.get(i), field, fieldAnnotations));
+      }
+
+      Object factory = eventFactory.getMethod("create", List.class, List.class)
+          .invoke(null, annotations, fields);
+      eventFactory.getMethod("register").invoke(factory);
+      return factory;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Annotation> annotation(String name)
+        throws ClassNotFoundException {
+      return (Class<? extends Annotation>) Class.forName(name);
+    }
+
+    private static String capitalize(String field) {
+      return Character.toUpperCase(field.charAt(0)) + field.substring(1);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import io.github.alechenninger.monarch.DataLookup.SourceToValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * An inverted index of keys to the sources which set them, and the values they set. Where
+ * {@link DataLookup} answers questions about one source's lineage, a key index answers them for a
+ * key across a whole hierarchy without scanning every source's data.
+ *
+ * <p>Sources are remembered in the order they are indexed, so indexing sources in
+ * {@link Hierarchy#allSources() depth order} returns sources for a key in depth order.
+ */
+public class KeyIndex {
+  private final Map<String, Map<String, Object>> sourcesByKey = new HashMap<>();
+
+  private static final Object ABSENT = new Object();
+
+  public static KeyIndex fromData(Hierarchy hierarchy, Map<String, Map<String, Object>> data) {
+    KeyIndex index = new KeyIndex();
+
+    for (Source source : hierarchy.allSources()) {
+      Map<String, Object> sourceData = data.get(source.path());
+      if (sourceData != null) {
+        index.index(source.path(), sourceData);
+      }
+    }
+
+    return index;
+  }
+
+  /**
+   * Adds each key:value pair in {@code data} to the index for {@code source}. Indexing the same
+   * key for the same source again replaces its value.
+   */
+  public void index(String source, Map<String, ?> data) {
+    for (Map.Entry<String, ?> entry : data.entrySet()) {
+      sourcesByKey.computeIfAbsent(entry.getKey(), k -> new LinkedHashMap<>())
+          .put(source, entry.getValue());
+    }
+  }
+
+  public Set<String> keys() {
+    return Collections.unmodifiableSet(sourcesByKey.keySet());
+  }
+
+  /** @return Every source which sets {@code key}, in the order they were indexed. */
+  public List<SourceToValue> sourcesOf(String key) {
+    Map<String, Object> sources = sourcesByKey.get(key);
+
+    if (sources == null) {
+      return Collections.emptyList();
+    }
+
+    List<SourceToValue> sourcesOf = new ArrayList<>(sources.size());
+    sources.forEach((source, value) -> sourcesOf.add(new SourceToValue(source, value)));
+    return sourcesOf;
+  }
+
+  /**
+   * Looks up the value of {@code key} that {@code source} inherits, the same as
+   * {@link DataLookupFromMap#lookup(String)} would. A null value is treated as no value.
+   */
+  public Optional<Object> lookup(Source source, String key, Set<String> mergeKeys) {
+    Object value = find(source, key, mergeKeys);
+    return value == ABSENT ? Optional.empty() : Optional.ofNullable(value);
+  }
+
+  /**
+   * @return The value of {@code key} inherited by the path of each leaf of {@code hierarchy}
+   * (sources without children) which inherits any value for it, in depth order.
+   */
+  public Map<String, Object> inheritedByLeaves(Hierarchy hierarchy, String key,
+      Set<String> mergeKeys) {
+    if (!sourcesByKey.containsKey(key)) {
+      return Collections.emptyMap();
+    }
+
+    List<Source> sources = hierarchy.allSources();
+    Set<String> parents = new HashSet<>();
+
+    // In a dynamic hierarchy, an ancestor may be nobody's nearest one, but is still no leaf.
+    for (Source source : sources) {
+      List<Source> lineage = source.lineage();
+      for (Source ancestor : lineage.subList(1, lineage.size())) {
+        parents.add(ancestor.path());
+      }
+    }
+
+    Map<String, Object> inherited = new LinkedHashMap<>();
+
+    for (Source source : sources) {
+      if (!parents.contains(source.path())) {
+        Object value = find(source, key, mergeKeys);
+        if (value != ABSENT) {
+          inherited.put(source.path(), value);
+        }
+      }
+    }
+
+    return inherited;
+  }
+
+  /** @return The inherited value, which may be null, or {@link #ABSENT} if there is none. */
+  private Object find(Source source, String key, Set<String> mergeKeys) {
+    Map<String, Object> sources = sourcesByKey.get(key);
+
+    if (sources == null) {
+      return ABSENT;
+    }
+
+    boolean merge = mergeKeys.contains(key);
+    Merger merger = null;
+
+    for (Source ancestor : source.lineage()) {
+      if (!sources.containsKey(ancestor.path())) {
+        continue;
+      }
+
+      Object value = sources.get(ancestor.path());
+
+      if (!merge) {
+        return value;
+      }
+
+      if (merger == null) {
+        merger = Merger.startingWith(value);
+      } else {
+        merger.merge(value);
+      }
+    }
+
+    return merger == null ? ABSENT : merger.getMerged();
+  }
+
+  @Override
+  public String toString() {
+    return "KeyIndex{" +
+        "keys=" + sourcesByKey.size() +
+        '}';
+  }
+}
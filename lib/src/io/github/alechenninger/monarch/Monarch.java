@@ -18,20 +18,43 @@
 
 package io.github.alechenninger.monarch;
 
+import io.github.alechenninger.monarch.DecisionTrace.Decision;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.BiConsumer;
 import java.util.stream.StreamSupport;
 
 public class Monarch {
+  private final DecisionTrace trace;
+
   private static final Logger log = LoggerFactory.getLogger(Monarch.class);
 
+  public Monarch() {
+    this(DecisionTrace.NONE);
+  }
+
+  /**
+   * @param trace Told of every decision made about each key while generating sources.
+   */
+  public Monarch(DecisionTrace trace) {
+    this.trace = trace;
+  }
+
+  /** A monarch like this one, but which tells {@code trace} of its decisions. */
+  public Monarch withTrace(DecisionTrace trace) {
+    return new Monarch(trace);
+  }
+
   /**
    * Generates new data for all known sources in the hierarchy based on the hierarchy, the data
    * changes you want applied, the existing state of the data, and a "target" source which you want
@@ -63,7 +86,16 @@ public class Monarch {
     return generateSources(hierarchy.allSources(), changes, data, mergeKeys);
   }
 
-  private Map<String, Map<String, Object>> generateSources(List<Source> sources,
+  /**
+   * Generates new data for exactly the given {@code sources}, which must be ordered such that
+   * ancestors come before their descendants. Other sources' data is used as is. Useful to
+   * regenerate only part of a hierarchy, where {@code data} holds the result of generating the
+   * rest before.
+   *
+   * @see #generateSources(Source, Iterable, Map, Set)
+   */
+  @SuppressWarnings("try")
+  public Map<String, Map<String, Object>> generateSources(List<Source> sources,
       Iterable<Change> changes, Map<String, Map<String, Object>> data, Set<String> mergeKeys) {
     Map<String, Map<String, Object>> result = copyMapAndValues(data);
 
@@ -73,24 +105,66 @@ public class Monarch {
       log.debug("Generating sources for descendants: {}", Sources.pathsOf(sources));
     }
 
-    for (Source descendant : sources) {
-      result.put(descendant.path(), generateSingleSource(descendant, changes, result, mergeKeys));
+    try (Stats.Timer ignored = Stats.time("generate")) {
+      for (Source descendant : sources) {
+        Jfr.Event event = Jfr.begin(Jfr.SOURCE_GENERATE);
+        DataLookup lookup = new DataLookupFromMap(result, descendant, mergeKeys);
+        Map<String, Object> generated = generateSingleSource(descendant, changes, lookup,
+            result.get(descendant.path()), mergeKeys);
+        result.put(descendant.path(), generated);
+        Stats.count("sources.generated");
+        event.set("path", descendant.path()).set("keys", generated.size()).commit();
+      }
     }
 
     return result;
   }
 
+  /**
+   * Like {@link #generateSources(Source, Iterable, Map, Set)}, but reads existing data from and
+   * writes generated data to an {@link OffHeapDataStore} in place, so that only one source's data
+   * is on the heap at a time.
+   */
+  public void generateSources(Source target, Iterable<Change> changes, OffHeapDataStore data,
+      Set<String> mergeKeys) {
+    generateSources(target.descendants(), changes, data, mergeKeys);
+  }
+
+  /** @see #generateSources(Source, Iterable, OffHeapDataStore, Set) */
+  public void generateSources(Hierarchy hierarchy, Iterable<Change> changes,
+      OffHeapDataStore data, Set<String> mergeKeys) {
+    generateSources(hierarchy.allSources(), changes, data, mergeKeys);
+  }
+
+  @SuppressWarnings("try")
+  private void generateSources(List<Source> sources, Iterable<Change> changes,
+      OffHeapDataStore data, Set<String> mergeKeys) {
+    if (log.isDebugEnabled()) {
+      log.debug("Generating sources for descendants: {}", Sources.pathsOf(sources));
+    }
+
+    try (Stats.Timer ignored = Stats.time("generate")) {
+      for (Source descendant : sources) {
+        Jfr.Event event = Jfr.begin(Jfr.SOURCE_GENERATE);
+        DataLookup lookup = new DataLookupFromStore(data, descendant, mergeKeys);
+        Map<String, Object> generated = generateSingleSource(descendant, changes, lookup,
+            data.get(descendant.path()), mergeKeys);
+        data.put(descendant.path(), generated);
+        Stats.count("sources.generated");
+        event.set("path", descendant.path()).set("keys", generated.size()).commit();
+      }
+    }
+  }
+
   /**
    * Generates new data for the given source only, taking into account the desired changes, the
-   * existing hierarchy, and the existing data in the hierarchy.
+   * existing hierarchy, and the existing data in the hierarchy as seen through
+   * {@code targetLookup}.
    */
   private Map<String, Object> generateSingleSource(Source target, Iterable<Change> changes,
-      Map<String, Map<String, Object>> data, Set<String> mergeKeys) {
+      DataLookup targetLookup, Map<String, Object> sourceData, Set<String> mergeKeys) {
     List<Source> lineage = target.lineage();
 
-    DataLookup targetLookup = new DataLookupFromMap(data, target, mergeKeys);
-
-    Map<String, Object> sourceData = data.get(target.path());
     Map<String, Object> resultSourceData = sourceData == null
         ? new HashMap<>()
         : new HashMap<>(sourceData);
@@ -99,39 +173,34 @@ public class Monarch {
       log.debug("Looking for changes applicable to lineage: {}", Sources.pathsOf(lineage));
     }
 
-    for (Source ancestor : new ListReversed<>(lineage)) {
-      Optional<Change> maybeChange = findChangeForSource(ancestor, changes);
+    Jfr.Event resolution = Jfr.begin(Jfr.CHANGE_RESOLUTION);
+    List<Change> ancestorChanges = new ArrayList<>(lineage.size());
 
-      if (!maybeChange.isPresent()) {
-        continue;
-      }
-
-      Change change = maybeChange.get();
+    for (Source ancestor : new ListReversed<>(lineage)) {
+      findChangeForSource(ancestor, changes).ifPresent(ancestorChanges::add);
+    }
 
-      log.debug("Applying change for ancestor '{}' (targeted by {}) to '{}'.",
-          ancestor.path(), change.sourceSpec(), target.path());
+    resolution.set("path", target.path()).set("changes", ancestorChanges.size()).commit();
 
+    for (Change change : ancestorChanges) {
       for (Map.Entry<String, Object> setEntry : change.set().entrySet()) {
         String setKey = setEntry.getKey();
         Object setValue = setEntry.getValue();
 
         if (target.isNotTargetedBy(change.sourceSpec())) {
           if (targetLookup.isValueInherited(setKey, setValue)) {
-            log.debug("Desired key:value is inherited above '{}': <{}: {}>",
-                target.path(), setKey, setValue);
-
             if (resultSourceData.containsKey(setKey)) {
               if (mergeKeys.contains(setKey)) {
-                log.debug("Target '{}' contains value for merged key '{}', unmerging '{}'",
-                    target.path(), setKey, setValue);
                 Merger merger = Merger.startingWith(resultSourceData.get(setKey));
                 merger.unmerge(setValue);
                 resultSourceData.put(setKey, merger.getMerged());
+                trace.record(target.path(), Decision.UNMERGED, setKey, setValue, change);
               } else {
-                log.debug("Target '{}' contains value for non-merged key {}, removing.",
-                    target.path(), setKey);
                 resultSourceData.remove(setKey);
+                trace.record(target.path(), Decision.REMOVED_REDUNDANT, setKey, setValue, change);
               }
+            } else {
+              trace.record(target.path(), Decision.INHERITED, setKey, setValue, change);
             }
             continue;
           }
@@ -141,30 +210,132 @@ public class Monarch {
         Object currentValue = resultSourceData.get(setKey);
 
         if (mergeKeys.contains(setKey) && currentValue != null) {
-          log.debug("Target '{}' already contains merged key '{}', " +
-                  "merging with desired value: {}",
-              target.path(), setKey, setValue);
           Merger merger = Merger.startingWith(currentValue);
           merger.merge(setValue);
           newValue = merger.getMerged();
+          trace.record(target.path(), Decision.MERGED, setKey, newValue, change);
         } else {
           newValue = setValue;
+          trace.record(target.path(), Decision.PUT, setKey, newValue, change);
         }
 
-        log.debug("Putting <{}: {}> in '{}'", setKey, newValue, target.path());
         resultSourceData.put(setKey, newValue);
       }
 
       // TODO: Support removing nested keys (keys in a hash)
       for (String key : change.remove()) {
-        // TODO: log
         resultSourceData.remove(key);
+        trace.record(target.path(), Decision.REMOVED, key, null, change);
       }
     }
 
     return resultSourceData;
   }
 
+  /**
+   * Computes the flattened data of each source in {@code hierarchy}: every key:value pair it
+   * inherits, the same as {@link DataLookupFromMap#lookup(String)} would look up for each key.
+   * Sources are passed to {@code consumer} in depth order as they are computed, so only the
+   * flattened data of sources with descendants is retained.
+   *
+   * <p>Rather than looking up each key through a source's lineage, each source's flattened data
+   * is derived from the already flattened data of the rest of its lineage, so flattening scales
+   * with the size of the data rather than with keys &times; depth.
+   *
+   * @param data A map of sources to key:value pairs representing the existing state of the data.
+   * @param mergeKeys See {@link #generateSources(Source, Iterable, Map, Set)}.
+   * @param consumer Accepts each source and its flattened data. The data may not be modified.
+   */
+  public void flatten(Hierarchy hierarchy, Map<String, Map<String, Object>> data,
+      Set<String> mergeKeys, BiConsumer<Source, Map<String, Object>> consumer) {
+    flatten(hierarchy, data, mergeKeys, false, consumer);
+  }
+
+  /**
+   * Like {@link #flatten(Hierarchy, Map, Set, BiConsumer)}, but only passes sources without
+   * descendants (the leaves of the hierarchy) to {@code consumer}.
+   */
+  public void flattenLeaves(Hierarchy hierarchy, Map<String, Map<String, Object>> data,
+      Set<String> mergeKeys, BiConsumer<Source, Map<String, Object>> consumer) {
+    flatten(hierarchy, data, mergeKeys, true, consumer);
+  }
+
+  private void flatten(Hierarchy hierarchy, Map<String, Map<String, Object>> data,
+      Set<String> mergeKeys, boolean leavesOnly, BiConsumer<Source, Map<String, Object>> consumer) {
+    List<Source> sources = hierarchy.allSources();
+    Set<String> parents = new HashSet<>();
+
+    for (Source source : sources) {
+      List<Source> lineage = source.lineage();
+      for (Source ancestor : lineage.subList(1, lineage.size())) {
+        parents.add(ancestor.path());
+      }
+    }
+
+    // Lineages in dynamic hierarchies do not always continue with their parent's lineage, so
+    // flattened data is remembered by the whole remainder of a lineage rather than by source.
+    Map<List<String>, Map<String, Object>> flattenedByLineage = new HashMap<>();
+
+    for (Source source : sources) {
+      boolean isParent = parents.contains(source.path());
+
+      if (leavesOnly && isParent) {
+        // Computed when its descendants need it.
+        continue;
+      }
+
+      List<String> lineage = Sources.pathsOf(source.lineage());
+      Map<String, Object> flattened = flattened(lineage, 0, data, mergeKeys, flattenedByLineage);
+
+      if (!isParent) {
+        // Only needed for its descendants, which it has none of.
+        flattenedByLineage.remove(lineage);
+      }
+
+      Stats.count("sources.flattened");
+      consumer.accept(source, Collections.unmodifiableMap(flattened));
+    }
+  }
+
+  private static Map<String, Object> flattened(List<String> lineage, int from,
+      Map<String, Map<String, Object>> data, Set<String> mergeKeys,
+      Map<List<String>, Map<String, Object>> flattenedByLineage) {
+    if (from == lineage.size()) {
+      return Collections.emptyMap();
+    }
+
+    List<String> remainder = lineage.subList(from, lineage.size());
+    Map<String, Object> flattened = flattenedByLineage.get(remainder);
+
+    if (flattened != null) {
+      return flattened;
+    }
+
+    Map<String, Object> inherited = flattened(lineage, from + 1, data, mergeKeys,
+        flattenedByLineage);
+    Map<String, Object> own = data.getOrDefault(lineage.get(from), Collections.emptyMap());
+
+    flattened = new HashMap<>(inherited);
+
+    for (Map.Entry<String, Object> entry : own.entrySet()) {
+      String key = entry.getKey();
+
+      if (mergeKeys.contains(key)) {
+        // Same order as DataLookupFromMap: start with nearest, merge in further.
+        Merger merger = Merger.startingWith(entry.getValue());
+        if (inherited.containsKey(key)) {
+          merger.merge(inherited.get(key));
+        }
+        flattened.put(key, merger.getMerged());
+      } else {
+        flattened.put(key, entry.getValue());
+      }
+    }
+
+    flattenedByLineage.put(new ArrayList<>(remainder), flattened);
+    return flattened;
+  }
+
   private Optional<Change> findChangeForSource(Source source, Iterable<Change> changes) {
     return StreamSupport.stream(changes.spliterator(), false)
         .filter(c -> source.isTargetedBy(c.sourceSpec()))
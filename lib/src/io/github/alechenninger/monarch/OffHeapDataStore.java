@@ -0,0 +1,437 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Holds the data of many sources outside of the Java heap, as an alternative to a
+ * {@code Map<String, Map<String, Object>>} of sources to their data for very large hierarchies.
+ *
+ * <p>Keys and sources are interned to integer ids. Each key:value pair of a source is a cell
+ * addressed by its key id and source id in an off-heap hash table, pointing to the value, which
+ * is serialized with {@link BinaryValues} into an off-heap value buffer. The only per-cell memory
+ * on the heap is the key id in the owning source's row of key ids. Values are deserialized on
+ * every read, so this trades CPU for heap; it is not the right choice for small hierarchies.
+ *
+ * <p>Replacing a source's data with {@link #put(String, Map)} appends the new values. Space for
+ * the old values is not reclaimed until the store is discarded.
+ *
+ * <p>Off-heap memory is limited by {@code -XX:MaxDirectMemorySize}, which defaults to the maximum
+ * heap size. Not thread safe.
+ */
+public final class OffHeapDataStore {
+  /** Cell slots are: key id and source id as one long plus one (zero is empty), offset, length. */
+  private static final int SLOT_BYTES = 16;
+  private static final int DELETED = -1;
+  private static final int INITIAL_SLOTS = 1024;
+  private static final int INITIAL_VALUE_BYTES = 64 * 1024;
+
+  private final Map<String, Integer> keyIds = new HashMap<>();
+  private final List<String> keys = new ArrayList<>();
+  private final Map<String, Integer> sourceIds = new HashMap<>();
+  private final List<String> sources = new ArrayList<>();
+
+  /** Key ids of each source, indexed by source id. Null if the source has no data. */
+  private int[][] rows = new int[16][];
+
+  private ByteBuffer cells = ByteBuffer.allocateDirect(INITIAL_SLOTS * SLOT_BYTES);
+  private int slotCount = INITIAL_SLOTS;
+  /** Occupied or deleted slots. */
+  private int usedSlots = 0;
+
+  private ByteBuffer values = ByteBuffer.allocateDirect(INITIAL_VALUE_BYTES);
+
+  private final ByteArrayOutputStream valueBytes = new ByteArrayOutputStream();
+  private final DataOutputStream valueOut = new DataOutputStream(valueBytes);
+
+  public static OffHeapDataStore fromMap(Map<String, Map<String, Object>> data) {
+    OffHeapDataStore store = new OffHeapDataStore();
+    data.forEach(store::put);
+    return store;
+  }
+
+  /**
+   * Replaces any existing data for {@code source} with {@code data}.
+   *
+   * @throws IllegalArgumentException If a value cannot be serialized with {@link BinaryValues}.
+   */
+  public void put(String source, Map<String, Object> data) {
+    int sourceId = sourceIds.computeIfAbsent(source, s -> {
+      sources.add(s);
+      return sources.size() - 1;
+    });
+
+    if (sourceId >= rows.length) {
+      rows = Arrays.copyOf(rows, rows.length * 2);
+    }
+
+    int[] oldRow = rows[sourceId];
+
+    if (oldRow != null) {
+      for (int keyId : oldRow) {
+        remove(keyId, sourceId);
+      }
+    }
+
+    if (data == null || data.isEmpty()) {
+      rows[sourceId] = null;
+      return;
+    }
+
+    int[] row = new int[data.size()];
+    int i = 0;
+
+    for (Map.Entry<String, Object> entry : data.entrySet()) {
+      int keyId = keyIds.computeIfAbsent(entry.getKey(), k -> {
+        keys.add(k);
+        return keys.size() - 1;
+      });
+
+      row[i++] = keyId;
+      putCell(keyId, sourceId, entry.getValue());
+    }
+
+    rows[sourceId] = row;
+  }
+
+  /**
+   * @return A new, mutable copy of the data for {@code source}, which is empty if there is no
+   * data for the source.
+   */
+  public Map<String, Object> get(String source) {
+    return new HashMap<>(viewOf(source));
+  }
+
+  public boolean containsKey(String source, String key) {
+    Integer sourceId = sourceIds.get(source);
+    Integer keyId = keyIds.get(key);
+    return sourceId != null && keyId != null && findSlot(keyId, sourceId) >= 0;
+  }
+
+  /**
+   * @return The value of {@code key} in {@code source}, or null if there is none. Use
+   * {@link #containsKey(String, String)} to distinguish a null value from no value.
+   */
+  public Object get(String source, String key) {
+    Integer sourceId = sourceIds.get(source);
+    Integer keyId = keyIds.get(key);
+
+    if (sourceId == null || keyId == null) {
+      return null;
+    }
+
+    int slot = findSlot(keyId, sourceId);
+    return slot < 0 ? null : readValue(slot);
+  }
+
+  public Set<String> sources() {
+    return Collections.unmodifiableSet(sourceIds.keySet());
+  }
+
+  /**
+   * @return A read only view of sources to their data, whose values are deserialized as they are
+   * accessed. Suitable for {@link DataLookupFromMap} without copying the data onto the heap.
+   */
+  public Map<String, Map<String, Object>> asMap() {
+    return new AbstractMap<String, Map<String, Object>>() {
+      @Override
+      public boolean containsKey(Object source) {
+        return sourceIds.containsKey(source);
+      }
+
+      @Override
+      public Map<String, Object> get(Object source) {
+        return sourceIds.containsKey(source) ? viewOf((String) source) : null;
+      }
+
+      @Override
+      public Set<Entry<String, Map<String, Object>>> entrySet() {
+        return new AbstractSet<Entry<String, Map<String, Object>>>() {
+          @Override
+          public int size() {
+            return sources.size();
+          }
+
+          @Override
+          public Iterator<Entry<String, Map<String, Object>>> iterator() {
+            return sources.stream()
+                .map(s -> (Entry<String, Map<String, Object>>)
+                    new SimpleImmutableEntry<>(s, viewOf(s)))
+                .iterator();
+          }
+        };
+      }
+    };
+  }
+
+  /** @return A new, mutable copy of all data in the store on the heap. */
+  public Map<String, Map<String, Object>> toMap() {
+    Map<String, Map<String, Object>> map = new HashMap<>();
+    sources.forEach(s -> map.put(s, get(s)));
+    return map;
+  }
+
+  /** @return The number of bytes allocated outside of the heap. */
+  public long offHeapBytes() {
+    return (long) cells.capacity() + values.capacity();
+  }
+
+  @Override
+  public String toString() {
+    return "OffHeapDataStore{" +
+        "sources=" + sources.size() +
+        ", keys=" + keys.size() +
+        ", offHeapBytes=" + offHeapBytes() +
+        '}';
+  }
+
+  private Map<String, Object> viewOf(String source) {
+    Integer maybeSourceId = sourceIds.get(source);
+
+    if (maybeSourceId == null) {
+      return Collections.emptyMap();
+    }
+
+    int sourceId = maybeSourceId;
+
+    return new AbstractMap<String, Object>() {
+      @Override
+      public boolean containsKey(Object key) {
+        return key instanceof String && OffHeapDataStore.this.containsKey(source, (String) key);
+      }
+
+      @Override
+      public Object get(Object key) {
+        return key instanceof String ? OffHeapDataStore.this.get(source, (String) key) : null;
+      }
+
+      @Override
+      public Set<Entry<String, Object>> entrySet() {
+        int[] row = rows[sourceId] == null ? new int[0] : rows[sourceId];
+
+        return new AbstractSet<Entry<String, Object>>() {
+          @Override
+          public int size() {
+            return row.length;
+          }
+
+          @Override
+          public Iterator<Entry<String, Object>> iterator() {
+            return new Iterator<Entry<String, Object>>() {
+              int next = 0;
+
+              @Override
+              public boolean hasNext() {
+                return next < row.length;
+              }
+
+              @Override
+              public Entry<String, Object> next() {
+                if (!hasNext()) {
+                  throw new NoSuchElementException();
+                }
+
+                int keyId = row[next++];
+                return new SimpleImmutableEntry<>(keys.get(keyId),
+                    readValue(findSlot(keyId, sourceId)));
+              }
+            };
+          }
+        };
+      }
+    };
+  }
+
+  private void putCell(int keyId, int sourceId, Object value) {
+    valueBytes.reset();
+
+    try {
+      BinaryValues.write(value, valueOut);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    int length = valueBytes.size();
+    ensureValueCapacity(length);
+    int offset = values.position();
+    values.put(valueBytes.toByteArray());
+
+    if ((usedSlots + 1) * 2 > slotCount) {
+      rehash(slotCount * 2);
+    }
+
+    long cell = cellOf(keyId, sourceId);
+    int slot = slotFor(cell);
+
+    for (; ; slot = (slot + 1) & (slotCount - 1)) {
+      long slotCell = cells.getLong(slot * SLOT_BYTES);
+
+      if (slotCell == 0) {
+        usedSlots++;
+        break;
+      }
+
+      if (slotCell == cell + 1) {
+        break;
+      }
+    }
+
+    writeSlot(slot, cell, offset, length);
+  }
+
+  private void remove(int keyId, int sourceId) {
+    int slot = findSlot(keyId, sourceId);
+
+    if (slot >= 0) {
+      // Leave the cell in place so probing continues past it.
+      cells.putInt(slot * SLOT_BYTES + 12, DELETED);
+    }
+  }
+
+  private int findSlot(int keyId, int sourceId) {
+    long cell = cellOf(keyId, sourceId);
+
+    for (int slot = slotFor(cell); ; slot = (slot + 1) & (slotCount - 1)) {
+      long slotCell = cells.getLong(slot * SLOT_BYTES);
+
+      if (slotCell == 0) {
+        return -1;
+      }
+
+      if (slotCell == cell + 1) {
+        return cells.getInt(slot * SLOT_BYTES + 12) == DELETED ? -1 : slot;
+      }
+    }
+  }
+
+  private Object readValue(int slot) {
+    int offset = cells.getInt(slot * SLOT_BYTES + 8);
+    int length = cells.getInt(slot * SLOT_BYTES + 12);
+    ByteBuffer value = values.duplicate();
+    value.limit(offset + length).position(offset);
+
+    try {
+      return BinaryValues.read(new DataInputStream(new ByteBufferInputStream(value)));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void rehash(int newSlotCount) {
+    ByteBuffer oldCells = cells;
+    int oldSlotCount = slotCount;
+
+    cells = ByteBuffer.allocateDirect(Math.multiplyExact(newSlotCount, SLOT_BYTES));
+    slotCount = newSlotCount;
+    usedSlots = 0;
+
+    for (int oldSlot = 0; oldSlot < oldSlotCount; oldSlot++) {
+      long cell = oldCells.getLong(oldSlot * SLOT_BYTES) - 1;
+      int length = oldCells.getInt(oldSlot * SLOT_BYTES + 12);
+
+      if (cell < 0 || length == DELETED) {
+        continue;
+      }
+
+      int slot = slotFor(cell);
+      while (cells.getLong(slot * SLOT_BYTES) != 0) {
+        slot = (slot + 1) & (slotCount - 1);
+      }
+
+      writeSlot(slot, cell, oldCells.getInt(oldSlot * SLOT_BYTES + 8), length);
+      usedSlots++;
+    }
+  }
+
+  private void ensureValueCapacity(int length) {
+    if (values.remaining() >= length) {
+      return;
+    }
+
+    long required = (long) values.position() + length;
+
+    if (required > Integer.MAX_VALUE) {
+      throw new IllegalStateException("Off-heap value buffer cannot exceed 2GiB.");
+    }
+
+    int capacity = (int) Math.min(Integer.MAX_VALUE,
+        Math.max(required, (long) values.capacity() * 2));
+    ByteBuffer larger = ByteBuffer.allocateDirect(capacity);
+    values.flip();
+    larger.put(values);
+    values = larger;
+  }
+
+  private void writeSlot(int slot, long cell, int offset, int length) {
+    cells.putLong(slot * SLOT_BYTES, cell + 1);
+    cells.putInt(slot * SLOT_BYTES + 8, offset);
+    cells.putInt(slot * SLOT_BYTES + 12, length);
+  }
+
+  private int slotFor(long cell) {
+    long h = cell * 0x9E3779B97F4A7C15L;
+    return (int) (h >>> 32) & (slotCount - 1);
+  }
+
+  private static long cellOf(int keyId, int sourceId) {
+    return ((long) keyId << 32) | sourceId;
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+
+      int read = Math.min(len, buffer.remaining());
+      buffer.get(b, off, read);
+      return read;
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * Fingerprints every input that goes into generating a source: its own data, the data of its
+ * lineage, the changes targeting any source in its lineage, and the merge keys. Two sources with
+ * the same fingerprint generate the same data, so a source's generated data can be reused for as
+ * long as its fingerprint does not change.
+ *
+ * <p>A source inherits what its ancestors generate, if they are generated along with it, or else
+ * their data as is, so which of its ancestors are generated is part of its fingerprint too.
+ *
+ * <p>Like a Merkle tree, a source's fingerprint includes the fingerprints of its ancestors rather
+ * than their inputs, so each source's data and change is only hashed once no matter how many
+ * descendants it has. Editing a source or its change changes the fingerprint of only that source
+ * and its descendants.
+ *
+ * <p>Values are hashed in iteration order, so equal data in a different order fingerprints
+ * differently. That only costs regenerating a source which did not need it.
+ */
+public final class SourceFingerprints {
+  private final Iterable<Change> changes;
+  private final Map<String, Map<String, Object>> data;
+  private final byte[] mergeKeysHash;
+  private final Predicate<String> generated;
+  private final Map<String, String> fingerprints = new HashMap<>();
+  private final Map<String, Change> changesByPath = new HashMap<>();
+
+  /**
+   * @param changes Changes to fingerprint sources with, at most one per source.
+   * @param data A map of sources to their existing key:value pairs.
+   * @param mergeKeys See {@link Monarch#generateSources(Source, Iterable, Map, Set)}.
+   */
+  public SourceFingerprints(Iterable<Change> changes, Map<String, Map<String, Object>> data,
+      Set<String> mergeKeys) {
+    this(changes, data, mergeKeys, path -> true);
+  }
+
+  /**
+   * @param generated Paths of the sources generated together. Ancestors of a source which are not
+   *                  generated are inherited from as is.
+   * @see #SourceFingerprints(Iterable, Map, Set)
+   */
+  public SourceFingerprints(Iterable<Change> changes, Map<String, Map<String, Object>> data,
+      Set<String> mergeKeys, Set<String> generated) {
+    this(changes, data, mergeKeys, generated::contains);
+  }
+
+  private SourceFingerprints(Iterable<Change> changes, Map<String, Map<String, Object>> data,
+      Set<String> mergeKeys, Predicate<String> generated) {
+    this.changes = changes;
+    this.data = data;
+    this.mergeKeysHash = hash(new TreeSet<>(mergeKeys));
+    this.generated = generated;
+  }
+
+  /**
+   * @return A hex encoded fingerprint of everything {@code source} would be generated from.
+   * @throws IllegalArgumentException If more than one change targets a source in its lineage, or
+   * its data contains a value which cannot be hashed.
+   */
+  public String of(Source source) {
+    String fingerprint = fingerprints.get(source.path());
+
+    if (fingerprint != null) {
+      return fingerprint;
+    }
+
+    MessageDigest digest = newDigest();
+    List<Source> lineage = source.lineage();
+
+    update(digest, source.path().getBytes(StandardCharsets.UTF_8));
+    update(digest, mergeKeysHash);
+    update(digest, hash(data.getOrDefault(source.path(), Collections.emptyMap())));
+    update(digest, changeFor(source)
+        .map(change -> hash(change.set(), new TreeSet<>(change.remove())))
+        .orElse(new byte[0]));
+
+    for (Source ancestor : lineage.subList(1, lineage.size())) {
+      update(digest, of(ancestor).getBytes(StandardCharsets.UTF_8));
+      update(digest, new byte[] {(byte) (generated.test(ancestor.path()) ? 1 : 0)});
+    }
+
+    fingerprint = hex(digest.digest());
+    fingerprints.put(source.path(), fingerprint);
+    Stats.count("sources.fingerprinted");
+    return fingerprint;
+  }
+
+  private Optional<Change> changeFor(Source source) {
+    if (!changesByPath.containsKey(source.path())) {
+      Change found = null;
+
+      for (Change change : changes) {
+        if (source.isTargetedBy(change.sourceSpec())) {
+          if (found != null) {
+            throw new IllegalArgumentException("Expected at most one change with matching " +
+                "source in list of changes, but got: " + changes);
+          }
+
+          found = change;
+        }
+      }
+
+      changesByPath.put(source.path(), found);
+    }
+
+    return Optional.ofNullable(changesByPath.get(source.path()));
+  }
+
+  private static byte[] hash(Object... values) {
+    MessageDigest digest = newDigest();
+
+    try (DataOutputStream out = new DataOutputStream(new DigestOutput(digest))) {
+      for (Object value : values) {
+        BinaryValues.write(value, out);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return digest.digest();
+  }
+
+  /** Length prefixes each part, so that different parts can never hash the same. */
+  private static void update(MessageDigest digest, byte[] bytes) {
+    digest.update((byte) (bytes.length >>> 24));
+    digest.update((byte) (bytes.length >>> 16));
+    digest.update((byte) (bytes.length >>> 8));
+    digest.update((byte) bytes.length);
+    digest.update(bytes);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  private static class DigestOutput extends OutputStream {
+    private final MessageDigest digest;
+
+    DigestOutput(MessageDigest digest) {
+      this.digest = digest;
+    }
+
+    @Override
+    public void write(int b) {
+      digest.update((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      digest.update(b, off, len);
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.alechenninger.monarch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings of phases of work and counts of interesting events, such as sources parsed or cache
+ * hits, collected while running monarch.
+ *
+ * <p>Collection is off unless {@link #start()} is called, in which case every phase and counter
+ * is recorded in the {@link #current()} stats until {@link #stop()}. When off, timing a phase or
+ * counting an event does nothing, so instrumentation may be left in hot code.
+ */
+public final class Stats {
+  private final boolean enabled;
+  private final Map<String, Phase> phases = new ConcurrentHashMap<>();
+  private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+  /** Order phases and counters were first seen, so reports read roughly in execution order. */
+  private final List<String> phaseOrder = Collections.synchronizedList(new ArrayList<>());
+  private final List<String> counterOrder = Collections.synchronizedList(new ArrayList<>());
+
+  private static final Stats DISABLED = new Stats(false);
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private static final Timer NO_OP_TIMER = () -> {};
+
+  private static volatile Stats current = DISABLED;
+
+  private Stats(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /** Starts collecting stats in a new, empty {@link #current()} instance, and returns it. */
+  public static Stats start() {
+    return current = new Stats(true);
+  }
+
+  /** Stops collecting stats. Any instance previously returned retains what it collected. */
+  public static void stop() {
+    current = DISABLED;
+  }
+
+  public static Stats current() {
+    return current;
+  }
+
+  /**
+   * Times a phase in the current stats until the returned timer is closed. Phases may nest, in
+   * which case the outer phase's time includes the inner phase's. Timing the same phase many
+   * times accumulates.
+   *
+   * <p>Timers are meant to be closed by try-with-resources without being referenced, which
+   * javac's "try" lint warns about, so methods which time phases suppress it.
+   */
+  public static Timer time(String phase) {
+    return current.timer(phase);
+  }
+
+  /** Adds one to a counter in the current stats. */
+  public static void count(String counter) {
+    current.add(counter, 1);
+  }
+
+  /** Adds {@code amount} to a counter in the current stats. */
+  public static void count(String counter, long amount) {
+    current.add(counter, amount);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public Timer timer(String phase) {
+    if (!enabled) {
+      return NO_OP_TIMER;
+    }
+
+    long startWall = System.nanoTime();
+    long startCpu = cpuNanos();
+
+    return () -> {
+      long cpu = startCpu < 0 ? -1 : cpuNanos() - startCpu;
+      phase(phase).record(System.nanoTime() - startWall, cpu);
+    };
+  }
+
+  public void add(String counter, long amount) {
+    if (!enabled) {
+      return;
+    }
+
+    counters.computeIfAbsent(counter, c -> {
+      counterOrder.add(c);
+      return new AtomicLong();
+    }).addAndGet(amount);
+  }
+
+  /** Phases in the order they were first timed. */
+  public List<Phase> phases() {
+    synchronized (phaseOrder) {
+      List<Phase> ordered = new ArrayList<>(phaseOrder.size());
+      for (String name : phaseOrder) {
+        ordered.add(phases.get(name));
+      }
+      return ordered;
+    }
+  }
+
+  /** Counters in the order they were first counted. */
+  public Map<String, Long> counters() {
+    synchronized (counterOrder) {
+      Map<String, Long> ordered = new LinkedHashMap<>();
+      for (String name : counterOrder) {
+        ordered.put(name, counters.get(name).get());
+      }
+      return ordered;
+    }
+  }
+
+  /**
+   * @return A map of {@code phases}, each with its {@code count}, {@code wallMillis}, and
+   * {@code cpuMillis} (if the JVM supports measuring thread CPU time), and {@code counters}.
+   */
+  public Map<String, Object> toMap() {
+    Map<String, Object> phaseMaps = new LinkedHashMap<>();
+
+    for (Phase phase : phases()) {
+      Map<String, Object> phaseMap = new LinkedHashMap<>();
+      phaseMap.put("count", phase.count());
+      phaseMap.put("wallMillis", phase.wallMillis());
+      if (phase.cpuMillis() >= 0) {
+        phaseMap.put("cpuMillis", phase.cpuMillis());
+      }
+      phaseMaps.put(phase.name(), phaseMap);
+    }
+
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("phases", phaseMaps);
+    map.put("counters", counters());
+    return map;
+  }
+
+  private Phase phase(String name) {
+    return phases.computeIfAbsent(name, n -> {
+      phaseOrder.add(n);
+      return new Phase(n);
+    });
+  }
+
+  private static long cpuNanos() {
+    return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+  }
+
+  /** Stops timing a phase when closed. */
+  public interface Timer extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  public static final class Phase {
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong wallNanos = new AtomicLong();
+    private final AtomicLong cpuNanos = new AtomicLong();
+
+    private Phase(String name) {
+      this.name = name;
+    }
+
+    void record(long wall, long cpu) {
+      count.incrementAndGet();
+      wallNanos.addAndGet(wall);
+      if (cpu < 0) {
+        cpuNanos.set(Long.MIN_VALUE);
+      } else {
+        cpuNanos.addAndGet(cpu);
+      }
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public long count() {
+      return count.get();
+    }
+
+    public double wallMillis() {
+      return toMillis(wallNanos.get());
+    }
+
+    /** Negative if CPU time could not be measured. */
+    public double cpuMillis() {
+      long cpu = cpuNanos.get();
+      return cpu < 0 ? -1 : toMillis(cpu);
+    }
+
+    /** Milliseconds, rounded to microseconds. */
+    private static double toMillis(long nanos) {
+      return Math.round(nanos / 1_000d) / 1_000d;
+    }
+  }
+}
@@ -24,38 +24,23 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public class Variable {
   private final String name;
-  private final List<Assignable> assignables;
+  private final Domain domain;
   private final Inventory inventory;
 
   private final Map<String, Assignment> cachedAssignments = new HashMap<>();
 
   public Variable(String name, List<Assignable> assignables, Inventory inventory) {
+    this(name, Domain.of(assignables), inventory);
+  }
+
+  public Variable(String name, Domain domain, Inventory inventory) {
     this.name = Objects.requireNonNull(name, "name");
-    this.assignables = Objects.requireNonNull(assignables, "assignables");
+    this.domain = Objects.requireNonNull(domain, "domain");
     this.inventory = Objects.requireNonNull(inventory, "inventory");
-
-    if (assignables.isEmpty()) {
-      throw new IllegalArgumentException("Must provide at least one assignable value for " +
-          "variable. variable=" + name);
-    }
-
-    List<Map.Entry<String, Long>> duplicates = assignables.stream()
-        .collect(Collectors.groupingBy(Assignable::value, Collectors.counting()))
-        .entrySet()
-        .stream()
-        .filter(entry -> entry.getValue() > 1)
-        .collect(Collectors.toList());
-
-    if (!duplicates.isEmpty()) {
-      throw new IllegalArgumentException("List of assignables for variable <" + name + "> " +
-          "contains duplicate values. Values to occurrences: " + duplicates);
-    }
   }
 
   public String name() {
@@ -67,10 +52,18 @@ public class Variable {
       return Collections.singleton(assignments.forVariable(name).value());
     }
 
-    Set<String> values = new LinkedHashSet<>(assignables.size());
+    if (!domain.isEnumerable()) {
+      throw new IllegalStateException("Cannot list possible values of variable <" + name + "> " +
+          "because its domain (" + domain + ") cannot be enumerated. Assign this variable " +
+          "explicitly, for example by targeting a specific source.");
+    }
+
+    Set<String> values = new LinkedHashSet<>();
 
-    for (Assignable assignable : assignables) {
-      Assignment assignment = assign(assignable.value());
+    for (Assignable assignable : domain.assignables()) {
+      // Avoid looking the value back up in the domain; that may mean rereading it.
+      Assignment assignment = cachedAssignments.computeIfAbsent(assignable.value(),
+          value -> new Assignment(inventory, this, assignable));
       if (assignment.conflictsWith(assignments)) continue;
       values.add(assignment.value());
     }
@@ -84,9 +77,7 @@ public class Variable {
     if (cachedAssignments.containsKey(value)) {
       assignment = cachedAssignments.get(value);
     } else {
-      assignment = assignables.stream()
-          .filter(a -> a.value().equals(value))
-          .findFirst()
+      assignment = domain.find(value)
           .map(a -> new Assignment(inventory, this, a))
           .orElse(null);
       cachedAssignments.put(value, assignment);
@@ -106,7 +97,7 @@ public class Variable {
   public String toString() {
     return "Variable{" +
         "name='" + name + '\'' +
-        ", assignables=" + assignables +
+        ", domain=" + domain +
         ", inventory=" + inventory +
         '}';
   }
@@ -117,12 +108,12 @@ public class Variable {
     if (o == null || getClass() != o.getClass()) return false;
     Variable variable = (Variable) o;
     return Objects.equals(name, variable.name) &&
-        Objects.equals(assignables, variable.assignables) &&
+        Objects.equals(domain, variable.domain) &&
         Objects.equals(inventory, variable.inventory);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(name, assignables, inventory);
+    return Objects.hash(name, domain, inventory);
   }
 }
@@ -0,0 +1,102 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import io.github.alechenninger.monarch.BracePattern
+import org.junit.Test
+
+class BracePatternTest {
+  static List<String> expand(String pattern) {
+    return BracePattern.parse(pattern).asList()
+  }
+
+  @Test
+  void shouldExpandAlternativesWithLeftmostGroupVaryingSlowest() {
+    assert expand('{a,b}-{1,2}') == ['a-1', 'a-2', 'b-1', 'b-2']
+  }
+
+  @Test
+  void shouldExpandNestedAndEmptyAlternatives() {
+    assert expand('foo{,bar{1,2}}') == ['foo', 'foobar1', 'foobar2']
+  }
+
+  @Test
+  void shouldExpandRanges() {
+    assert expand('{1..3}') == ['1', '2', '3']
+    assert expand('{3..1}') == ['3', '2', '1']
+    assert expand('{01..10..3}') == ['01', '04', '07', '10']
+    assert expand('{-1..1}') == ['-1', '0', '1']
+    assert expand('{a..e..2}') == ['a', 'c', 'e']
+  }
+
+  @Test
+  void shouldKeepBracesWithoutCommaOrRangeLiterally() {
+    assert expand('{a}') == ['{a}']
+    assert expand('{}') == ['{}']
+    assert expand('{a..5}') == ['{a..5}']
+    assert expand('{a{1,2}}') == ['{a1}', '{a2}']
+    assert expand('{a,b') == ['{a,b']
+  }
+
+  @Test
+  void shouldRemoveEscapes() {
+    assert expand('foo\\{,bar\\}') == ['foo{,bar}']
+    assert expand('{a\\,b,c}') == ['a,b', 'c']
+  }
+
+  @Test
+  void shouldNotEnumerateToComputeSizeOrIndex() {
+    def pattern = BracePattern.parse('host-{0000000001..9999999999}-{a..z}')
+
+    assert pattern.size() == 9999999999L * 26
+    assert pattern.get(pattern.size() - 1) == 'host-9999999999-z'
+    assert pattern.get(27) == 'host-0000000002-b'
+  }
+
+  @Test
+  void shouldIterateInTheSameOrderAsIndexing() {
+    def pattern = BracePattern.parse('{x,y{1..3}}z{,!}')
+
+    assert pattern.iterator().toList() == (0..<pattern.size()).collect { pattern.get(it) }
+  }
+
+  @Test
+  void shouldMatchExpansionsWithoutEnumerating() {
+    def pattern = BracePattern.parse('host-{0000000001..9999999999..2}-{a..z}{,.example.com}')
+
+    assert pattern.matches('host-0123456789-q')
+    assert pattern.matches('host-0123456789-q.example.com')
+    assert !pattern.matches('host-0123456788-q')
+    assert !pattern.matches('host-123456789-q')
+    assert !pattern.matches('host-0123456789-Q')
+    assert !pattern.matches('host-0123456789-q.example')
+  }
+
+  @Test
+  void shouldMatchAlternativesByBacktracking() {
+    def pattern = BracePattern.parse('{a,ab}{bc,c}')
+
+    assert pattern.matches('abc')
+    assert pattern.matches('abbc')
+    assert !pattern.matches('ab')
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  void shouldRejectListingMoreExpansionsThanFitInAList() {
+    expand('{1..100000}{1..100000}')
+  }
+}
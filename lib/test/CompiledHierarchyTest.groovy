@@ -0,0 +1,172 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import io.github.alechenninger.monarch.CompiledHierarchy
+import io.github.alechenninger.monarch.Hierarchy
+import io.github.alechenninger.monarch.SourceSpec
+import org.junit.Test
+import org.yaml.snakeyaml.Yaml
+
+class CompiledHierarchyTest {
+  def yaml = new Yaml()
+
+  def hierarchy = Hierarchy.fromStringListOrMap(yaml.load('''
+sources:
+  - common
+  - teams/%{team}
+  - teams/%{team}/%{environment}
+  - nodes/%{hostname}
+inventory:
+  hostname:
+    - foo.com:
+        team: teamA
+        environment: prod
+    - bar.com
+  team:
+    - teamA
+    - teamB
+  environment:
+    - qa
+    - prod
+'''))
+
+  CompiledHierarchy roundTrip(CompiledHierarchy compiled, Closure<Hierarchy> original) {
+    def bytes = new ByteArrayOutputStream()
+    compiled.writeTo(new DataOutputStream(bytes))
+    return CompiledHierarchy.readFrom(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), original)
+  }
+
+  @Test
+  void shouldReadBackSameSourcesLineageAndDescendants() {
+    def compiled = roundTrip(CompiledHierarchy.compile(hierarchy), { hierarchy })
+
+    assert compiled.allSources()*.path() == hierarchy.allSources()*.path()
+
+    hierarchy.allSources().each { source ->
+      def compiledSource = compiled.sourceFor(source.path()).get()
+      assert compiledSource.lineage()*.path() == source.lineage()*.path()
+      assert compiledSource.descendants()*.path() == source.descendants()*.path()
+    }
+  }
+
+  @Test
+  void shouldFindSourcesByVariablesWithoutOriginalHierarchy() {
+    def compiled = roundTrip(CompiledHierarchy.compile(hierarchy), {
+      throw new AssertionError("Should not need original hierarchy")
+    })
+
+    assert compiled.sourceFor([team: 'teamB', environment: 'qa']).get().path() == 'teams/teamB/qa'
+    assert compiled.sourceFor([hostname: 'bar.com']).get().path() == 'nodes/bar.com'
+    assert compiled.sourceFor('teams/teamA').get()
+        .isTargetedBy(SourceSpec.byVariables([team: 'teamA']))
+  }
+
+  @Test
+  void shouldFallBackToOriginalHierarchyForVariablesWhichImplyOthers() {
+    def implying = Hierarchy.fromStringListOrMap(yaml.load('''
+sources:
+  - teams/%{team}
+  - teams/%{team}/%{app}
+inventory:
+  team:
+    - teamA:
+        app: store
+    - teamB
+  app:
+    - store
+    - blog
+'''))
+    def parsed = 0
+    def compiled = roundTrip(CompiledHierarchy.compile(implying), { parsed++; implying })
+
+    def source = compiled.sourceFor([team: 'teamA']).get()
+
+    assert source.path() == 'teams/teamA'
+    assert source.is(compiled.sourceFor([team: 'teamA', app: 'store']).get())
+    assert compiled.sourceFor([team: 'teamC']) == implying.sourceFor([team: 'teamC'])
+    assert parsed == 1
+  }
+
+  @Test
+  void shouldReportConflictingImpliedValuesAsErrors() {
+    def conflicted = Hierarchy.fromStringListOrMap(yaml.load('''
+sources:
+  - teams/%{team}
+inventory:
+  team:
+    - teamA:
+        app: store
+    - teamB
+  app:
+    - store:
+        team: teamB
+    - blog
+'''))
+    def errors = []
+    def warnings = []
+
+    CompiledHierarchy.validate(conflicted, { errors << it }, { warnings << it })
+
+    assert errors.size() == 2
+    assert errors.every { it.contains('team=teamA') || it.contains('app=store') }
+  }
+
+  @Test
+  void shouldReportShadowedSourcesAsWarnings() {
+    def shadowed = Hierarchy.fromStringListOrMap(yaml.load('''
+sources:
+  - common
+  - '%{env}'
+inventory:
+  env:
+    - common
+    - prod
+'''))
+    def errors = []
+    def warnings = []
+
+    CompiledHierarchy.validate(shadowed, { errors << it }, { warnings << it })
+
+    assert errors.isEmpty()
+    assert warnings.size() == 1
+    assert warnings[0].contains("'common'")
+  }
+
+  @Test
+  void shouldReportNodesWhoseValuesCannotBeListedAsErrors() {
+    def unlisted = Hierarchy.fromStringListOrMap(yaml.load('''
+sources:
+  - common
+  - teams/%{team}
+  - teams/%{team}/%{host}
+inventory:
+  team: [a, b]
+  host:
+    regex: 'web-[0-9]+'
+'''))
+    def errors = []
+    def warnings = []
+
+    CompiledHierarchy.validate(unlisted, { errors << it }, { warnings << it })
+
+    assert errors.size() == 1
+    assert errors[0].contains('teams/%{team}/%{host}')
+    assert errors[0].contains('<host>')
+  }
+}
@@ -1,4 +1,5 @@
 import io.github.alechenninger.monarch.Assignable
+import io.github.alechenninger.monarch.Domain
 import io.github.alechenninger.monarch.Hierarchy
 import io.github.alechenninger.monarch.Inventory
 import io.github.alechenninger.monarch.SourceSpec
@@ -553,4 +554,115 @@ inventory:
 
     assert manuallyExpanded == withBraces
   }
+
+  @Test
+  void findsSourcesByPathForVariablesDefinedByRegexWithoutEnumerating() {
+    def hierarchy = Hierarchy.fromStringListOrMap(yaml.load('''
+sources:
+  - common
+  - team/%{team}
+  - team/%{team}/%{host}
+inventory:
+  team: [a, b]
+  host:
+    regex: 'web-[0-9]+\\.example\\.com'
+'''))
+
+    def source = hierarchy.sourceFor('team/b/web-42.example.com').get()
+
+    assert source.lineage()*.path() == ['team/b/web-42.example.com', 'team/b', 'common']
+    assert !hierarchy.sourceFor('team/b/db-42.example.com').isPresent()
+    assert !hierarchy.sourceFor('team/c/web-42.example.com').isPresent()
+    assert hierarchy.sourceFor(['team': 'a', 'host': 'web-1.example.com']).isPresent()
+  }
+
+  @Test(expected = IllegalStateException.class)
+  void cannotListAllSourcesForVariablesDefinedByRegex() {
+    def hierarchy = Hierarchy.fromStringListOrMap(yaml.load('''
+sources:
+  - '%{host}'
+inventory:
+  host:
+    regex: 'web-[0-9]+'
+'''))
+
+    hierarchy.allSources()
+  }
+
+  @Test
+  void usesRangesAsVariableDomains() {
+    def hierarchy = Hierarchy.fromStringListOrMap(yaml.load('''
+sources:
+  - common
+  - 'shard/%{shard}'
+inventory:
+  shard:
+    range: 01..50000..7
+'''))
+
+    assert hierarchy.sourceFor('shard/00008').isPresent()
+    assert !hierarchy.sourceFor('shard/00009').isPresent()
+    assert !hierarchy.sourceFor('shard/8').isPresent()
+    assert hierarchy.allSources().size() == 1 + 7143
+  }
+
+  @Test
+  void usesBracePatternsAsVariableDomainsWithoutExpandingThem() {
+    def hierarchy = Hierarchy.fromStringListOrMap(yaml.load('''
+sources:
+  - common
+  - 'hosts/%{host}'
+inventory:
+  host: ['web{0001..9999}.{east,west}', db]
+'''))
+
+    assert hierarchy.sourceFor('hosts/web0042.west').isPresent()
+    assert hierarchy.sourceFor('hosts/db').isPresent()
+    assert !hierarchy.sourceFor('hosts/web42.west').isPresent()
+    assert !hierarchy.sourceFor('hosts/web0042.north').isPresent()
+    assert hierarchy.allSources().size() == 1 + 9999 * 2 + 1
+    assert Domain.fromStringMapOrList('web{1..1001}') instanceof Domain.Expanded
+    assert Domain.fromStringMapOrList(['web{1..2}']) == Domain.of([Assignable.of('web1'),
+        Assignable.of('web2')])
+  }
+
+  @Test
+  void usesLinesOfFileAsVariableDomains() {
+    def hosts = File.createTempFile('hosts', '.txt')
+    hosts.deleteOnExit()
+    hosts.text = '''# production hosts
+foo.com
+''' + '\n' + '''bar.com
+'''
+
+    def hierarchy = Hierarchy.fromStringListOrMap(yaml.load("""
+sources:
+  - common
+  - 'hosts/%{host}'
+inventory:
+  host:
+    file: '${hosts.absolutePath}'
+"""))
+
+    assert hierarchy.sourceFor('hosts/bar.com').isPresent()
+    assert !hierarchy.sourceFor('hosts/baz.com').isPresent()
+    assert hierarchy.allSources()*.path() == ['common', 'hosts/foo.com', 'hosts/bar.com']
+  }
+
+  @Test
+  void findsSourcesByPathWhenVariableValuesAreAmbiguousWithTheExpression() {
+    def hierarchy = Hierarchy.fromStringListOrMap(yaml.load('''
+sources:
+  - '%{a}-%{b}'
+inventory:
+  a: [x, x-y]
+  b:
+    - y-z
+    - z:
+        a: x-y
+'''))
+
+    assert hierarchy.sourceFor('x-y-z').get().path() == 'x-y-z'
+    assert hierarchy.sourceFor(['a': 'x-y', 'b': 'z']).get().path() == 'x-y-z'
+  }
 }
@@ -0,0 +1,70 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import io.github.alechenninger.monarch.Jfr
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+
+import java.nio.file.Files
+
+class JfrTest {
+  @Before
+  void requireJfr() {
+    Assume.assumeTrue("JFR is not available in this JVM", Jfr.available)
+  }
+
+  @Test
+  void shouldRecordCommittedEventsWithFields() {
+    def file = Files.createTempFile('monarch', '.jfr')
+
+    try {
+      def recording = Jfr.record(file)
+      Jfr.begin(Jfr.SOURCE_PARSE).set('path', 'foo.yaml').set('bytes', 10L).set('keys', 2).commit()
+      recording.close()
+
+      def events = Class.forName('jdk.jfr.consumer.RecordingFile').readAllEvents(file)
+          .findAll { it.eventType.name == 'monarch.SourceParse' }
+
+      assert events.size() == 1
+      assert events[0].getString('path') == 'foo.yaml'
+      assert events[0].getLong('bytes') == 10L
+      assert events[0].getInt('keys') == 2
+    } finally {
+      Files.deleteIfExists(file)
+    }
+  }
+
+  @Test
+  void shouldNotRecordEventsWithoutARecording() {
+    assert !Jfr.begin(Jfr.SOURCE_WRITE).enabled
+  }
+
+  @Test(expected = IllegalArgumentException)
+  void shouldRejectUnknownFields() {
+    def file = Files.createTempFile('monarch', '.jfr')
+    def recording = Jfr.record(file)
+
+    try {
+      Jfr.begin(Jfr.HIERARCHY_RENDER).set('path', 'foo.yaml')
+    } finally {
+      recording.close()
+      Files.deleteIfExists(file)
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import io.github.alechenninger.monarch.Hierarchy
+import io.github.alechenninger.monarch.KeyIndex
+import org.junit.Test
+import org.yaml.snakeyaml.Yaml
+
+class KeyIndexTest {
+  def yaml = new Yaml()
+  def hierarchy = Hierarchy.fromStringListOrMap(yaml.load('''
+sources:
+  - global.yaml
+  - team/%{team}.yaml
+  - team/%{team}/%{environment}.yaml
+inventory:
+  team: [a, b]
+  environment: [qa, prod]
+'''))
+  def data = [
+      'global.yaml': ['version': 1, 'hosts': ['global']],
+      'team/a.yaml': ['version': 2, 'hosts': ['a']],
+      'team/a/prod.yaml': ['hosts': ['a-prod']],
+      'team/b/qa.yaml': ['version': null],
+  ]
+  def index = KeyIndex.fromData(hierarchy, data)
+
+  @Test
+  void shouldFindSourcesOfKeyInDepthOrder() {
+    assert index.sourcesOf('version').collect { [it.source(), it.value()] } ==
+        [['global.yaml', 1], ['team/a.yaml', 2], ['team/b/qa.yaml', null]]
+    assert index.sourcesOf('unknown').isEmpty()
+  }
+
+  @Test
+  void shouldLookupInheritedValueLikeDataLookup() {
+    def source = hierarchy.sourceFor('team/a/prod.yaml').get()
+
+    assert index.lookup(source, 'version', [] as Set) == Optional.of(2)
+    assert index.lookup(source, 'hosts', [] as Set) == Optional.of(['a-prod'])
+    assert index.lookup(source, 'hosts', ['hosts'] as Set).get() as Set ==
+        ['a-prod', 'a', 'global'] as Set
+  }
+
+  @Test
+  void shouldFindValuesInheritedByLeaves() {
+    def inherited = index.inheritedByLeaves(hierarchy, 'version', [] as Set)
+
+    assert inherited == [
+        'team/a/qa.yaml': 2,
+        'team/a/prod.yaml': 2,
+        'team/b/qa.yaml': null,
+        'team/b/prod.yaml': 1,
+    ]
+  }
+
+  @Test
+  void shouldNotTreatAncestorsDeeperInALineageAsLeaves() {
+    def hosts = Hierarchy.fromStringListOrMap(yaml.load('''
+sources:
+  - global.yaml
+  - env/%{env}.yaml
+  - team/%{team}.yaml
+  - host/%{host}.yaml
+inventory:
+  env: [prod]
+  team: [a]
+  host:
+    - web:
+        env: prod
+        team: a
+'''))
+    def index = KeyIndex.fromData(hosts, [
+        'global.yaml': ['version': 1],
+        'env/prod.yaml': ['version': 2],
+    ])
+
+    assert hosts.sourceFor('host/web.yaml').get().lineage()*.path() ==
+        ['host/web.yaml', 'team/a.yaml', 'env/prod.yaml', 'global.yaml']
+    assert index.inheritedByLeaves(hosts, 'version', [] as Set) == ['host/web.yaml': 2]
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import io.github.alechenninger.monarch.DataLookupFromMap
+import io.github.alechenninger.monarch.Hierarchy
+import io.github.alechenninger.monarch.Monarch
+import org.junit.Test
+import org.yaml.snakeyaml.Yaml
+
+class MonarchFlattenTest {
+  def m = new Monarch()
+  def yaml = new Yaml()
+
+  def hierarchy = Hierarchy.fromStringListOrMap(yaml.load('''
+sources:
+  - common.yaml
+  - os/%{os}.yaml
+  - team/%{team}.yaml
+  - team/%{team}/%{os}.yaml
+  - host/%{host}.yaml
+inventory:
+  os: [rhel, fedora]
+  team: [a, b]
+  host:
+    foo.com:
+      team: a
+      os: rhel
+    bar.com:
+      team: b
+      os: fedora
+'''))
+
+  def data = [
+      'common.yaml': ['version': 1, 'hosts': ['common'], 'settings': ['a': 1, 'b': 1]],
+      'os/rhel.yaml': ['version': 2, 'hosts': ['rhel']],
+      'team/a.yaml': ['settings': ['b': 2, 'c': 2], 'hosts': ['a']],
+      'team/a/rhel.yaml': ['owner': 'a'],
+      'team/b/fedora.yaml': ['version': null],
+      'host/foo.com.yaml': ['hosts': ['foo'], 'version': 3],
+  ]
+
+  def mergeKeys = ['hosts', 'settings'] as Set
+
+  Map<String, Object> lookupEveryKey(source) {
+    def lookup = new DataLookupFromMap(data, source, mergeKeys)
+    def keys = data.values().collectMany { it.keySet() } as Set
+    return keys.findAll { key -> source.lineage().any { data[it.path()]?.containsKey(key) } }
+        .collectEntries { [it, lookup.lookup(it).orElse(null)] }
+  }
+
+  @Test
+  void shouldFlattenEverySourceLikeLookingUpEachKey() {
+    def flattened = [:]
+    m.flatten(hierarchy, data, mergeKeys) { source, sourceData ->
+      flattened[source.path()] = sourceData
+    }
+
+    assert flattened.keySet().toList() == hierarchy.allSources()*.path()
+    hierarchy.allSources().each { source ->
+      assert flattened[source.path()] == lookupEveryKey(source)
+    }
+  }
+
+  @Test
+  void shouldFlattenOnlyLeaves() {
+    def flattened = [:]
+    m.flattenLeaves(hierarchy, data, mergeKeys) { source, sourceData ->
+      flattened[source.path()] = sourceData
+    }
+
+    assert flattened.keySet() == ['team/a/fedora.yaml', 'team/b/rhel.yaml', 'host/foo.com.yaml',
+                                  'host/bar.com.yaml'] as Set
+    assert flattened['host/foo.com.yaml'] == [
+        'version': 3,
+        'hosts': ['foo', 'a', 'rhel', 'common'] as Set,
+        'settings': ['a': 1, 'b': 1, 'c': 2],
+        'owner': 'a',
+    ]
+    assert flattened['host/bar.com.yaml'] == [
+        'version': null,
+        'hosts': ['common'] as Set,
+        'settings': ['a': 1, 'b': 1],
+    ]
+  }
+}
@@ -17,6 +17,7 @@
  */
 
 import io.github.alechenninger.monarch.Change
+import io.github.alechenninger.monarch.DecisionRecording
 import io.github.alechenninger.monarch.Hierarchy
 import io.github.alechenninger.monarch.Monarch
 import org.junit.Test
@@ -260,4 +261,42 @@ otherapp::version: 5
 
     assert result == expected
   }
+
+  @Test
+  void shouldRecordEachDecisionWhenTraced() {
+    def decisions = new DecisionRecording()
+    m = new Monarch(decisions)
+
+    def changes = '''
+---
+  source: global.yaml
+  set:
+    myapp::version: 2
+  remove:
+    - myapp::old
+'''
+
+    generateFromYaml(hierarchy, changes, 'global.yaml', [
+        'global.yaml': 'myapp::old: true',
+        'myteam.yaml': 'myapp::version: 2',
+        'myteam/stage.yaml': '',
+    ])
+
+    assert decisions.toMaps() == [
+        ['source': 'global.yaml', 'decisions': [
+            ['decision': 'put', 'key': 'myapp::version', 'value': 2, 'change': 'global.yaml'],
+            ['decision': 'removed', 'key': 'myapp::old', 'change': 'global.yaml'],
+        ]],
+        ['source': 'myteam.yaml', 'decisions': [
+            ['decision': 'removed_redundant', 'key': 'myapp::version', 'value': 2,
+             'change': 'global.yaml'],
+            ['decision': 'removed', 'key': 'myapp::old', 'change': 'global.yaml'],
+        ]],
+        ['source': 'myteam/stage.yaml', 'decisions': [
+            ['decision': 'inherited', 'key': 'myapp::version', 'value': 2,
+             'change': 'global.yaml'],
+            ['decision': 'removed', 'key': 'myapp::old', 'change': 'global.yaml'],
+        ]],
+    ]
+  }
 }
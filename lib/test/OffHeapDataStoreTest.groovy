@@ -0,0 +1,107 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import io.github.alechenninger.monarch.Change
+import io.github.alechenninger.monarch.Hierarchy
+import io.github.alechenninger.monarch.Monarch
+import io.github.alechenninger.monarch.OffHeapDataStore
+import org.junit.Test
+import org.yaml.snakeyaml.Yaml
+
+class OffHeapDataStoreTest {
+  def yaml = new Yaml()
+
+  @Test
+  void shouldReadBackDataAsPut() {
+    def data = [
+        'global.yaml': ['a': 1, 'b': 'two', 'c': [1, 2], 'd': ['e': null], 'f': true, 'g': 1.5d],
+        'empty.yaml': [:]
+    ]
+
+    def store = OffHeapDataStore.fromMap(data)
+
+    assert store.toMap() == data
+    assert store.asMap() == data
+    assert store.get('global.yaml', 'c') == [1, 2]
+    assert store.containsKey('global.yaml', 'a')
+    assert !store.containsKey('empty.yaml', 'a')
+    assert !store.containsKey('other.yaml', 'a')
+    assert store.get('other.yaml') == [:]
+  }
+
+  @Test
+  void shouldReplaceDataForSource() {
+    def store = OffHeapDataStore.fromMap(['foo.yaml': ['a': 1, 'b': 2]])
+
+    store.put('foo.yaml', ['b': 3, 'c': 4])
+
+    assert store.get('foo.yaml') == ['b': 3, 'c': 4]
+    assert !store.containsKey('foo.yaml', 'a')
+  }
+
+  @Test
+  void shouldHoldManyCells() {
+    def data = (1..200).collectEntries { source ->
+      ["source${source}.yaml".toString(), (1..50).collectEntries { key ->
+        ["key$key".toString(), "value $source $key".toString()]
+      }]
+    }
+
+    def store = OffHeapDataStore.fromMap(data)
+    store.put('source7.yaml', ['key1': 'replaced'])
+
+    data['source7.yaml'] = ['key1': 'replaced']
+    assert store.toMap() == data
+  }
+
+  @Test
+  void shouldGenerateSameSourcesAsWithMap() {
+    def hierarchy = Hierarchy.fromStringListOrMap(yaml.load('''
+global.yaml:
+  myteam.yaml:
+    - myteam/stage.yaml
+    - myteam/prod.yaml
+'''))
+    def changes = yaml.loadAll('''
+---
+  source: myteam.yaml
+  set:
+    myapp::version: 2
+    myapp::hosts: [b]
+---
+  source: myteam/stage.yaml
+  set:
+    myapp::version: 3
+  remove:
+    - myapp::obsolete
+''').collectMany { Change.fromMap(it as Map) }
+    def data = [
+        'global.yaml': ['myapp::version': 1, 'myapp::hosts': ['a']],
+        'myteam.yaml': [:],
+        'myteam/stage.yaml': ['myapp::version': 2, 'myapp::obsolete': true],
+    ]
+    def mergeKeys = ['myapp::hosts'] as Set
+    def target = hierarchy.sourceFor('myteam.yaml').get()
+
+    def expected = new Monarch().generateSources(target, changes, data, mergeKeys)
+    def store = OffHeapDataStore.fromMap(data)
+    new Monarch().generateSources(target, changes, store, mergeKeys)
+
+    assert store.toMap() == expected
+  }
+}
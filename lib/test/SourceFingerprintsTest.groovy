@@ -0,0 +1,107 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import io.github.alechenninger.monarch.Change
+import io.github.alechenninger.monarch.Hierarchy
+import io.github.alechenninger.monarch.SourceFingerprints
+import org.junit.Test
+import org.yaml.snakeyaml.Yaml
+
+class SourceFingerprintsTest {
+  def yaml = new Yaml()
+  def hierarchy = Hierarchy.fromStringListOrMap(yaml.load('''
+global.yaml:
+  - teams/a.yaml:
+    - teams/a/stage.yaml
+  - teams/b.yaml
+'''))
+
+  def data = [
+      'global.yaml': [foo: 'bar'],
+      'teams/a.yaml': [version: 1],
+      'teams/b.yaml': [version: 1],
+  ]
+
+  def changes = [
+      Change.forPath('teams/a.yaml', [version: 2], []),
+      Change.forPath('teams/a/stage.yaml', [url: 'stage.com'], []),
+  ]
+
+  Map<String, String> fingerprint(List<Change> changes, Map data, Set<String> mergeKeys) {
+    def fingerprints = new SourceFingerprints(changes, data, mergeKeys)
+    return hierarchy.allSources().collectEntries { [it.path(), fingerprints.of(it)] }
+  }
+
+  Map<String, String> fingerprintGenerating(Set<String> generated) {
+    def fingerprints = new SourceFingerprints(changes, data, [] as Set, generated)
+    return hierarchy.allSources().collectEntries { [it.path(), fingerprints.of(it)] }
+  }
+
+  @Test
+  void shouldFingerprintSameInputsTheSame() {
+    assert fingerprint(changes, data, [] as Set) ==
+        fingerprint(changes.collect(), data.collectEntries { k, v -> [k, new HashMap(v)] },
+            [] as Set)
+  }
+
+  @Test
+  void shouldFingerprintEverySourceUniquely() {
+    assert fingerprint(changes, data, [] as Set).values().toSet().size() == 4
+  }
+
+  @Test
+  void shouldOnlyChangeFingerprintsOfSourceWithChangedInputsAndItsDescendants() {
+    def before = fingerprint(changes, data, [] as Set)
+    def after = fingerprint([
+        Change.forPath('teams/a.yaml', [version: 3], []),
+        Change.forPath('teams/a/stage.yaml', [url: 'stage.com'], []),
+    ], data, [] as Set)
+
+    assert before['global.yaml'] == after['global.yaml']
+    assert before['teams/b.yaml'] == after['teams/b.yaml']
+    assert before['teams/a.yaml'] != after['teams/a.yaml']
+    assert before['teams/a/stage.yaml'] != after['teams/a/stage.yaml']
+  }
+
+  @Test
+  void shouldChangeFingerprintsOfDescendantsWhenAncestorDataChanges() {
+    def before = fingerprint(changes, data, [] as Set)
+    def after = fingerprint(changes, data + ['global.yaml': [foo: 'baz']], [] as Set)
+
+    assert before.every { path, fingerprint -> after[path] != fingerprint }
+  }
+
+  @Test
+  void shouldChangeAllFingerprintsWhenMergeKeysChange() {
+    def before = fingerprint(changes, data, [] as Set)
+    def after = fingerprint(changes, data, ['version'] as Set)
+
+    assert before.every { path, fingerprint -> after[path] != fingerprint }
+  }
+
+  @Test
+  void shouldChangeFingerprintsOfDescendantsWhenAncestorIsNotGenerated() {
+    def all = fingerprintGenerating(hierarchy.allSources()*.path() as Set)
+    def targeted = fingerprintGenerating(['teams/a.yaml', 'teams/a/stage.yaml'] as Set)
+
+    assert all == fingerprint(changes, data, [] as Set)
+    assert all['global.yaml'] == targeted['global.yaml']
+    assert all['teams/a.yaml'] != targeted['teams/a.yaml']
+    assert all['teams/a/stage.yaml'] != targeted['teams/a/stage.yaml']
+  }
+}
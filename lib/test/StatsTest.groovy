@@ -0,0 +1,68 @@
+/*
+ * monarch - A tool for managing hierarchical data.
+ * Copyright (C) 2015  Alec Henninger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import io.github.alechenninger.monarch.Stats
+import org.junit.After
+import org.junit.Test
+
+class StatsTest {
+  @After
+  void stopStats() {
+    Stats.stop()
+  }
+
+  @Test
+  void shouldNotCollectUnlessStarted() {
+    Stats.count('foo')
+    Stats.time('bar').close()
+
+    assert !Stats.current().enabled
+    assert Stats.current().counters().isEmpty()
+    assert Stats.current().phases().isEmpty()
+  }
+
+  @Test
+  void shouldAccumulateCountersAndPhasesInOrderFirstSeen() {
+    def stats = Stats.start()
+
+    Stats.count('b')
+    Stats.count('a', 5)
+    Stats.count('b')
+
+    def outer = Stats.time('outer')
+    Stats.time('inner').close()
+    Stats.time('inner').close()
+    outer.close()
+
+    assert stats.counters() == ['b': 2L, 'a': 5L]
+    assert stats.phases()*.name() == ['inner', 'outer']
+    assert stats.phases()*.count() == [2L, 1L]
+    assert stats.phases()[1].wallMillis() >= stats.phases()[0].wallMillis()
+  }
+
+  @Test
+  void shouldKeepCollectedStatsAfterStopped() {
+    def stats = Stats.start()
+    Stats.count('foo')
+    Stats.stop()
+    Stats.count('foo')
+
+    assert stats.counters() == ['foo': 1L]
+    assert stats.toMap() == ['phases': [:], 'counters': ['foo': 1L]]
+  }
+}